@@ -0,0 +1,113 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import in.co.gauravtiwari.voice.server.audio.design.AudioFileModel;
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioException;
+import in.co.gauravtiwari.voice.server.audio.implementation.MP3AudioFile;
+import in.co.gauravtiwari.voice.server.audio.implementation.WavAudioFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Construction of the audio file models, which parse the file and open its decoding stream before a playback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioFileBenchmark {
+
+    @Param({"1", "30"})
+    private int seconds;
+
+    private File wav;
+    private File mp3;
+
+    /**
+     * Writes the voice files
+     *
+     * @throws IOException - when the files cannot be written
+     */
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        wav = File.createTempFile("benchmark", ".wav");
+        Signals.writeWav(wav, seconds);
+        mp3 = File.createTempFile("benchmark", ".mp3");
+        Signals.writeMp3(mp3, seconds);
+    }
+
+    /**
+     * Deletes the voice files
+     */
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        wav.delete();
+        mp3.delete();
+    }
+
+    /**
+     * Creates the model of a wav file
+     *
+     * @return the duration of the file
+     * @throws AudioException - when the file cannot be parsed
+     * @throws IOException    - when the stream cannot be closed
+     */
+    @Benchmark
+    public long wavAudioFile() throws AudioException, IOException {
+        return close(new WavAudioFile(wav));
+    }
+
+    /**
+     * Creates the model of an mp3 file
+     *
+     * @return the duration of the file
+     * @throws AudioException - when the file cannot be parsed
+     * @throws IOException    - when the stream cannot be closed
+     */
+    @Benchmark
+    public long mp3AudioFile() throws AudioException, IOException {
+        return close(new MP3AudioFile(mp3));
+    }
+
+    /**
+     * Closes the stream opened by a model
+     */
+    private static long close(final AudioFileModel audioFile) throws IOException {
+        audioFile.getAudioInputStream().close();
+        return audioFile.getDuration();
+    }
+}
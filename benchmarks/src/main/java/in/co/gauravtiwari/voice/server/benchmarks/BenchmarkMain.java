@@ -0,0 +1,76 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Runs the benchmarks with the usual JMH command line, e.g. -f 1 -wi 3 -i 5 Download, and writes the results
+ * in Json to jmh-result.json so that they can be compared between two builds. Pass -rf and -rff to change it.
+ * The forked benchmark JVMs only log warnings unless -jvmArgsAppend is given.
+ */
+public final class BenchmarkMain {
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+    private static final String QUIET_LOGGING = "-Dlog4j.configuration=log4j-benchmarks.properties";
+
+    /**
+     * Private constructor
+     */
+    private BenchmarkMain() {
+    }
+
+    /**
+     * Main method running the benchmarks.
+     *
+     * @param args - JMH command line options
+     * @throws CommandLineOptionException - when the options are invalid
+     * @throws RunnerException            - when a benchmark fails
+     * @throws IOException                - when the benchmark list cannot be read
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+        if (!commandLine.getJvmArgsAppend().hasValue()) {
+            options.jvmArgsAppend(QUIET_LOGGING);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.RecordingExecutor;
+import in.co.gauravtiwari.voice.server.audio.implementation.SignalStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The capture loop of RecordingExecutor reading 10 seconds of audio from a line that never blocks, with and
+ * without the signal statistics, so the time is the cost of the loop itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureLoopBenchmark {
+    private static final int RECORDING_SECONDS = 10;
+
+    @Param({"9600", "96000"})
+    private int lineBufferBytes;
+
+    @Param({"false", "true"})
+    private boolean statistics;
+
+    private byte[] signal;
+    private long recordingBytes;
+
+    /**
+     * Creates one second of signal, delivered again and again by the line
+     */
+    @Setup(Level.Trial)
+    public void createSignal() {
+        int bytesPerSecond = (int) Signals.CAPTURE_FORMAT.getFrameRate() * Signals.CAPTURE_FORMAT.getFrameSize();
+        signal = Signals.tone(bytesPerSecond);
+        recordingBytes = (long) RECORDING_SECONDS * bytesPerSecond;
+    }
+
+    /**
+     * Runs the capture loop until the line reports STOP
+     *
+     * @return the size of the recording
+     */
+    @Benchmark
+    public int captureLoop() {
+        SyntheticTargetDataLine line = new SyntheticTargetDataLine(Signals.CAPTURE_FORMAT, signal, lineBufferBytes,
+                recordingBytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) recordingBytes);
+        RecordingExecutor executor = new RecordingExecutor(line, out,
+                statistics ? new SignalStatistics(Signals.CAPTURE_FORMAT) : null);
+        line.addLineListener(executor);
+        executor.run();
+        return out.size();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import in.co.gauravtiwari.voice.server.voice.serverresources.DownloadVoiceFileException;
+import in.co.gauravtiwari.voice.server.voice.serverresources.VoiceAutomationServerUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Downloads of a wav voice file from a stub HTTP server on the loopback interface, so that the time is spent in
+ * downloadVoiceFile and not on the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    private int fileBytes;
+
+    private HttpServer server;
+    private String url;
+
+    /**
+     * Starts the stub server serving the voice file
+     *
+     * @throws IOException - when the stub cannot be started
+     */
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        File wav = File.createTempFile("benchmark", ".wav");
+        Signals.writeWav(wav, fileBytes / (double) (Signals.CAPTURE_FORMAT.getFrameRate() * Signals.CAPTURE_FORMAT.getFrameSize()));
+        byte[] body = Files.readAllBytes(wav.toPath());
+        Files.delete(wav.toPath());
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/voice.wav", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/voice.wav";
+    }
+
+    /**
+     * Stops the stub server
+     */
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Downloads the voice file and deletes it
+     *
+     * @return the name of the downloaded file
+     * @throws DownloadVoiceFileException - when the download fails
+     */
+    @Benchmark
+    public String downloadVoiceFile() throws DownloadVoiceFileException {
+        String fileName = VoiceAutomationServerUtils.downloadVoiceFile(url);
+        if (!VoiceAutomationServerUtils.getVoiceFile(fileName).delete()) {
+            throw new IllegalStateException("Unable to delete " + fileName);
+        }
+        return fileName;
+    }
+}
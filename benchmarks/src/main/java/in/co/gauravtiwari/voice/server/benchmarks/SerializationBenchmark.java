@@ -0,0 +1,108 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessageStatus;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Json serialization of a recording response, the audio is base64 encoded by Jackson as in the API responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({"96000", "960000", "9600000"})
+    private int audioBytes;
+
+    private VoiceAutomationMessage vam;
+
+    /**
+     * Creates the response message
+     */
+    @Setup(Level.Trial)
+    public void createMessage() {
+        vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Recorded");
+        vam.setAudioData(Signals.tone(audioBytes));
+        vam.setPayloadBytes((long) audioBytes);
+    }
+
+    /**
+     * Serializes the message to a stream that counts the bytes, like the response stream of the container
+     *
+     * @return the length of the Json
+     * @throws IOException - when the message cannot be serialized
+     */
+    @Benchmark
+    public long serializeToStream() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        MAPPER.writeValue(out, vam);
+        return out.count;
+    }
+
+    /**
+     * Serializes the message to a byte array
+     *
+     * @return the Json
+     * @throws IOException - when the message cannot be serialized
+     */
+    @Benchmark
+    public byte[] serializeToBytes() throws IOException {
+        return MAPPER.writeValueAsBytes(vam);
+    }
+
+    /**
+     * Discards what is written, keeping its length
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+}
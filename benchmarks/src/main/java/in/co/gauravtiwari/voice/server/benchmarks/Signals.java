@@ -0,0 +1,121 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Synthetic audio for the benchmarks.
+ */
+final class Signals {
+    static final AudioFormat CAPTURE_FORMAT = new AudioFormat(48000, 16, 1, true, true);
+    static final AudioFormat PROMPT_FORMAT = new AudioFormat(8000, 16, 1, true, true);
+
+    // MPEG-1 layer III, 128 kbit/s, 44.1 kHz, mono, without CRC nor padding
+    private static final byte[] MP3_FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0xC4};
+    private static final int MP3_FRAME_LENGTH = 144 * 128000 / 44100;
+    private static final double MP3_FRAME_SECONDS = 1152 / 44100.0;
+    private static final double TONE_FREQUENCY = 440;
+
+    /**
+     * Private constructor
+     */
+    private Signals() {
+    }
+
+    /**
+     * Creates a sine tone in the capture format
+     *
+     * @param bytes - length of the audio in bytes
+     * @return the audio frames
+     */
+    static byte[] tone(final int bytes) {
+        return tone(bytes, CAPTURE_FORMAT);
+    }
+
+    /**
+     * Creates a sine tone in a signed 16 bit big endian mono format
+     *
+     * @param bytes  - length of the audio in bytes
+     * @param format - the format of the audio
+     * @return the audio frames
+     */
+    static byte[] tone(final int bytes, final AudioFormat format) {
+        byte[] data = new byte[bytes - bytes % 2];
+        for (int i = 0; i < data.length / 2; i++) {
+            short sample = (short) (Short.MAX_VALUE / 2
+                    * Math.sin(2 * Math.PI * TONE_FREQUENCY * i / format.getSampleRate()));
+            data[2 * i] = (byte) (sample >> 8);
+            data[2 * i + 1] = (byte) sample;
+        }
+        return data;
+    }
+
+    /**
+     * Writes a wav file of a sine tone
+     *
+     * @param file    - the file to write
+     * @param seconds - length of the audio
+     * @throws IOException - when the file cannot be written
+     */
+    static void writeWav(final File file, final double seconds) throws IOException {
+        writeWav(file, seconds, CAPTURE_FORMAT);
+    }
+
+    /**
+     * Writes a wav file of a sine tone in a signed 16 bit big endian mono format
+     *
+     * @param file    - the file to write
+     * @param seconds - length of the audio
+     * @param format  - the format of the audio
+     * @throws IOException - when the file cannot be written
+     */
+    static void writeWav(final File file, final double seconds, final AudioFormat format) throws IOException {
+        byte[] data = tone((int) (seconds * format.getSampleRate()) * format.getFrameSize(), format);
+        AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(data), format,
+                data.length / format.getFrameSize());
+        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+    }
+
+    /**
+     * Writes an mp3 file of silent frames, which decoders accept without an encoder being needed to create them
+     *
+     * @param file    - the file to write
+     * @param seconds - length of the audio
+     * @throws IOException - when the file cannot be written
+     */
+    static void writeMp3(final File file, final double seconds) throws IOException {
+        byte[] frame = new byte[MP3_FRAME_LENGTH];
+        System.arraycopy(MP3_FRAME_HEADER, 0, frame, 0, MP3_FRAME_HEADER.length);
+        int frames = (int) Math.ceil(seconds / MP3_FRAME_SECONDS);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < frames; i++) {
+                out.write(frame);
+            }
+        }
+    }
+}
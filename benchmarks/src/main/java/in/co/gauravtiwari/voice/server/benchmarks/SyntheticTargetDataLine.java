@@ -0,0 +1,209 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.TargetDataLine;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A capture line that delivers a fixed amount of a recorded signal as fast as it is read, then reports STOP like a
+ * real line being stopped. Reads never block, so a capture loop reading from it is measured without the device.
+ */
+final class SyntheticTargetDataLine implements TargetDataLine {
+    private final AudioFormat format;
+    private final byte[] signal;
+    private final int bufferSize;
+    private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+    private long remaining;
+    private long position;
+    private boolean open;
+    private boolean running;
+
+    /**
+     * Constructor for SyntheticTargetDataLine
+     *
+     * @param format     - format of the signal
+     * @param signal     - the signal, delivered again and again
+     * @param bufferSize - the buffer size reported by the line
+     * @param length     - number of bytes delivered before STOP
+     */
+    SyntheticTargetDataLine(final AudioFormat format, final byte[] signal, final int bufferSize, final long length) {
+        this.format = format;
+        this.signal = signal;
+        this.bufferSize = bufferSize;
+        this.remaining = length;
+        this.open = true;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        int length = (int) Math.min(len - len % format.getFrameSize(), remaining);
+        int copied = 0;
+        while (copied < length) {
+            int from = (int) ((position + copied) % signal.length);
+            int chunk = Math.min(length - copied, signal.length - from);
+            System.arraycopy(signal, from, b, off + copied, chunk);
+            copied += chunk;
+        }
+        position += length;
+        remaining -= length;
+        if (remaining == 0 && running) {
+            stop();
+        }
+        return length;
+    }
+
+    @Override
+    public void open(final AudioFormat audioFormat, final int size) {
+        open = true;
+    }
+
+    @Override
+    public void open(final AudioFormat audioFormat) {
+        open = true;
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        notify(LineEvent.Type.CLOSE);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        notify(LineEvent.Type.START);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        notify(LineEvent.Type.STOP);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(bufferSize, remaining);
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return position / format.getFrameSize();
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1000000.0 / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return new DataLine.Info(TargetDataLine.class, format, bufferSize);
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(final Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(final Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(final LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLineListener(final LineListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reports a line event to the listeners
+     */
+    private void notify(final LineEvent.Type type) {
+        LineEvent event = new LineEvent(this, type, getLongFramePosition());
+        for (LineListener listener : listeners) {
+            listener.update(event);
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioException;
+import in.co.gauravtiwari.voice.server.audio.implementation.DecodedAudioCache;
+import in.co.gauravtiwari.voice.server.voice.server.ExecutionPool;
+import in.co.gauravtiwari.voice.server.voice.server.ExecutionPools;
+import in.co.gauravtiwari.voice.server.voice.server.VirtualThreads;
+import in.co.gauravtiwari.voice.server.voice.server.VoiceAutomationServer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Compares the server on platform and on virtual threads: how many calls it keeps in flight and how much heap and
+ * resident memory each of them takes. Every run is a server on virtual audio in a JVM of its own, started with the
+ * options of this one, to which the run sends all its calls at once from a single thread:
+ * <p>
+ * java -cp benchmarks.jar in.co.gauravtiwari.voice.server.benchmarks.ThreadModeBenchmark [operations] [report.json]
+ * <p>
+ * A calibrate call holds its device thread for about a second, a play is suspended and holds no thread until its
+ * clip ends. Each is run with the 4 platform threads of the device pool, with a platform thread per operation and on
+ * virtual threads. Virtual threads need Java 21 or later, on older runtimes that run keeps platform threads and is
+ * reported with them.
+ */
+public final class ThreadModeBenchmark {
+    private static final String RUN = "run";
+    private static final String RESULT_PREFIX = "RESULT ";
+    private static final String QUIET_LOGGING = "-Dlog4j.configuration=log4j-benchmarks.properties";
+    private static final List<String> CALLS = Arrays.asList("calibrate", "play");
+    private static final int DEFAULT_OPERATIONS = 1000;
+    private static final double PROMPT_SECONDS = 10;
+    private static final long READY_TIMEOUT_MILLIS = 60000;
+    private static final long CALL_TIMEOUT_MILLIS = 120000;
+    private static final long SAMPLE_MILLIS = 10;
+    // a snapshot collects the garbage, so they are taken at most this often while the calls are in flight
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 200;
+    private static final int BYTES_PER_KILOBYTE = 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The thread configurations of the device pool that are compared
+     */
+    private enum ThreadMode {
+        PLATFORM("platform"), PLATFORM_PER_OPERATION("per-call"), VIRTUAL("virtual");
+
+        private final String label;
+
+        ThreadMode(final String label) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the system properties of the server for this configuration
+         *
+         * @param operations - the number of calls sent at once
+         * @return the JVM options
+         */
+        private List<String> getOptions(final int operations) {
+            switch (this) {
+                case PLATFORM_PER_OPERATION:
+                    return Arrays.asList("-DvirtualThreads=false", "-DdevicePoolSize=" + operations);
+                case VIRTUAL:
+                    return Collections.singletonList("-DvirtualThreads=true");
+                default:
+                    return Collections.singletonList("-DvirtualThreads=false");
+            }
+        }
+    }
+
+    /**
+     * Private constructor
+     */
+    private ThreadModeBenchmark() {
+    }
+
+    /**
+     * Main method running every call in every thread configuration and printing the results
+     *
+     * @param args - the number of calls sent at once, and optionally the file to write the Json results to
+     * @throws IOException          - when a run cannot be started or the results cannot be written
+     * @throws InterruptedException - when interrupted while waiting for a run
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && RUN.equals(args[0])) {
+            run(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OPERATIONS;
+        System.out.println(String.format("%-10s %-9s %-8s %7s %10s %9s %7s %9s %8s %9s %11s %10s %8s", "call", "mode",
+                "threads", "device", "operations", "succeeded", "failed", "in flight", "running", "platform",
+                "heap KB/op", "RSS KB/op", "seconds"));
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String call : CALLS) {
+            for (ThreadMode mode : ThreadMode.values()) {
+                Map<String, Object> result = fork(call, mode, operations);
+                if (result != null) {
+                    result.put("mode", mode.label);
+                    System.out.println(toLine(result));
+                    results.add(result);
+                }
+            }
+        }
+        if (args.length > 1) {
+            MAPPER.configure(SerializationConfig.Feature.INDENT_OUTPUT, true);
+            MAPPER.writeValue(new File(args[1]), results);
+        }
+    }
+
+    /**
+     * Runs the calls against a server in a new JVM and reads back its result
+     *
+     * @param call       - the call to send
+     * @param mode       - the thread configuration of the server
+     * @param operations - the number of calls sent at once
+     * @return the result, null when the run failed, its output is then printed
+     * @throws IOException          - when the JVM cannot be started
+     * @throws InterruptedException - when interrupted while waiting for the JVM
+     */
+    private static Map<String, Object> fork(final String call, final ThreadMode mode, final int operations)
+            throws IOException, InterruptedException {
+        int port = findFreePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add(QUIET_LOGGING);
+        command.add("-DvirtualAudio=true");
+        // calibrate needs a signal in the recording to succeed, the virtual mixers have no loopback
+        command.add("-DvirtualAudioInput=noise");
+        command.add("-DVoiceAutomationServerPort=" + port);
+        command.add("-DdeviceMaxOperations=" + operations);
+        command.addAll(mode.getOptions(operations));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ThreadModeBenchmark.class.getName());
+        command.addAll(Arrays.asList(RUN, call, String.valueOf(operations), String.valueOf(port)));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        Map<String, Object> result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> parsed = MAPPER.readValue(line.substring(RESULT_PREFIX.length()), Map.class);
+                    result = parsed;
+                } else {
+                    output.append(line).append(System.lineSeparator());
+                }
+            }
+        }
+        process.waitFor();
+        if (result == null) {
+            System.err.println("The " + call + " run on " + mode + " failed:" + System.lineSeparator() + output);
+        }
+        return result;
+    }
+
+    /**
+     * Formats a result as a line of the table
+     *
+     * @param result - the result of a run
+     * @return the line
+     */
+    private static String toLine(final Map<String, Object> result) {
+        return String.format("%-10s %-9s %-8s %7d %10d %9d %7d %9d %8d %9d %11s %10s %8.1f", result.get("call"),
+                result.get("mode"), result.get("threads"), toLong(result, "deviceThreads"),
+                toLong(result, "operations"), toLong(result, "succeeded"), toLong(result, "failed"),
+                toLong(result, "peakInFlight"), toLong(result, "peakRunning"), toLong(result, "platformThreads"),
+                toKilobytes(toLong(result, "heapBytesPerOperation")),
+                toKilobytes(toLong(result, "residentBytesPerOperation")),
+                ((Number) result.get("seconds")).doubleValue());
+    }
+
+    /**
+     * Reads a number of a result
+     */
+    private static long toLong(final Map<String, Object> result, final String name) {
+        return ((Number) result.get(name)).longValue();
+    }
+
+    /**
+     * Formats a number of bytes in kilobytes, n/a when it is not known
+     */
+    private static String toKilobytes(final long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%.1f", bytes / (double) BYTES_PER_KILOBYTE);
+    }
+
+    /**
+     * Finds a port no other server listens on
+     */
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Starts the server in this JVM, sends it the calls all at once and prints the result for the parent JVM
+     *
+     * @param call       - the call to send
+     * @param operations - the number of calls sent at once
+     * @param port       - the port the server listens on
+     * @throws IOException          - when the server or the calls fail
+     * @throws InterruptedException - when interrupted while waiting for the server
+     */
+    private static void run(final String call, final int operations, final int port)
+            throws IOException, InterruptedException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("mixerNumber", "0");
+        String path;
+        if ("play".equals(call)) {
+            File prompt = File.createTempFile("prompt", ".wav");
+            prompt.deleteOnExit();
+            Signals.writeWav(prompt, PROMPT_SECONDS, Signals.PROMPT_FORMAT);
+            try {
+                DecodedAudioCache.put(prompt);
+            } catch (AudioException e) {
+                throw new IOException("Unable to decode the prompt", e);
+            }
+            body.put("voiceFilePath", prompt.getAbsolutePath());
+            path = "play";
+        } else {
+            body.put("recordMixerNumber", "0");
+            path = "playrecord/calibrate";
+        }
+        byte[] json = MAPPER.writeValueAsBytes(body);
+
+        new VoiceAutomationServer().startServer();
+        awaitReady(port);
+        // the first call loads the classes and opens the lines once
+        send(port, path, json);
+
+        ExecutionPool pool = ExecutionPools.DEVICE;
+        Snapshot base = Snapshot.take(0);
+        Sampler sampler = new Sampler(pool);
+        long start = System.nanoTime();
+        int succeeded = sendAtOnce(port, path, json, operations, sampler);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Snapshot peak = sampler.snapshot != null ? sampler.snapshot : base;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("call", call);
+        result.put("threads", VirtualThreads.isEnabled() ? "virtual" : "platform");
+        result.put("deviceThreads", pool.getMaxThreads());
+        result.put("operations", operations);
+        result.put("succeeded", succeeded);
+        result.put("failed", operations - succeeded);
+        result.put("peakInFlight", sampler.peakOperations);
+        result.put("peakRunning", sampler.peakThreads);
+        result.put("platformThreads", peak.platformThreads);
+        result.put("heapBytesPerOperation", peak.getPerOperation(peak.heapBytes, base.heapBytes));
+        result.put("residentBytesPerOperation", peak.getPerOperation(peak.residentBytes, base.residentBytes));
+        result.put("seconds", seconds);
+        System.out.println(RESULT_PREFIX + MAPPER.writeValueAsString(result));
+        System.exit(0);
+    }
+
+    /**
+     * Waits until the server answers GET /ready with 200
+     */
+    private static void awaitReady(final int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/ready")
+                        .openConnection();
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            TimeUnit.MILLISECONDS.sleep(SAMPLE_MILLIS * SAMPLE_MILLIS);
+        }
+        throw new IOException("The server was not ready after " + READY_TIMEOUT_MILLIS + " ms");
+    }
+
+    /**
+     * Sends a call and waits for its answer
+     */
+    private static void send(final int port, final String path, final byte[] json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/" + path)
+                .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(json);
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException(path + " answered " + connection.getResponseCode());
+        }
+        connection.getInputStream().close();
+    }
+
+    /**
+     * Sends the same call on as many connections at once and waits for all the answers, sampling the pool meanwhile.
+     * The connections are driven by a selector on this thread, so the client adds no thread to the measurements.
+     *
+     * @return the number of calls answered with SUCCESS
+     */
+    private static int sendAtOnce(final int port, final String path, final byte[] json, final int operations,
+                                  final Sampler sampler) throws IOException {
+        byte[] request = ("POST /" + path + " HTTP/1.1\r\nHost: localhost:" + port
+                + "\r\nContent-Type: application/json\r\nContent-Length: " + json.length
+                + "\r\nConnection: close\r\n\r\n" + new String(json, StandardCharsets.UTF_8))
+                .getBytes(StandardCharsets.UTF_8);
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+        int pending = operations;
+        int succeeded = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < operations; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                int interest = channel.connect(address) ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+                channel.register(selector, interest, new Exchange(request));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CALL_TIMEOUT_MILLIS);
+            while (pending > 0 && System.nanoTime() < deadline) {
+                selector.select(SAMPLE_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Exchange exchange = (Exchange) key.attachment();
+                    boolean done;
+                    try {
+                        done = exchange.handle(key, buffer);
+                    } catch (IOException e) {
+                        done = true;
+                    }
+                    if (done) {
+                        key.channel().close();
+                        pending--;
+                        if (exchange.isSuccess()) {
+                            succeeded++;
+                        }
+                    }
+                }
+                sampler.sample();
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * A call on a connection of its own
+     */
+    private static final class Exchange {
+        private final ByteBuffer request;
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        private Exchange(final byte[] request) {
+            this.request = ByteBuffer.wrap(request);
+        }
+
+        /**
+         * Connects, writes the request and reads the response as the channel allows
+         *
+         * @return true once the server has closed the connection
+         */
+        private boolean handle(final SelectionKey key, final ByteBuffer buffer) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            if (key.isConnectable() && channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (key.isWritable()) {
+                channel.write(request);
+                if (!request.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    return true;
+                }
+                response.write(buffer.array(), 0, read);
+            }
+            return false;
+        }
+
+        /**
+         * Checks the response was a 200 with a SUCCESS message
+         */
+        private boolean isSuccess() {
+            String text = new String(response.toByteArray(), StandardCharsets.UTF_8);
+            return text.startsWith("HTTP/1.1 200") && text.contains("\"status\":\"SUCCESS\"");
+        }
+    }
+
+    /**
+     * Follows the operations in flight of a pool and snapshots the memory when they reach a new peak
+     */
+    private static final class Sampler {
+        private final ExecutionPool pool;
+        private int peakOperations;
+        private int peakThreads;
+        private Snapshot snapshot;
+        private long lastSnapshotNanos;
+
+        private Sampler(final ExecutionPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Reads the operations and busy threads of the pool
+         */
+        private void sample() {
+            int operations = pool.getOperations();
+            peakOperations = Math.max(peakOperations, operations);
+            peakThreads = Math.max(peakThreads, pool.getActiveThreads());
+            long now = System.nanoTime();
+            if ((snapshot == null || operations > snapshot.operations)
+                    && now - lastSnapshotNanos >= TimeUnit.MILLISECONDS.toNanos(SNAPSHOT_INTERVAL_MILLIS)) {
+                snapshot = Snapshot.take(operations);
+                lastSnapshotNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * The memory and the platform threads of this JVM with a number of operations in flight
+     */
+    private static final class Snapshot {
+        private final int operations;
+        private final long heapBytes;
+        private final long residentBytes;
+        private final int platformThreads;
+
+        private Snapshot(final int operations, final long heapBytes, final long residentBytes,
+                         final int platformThreads) {
+            this.operations = operations;
+            this.heapBytes = heapBytes;
+            this.residentBytes = residentBytes;
+            this.platformThreads = platformThreads;
+        }
+
+        /**
+         * Collects the garbage and measures the heap still used, the resident memory and the platform threads,
+         * virtual threads are not counted by the ThreadMXBean
+         *
+         * @param operations - the operations in flight
+         * @return the snapshot
+         */
+        private static Snapshot take(final int operations) {
+            System.gc();
+            return new Snapshot(operations, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                    readResidentBytes(), ManagementFactory.getThreadMXBean().getThreadCount());
+        }
+
+        /**
+         * Returns how much a measurement grew per operation in flight since the base snapshot
+         *
+         * @param value     - the measurement of this snapshot
+         * @param baseValue - the measurement of the base snapshot
+         * @return the growth per operation, -1 when it is not known
+         */
+        private long getPerOperation(final long value, final long baseValue) {
+            if (operations == 0 || value < 0 || baseValue < 0) {
+                return -1;
+            }
+            return (value - baseValue) / operations;
+        }
+
+        /**
+         * Reads the resident memory of this process from /proc, -1 when it is not available
+         */
+        private static long readResidentBytes() {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * BYTES_PER_KILOBYTE;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                return -1;
+            }
+            return -1;
+        }
+    }
+}
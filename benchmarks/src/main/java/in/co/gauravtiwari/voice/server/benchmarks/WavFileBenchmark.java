@@ -0,0 +1,101 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.benchmarks;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioException;
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioRecorder;
+import in.co.gauravtiwari.voice.server.audio.implementation.WavWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Writing recordings as wav files. WavWriter writes the header in front of the frames, it replaced addWavHeader,
+ * and generateFile is the entry point the API uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WavFileBenchmark {
+
+    @Param({"96000", "9600000"})
+    private int recordingBytes;
+
+    private byte[] recording;
+    private File output;
+
+    /**
+     * Creates the recording
+     *
+     * @throws IOException - when the output file cannot be created
+     */
+    @Setup(Level.Trial)
+    public void createRecording() throws IOException {
+        recording = Signals.tone(recordingBytes);
+        output = File.createTempFile("benchmark", ".wav");
+    }
+
+    /**
+     * Deletes the output file
+     */
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        output.delete();
+    }
+
+    /**
+     * Writes the header and the frames
+     *
+     * @return the length of the file
+     * @throws IOException - when the file cannot be written
+     */
+    @Benchmark
+    public long wavWriter() throws IOException {
+        WavWriter.write(recording, Signals.CAPTURE_FORMAT, output);
+        return output.length();
+    }
+
+    /**
+     * Writes the recording through the API entry point
+     *
+     * @return the length of the file
+     */
+    @Benchmark
+    public long generateFile() throws AudioException {
+        AudioRecorder.generateFile(recording, Signals.CAPTURE_FORMAT, output);
+        return output.length();
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.design;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * An interface to describe an encoder that sits on the capture path and encodes the PCM frames written to it
+ * as they are captured.
+ */
+public interface AudioEncoderModel {
+    /**
+     * Getter for the format of the encoded audio
+     *
+     * @return AudioFormat object that describes the encoded audio
+     */
+    AudioFormat getEncodedFormat();
+
+    /**
+     * Getter for the number of encoded bytes produced so far
+     *
+     * @return the encoded payload size in bytes
+     */
+    long getEncodedBytes();
+
+    /**
+     * Getter for the number of frames in the encoded audio, in the frame rate of the source audio
+     *
+     * @return the number of encoded sample frames
+     */
+    long getEncodedFrames();
+
+    /**
+     * Getter for the time spent encoding so far
+     *
+     * @return the encoding time in nanoseconds
+     */
+    long getEncodeNanos();
+
+    /**
+     * Encodes whatever is still buffered. No more audio can be written afterwards.
+     *
+     * @throws IOException if the encoded audio cannot be written
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,459 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Compares a recording with a reference voice file. Both are brought down to -DcompareSampleRate (defaults to 8000,
+ * or the rate of the recording when it is lower) and the reference is slid over every channel of the recording with
+ * an FFT cross-correlation, overlap-save in segments of about twice the reference. The segments of all the channels
+ * are correlated in parallel on a fork/join pool of -DcompareParallelism threads.
+ * <p>
+ * The spectra of the last -DcompareCacheSize references (defaults to 16) are kept, so comparing against a prompt
+ * again only transforms the recording.
+ */
+public final class AudioComparator {
+    private static final float SAMPLE_RATE = Math.max(1, Integer.getInteger("compareSampleRate", 8000));
+    private static final int CACHE_SIZE = Math.max(0, Integer.getInteger("compareCacheSize", 16));
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1,
+            Integer.getInteger("compareParallelism", Runtime.getRuntime().availableProcessors())));
+    private static final int MIN_TRANSFORM_SIZE = 4096;
+    private static final int READ_SIZE = 64 * 1024;
+    private static final double FULL_SCALE = 32768.0;
+    // mean square of a window below which it counts as silent, about -100 dBFS
+    private static final double MIN_MEAN_SQUARE = 1e-10;
+    private static final double MAX_SNR_DB = 120;
+    private static final Map<String, Spectrum> SPECTRA = new LinkedHashMap<String, Spectrum>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Spectrum> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Private constructor
+     */
+    private AudioComparator() {
+    }
+
+    /**
+     * Checks whether audio of a format can be compared
+     *
+     * @param format - the format of the audio
+     * @return true for linear PCM that converts to 16 bit samples
+     */
+    public static boolean isSupported(final AudioFormat format) {
+        return AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) && format.getSampleSizeInBits() == 16
+                || AudioSystem.isConversionSupported(getPcm16Format(format), format);
+    }
+
+    /**
+     * Compares recorded audio with a reference voice file
+     *
+     * @param audio     - the recorded audio
+     * @param format    - its format, linear PCM
+     * @param reference - the reference voice file
+     * @return where the reference is in the recording and how alike they are
+     * @throws AudioException - when either cannot be decoded, or the recording is shorter than the reference
+     */
+    public static ComparisonResult compare(final byte[] audio, final AudioFormat format, final File reference)
+            throws AudioException {
+        return compare(new AudioInputStream(new ByteArrayInputStream(audio), format,
+                audio.length / Math.max(1, format.getFrameSize())), reference);
+    }
+
+    /**
+     * Compares recorded audio with a reference voice file. The audio of a stopped RecordingSession is read from its
+     * buffer, without copying it first.
+     *
+     * @param audio     - the recorded audio, as returned by RecordingSession.stop()
+     * @param format    - its format, linear PCM
+     * @param reference - the reference voice file
+     * @return where the reference is in the recording and how alike they are
+     * @throws AudioException - when either cannot be decoded, or the recording is shorter than the reference
+     */
+    public static ComparisonResult compare(final ByteArrayOutputStream audio, final AudioFormat format,
+                                           final File reference) throws AudioException {
+        if (!(audio instanceof RecordingBuffer)) {
+            return compare(audio.toByteArray(), format, reference);
+        }
+        return compare(new AudioInputStream(((RecordingBuffer) audio).toInputStream(), format,
+                audio.size() / Math.max(1, format.getFrameSize())), reference);
+    }
+
+    /**
+     * Compares a recorded voice file with a reference voice file
+     *
+     * @param recording - the recorded voice file
+     * @param reference - the reference voice file
+     * @return where the reference is in the recording and how alike they are
+     * @throws AudioException - when either cannot be decoded, or the recording is shorter than the reference
+     */
+    public static ComparisonResult compare(final File recording, final File reference) throws AudioException {
+        try (AudioInputStream stream = AudioUtility.getAudioFile(recording).getAudioInputStream()) {
+            return compare(stream, reference);
+        } catch (IOException e) {
+            throw new AudioException("Failed to read the recording", e);
+        }
+    }
+
+    /**
+     * Compares a recording with a reference voice file
+     */
+    private static ComparisonResult compare(final AudioInputStream recording, final File reference)
+            throws AudioException {
+        long start = System.nanoTime();
+        float frameRate = recording.getFormat().getFrameRate();
+        float rate = Math.min(SAMPLE_RATE, frameRate);
+        Spectrum spectrum = getSpectrum(reference, rate);
+        float[][] channels = read(recording, rate, false);
+        int lags = channels[0].length - spectrum.length + 1;
+        if (lags <= 0) {
+            throw new AudioException("The recording is shorter than the reference");
+        }
+        int segments = (lags + spectrum.getLagsPerSegment() - 1) / spectrum.getLagsPerSegment();
+        List<CorrelationTask> tasks = new ArrayList<>();
+        double[][] similarities = new double[channels.length][];
+        for (int channel = 0; channel < channels.length; channel++) {
+            similarities[channel] = new double[lags];
+            tasks.add(new CorrelationTask(channels[channel], getPrefixSums(channels[channel]), spectrum,
+                    similarities[channel], 0, segments));
+        }
+        tasks.forEach(POOL::execute);
+        tasks.forEach(CorrelationTask::join);
+        int bestChannel = 0;
+        int bestLag = 0;
+        for (int channel = 0; channel < channels.length; channel++) {
+            int lag = getPeak(similarities[channel]);
+            if (similarities[channel][lag] > similarities[bestChannel][bestLag]) {
+                bestChannel = channel;
+                bestLag = lag;
+            }
+        }
+        double[] similarity = similarities[bestChannel];
+        double lag = bestLag + getPeakOffset(similarity, bestLag);
+        double lagFrames = lag * frameRate / rate;
+        double rho = Math.max(-1, Math.min(1, similarity[bestLag]));
+        AudioMetrics.COMPARE.recordSince(start);
+        return new ComparisonResult(Math.round(lagFrames), lagFrames * 1000 / frameRate, rho, getSnrDb(rho), bestChannel);
+    }
+
+    /**
+     * Returns the spectrum of a reference voice file at an analysis rate, from the cache when it is there
+     */
+    private static Spectrum getSpectrum(final File reference, final float rate) throws AudioException {
+        String key = reference.getAbsolutePath() + '|' + reference.lastModified() + '|' + reference.length() + '|' + rate;
+        Spectrum spectrum;
+        synchronized (SPECTRA) {
+            spectrum = SPECTRA.get(key);
+        }
+        if (spectrum != null) {
+            AudioMetrics.SPECTRUM_CACHE_HITS.inc();
+            return spectrum;
+        }
+        AudioMetrics.SPECTRUM_CACHE_MISSES.inc();
+        DecodedAudioCache.DecodedAudio decoded = DecodedAudioCache.get(reference);
+        try (AudioInputStream stream = decoded != null ? decoded.newStream()
+                : AudioUtility.getAudioFile(reference).getAudioInputStream()) {
+            spectrum = new Spectrum(read(stream, rate, true)[0]);
+        } catch (IOException e) {
+            throw new AudioException("Failed to read the reference", e);
+        }
+        synchronized (SPECTRA) {
+            SPECTRA.put(key, spectrum);
+        }
+        return spectrum;
+    }
+
+    /**
+     * Reads a stream to its end, as samples between -1 and 1 at the analysis rate. Each analysis sample is the mean
+     * of the frames falling into it, a frame is held over the analysis samples between two frames when the stream
+     * has the lower rate.
+     *
+     * @param stream - the stream, linear PCM
+     * @param rate   - the analysis rate
+     * @param mono   - true to mix the channels down to one
+     * @return the samples of each channel
+     * @throws AudioException - when the stream is not linear PCM or cannot be read
+     */
+    private static float[][] read(final AudioInputStream stream, final float rate, final boolean mono)
+            throws AudioException {
+        AudioInputStream pcm = toPcm16(stream);
+        AudioFormat format = pcm.getFormat();
+        int channels = format.getChannels();
+        int frameSize = format.getFrameSize();
+        boolean bigEndian = format.isBigEndian();
+        double ratio = rate / format.getFrameRate();
+        int outputs = mono ? 1 : channels;
+        double[] sums = new double[outputs];
+        float[][] samples = new float[outputs][READ_SIZE];
+        int size = 0;
+        long bucket = 0;
+        int count = 0;
+        long frame = 0;
+        byte[] buffer = new byte[READ_SIZE - READ_SIZE % frameSize];
+        try {
+            int length;
+            while ((length = pcm.read(buffer)) != -1) {
+                for (int offset = 0; offset + frameSize <= length; offset += frameSize, frame++) {
+                    long frameBucket = (long) (frame * ratio);
+                    while (bucket < frameBucket) {
+                        if (size == samples[0].length) {
+                            for (int output = 0; output < outputs; output++) {
+                                samples[output] = Arrays.copyOf(samples[output], size * 2);
+                            }
+                        }
+                        for (int output = 0; output < outputs; output++) {
+                            samples[output][size] = (float) (sums[output] / Math.max(1, count));
+                        }
+                        size++;
+                        bucket++;
+                        if (bucket == frameBucket) {
+                            Arrays.fill(sums, 0);
+                            count = 0;
+                        }
+                    }
+                    for (int channel = 0; channel < channels; channel++) {
+                        double sample = AudioUtility.getSample(buffer, offset + channel * 2, bigEndian) / FULL_SCALE;
+                        sums[mono ? 0 : channel] += mono ? sample / channels : sample;
+                    }
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            throw new AudioException("Failed to decode audio for comparison", e);
+        }
+        float[][] result = new float[outputs][];
+        for (int output = 0; output < outputs; output++) {
+            result[output] = Arrays.copyOf(samples[output], size + (count > 0 ? 1 : 0));
+            if (count > 0) {
+                result[output][size] = (float) (sums[output] / count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts a stream of linear PCM to signed 16 bit samples
+     */
+    private static AudioInputStream toPcm16(final AudioInputStream stream) throws AudioException {
+        AudioFormat format = stream.getFormat();
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) && format.getSampleSizeInBits() == 16) {
+            return stream;
+        }
+        if (!isSupported(format)) {
+            throw new AudioException("Audio in " + format + " cannot be compared, it must be linear PCM");
+        }
+        return AudioSystem.getAudioInputStream(getPcm16Format(format), stream);
+    }
+
+    /**
+     * Returns the signed 16 bit PCM format of the same rate and channels as a format
+     */
+    private static AudioFormat getPcm16Format(final AudioFormat format) {
+        return new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, format.isBigEndian());
+    }
+
+    /**
+     * Returns the running sums of the squares of a signal, the energy of samples [i, j) is sums[j] - sums[i]
+     */
+    private static double[] getPrefixSums(final float[] signal) {
+        double[] sums = new double[signal.length + 1];
+        for (int i = 0; i < signal.length; i++) {
+            sums[i + 1] = sums[i] + (double) signal[i] * signal[i];
+        }
+        return sums;
+    }
+
+    /**
+     * Returns the index of the largest value
+     */
+    private static int getPeak(final double[] values) {
+        int peak = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[peak]) {
+                peak = i;
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Returns where the top of the parabola through a peak and its neighbours is, relative to the peak
+     *
+     * @return the offset, between -0.5 and 0.5
+     */
+    private static double getPeakOffset(final double[] values, final int peak) {
+        if (peak == 0 || peak == values.length - 1) {
+            return 0;
+        }
+        double before = values[peak - 1];
+        double after = values[peak + 1];
+        double curvature = before - 2 * values[peak] + after;
+        return curvature < 0 ? Math.max(-0.5, Math.min(0.5, 0.5 * (before - after) / curvature)) : 0;
+    }
+
+    /**
+     * Returns the signal to noise ratio implied by a normalized correlation, taking what does not correlate with the
+     * reference as noise
+     *
+     * @param rho - the normalized correlation
+     * @return the ratio in dB, between -MAX_SNR_DB and MAX_SNR_DB
+     */
+    private static double getSnrDb(final double rho) {
+        double signal = rho <= 0 ? 0 : rho * rho;
+        double noise = 1 - signal;
+        if (signal <= 0) {
+            return -MAX_SNR_DB;
+        }
+        if (noise <= 0) {
+            return MAX_SNR_DB;
+        }
+        return Math.max(-MAX_SNR_DB, Math.min(MAX_SNR_DB, 10 * Math.log10(signal / noise)));
+    }
+
+    /**
+     * The spectrum of a reference, zero padded to the transform size of the overlap-save segments
+     */
+    private static final class Spectrum {
+        private final int length;
+        private final double energy;
+        private final double[] re;
+        private final double[] im;
+
+        /**
+         * Constructor for Spectrum
+         *
+         * @param samples - the reference at the analysis rate
+         * @throws AudioException - when the reference is empty or silent
+         */
+        private Spectrum(final float[] samples) throws AudioException {
+            double sum = 0;
+            for (float sample : samples) {
+                sum += (double) sample * sample;
+            }
+            if (samples.length == 0 || sum <= MIN_MEAN_SQUARE * samples.length) {
+                throw new AudioException("The reference is silent");
+            }
+            this.length = samples.length;
+            this.energy = sum;
+            int size = Fft.getSize(Math.max(MIN_TRANSFORM_SIZE, 2 * samples.length));
+            this.re = new double[size];
+            this.im = new double[size];
+            for (int i = 0; i < samples.length; i++) {
+                re[i] = samples[i];
+            }
+            Fft.transform(re, im, false);
+        }
+
+        /**
+         * Getter for the number of lags one segment of the recording is correlated over
+         *
+         * @return the transform size less the reference, plus one
+         */
+        private int getLagsPerSegment() {
+            return re.length - length + 1;
+        }
+    }
+
+    /**
+     * Correlates a range of the overlap-save segments of one channel with the reference, halving the range until a
+     * task has a single segment
+     */
+    private static final class CorrelationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] signal;
+        private final double[] energies;
+        private final Spectrum spectrum;
+        private final double[] similarities;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructor for CorrelationTask
+         *
+         * @param signal       - the channel at the analysis rate
+         * @param energies     - the running sums of its squares
+         * @param spectrum     - the spectrum of the reference
+         * @param similarities - receives the normalized correlation at every lag
+         * @param from         - the first segment
+         * @param to           - the segment after the last
+         */
+        private CorrelationTask(final float[] signal, final double[] energies, final Spectrum spectrum,
+                                final double[] similarities, final int from, final int to) {
+            this.signal = signal;
+            this.energies = energies;
+            this.spectrum = spectrum;
+            this.similarities = similarities;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CorrelationTask(signal, energies, spectrum, similarities, from, middle),
+                        new CorrelationTask(signal, energies, spectrum, similarities, middle, to));
+                return;
+            }
+            int size = spectrum.re.length;
+            int first = from * spectrum.getLagsPerSegment();
+            int lags = Math.min(spectrum.getLagsPerSegment(), similarities.length - first);
+            double[] re = new double[size];
+            double[] im = new double[size];
+            int end = Math.min(signal.length, first + size);
+            for (int i = first; i < end; i++) {
+                re[i - first] = signal[i];
+            }
+            Fft.transform(re, im, false);
+            for (int i = 0; i < size; i++) {
+                double a = re[i];
+                double b = im[i];
+                double c = spectrum.re[i];
+                double d = spectrum.im[i];
+                re[i] = a * c + b * d;
+                im[i] = b * c - a * d;
+            }
+            Fft.transform(re, im, true);
+            double minEnergy = MIN_MEAN_SQUARE * spectrum.length;
+            for (int j = 0; j < lags; j++) {
+                int lag = first + j;
+                double energy = energies[lag + spectrum.length] - energies[lag];
+                similarities[lag] = energy > minEnergy ? re[j] / Math.sqrt(energy * spectrum.energy) : 0;
+            }
+        }
+    }
+}
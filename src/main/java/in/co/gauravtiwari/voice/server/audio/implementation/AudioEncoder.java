@@ -0,0 +1,188 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import in.co.gauravtiwari.voice.server.audio.design.AudioEncoderModel;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * An abstract output stream that takes signed 16 bit PCM frames, splits them into samples and hands every sample to
+ * the encoding of the subclass. Writes may end in the middle of a sample, the missing bytes are expected in the next
+ * write. Nothing is allocated once the encoder has been created.
+ */
+public abstract class AudioEncoder extends FilterOutputStream implements AudioEncoderModel {
+    private static final int BYTES_PER_SAMPLE = 2;
+    private final boolean bigEndian;
+    private final int channels;
+    private int pendingByte = -1;
+    private int channel;
+    private long encodedBytes;
+    private long encodedFrames;
+    private long encodeNanos;
+    private boolean finished;
+
+    /**
+     * Constructor for the encoder
+     *
+     * @param out          - the stream the encoded audio is written to
+     * @param sourceFormat - the format of the PCM frames written to this encoder
+     * @throws AudioException - thrown when the source format is not signed 16 bit PCM
+     */
+    protected AudioEncoder(final OutputStream out, final AudioFormat sourceFormat) throws AudioException {
+        super(out);
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(sourceFormat.getEncoding())
+                || sourceFormat.getSampleSizeInBits() != BYTES_PER_SAMPLE * 8) {
+            throw new AudioException("Only signed 16 bit PCM recordings can be encoded");
+        }
+        this.bigEndian = sourceFormat.isBigEndian();
+        this.channels = sourceFormat.getChannels();
+    }
+
+    /**
+     * Encodes a single sample of the given channel
+     *
+     * @param sample  - the sample value between -32768 and 32767
+     * @param channel - the channel of the sample
+     * @throws IOException if the encoded audio cannot be written
+     */
+    protected abstract void encodeSample(int sample, int channel) throws IOException;
+
+    /**
+     * Encodes whatever the subclass still buffers
+     *
+     * @throws IOException if the encoded audio cannot be written
+     */
+    protected abstract void finishEncoding() throws IOException;
+
+    /**
+     * Writes encoded bytes to the underlying stream
+     *
+     * @param data   - the encoded bytes
+     * @param offset - offset of the first byte to write
+     * @param length - number of bytes to write
+     * @throws IOException if the underlying stream fails
+     */
+    protected void emit(final byte[] data, final int offset, final int length) throws IOException {
+        out.write(data, offset, length);
+        encodedBytes += length;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        long start = System.nanoTime();
+        accept(b & 0xFF);
+        encodeNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void write(final byte[] data, final int offset, final int length) throws IOException {
+        long start = System.nanoTime();
+        int end = offset + length;
+        int i = offset;
+        if (pendingByte >= 0 && i < end) {
+            accept(data[i++] & 0xFF);
+        }
+        for (; i + 1 < end; i += BYTES_PER_SAMPLE) {
+            nextSample(AudioUtility.getSample(data, i, bigEndian));
+        }
+        if (i < end) {
+            pendingByte = data[i] & 0xFF;
+        }
+        encodeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Takes a single byte, completing the pending half sample if there is one
+     */
+    private void accept(final int b) throws IOException {
+        if (pendingByte < 0) {
+            pendingByte = b;
+            return;
+        }
+        int first = pendingByte;
+        pendingByte = -1;
+        nextSample(bigEndian ? (short) ((first << 8) | b) : (short) ((b << 8) | first));
+    }
+
+    /**
+     * Hands a sample to the subclass and keeps track of the channel and frame count
+     */
+    private void nextSample(final int sample) throws IOException {
+        encodeSample(sample, channel);
+        if (++channel == channels) {
+            channel = 0;
+            encodedFrames++;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long start = System.nanoTime();
+        finishEncoding();
+        encodeNanos += System.nanoTime() - start;
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+
+    @Override
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    @Override
+    public long getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    @Override
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * Getter for the number of channels of the audio
+     *
+     * @return the number of channels
+     */
+    protected int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Getter for the byte order of the source audio
+     *
+     * @return true if the source samples are big endian
+     */
+    protected boolean isBigEndian() {
+        return bigEndian;
+    }
+}
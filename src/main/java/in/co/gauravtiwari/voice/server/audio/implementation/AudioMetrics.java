@@ -0,0 +1,89 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import in.co.gauravtiwari.voice.server.metrics.Counter;
+import in.co.gauravtiwari.voice.server.metrics.Gauge;
+import in.co.gauravtiwari.voice.server.metrics.LatencyHistogram;
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The metrics the audio engine reports into, lines are labelled playback or capture and by mixer number, the lines
+ * of dry runs with mixer dryrun.
+ */
+final class AudioMetrics {
+    static final String PLAYBACK = "playback";
+    static final String CAPTURE = "capture";
+
+    static final LatencyHistogram DECODE = Metrics.histogram("voice_decode_seconds",
+            "Time to open and parse a voice file before playing it");
+    static final LatencyHistogram PLAY = Metrics.histogram("voice_play_seconds",
+            "Time from the start of a playback to its line being closed");
+    static final LatencyHistogram RECORD = Metrics.histogram("voice_record_seconds",
+            "Time from the start of a recording to its line being closed");
+    static final Counter RECORDED_BYTES = Metrics.counter("voice_recorded_bytes_total",
+            "Bytes of audio returned by recordings, after encoding");
+    static final Counter LATENCY_CACHE_HITS = cacheRequests("latency", "hit");
+    static final Counter LATENCY_CACHE_MISSES = cacheRequests("latency", "miss");
+    static final Counter DECODED_CACHE_HITS = cacheRequests("decoded", "hit");
+    static final Counter DECODED_CACHE_MISSES = cacheRequests("decoded", "miss");
+    static final Counter PCM_STORE_HITS = cacheRequests("pcm", "hit");
+    static final Counter PCM_STORE_MISSES = cacheRequests("pcm", "miss");
+    static final Counter SPECTRUM_CACHE_HITS = cacheRequests("spectrum", "hit");
+    static final Counter SPECTRUM_CACHE_MISSES = cacheRequests("spectrum", "miss");
+    static final LatencyHistogram COMPARE = Metrics.histogram("voice_compare_seconds",
+            "Time to compare a recording with a reference voice file");
+    static final Gauge DECODED_CACHE_BYTES = Metrics.gauge("voice_decoded_cache_bytes",
+            "Bytes of decoded audio held in the decoded audio cache");
+
+    /**
+     * Private constructor
+     */
+    private AudioMetrics() {
+    }
+
+    /**
+     * Time to get and open a line, for a clip it includes reading and decoding the whole voice file
+     *
+     * @param direction - playback or capture
+     * @param mixer     - the entry of the mixer, labelled by its name
+     * @return the histogram
+     */
+    static LatencyHistogram lineOpen(final String direction, final MixerIndex.Entry mixer) {
+        return Metrics.histogram("voice_line_open_seconds", "Time to get and open an audio line",
+                "direction", direction, "mixer", mixer.getName());
+    }
+
+    /**
+     * Number of open lines
+     *
+     * @param direction - playback or capture
+     * @param mixer     - the entry of the mixer, labelled by its name
+     * @return the gauge
+     */
+    static Gauge activeLines(final String direction, final MixerIndex.Entry mixer) {
+        return Metrics.gauge("voice_active_lines", "Audio lines currently open",
+                "direction", direction, "mixer", mixer.getName());
+    }
+
+    private static Counter cacheRequests(final String cache, final String result) {
+        return Metrics.counter("voice_cache_requests_total", "Lookups in the caches of the server",
+                "cache", cache, "result", result);
+    }
+}
@@ -0,0 +1,459 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import in.co.gauravtiwari.voice.server.metrics.PhaseTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created By Gaurav Tiwari
+ * <p>
+ * AudioPlayRecorder class plays audio to one mixer while it records from another one, and tells where in the
+ * recording the playback started and ended. The capture is started before the playback so nothing of the reply of
+ * the device is lost. Nothing waits while the audio plays, the recording is stopped by the audio timer once the
+ * playback has ended. On the dry run mixer both run as fast as the CPU allows, the recording is limited to the length
+ * of the playback and the tail time, and the playback is placed at its start.
+ * <p>
+ * The round-trip latency between a pair of mixers can be measured through a loopback with calibrate(), it is then
+ * cached by the names of the mixers and reported with every play and record on the same pair of mixers.
+ */
+public final class AudioPlayRecorder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AudioPlayRecorder.class);
+
+    // calibration signal: silence, a short windowed tone burst, then silence again
+    private static final float CALIBRATION_SAMPLE_RATE = 48000;
+    private static final int CALIBRATION_LEAD_IN_MILLIS = 200;
+    private static final int CALIBRATION_BURST_MILLIS = 5;
+    private static final int CALIBRATION_LENGTH_MILLIS = 600;
+    private static final double CALIBRATION_BURST_FREQUENCY = 2000;
+    private static final double CALIBRATION_AMPLITUDE = 0.8 * Short.MAX_VALUE;
+    // recording time after the calibration playback, in milliseconds
+    private static final long CALIBRATION_TAIL_TIME = 500;
+    // the burst is detected when the captured signal reaches this ratio of its peak
+    private static final double ONSET_THRESHOLD = 0.5;
+    // below this peak value the loopback is considered not connected
+    private static final int MIN_LOOPBACK_PEAK = 1000;
+
+    private static final Map<String, Long> LATENCIES = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor
+     */
+    private AudioPlayRecorder() {
+    }
+
+    /**
+     * Plays the audio file to a mixer while recording from another one
+     *
+     * @param file        - File object of the audio to play
+     * @param playMixer   - the mixer to play to, -1 for any mixer
+     * @param recordMixer - the mixer to record from, -1 for any mixer
+     * @param tailTime    - how long to keep recording after the playback ended, in milliseconds
+     * @return the recording and the position of the playback in it
+     * @throws AudioException - exception in playing or recording
+     */
+    public static PlayRecordResult playAndRecord(final File file, final int playMixer, final int recordMixer,
+                                                 final long tailTime) throws AudioException {
+        return await(startPlayAndRecord(file, playMixer, recordMixer, tailTime));
+    }
+
+    /**
+     * Starts playing the audio file to a mixer while recording from another one, and returns at once
+     *
+     * @param file        - File object of the audio to play
+     * @param playMixer   - the mixer to play to, -1 for any mixer
+     * @param recordMixer - the mixer to record from, -1 for any mixer
+     * @param tailTime    - how long to keep recording after the playback ended, in milliseconds
+     * @return a future completed with the recording and the position of the playback in it
+     * @throws AudioException - exception in starting the playback or the recording
+     */
+    public static CompletableFuture<PlayRecordResult> startPlayAndRecord(final File file, final int playMixer,
+                                                                         final int recordMixer, final long tailTime)
+            throws AudioException {
+        return startPlayAndRecord(file, playMixer, recordMixer, tailTime, PhaseTimings.disabled());
+    }
+
+    /**
+     * Starts playing the audio file to a mixer while recording from another one, and returns at once.
+     * The phases of the playback are marked with the play. prefix and those of the recording with record.
+     *
+     * @param file        - File object of the audio to play
+     * @param playMixer   - the mixer to play to, -1 for any mixer
+     * @param recordMixer - the mixer to record from, -1 for any mixer
+     * @param tailTime    - how long to keep recording after the playback ended, in milliseconds
+     * @param timings     - the timing breakdown the phases are marked into
+     * @return a future completed with the recording and the position of the playback in it
+     * @throws AudioException - exception in starting the playback or the recording
+     */
+    public static CompletableFuture<PlayRecordResult> startPlayAndRecord(final File file, final int playMixer,
+                                                                         final int recordMixer, final long tailTime,
+                                                                         final PhaseTimings timings)
+            throws AudioException {
+        return startPlayAndRecord(file, MixerIndex.getEntry(playMixer), MixerIndex.getEntry(recordMixer), tailTime,
+                timings);
+    }
+
+    /**
+     * Starts playing the audio file to a mixer while recording from another one, both resolved beforehand, and
+     * returns at once. The phases of the playback are marked with the play. prefix and those of the recording with
+     * record.
+     *
+     * @param file        - File object of the audio to play
+     * @param playMixer   - the entry of the mixer to play to, MixerIndex.DEFAULT for any mixer
+     * @param recordMixer - the entry of the mixer to record from, MixerIndex.DEFAULT for any mixer
+     * @param tailTime    - how long to keep recording after the playback ended, in milliseconds
+     * @param timings     - the timing breakdown the phases are marked into
+     * @return a future completed with the recording and the position of the playback in it
+     * @throws AudioException - exception in starting the playback or the recording
+     */
+    public static CompletableFuture<PlayRecordResult> startPlayAndRecord(final File file,
+                                                                         final MixerIndex.Entry playMixer,
+                                                                         final MixerIndex.Entry recordMixer,
+                                                                         final long tailTime,
+                                                                         final PhaseTimings timings)
+            throws AudioException {
+        PhaseTimings playTimings = timings.withPrefix("play.");
+        long playbackMicros = recordMixer.isDryRun() ? AudioUtility.getAudioFile(file).getDuration() : 0;
+        return startPlayAndRecord(listener -> AudioPlayer.startAudio(file, playMixer, listener, playTimings),
+                playbackMicros, playMixer, recordMixer, tailTime, timings.withPrefix("record."));
+    }
+
+    /**
+     * Measures the round-trip latency between two mixers, which must be connected by a loopback, and caches it.
+     * A short tone burst is played and the latency is the distance between the position of the burst in the
+     * playback and the position where it is detected in the recording.
+     *
+     * @param playMixer   - the mixer to play to, -1 for any mixer
+     * @param recordMixer - the mixer to record from, -1 for any mixer
+     * @return the round-trip latency in capture frames
+     * @throws AudioException - exception in playing or recording, or when no loopback signal was detected
+     */
+    public static long calibrate(final int playMixer, final int recordMixer) throws AudioException {
+        return calibrate(MixerIndex.getEntry(playMixer), MixerIndex.getEntry(recordMixer));
+    }
+
+    /**
+     * Measures the round-trip latency between two mixers resolved beforehand, see calibrate(int, int)
+     *
+     * @param playMixer   - the entry of the mixer to play to, MixerIndex.DEFAULT for any mixer
+     * @param recordMixer - the entry of the mixer to record from, MixerIndex.DEFAULT for any mixer
+     * @return the round-trip latency in capture frames
+     * @throws AudioException - exception in playing or recording, or when no loopback signal was detected
+     */
+    public static long calibrate(final MixerIndex.Entry playMixer, final MixerIndex.Entry recordMixer)
+            throws AudioException {
+        if (playMixer.isDryRun() || recordMixer.isDryRun()) {
+            throw new AudioException("The dry run mixer has no loopback to calibrate");
+        }
+        AudioFormat signalFormat = new AudioFormat(CALIBRATION_SAMPLE_RATE, 16, 1, true, false);
+        byte[] signal = createCalibrationSignal(signalFormat);
+
+        LATENCIES.remove(latencyKey(playMixer, recordMixer));
+        PlayRecordResult result = await(startPlayAndRecord(
+                listener -> AudioPlayer.startAudio(signal, signalFormat, playMixer, listener),
+                0, playMixer, recordMixer, CALIBRATION_TAIL_TIME, PhaseTimings.disabled()));
+
+        AudioFormat captureFormat = result.getAudioFormat();
+        if (captureFormat.getSampleSizeInBits() != 16) {
+            throw new AudioException("Calibration needs a 16 bit recording format");
+        }
+        long burstFrame = result.getPlaybackStartFrame()
+                + (long) (CALIBRATION_LEAD_IN_MILLIS * captureFormat.getFrameRate() / 1000);
+        long onsetFrame = findOnset(result.getAudioData(), captureFormat, result.getPlaybackStartFrame());
+        long latency = Math.max(0, onsetFrame - burstFrame);
+
+        LATENCIES.put(latencyKey(playMixer, recordMixer), latency);
+        LOG.info("Round-trip latency from mixer {} to mixer {} is {} frames",
+                playMixer.getName(), recordMixer.getName(), latency);
+        return latency;
+    }
+
+    /**
+     * Returns the cached round-trip latency between two mixers
+     *
+     * @param playMixer   - the mixer played to
+     * @param recordMixer - the mixer recorded from
+     * @return the latency in capture frames, -1 if the mixers have not been calibrated
+     */
+    public static long getLatencyFrames(final int playMixer, final int recordMixer) {
+        try {
+            return getLatencyFrames(MixerIndex.getEntry(playMixer), MixerIndex.getEntry(recordMixer));
+        } catch (AudioException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the cached round-trip latency between two mixers resolved beforehand
+     *
+     * @param playMixer   - the entry of the mixer played to
+     * @param recordMixer - the entry of the mixer recorded from
+     * @return the latency in capture frames, -1 if the mixers have not been calibrated
+     */
+    public static long getLatencyFrames(final MixerIndex.Entry playMixer, final MixerIndex.Entry recordMixer) {
+        Long latency = LATENCIES.get(latencyKey(playMixer, recordMixer));
+        if (latency == null) {
+            AudioMetrics.LATENCY_CACHE_MISSES.inc();
+            return -1;
+        }
+        AudioMetrics.LATENCY_CACHE_HITS.inc();
+        return latency;
+    }
+
+    /**
+     * Starts the recording and the playback, the recording is stopped by the audio timer the tail time after the
+     * playback ended
+     *
+     * @param playback       - starts the playback, reporting its line events to the given listener
+     * @param playbackMicros - the length of the playback in microseconds, only needed for dry runs
+     * @param playMixer      - the mixer played to
+     * @param recordMixer    - the mixer to record from
+     * @param tailTime       - how long to keep recording after the playback ended, in milliseconds
+     * @param recordTimings  - the timing breakdown the phases of the recording are marked into
+     * @return a future completed with the recording and the position of the playback in it
+     * @throws AudioException - exception in starting the playback or the recording
+     */
+    private static CompletableFuture<PlayRecordResult> startPlayAndRecord(final Playback playback, final long playbackMicros,
+                                                                          final MixerIndex.Entry playMixer,
+                                                                          final MixerIndex.Entry recordMixer,
+                                                                          final long tailTime,
+                                                                          final PhaseTimings recordTimings)
+            throws AudioException {
+        AudioFormat format = AudioRecorder.getDefaultAudioFormat();
+        boolean dryRun = recordMixer.isDryRun();
+        long playbackFrames = (long) (playbackMicros * (double) format.getFrameRate() / 1000000);
+        long frameLimit = dryRun ? playbackFrames + AudioRecorder.toFrames(Math.max(0, tailTime), format) : 0;
+        RecordingSession session = AudioRecorder.startRecording(format, recordMixer, RecordingEncoding.PCM, 0,
+                recordTimings, frameLimit);
+        PlaybackMarker marker = new PlaybackMarker(session);
+        if (dryRun) {
+            // the dry run lines do not run in step with each other, their positions say nothing about the playback
+            marker.place(0, playbackFrames);
+        }
+        CompletableFuture<Void> playing;
+        try {
+            playing = playback.start(marker);
+        } catch (AudioException e) {
+            try {
+                session.stop();
+            } catch (AudioException stopError) {
+                e.addSuppressed(stopError);
+            }
+            throw e;
+        }
+
+        CompletableFuture<PlayRecordResult> result = new CompletableFuture<>();
+        playing.whenComplete((ignored, error) -> {
+            if (error != null) {
+                // a playback cut short would leave a truncated capture, it is not a successful play and record
+                fail(session, error, result);
+                return;
+            }
+            marker.markEnd();
+            if (dryRun) {
+                session.whenCaptured().thenRunAsync(() -> finish(session, marker, playMixer, recordMixer, result),
+                        AudioUtility.getTimer());
+            } else {
+                AudioUtility.getTimer().schedule(() -> finish(session, marker, playMixer, recordMixer, result),
+                        Math.max(0, tailTime), TimeUnit.MILLISECONDS);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stops the recording of a play and record and completes it
+     *
+     * @param session     - the recording session
+     * @param marker      - the position of the playback in the recording
+     * @param playMixer   - the mixer played to
+     * @param recordMixer - the mixer recorded from
+     * @param result      - the future of the play and record
+     */
+    private static void finish(final RecordingSession session, final PlaybackMarker marker,
+                               final MixerIndex.Entry playMixer, final MixerIndex.Entry recordMixer,
+                               final CompletableFuture<PlayRecordResult> result) {
+        try {
+            session.stop();
+            if (marker.startFrame < 0) {
+                throw new AudioException("The playback did not start");
+            }
+            result.complete(new PlayRecordResult(session.stop(), session.getAudioFormat(), marker.startFrame,
+                    marker.endFrame, getLatencyFrames(playMixer, recordMixer), session.getStatistics()));
+        } catch (AudioException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stops the recording of a play and record whose playback failed and completes it with the failure
+     *
+     * @param session - the recording session
+     * @param error   - the failure of the playback
+     * @param result  - the future of the play and record
+     */
+    private static void fail(final RecordingSession session, final Throwable error,
+                             final CompletableFuture<PlayRecordResult> result) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        try {
+            session.stop();
+        } catch (AudioException stopError) {
+            cause.addSuppressed(stopError);
+        }
+        result.completeExceptionally(cause);
+    }
+
+    /**
+     * Waits for a play and record to complete
+     *
+     * @param playRecord - the running play and record
+     * @return the recording and the position of the playback in it
+     * @throws AudioException - exception in playing or recording
+     */
+    private static PlayRecordResult await(final CompletableFuture<PlayRecordResult> playRecord) throws AudioException {
+        try {
+            return playRecord.get();
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            throw new AudioException("Interrupted while waiting for recording to finish", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AudioException) {
+                throw (AudioException) e.getCause();
+            }
+            throw new AudioException("Failed to play and record", e.getCause());
+        }
+    }
+
+    /**
+     * Finds the first frame, at or after the given frame, where the first channel reaches the onset threshold
+     *
+     * @param data       - the recorded audio
+     * @param format     - the format of the recorded audio
+     * @param fromFrame  - the frame to start searching from
+     * @return the onset frame
+     * @throws AudioException - when the recording carries no signal
+     */
+    private static long findOnset(final byte[] data, final AudioFormat format, final long fromFrame) throws AudioException {
+        int frameSize = format.getFrameSize();
+        boolean bigEndian = format.isBigEndian();
+        int frames = data.length / frameSize;
+
+        int peak = 0;
+        for (long frame = fromFrame; frame < frames; frame++) {
+            peak = Math.max(peak, Math.abs(AudioUtility.getSample(data, (int) frame * frameSize, bigEndian)));
+        }
+        if (peak < MIN_LOOPBACK_PEAK) {
+            throw new AudioException("No loopback signal detected, check that the output is connected to the input");
+        }
+
+        int threshold = (int) (peak * ONSET_THRESHOLD);
+        for (long frame = fromFrame; frame < frames; frame++) {
+            if (Math.abs(AudioUtility.getSample(data, (int) frame * frameSize, bigEndian)) >= threshold) {
+                return frame;
+            }
+        }
+        return fromFrame;
+    }
+
+    /**
+     * Creates the calibration signal: lead-in silence followed by a Hann windowed tone burst
+     *
+     * @param format - 16 bit little endian mono format of the signal
+     * @return the signal
+     */
+    private static byte[] createCalibrationSignal(final AudioFormat format) {
+        int frames = (int) (CALIBRATION_LENGTH_MILLIS * format.getFrameRate() / 1000);
+        int burstStart = (int) (CALIBRATION_LEAD_IN_MILLIS * format.getFrameRate() / 1000);
+        int burstLength = (int) (CALIBRATION_BURST_MILLIS * format.getFrameRate() / 1000);
+        byte[] signal = new byte[frames * 2];
+        for (int i = 0; i < burstLength; i++) {
+            double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (burstLength - 1));
+            double tone = Math.sin(2 * Math.PI * CALIBRATION_BURST_FREQUENCY * i / format.getFrameRate());
+            int sample = (int) (CALIBRATION_AMPLITUDE * window * tone);
+            signal[(burstStart + i) * 2] = (byte) sample;
+            signal[(burstStart + i) * 2 + 1] = (byte) (sample >> 8);
+        }
+        return signal;
+    }
+
+    /**
+     * Key of the latency cache, the names of the mixers which unlike their numbers do not change with a replug
+     */
+    private static String latencyKey(final MixerIndex.Entry playMixer, final MixerIndex.Entry recordMixer) {
+        return playMixer.getName() + "->" + recordMixer.getName();
+    }
+
+    /**
+     * A playback that reports the events of its line to a listener
+     */
+    private interface Playback {
+        CompletableFuture<Void> start(LineListener listener) throws AudioException;
+    }
+
+    /**
+     * Listener on the playback line that notes the capture frame position when the playback starts and stops
+     */
+    private static final class PlaybackMarker implements LineListener {
+        private final RecordingSession session;
+        private volatile long startFrame = -1;
+        private volatile long endFrame = -1;
+
+        private PlaybackMarker(final RecordingSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void update(final LineEvent event) {
+            LineEvent.Type eventType = event.getType();
+            if (eventType == LineEvent.Type.START && startFrame < 0) {
+                startFrame = session.getFramePosition();
+            } else if (eventType == LineEvent.Type.STOP || eventType == LineEvent.Type.CLOSE) {
+                markEnd();
+            }
+        }
+
+        /**
+         * Places the playback in the recording without waiting for the events of its line
+         */
+        private synchronized void place(final long start, final long end) {
+            startFrame = start;
+            endFrame = end;
+        }
+
+        /**
+         * Notes the end of the playback, if it has not been noted yet
+         */
+        private synchronized void markEnd() {
+            if (endFrame < 0) {
+                endFrame = session.getFramePosition();
+            }
+        }
+    }
+}
@@ -17,24 +17,32 @@
 package in.co.gauravtiwari.voice.server.audio.implementation;
 
 import in.co.gauravtiwari.voice.server.audio.design.AudioFileModel;
+import in.co.gauravtiwari.voice.server.metrics.Gauge;
+import in.co.gauravtiwari.voice.server.metrics.PhaseTimings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sound.sampled.*;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
  * created By Gaurav Tiwari
  * AudioPlayer class is used to play audio to any audio mixer
+ * The playAudio methods wait for the playback to end, the startAudio methods return a future completed when it ends.
+ * Played to AudioUtility.DRY_RUN_MIXER, the audio is decoded and played as fast as the CPU allows.
  * More info -  https://docs.oracle.com/javase/tutorial/sound/sampled-overview.html
  */
 public final class AudioPlayer {
 
     private static final Logger LOG = LoggerFactory.getLogger(AudioPlayer.class);
+    // how long after the end of its audio a clip that did not report STOP is closed anyway
+    private static final long WATCHDOG_GRACE_MICROS = 1000000;
 
     /**
      * Private constructor
@@ -50,7 +58,7 @@ public final class AudioPlayer {
      */
     public static void playAudio(final File file) throws AudioException {
         AudioFileModel audioFile = AudioUtility.getAudioFile(file);
-        playAudio(audioFile, -1, audioFile.getAudioFormat(), audioFile.getAudioInputStream());
+        playAudio(audioFile, MixerIndex.DEFAULT, audioFile.getAudioFormat(), audioFile.getAudioInputStream());
     }
 
     /**
@@ -62,7 +70,7 @@ public final class AudioPlayer {
      */
     public static void playAudio(final File file, final AudioFormat audioFormat) throws AudioException {
         AudioFileModel audioFile = AudioUtility.getAudioFile(file);
-        playAudio(audioFile, -1, audioFormat, audioFile.getAudioInputStream());
+        playAudio(audioFile, MixerIndex.DEFAULT, audioFormat, audioFile.getAudioInputStream());
     }
 
     /**
@@ -74,7 +82,8 @@ public final class AudioPlayer {
      */
     public static void playAudio(final File file, final int mixerNumber) throws AudioException {
         AudioFileModel audioFile = AudioUtility.getAudioFile(file);
-        playAudio(audioFile, mixerNumber, audioFile.getAudioFormat(), audioFile.getAudioInputStream());
+        playAudio(audioFile, MixerIndex.getEntry(mixerNumber), audioFile.getAudioFormat(),
+                audioFile.getAudioInputStream());
     }
 
     /**
@@ -87,7 +96,38 @@ public final class AudioPlayer {
      */
     public static void playAudio(final File file, final int mixerNumber, final AudioFormat audioFormat) throws AudioException {
         AudioFileModel audioFile = AudioUtility.getAudioFile(file);
-        playAudio(audioFile, mixerNumber, audioFormat, audioFile.getAudioInputStream());
+        playAudio(audioFile, MixerIndex.getEntry(mixerNumber), audioFormat, audioFile.getAudioInputStream());
+    }
+
+    /**
+     * Plays the audio to a specific mixer and reports the events of the playing line to the given listener.
+     * The listener is registered before the line is started, so it sees the START event of the playback.
+     *
+     * @param file         - File object of the audio
+     * @param mixerNumber  - The index number for the mixer array, pass -1 for default output
+     * @param lineListener - listener for the events of the playing line
+     * @throws AudioException - exception in playing voice
+     */
+    public static void playAudio(final File file, final int mixerNumber, final LineListener lineListener) throws AudioException {
+        AudioFileModel audioFile = AudioUtility.getAudioFile(file);
+        playAudio(audioFile.getDuration(), MixerIndex.getEntry(mixerNumber), audioFile.getAudioFormat(),
+                audioFile.getAudioInputStream(), lineListener);
+    }
+
+    /**
+     * Plays raw audio held in memory to a specific mixer and reports the events of the playing line to the given listener.
+     *
+     * @param data         - the audio frames
+     * @param audioFormat  - the format of the audio frames
+     * @param mixerNumber  - The index number for the mixer array, pass -1 for default output
+     * @param lineListener - listener for the events of the playing line
+     * @throws AudioException - exception in playing voice
+     */
+    public static void playAudio(final byte[] data, final AudioFormat audioFormat, final int mixerNumber, final LineListener lineListener) throws AudioException {
+        long frames = data.length / audioFormat.getFrameSize();
+        long duration = (long) (frames * 1000000.0 / audioFormat.getFrameRate());
+        AudioInputStream audioInputStream = new AudioInputStream(new ByteArrayInputStream(data), audioFormat, frames);
+        playAudio(duration, MixerIndex.getEntry(mixerNumber), audioFormat, audioInputStream, lineListener);
     }
 
     /**
@@ -95,32 +135,185 @@ public final class AudioPlayer {
      * and throws an exception if the play fails.
      *
      * @param audioFile        - The File object of the audio
-     * @param mixerNumber      - The index number for the mixer in the mixer array, pass -1 for default output
+     * @param mixer            - The entry of the mixer, MixerIndex.DEFAULT for default output
      * @param audioFormat      - Format to use
      * @param audioInputStream - The audio input stream
      * @throws AudioException - exception in playing voice
      */
-    private static void playAudio(final AudioFileModel audioFile, final int mixerNumber, final AudioFormat audioFormat, final AudioInputStream audioInputStream) throws AudioException {
+    private static void playAudio(final AudioFileModel audioFile, final MixerIndex.Entry mixer,
+                                  final AudioFormat audioFormat, final AudioInputStream audioInputStream)
+            throws AudioException {
+        playAudio(audioFile.getDuration(), mixer, audioFormat, audioInputStream, null);
+    }
+
+    /**
+     * Starts playing the audio file to a specific mixer and returns as soon as the playback has started.
+     * The listener is registered before the line is started, so it sees the START event of the playback.
+     *
+     * @param file         - File object of the audio
+     * @param mixerNumber  - The index number for the mixer array, pass -1 for default output
+     * @param lineListener - listener for the events of the playing line, may be null
+     * @return a future completed once the playback has ended and the line is closed
+     * @throws AudioException - exception in starting the playback
+     */
+    public static CompletableFuture<Void> startAudio(final File file, final int mixerNumber, final LineListener lineListener) throws AudioException {
+        return startAudio(file, mixerNumber, lineListener, PhaseTimings.disabled());
+    }
+
+    /**
+     * Starts playing the audio file to a specific mixer and returns as soon as the playback has started,
+     * marking the phases of the playback: parsed, decoded, lineAcquired, lineOpened, firstFrame, endOfAudio
+     * and lineClosed. A clip reads and decodes all of its audio when it is opened, unless the file is in the
+     * DecodedAudioCache.
+     *
+     * @param file         - File object of the audio
+     * @param mixerNumber  - The index number for the mixer array, pass -1 for default output
+     * @param lineListener - listener for the events of the playing line, may be null
+     * @param timings      - the timing breakdown the phases are marked into
+     * @return a future completed once the playback has ended and the line is closed
+     * @throws AudioException - exception in starting the playback
+     */
+    public static CompletableFuture<Void> startAudio(final File file, final int mixerNumber, final LineListener lineListener,
+                                                     final PhaseTimings timings) throws AudioException {
+        return startAudio(file, MixerIndex.getEntry(mixerNumber), lineListener, timings);
+    }
+
+    /**
+     * Starts playing the audio file to a mixer resolved beforehand and returns as soon as the playback has started,
+     * marking the phases of the playback like startAudio(File, int, LineListener, PhaseTimings)
+     *
+     * @param file         - File object of the audio
+     * @param mixer        - The entry of the mixer, MixerIndex.DEFAULT for default output
+     * @param lineListener - listener for the events of the playing line, may be null
+     * @param timings      - the timing breakdown the phases are marked into
+     * @return a future completed once the playback has ended and the line is closed
+     * @throws AudioException - exception in starting the playback
+     */
+    public static CompletableFuture<Void> startAudio(final File file, final MixerIndex.Entry mixer,
+                                                     final LineListener lineListener,
+                                                     final PhaseTimings timings) throws AudioException {
+        DecodedAudioCache.DecodedAudio cached = DecodedAudioCache.get(file);
+        if (cached != null) {
+            timings.mark("parsed");
+            timings.mark("decoded");
+            return startAudio(cached.getDuration(), mixer, cached.getFormat(), cached.newStream(),
+                    lineListener, timings).getCompletion();
+        }
+        long decodeStart = System.nanoTime();
+        AudioFileModel audioFile = AudioUtility.getAudioFile(file);
+        timings.mark("parsed");
+        AudioInputStream audioInputStream = audioFile.getAudioInputStream();
+        timings.mark("decoded");
+        AudioMetrics.DECODE.recordSince(decodeStart);
+        return startAudio(audioFile.getDuration(), mixer, audioFile.getAudioFormat(), audioInputStream,
+                lineListener, timings).getCompletion();
+    }
+
+    /**
+     * Starts playing raw audio held in memory to a specific mixer and returns as soon as the playback has started.
+     *
+     * @param data         - the audio frames
+     * @param audioFormat  - the format of the audio frames
+     * @param mixerNumber  - The index number for the mixer array, pass -1 for default output
+     * @param lineListener - listener for the events of the playing line, may be null
+     * @return a future completed once the playback has ended and the line is closed
+     * @throws AudioException - exception in starting the playback
+     */
+    public static CompletableFuture<Void> startAudio(final byte[] data, final AudioFormat audioFormat, final int mixerNumber,
+                                                     final LineListener lineListener) throws AudioException {
+        return startAudio(data, audioFormat, MixerIndex.getEntry(mixerNumber), lineListener);
+    }
+
+    /**
+     * Starts playing raw audio held in memory to a mixer resolved beforehand and returns as soon as the playback has
+     * started.
+     *
+     * @param data         - the audio frames
+     * @param audioFormat  - the format of the audio frames
+     * @param mixer        - The entry of the mixer, MixerIndex.DEFAULT for default output
+     * @param lineListener - listener for the events of the playing line, may be null
+     * @return a future completed once the playback has ended and the line is closed
+     * @throws AudioException - exception in starting the playback
+     */
+    public static CompletableFuture<Void> startAudio(final byte[] data, final AudioFormat audioFormat,
+                                                     final MixerIndex.Entry mixer,
+                                                     final LineListener lineListener) throws AudioException {
+        long frames = data.length / audioFormat.getFrameSize();
+        long duration = (long) (frames * 1000000.0 / audioFormat.getFrameRate());
+        AudioInputStream audioInputStream = new AudioInputStream(new ByteArrayInputStream(data), audioFormat, frames);
+        return startAudio(duration, mixer, audioFormat, audioInputStream, lineListener,
+                PhaseTimings.disabled()).getCompletion();
+    }
+
+    /**
+     * Plays the audio input stream using the provided port number and waits for the playback to end,
+     * and throws an exception if the play fails.
+     *
+     * @param duration         - The duration of the audio in microseconds
+     * @param mixer            - The entry of the mixer, MixerIndex.DEFAULT for default output
+     * @param audioFormat      - Format to use
+     * @param audioInputStream - The audio input stream
+     * @param lineListener     - An additional listener for the events of the playing line, may be null
+     * @throws AudioException - exception in playing voice
+     */
+    private static void playAudio(final long duration, final MixerIndex.Entry mixer, final AudioFormat audioFormat,
+                                  final AudioInputStream audioInputStream, final LineListener lineListener) throws AudioException {
+        ClipPlayback playback = startAudio(duration, mixer, audioFormat, audioInputStream, lineListener,
+                PhaseTimings.disabled());
+        try {
+            playback.getCompletion().get();
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            playback.finish();
+            throw new AudioException("The playing thread was interrupted during the playback", e);
+        } catch (ExecutionException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            throw new AudioException("Failed to play audio file", e);
+        }
+    }
+
+    /**
+     * Opens a clip on the audio input stream using the provided port number and starts it,
+     * and throws an exception if the clip cannot be started.
+     *
+     * @param duration         - The duration of the audio in microseconds
+     * @param mixer            - The entry of the mixer, MixerIndex.DEFAULT for default output
+     * @param audioFormat      - Format to use
+     * @param audioInputStream - The audio input stream
+     * @param lineListener     - An additional listener for the events of the playing line, may be null
+     * @param timings          - the timing breakdown the phases of the playback are marked into
+     * @return the running playback
+     * @throws AudioException - exception in starting the playback
+     */
+    private static ClipPlayback startAudio(final long duration, final MixerIndex.Entry mixer,
+                                           final AudioFormat audioFormat,
+                                           final AudioInputStream audioInputStream, final LineListener lineListener,
+                                           final PhaseTimings timings) throws AudioException {
 
         Clip audioClip = null;
+        boolean started = false;
 
         try {
             DataLine.Info info = new DataLine.Info(Clip.class, audioFormat);
+            long openStart = System.nanoTime();
 
-            //If no valid integer is passed in, we use AudioSystem to get any line that is capable of playing a Clip
-            //If there is a valid integer, get the mixer from the array of mixers and get the line that supports Clip
-            audioClip = mixerNumber < 0 ? (Clip) AudioSystem.getLine(info) : (Clip) AudioUtility.getMixers()[mixerNumber].getLine(info);
+            //For MixerIndex.DEFAULT, we use AudioSystem to get any line that is capable of playing a Clip
+            //For a specific mixer, get the line that supports Clip from the mixer of its entry
+            audioClip = (Clip) AudioUtility.getLine(info, mixer);
+            timings.mark("lineAcquired");
             audioClip.open(audioInputStream);
+            timings.mark("lineOpened");
+            AudioMetrics.lineOpen(AudioMetrics.PLAYBACK, mixer).recordSince(openStart);
+            if (lineListener != null) {
+                audioClip.addLineListener(lineListener);
+            }
 
-            PlaybackExecutor playingExecutor = new PlaybackExecutor(audioClip);
-
-            ExecutorService executorService = Executors.newSingleThreadExecutor();
-            executorService.execute(playingExecutor);
-
-            //Wait for executor service to finish
-            executorService.shutdown();
-            //Wait for up to the duration of the audio to terminate the thread
-            executorService.awaitTermination(audioFile.getDuration(), TimeUnit.MICROSECONDS);
+            ClipPlayback playback = new ClipPlayback(audioClip, duration + WATCHDOG_GRACE_MICROS,
+                    AudioMetrics.activeLines(AudioMetrics.PLAYBACK, mixer), timings);
+            audioClip.addLineListener(playback);
+            audioClip.start();
+            started = true;
+            return playback;
 
         } catch (LineUnavailableException e) {
             LOG.error(e.getMessage() + e.getCause());
@@ -128,16 +321,69 @@ public final class AudioPlayer {
         } catch (IOException e) {
             LOG.error(e.getMessage() + e.getCause());
             throw new AudioException("Failed to play audio file", e);
-        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
-            LOG.error(e.getMessage() + e.getCause());
-            throw new AudioException("Invalid mixer number: " + e.getMessage(), e);
-        } catch (InterruptedException e) {
+        } catch (IllegalArgumentException e) {
             LOG.error(e.getMessage() + e.getCause());
-            throw new AudioException("The playing thread was interrupted during the playback", e);
+            throw new AudioException("Invalid mixer " + mixer.getName() + ": " + e.getMessage(), e);
         } finally {
-            if (audioClip != null) {
+            if (!started && audioClip != null) {
                 audioClip.close();
             }
         }
     }
+
+    /**
+     * A started clip. It is closed when it reports STOP, or at the latest after the length of its audio
+     * and a grace period, for lines that never report it.
+     */
+    private static final class ClipPlayback implements LineListener {
+        private final Clip audioClip;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private final ScheduledFuture<?> watchdog;
+        private final Gauge activeLines;
+        private final PhaseTimings timings;
+        private final long startNanos = System.nanoTime();
+
+        private ClipPlayback(final Clip audioClip, final long timeoutMicros, final Gauge activeLines,
+                             final PhaseTimings timings) {
+            this.audioClip = audioClip;
+            this.activeLines = activeLines;
+            this.timings = timings;
+            activeLines.inc();
+            this.watchdog = AudioUtility.getTimer().schedule(this::finish, timeoutMicros, TimeUnit.MICROSECONDS);
+        }
+
+        @Override
+        public void update(final LineEvent event) {
+            LineEvent.Type eventType = event.getType();
+            if (eventType == LineEvent.Type.START) {
+                timings.mark("firstFrame");
+                LOG.info("Playback started");
+            } else if (eventType == LineEvent.Type.STOP) {
+                timings.mark("endOfAudio");
+                LOG.info("Playback completed");
+                // the line is not closed from its own event thread
+                AudioUtility.getTimer().execute(this::finish);
+            }
+        }
+
+        /**
+         * Closes the clip and completes the playback, only the first call has an effect
+         */
+        private synchronized void finish() {
+            if (completion.isDone()) {
+                return;
+            }
+            watchdog.cancel(false);
+            audioClip.removeLineListener(this);
+            audioClip.close();
+            timings.mark("lineClosed");
+            activeLines.dec();
+            AudioMetrics.PLAY.recordSince(startNanos);
+            completion.complete(null);
+        }
+
+        private CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+    }
 }
@@ -16,18 +16,22 @@
 
 package in.co.gauravtiwari.voice.server.audio.implementation;
 
+import in.co.gauravtiwari.voice.server.metrics.PhaseTimings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sound.sampled.*;
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * created By Gaurav Tiwari
  * <p>
  * AudioRecorder class is used to record audio coming in from an audio input
+ * <p>
+ * Recordings from AudioUtility.DRY_RUN_MIXER capture -DdryRunInput as fast as the CPU allows, they are limited to
+ * the frames of their record time instead of being stopped by the audio timer.
  */
 public final class AudioRecorder {
 
@@ -152,130 +156,374 @@ public final class AudioRecorder {
      * @throws AudioException is thrown if any error occurs
      */
     public static ByteArrayOutputStream record(final AudioFormat format, final long recordTime, final int mixerNumber) throws AudioException {
-        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+        RecordingSession session = startRecording(format, mixerNumber);
+        try {
+            Thread.sleep(recordTime);
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            session.stop();
+            throw new AudioException("Interrupted while waiting for recording to finish", e);
+        }
 
-        // checks if system supports the data line
-        if (!AudioSystem.isLineSupported(info)) {
-            LOG.error("Requested audio format is not supported not supported");
-            throw new AudioException("Requested audio format is not supported not supported");
+        // Stop recording after the recordTime
+        return session.stop();
+    }
+
+    /**
+     * Starts an open-ended recording with the default audio format on the given mixer.
+     * The recording continues until stop() is called on the returned session.
+     *
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @return the running recording session
+     * @throws AudioException is thrown if any error occurs
+     */
+    public static RecordingSession startRecording(final int mixerNumber) throws AudioException {
+        return startRecording(getDefaultAudioFormat(), mixerNumber);
+    }
+
+    /**
+     * Starts an open-ended recording with the given audio format on the given mixer.
+     * The recording continues until stop() is called on the returned session.
+     *
+     * @param format      an audio format object that defines the parameters for the recording
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @return the running recording session
+     * @throws AudioException is thrown if any error occurs
+     */
+    public static RecordingSession startRecording(final AudioFormat format, final int mixerNumber) throws AudioException {
+        return startRecording(format, mixerNumber, RecordingEncoding.PCM, 0);
+    }
+
+    /**
+     * The record method that allows the user to specify the record time, mixer number and the encoding applied
+     * to the recording while it is captured
+     *
+     * @param recordTime  the recording time in milliseconds eg. 1000 for 1 second
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @param encoding    the encoding applied to the recording
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @return the stopped recording session holding the recorded audio
+     * @throws AudioException is thrown if any error occurs
+     */
+    public static RecordingSession record(final long recordTime, final int mixerNumber, final RecordingEncoding encoding,
+                                          final float sampleRate) throws AudioException {
+        RecordingSession session = startRecording(getDefaultAudioFormat(), mixerNumber, encoding, sampleRate);
+        try {
+            Thread.sleep(recordTime);
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            session.stop();
+            throw new AudioException("Interrupted while waiting for recording to finish", e);
+        }
+
+        session.stop();
+        return session;
+    }
+
+    /**
+     * Starts a recording of the given length and returns at once, the recording is stopped by the audio timer
+     *
+     * @param recordTime  the recording time in milliseconds eg. 1000 for 1 second
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @param encoding    the encoding applied to the recording
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @return a future completed with the stopped recording session once the record time has elapsed
+     * @throws AudioException is thrown if the recording cannot be started
+     */
+    public static CompletableFuture<RecordingSession> startTimedRecording(final long recordTime, final int mixerNumber,
+                                                                          final RecordingEncoding encoding,
+                                                                          final float sampleRate) throws AudioException {
+        return startTimedRecording(recordTime, mixerNumber, encoding, sampleRate, PhaseTimings.disabled());
+    }
+
+    /**
+     * Starts a recording of the given length and returns at once, the recording is stopped by the audio timer
+     *
+     * @param recordTime  the recording time in milliseconds eg. 1000 for 1 second
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @param encoding    the encoding applied to the recording
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @param timings     the timing breakdown the phases of the recording are marked into
+     * @return a future completed with the stopped recording session once the record time has elapsed
+     * @throws AudioException is thrown if the recording cannot be started
+     */
+    public static CompletableFuture<RecordingSession> startTimedRecording(final long recordTime, final int mixerNumber,
+                                                                          final RecordingEncoding encoding,
+                                                                          final float sampleRate,
+                                                                          final PhaseTimings timings) throws AudioException {
+        return startTimedRecording(recordTime, MixerIndex.getEntry(mixerNumber), encoding, sampleRate, timings);
+    }
+
+    /**
+     * Starts a recording of the given length on a mixer resolved beforehand and returns at once, the recording is
+     * stopped by the audio timer
+     *
+     * @param recordTime the recording time in milliseconds eg. 1000 for 1 second
+     * @param mixer      the entry of the mixer, MixerIndex.DEFAULT to find any line suitable
+     * @param encoding   the encoding applied to the recording
+     * @param sampleRate the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @param timings    the timing breakdown the phases of the recording are marked into
+     * @return a future completed with the stopped recording session once the record time has elapsed
+     * @throws AudioException is thrown if the recording cannot be started
+     */
+    public static CompletableFuture<RecordingSession> startTimedRecording(final long recordTime,
+                                                                          final MixerIndex.Entry mixer,
+                                                                          final RecordingEncoding encoding,
+                                                                          final float sampleRate,
+                                                                          final PhaseTimings timings) throws AudioException {
+        AudioFormat format = getDefaultAudioFormat();
+        CompletableFuture<RecordingSession> recording = new CompletableFuture<>();
+        if (mixer.isDryRun()) {
+            RecordingSession session = startRecording(format, mixer, encoding, sampleRate, timings,
+                    toFrames(recordTime, format));
+            session.whenCaptured().thenRunAsync(() -> stop(session, recording), AudioUtility.getTimer());
+        } else {
+            RecordingSession session = startRecording(format, mixer, encoding, sampleRate, timings, 0);
+            AudioUtility.getTimer().schedule(() -> stop(session, recording), recordTime, TimeUnit.MILLISECONDS);
         }
+        return recording;
+    }
 
+    /**
+     * Stops a timed recording and completes its future
+     *
+     * @param session   the recording session
+     * @param recording the future of the timed recording
+     */
+    private static void stop(final RecordingSession session, final CompletableFuture<RecordingSession> recording) {
         try {
-            // If the passed in integer is -1, Use AudioSystem to obtain any line that can be used as a TargetDataLine
-            // If there is a specific integer, then go to that specific mixer in the mixer array and obtain a TargetDataLine from that mixer
-            TargetDataLine line = mixerNumber == -1 ? (TargetDataLine) AudioSystem.getLine(info) : (TargetDataLine) AudioUtility.getMixers()[mixerNumber].getLine(info);
+            session.stop();
+            recording.complete(session);
+        } catch (AudioException e) {
+            recording.completeExceptionally(e);
+        }
+    }
 
-            // Reserve the line for use
-            line.open(format);
+    /**
+     * Converts a record time into a number of frames
+     *
+     * @param recordTime the recording time in milliseconds
+     * @param format     the format of the recording
+     * @return the number of frames, at least 1
+     */
+    static long toFrames(final long recordTime, final AudioFormat format) {
+        return Math.max(1, (long) (recordTime * (double) format.getFrameRate() / 1000));
+    }
+
+    /**
+     * Starts an open-ended recording with the given audio format on the given mixer, encoding the frames while
+     * they are captured. The recording continues until stop() is called on the returned session.
+     *
+     * @param format      an audio format object that defines the parameters for the capture
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @param encoding    the encoding applied to the recording
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @return the running recording session
+     * @throws AudioException is thrown if any error occurs
+     */
+    public static RecordingSession startRecording(final AudioFormat format, final int mixerNumber,
+                                                  final RecordingEncoding encoding, final float sampleRate) throws AudioException {
+        return startRecording(format, mixerNumber, encoding, sampleRate, PhaseTimings.disabled());
+    }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /**
+     * Starts an open-ended recording with the given audio format on the given mixer, encoding the frames while
+     * they are captured. The recording continues until stop() is called on the returned session.
+     * On the dry run mixer it captures the default record time of audio at once.
+     *
+     * @param format      an audio format object that defines the parameters for the capture
+     * @param mixerNumber the number of the mixer desired, if -1 then the method will find any line suitable
+     * @param encoding    the encoding applied to the recording
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @param timings     the timing breakdown the phases of the recording are marked into
+     * @return the running recording session
+     * @throws AudioException is thrown if any error occurs
+     */
+    public static RecordingSession startRecording(final AudioFormat format, final int mixerNumber,
+                                                  final RecordingEncoding encoding, final float sampleRate,
+                                                  final PhaseTimings timings) throws AudioException {
+        return startRecording(format, MixerIndex.getEntry(mixerNumber), encoding, sampleRate, timings);
+    }
 
-            RecordingExecutor recordingExecutor = new RecordingExecutor(line, out);
-            Thread recordingThread = new Thread(recordingExecutor);
+    /**
+     * Starts an open-ended recording with the given audio format on a mixer resolved beforehand, encoding the frames
+     * while they are captured. The recording continues until stop() is called on the returned session.
+     * On the dry run mixer it captures the default record time of audio at once.
+     *
+     * @param format     an audio format object that defines the parameters for the capture
+     * @param mixer      the entry of the mixer, MixerIndex.DEFAULT to find any line suitable
+     * @param encoding   the encoding applied to the recording
+     * @param sampleRate the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @param timings    the timing breakdown the phases of the recording are marked into
+     * @return the running recording session
+     * @throws AudioException is thrown if any error occurs
+     */
+    public static RecordingSession startRecording(final AudioFormat format, final MixerIndex.Entry mixer,
+                                                  final RecordingEncoding encoding, final float sampleRate,
+                                                  final PhaseTimings timings) throws AudioException {
+        long frameLimit = mixer.isDryRun() ? toFrames(DEFAULT_RECORD_TIME, format) : 0;
+        return startRecording(format, mixer, encoding, sampleRate, timings, frameLimit);
+    }
 
-            // Listen to events emitted by line when it stops and closes
-            line.addLineListener(recordingExecutor);
+    /**
+     * Starts a recording with the given audio format on the given mixer, encoding the frames while they are captured.
+     * The recording continues until stop() is called on the returned session, or until it has captured the frame limit.
+     *
+     * @param format      an audio format object that defines the parameters for the capture
+     * @param mixer       the entry of the mixer, MixerIndex.DEFAULT to find any line suitable
+     * @param encoding    the encoding applied to the recording
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @param timings     the timing breakdown the phases of the recording are marked into
+     * @param frameLimit  the number of frames to capture, 0 or less for no limit
+     * @return the running recording session
+     * @throws AudioException is thrown if any error occurs
+     */
+    static RecordingSession startRecording(final AudioFormat format, final MixerIndex.Entry mixer,
+                                           final RecordingEncoding encoding, final float sampleRate,
+                                           final PhaseTimings timings, final long frameLimit) throws AudioException {
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
 
-            recordingThread.start();
-            Thread.sleep(recordTime);
+        // checks if system supports the data line, the dry run mixer is not one of its mixers
+        if (!mixer.isDryRun() && !AudioSystem.isLineSupported(info)) {
+            LOG.error("Requested audio format is not supported not supported");
+            throw new AudioException("Requested audio format is not supported not supported");
+        }
 
-            // Stop recording after the recordTime
-            line.stop();
+        try {
+            // For MixerIndex.DEFAULT, Use AudioSystem to obtain any line that can be used as a TargetDataLine
+            // For a specific mixer, obtain a TargetDataLine from the mixer of its entry
+            long openStart = System.nanoTime();
+            TargetDataLine line = (TargetDataLine) AudioUtility.getLine(info, mixer);
+            timings.mark("lineAcquired");
 
-            // Close the line to free up the resource
-            line.close();
+            // Reserve the line for use
+            line.open(format);
+            AudioMetrics.lineOpen(AudioMetrics.CAPTURE, mixer).recordSince(openStart);
+            timings.mark("lineOpened");
 
-            return out;
+            try {
+                return new RecordingSession(line, format, mixer, encoding, sampleRate, timings, frameLimit);
+            } catch (AudioException e) {
+                line.close();
+                throw e;
+            }
         } catch (LineUnavailableException e) {
             LOG.error(e.getMessage() + e.getCause());
             throw new AudioException("The audio line for recording is unavailable", e);
-        } catch (ArrayIndexOutOfBoundsException e) {
+        } catch (IllegalArgumentException e) {
             LOG.error(e.getMessage() + e.getCause());
             throw new AudioException("The specified audio mixer is invalid", e);
-        } catch (InterruptedException e) {
-            LOG.error(e.getMessage() + e.getCause());
-            throw new AudioException("Interrupted while waiting for recording to finish", e);
         }
-
     }
 
-        /**
-         * Generates an audio file from the stream. The file must be a WAV file.
-         *
-         * @param data the byte array
-         * @param outputFile the file in which to write the audio data could not be
-         *            written onto the file
-         */
-        public static void generateFile(byte[] data, File outputFile) {
+    /**
+     * Generates an audio file from the recorded audio. The file must be a WAV file.
+     * Recordings made with the default audio format can be passed as they are, audio that already
+     * carries a WAV header is written unchanged.
+     *
+     * @param data       the byte array
+     * @param outputFile the file in which to write the audio data
+     * @throws AudioException - the file is not a WAV file or could not be written
+     */
+    public static void generateFile(byte[] data, File outputFile) throws AudioException {
+        if (hasWavHeader(data)) {
             try {
-                AudioInputStream audioStream = getAudioStream(data);
-                if (outputFile.getName().endsWith("wav")) {
-                    int nb = AudioSystem.write(audioStream, AudioFileFormat.Type.WAVE,
-                            new FileOutputStream(outputFile));
-                    LOG.info("WAV file written to " + outputFile.getCanonicalPath()
-                            + " (" + (nb / 1000) + " kB)");
-                }
-                else {
-                    throw new RuntimeException("Unsupported encoding " + outputFile);
-                }
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-                throw new RuntimeException("could not generate file: " + e);
+                WavWriter.write(data, outputFile);
+                LOG.info("WAV file written to " + outputFile.getCanonicalPath() + " (" + (data.length / 1000) + " kB)");
+                return;
+            } catch (IOException e) {
+                LOG.error(e.getMessage() + e.getCause());
+                throw new AudioException("could not generate file " + outputFile + ": " + e.getMessage(), e);
             }
         }
+        generateFile(data, 0, data.length, getDefaultAudioFormat(), outputFile);
+    }
 
     /**
-     * Returns the audio stream corresponding to the array of bytes
+     * Generates an audio file from audio in the given format. The file must be a WAV file.
      *
-     * @param byteArray the byte array
-     * @return the converted audio stream
+     * @param data       the byte array
+     * @param format     the format of the audio, as returned by RecordingSession.getAudioFormat()
+     * @param outputFile the file in which to write the audio data
+     * @throws AudioException - the file is not a WAV file or could not be written
      */
-    public static AudioInputStream getAudioStream(byte[] byteArray) {
-        try {
-            try {
-                ByteArrayInputStream byteStream =
-                        new ByteArrayInputStream(byteArray);
-                return AudioSystem.getAudioInputStream(byteStream);
-            }
-            catch (UnsupportedAudioFileException e) {
-                byteArray = addWavHeader(byteArray);
-                ByteArrayInputStream byteStream =
-                        new ByteArrayInputStream(byteArray);
-                return AudioSystem.getAudioInputStream(byteStream);
-            }
+    public static void generateFile(byte[] data, AudioFormat format, File outputFile) throws AudioException {
+        generateFile(data, 0, data.length, format, outputFile);
+    }
+
+    /**
+     * Generates an audio file from recorded audio in the given format. The file must be a WAV file.
+     * The audio of a stopped RecordingSession is written from its buffer, without copying it first.
+     *
+     * @param audio      the recorded audio, as returned by RecordingSession.stop()
+     * @param format     the format of the audio, as returned by RecordingSession.getAudioFormat()
+     * @param outputFile the file in which to write the audio data
+     * @throws AudioException - the file is not a WAV file or could not be written
+     */
+    public static void generateFile(ByteArrayOutputStream audio, AudioFormat format, File outputFile)
+            throws AudioException {
+        if (audio instanceof RecordingBuffer) {
+            generateFile(((RecordingBuffer) audio).array(), 0, audio.size(), format, outputFile);
+        } else {
+            generateFile(audio.toByteArray(), format, outputFile);
         }
-        catch (IOException | UnsupportedAudioFileException e) {
-            throw new RuntimeException("cannot convert bytes to audio stream: " + e);
+    }
+
+    /**
+     * Writes the audio to the WAV file
+     *
+     * @param data       the byte array
+     * @param offset     offset of the first byte of audio
+     * @param length     number of bytes of audio
+     * @param format     the format of the audio
+     * @param outputFile the file in which to write the audio data
+     * @throws AudioException - the file is not a WAV file or could not be written
+     */
+    private static void generateFile(byte[] data, int offset, int length, AudioFormat format, File outputFile)
+            throws AudioException {
+        if (!outputFile.getName().endsWith("wav")) {
+            throw new AudioException("Unsupported encoding " + outputFile);
+        }
+        try {
+            WavWriter.write(data, offset, length, format, outputFile);
+            LOG.info("WAV file written to " + outputFile.getCanonicalPath()
+                    + " (" + (length / 1000) + " kB)");
+        } catch (IOException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            throw new AudioException("could not generate file " + outputFile + ": " + e.getMessage(), e);
         }
     }
 
     /**
-     * Adds a WAV header to the byte array
+     * Checks whether the byte array starts with a RIFF WAVE header
      *
-     * @param bytes the original array of bytes
-     * @return the new array with the header
-     * @throws IOException if the byte array is ill-formatted
+     * @param data the byte array
+     * @return true if the data is a WAV file
      */
-    private static byte[] addWavHeader(byte[] bytes) throws IOException {
-
-        ByteBuffer bufferWithHeader = ByteBuffer.allocate(bytes.length + 44);
-        bufferWithHeader.order(ByteOrder.LITTLE_ENDIAN);
-        bufferWithHeader.put("RIFF".getBytes());
-        bufferWithHeader.putInt(bytes.length + 36);
-        bufferWithHeader.put("WAVE".getBytes());
-        bufferWithHeader.put("fmt ".getBytes());
-        bufferWithHeader.putInt(16);
-        bufferWithHeader.putShort((short) 1);
-        bufferWithHeader.putShort((short) 1);
-        bufferWithHeader.putInt(16000);
-        bufferWithHeader.putInt(32000);
-        bufferWithHeader.putShort((short) 2);
-        bufferWithHeader.putShort((short) 16);
-        bufferWithHeader.put("data".getBytes());
-        bufferWithHeader.putInt(bytes.length);
-        bufferWithHeader.put(bytes);
-        return bufferWithHeader.array();
+    private static boolean hasWavHeader(byte[] data) {
+        return data.length >= 12
+                && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+                && data[8] == 'W' && data[9] == 'A' && data[10] == 'V' && data[11] == 'E';
     }
 
+    /**
+     * Returns the audio stream corresponding to the array of bytes.
+     * Raw frames without a header are taken to be in the default recording format.
+     *
+     * @param byteArray the byte array
+     * @return the converted audio stream
+     */
+    public static AudioInputStream getAudioStream(byte[] byteArray) {
+        ByteArrayInputStream byteStream = new ByteArrayInputStream(byteArray);
+        try {
+            return AudioSystem.getAudioInputStream(byteStream);
+        }
+        catch (UnsupportedAudioFileException e) {
+            AudioFormat format = getDefaultAudioFormat();
+            return new AudioInputStream(new ByteArrayInputStream(byteArray), format, byteArray.length / format.getFrameSize());
+        }
+        catch (IOException e) {
+            throw new RuntimeException("cannot convert bytes to audio stream: " + e);
+        }
+    }
 }
@@ -18,20 +18,42 @@ package in.co.gauravtiwari.voice.server.audio.implementation;
 
 
 import in.co.gauravtiwari.voice.server.audio.design.AudioFileModel;
+import in.co.gauravtiwari.voice.server.audio.virtual.VirtualAudio;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sound.sampled.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * created by Gaurav Tiwari
  * This class if for printing / getting general info for the audio
  */
 public final class AudioUtility {
+    /**
+     * Mixer number of the dry run mixer, see VirtualAudio.getDryRunMixer. Like -1 for the default mixer it can be
+     * passed wherever a mixer number is expected.
+     */
+    public static final int DRY_RUN_MIXER = -2;
+
     private static final Logger LOG = LoggerFactory.getLogger(AudioUtility.class);
+    private static final int TIMER_THREADS = 2;
+    private static final float PREPARE_SAMPLE_RATE = 44100;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final AtomicInteger TIMER_THREAD_COUNT = new AtomicInteger();
+    // ends timed playbacks and recordings, so no thread waits for them
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(TIMER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "audio-timer-" + TIMER_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * private constructor
@@ -40,22 +62,29 @@ public final class AudioUtility {
     }
 
     /**
-     * Prints the information of all the audio formats of all the lines that a mixer supports
+     * Returns the timer shared by the audio classes to end playbacks and recordings at a given time.
+     * Tasks run on it must be short.
      *
-     * @param mixer - the mixer to print out the info
+     * @return the audio timer
      */
-    private static void printMixerInfo(final Mixer mixer) {
-        Line.Info[] sourceLineInfo = mixer.getSourceLineInfo();
-        Line.Info[] targetLineInfo = mixer.getTargetLineInfo();
+    static ScheduledExecutorService getTimer() {
+        return TIMER;
+    }
 
+    /**
+     * Prints the information of all the audio formats of all the lines that a mixer supports
+     *
+     * @param mixer - the mixer of the MixerIndex to print out the info
+     */
+    private static void printMixerInfo(final MixerIndex.Entry mixer) {
         System.out.print(String.format("\tSupported output line audio formats:%n"));
-        for (int j = 0; j < sourceLineInfo.length; j++) {
-            printLineInfo(sourceLineInfo[j]);
+        for (Line.Info line : mixer.getSourceLines()) {
+            printLineInfo(line);
         }
 
         System.out.print(String.format("\tSupported input line audio formats:%n"));
-        for (int j = 0; j < targetLineInfo.length; j++) {
-            printLineInfo(targetLineInfo[j]);
+        for (Line.Info line : mixer.getTargetLines()) {
+            printLineInfo(line);
         }
     }
 
@@ -80,14 +109,12 @@ public final class AudioUtility {
      * Utility static method that lists out the audio mixers information
      */
     public static void printAudioInfo() {
-        Mixer.Info[] mixerInfos = AudioSystem.getMixerInfo();
         System.out.print(String.format("=======Mixer Information=======%n"));
 
-        for (int i = 0; i < mixerInfos.length; i++) {
-            System.out.print(String.format("Mixer Number: %d : %s%n", i, mixerInfos[i].getName()));
-            Mixer mixer = AudioSystem.getMixer(mixerInfos[i]);
+        for (MixerIndex.Entry entry : MixerIndex.getEntries()) {
+            System.out.print(String.format("Mixer Number: %d : %s%n", entry.getNumber(), entry.getName()));
 
-            printMixerInfo(mixer);
+            printMixerInfo(entry);
 
             System.out.print(String.format("=====================%n"));
         }
@@ -119,14 +146,144 @@ public final class AudioUtility {
     }
 
     /**
-     * Returns the mixers available to this system.
+     * Returns the mixers available to this system, as listed by the MixerIndex.
      *
      * @return an array of mixer objects
      */
     public static Mixer[] getMixers() {
-        return Arrays
-                .stream(AudioSystem.getMixerInfo())
-                .map(AudioSystem::getMixer)
+        return MixerIndex.getEntries()
+                .stream()
+                .map(MixerIndex.Entry::getMixer)
                 .toArray(Mixer[]::new);
     }
+
+    /**
+     * Loads the providers of AudioSystem and the mixer table, so the first playback or recording does not pay for
+     * their discovery: the mixers and their lines, then the file writers, file readers and format converters, by
+     * writing, parsing and converting a WAV file of one frame held in memory
+     */
+    public static void warmUp() {
+        for (Mixer mixer : getMixers()) {
+            mixer.getSourceLineInfo();
+            mixer.getTargetLineInfo();
+        }
+        AudioFormat format = AudioRecorder.getDefaultAudioFormat();
+        ByteArrayOutputStream wav = new ByteArrayOutputStream();
+        try {
+            AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(new byte[format.getFrameSize()]), format, 1),
+                    AudioFileFormat.Type.WAVE, wav);
+            AudioInputStream stream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wav.toByteArray()));
+            AudioSystem.getTargetEncodings(stream.getFormat());
+        } catch (UnsupportedAudioFileException | IOException e) {
+            LOG.warn("Audio warm up failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the driver of a mixer given by number, see prepareMixer(MixerIndex.Entry)
+     *
+     * @param mixerNumber - the index number for the mixer array, -1 for the default mixer
+     * @throws AudioException - when there is no such mixer or a line of the mixer cannot be opened
+     */
+    public static void prepareMixer(final int mixerNumber) throws AudioException {
+        prepareMixer(MixerIndex.getEntry(mixerNumber));
+    }
+
+    /**
+     * Opens and closes a clip and an input line of a mixer once, so the driver of its device is loaded and the first
+     * playback or recording on it does not pay for it. A mixer without a clip or without input lines is only
+     * prepared for the lines it has.
+     *
+     * @param mixer - the entry of the mixer, MixerIndex.DEFAULT for the default mixer
+     * @throws AudioException - when a line of the mixer cannot be opened
+     */
+    public static void prepareMixer(final MixerIndex.Entry mixer) throws AudioException {
+        AudioFormat playFormat = new AudioFormat(PREPARE_SAMPLE_RATE, 16, 2, true, false);
+        AudioFormat recordFormat = AudioRecorder.getDefaultAudioFormat();
+        DataLine.Info clipInfo = new DataLine.Info(Clip.class, playFormat);
+        DataLine.Info targetInfo = new DataLine.Info(TargetDataLine.class, recordFormat);
+        try {
+            if (isLineSupported(clipInfo, mixer)) {
+                Clip clip = (Clip) getLine(clipInfo, mixer);
+                clip.open(playFormat, new byte[playFormat.getFrameSize()], 0, playFormat.getFrameSize());
+                clip.close();
+            }
+            if (isLineSupported(targetInfo, mixer)) {
+                TargetDataLine line = (TargetDataLine) getLine(targetInfo, mixer);
+                line.open(recordFormat);
+                line.close();
+            }
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            throw new AudioException("Unable to prepare mixer " + mixer.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks whether a mixer has a line
+     *
+     * @param info  - the description of the line
+     * @param mixer - the entry of the mixer, MixerIndex.DEFAULT for any mixer
+     * @return true when the mixer supports the line, always for the dry run mixer
+     */
+    private static boolean isLineSupported(final Line.Info info, final MixerIndex.Entry mixer) {
+        if (mixer.isDryRun()) {
+            return true;
+        }
+        return mixer.getMixer() == null ? AudioSystem.isLineSupported(info) : mixer.getMixer().isLineSupported(info);
+    }
+
+    /**
+     * Gets a line from a mixer, it joins the LineGroup of the call starting on this thread
+     *
+     * @param info  - the description of the line
+     * @param mixer - the entry of the mixer, MixerIndex.DEFAULT for any mixer or MixerIndex.DRY_RUN
+     * @return the line, not yet open
+     * @throws LineUnavailableException - when the mixer has no line left, or the call was taken off the device
+     * @throws IllegalArgumentException - when the mixer does not support the line, or is no longer there
+     */
+    static Line getLine(final Line.Info info, final MixerIndex.Entry mixer) throws LineUnavailableException {
+        if (mixer.isDryRun()) {
+            return VirtualAudio.getDryRunMixer().getLine(info);
+        }
+        return LineGroup.track(mixer.getMixer() == null ? AudioSystem.getLine(info) : mixer.getMixer().getLine(info));
+    }
+
+    /**
+     * Checks whether a mixer number is the one of the dry run mixer
+     *
+     * @param mixerNumber - the mixer number
+     * @return true for DRY_RUN_MIXER
+     */
+    public static boolean isDryRun(final int mixerNumber) {
+        return mixerNumber == DRY_RUN_MIXER;
+    }
+
+    /**
+     * Reads a signed 16 bit sample from a byte array
+     *
+     * @param data      - the audio data
+     * @param offset    - offset of the first byte of the sample
+     * @param bigEndian - the byte order of the audio data
+     * @return the sample value between -32768 and 32767
+     */
+    public static int getSample(final byte[] data, final int offset, final boolean bigEndian) {
+        return bigEndian
+                ? (data[offset] << 8) | (data[offset + 1] & 0xFF)
+                : (data[offset + 1] << 8) | (data[offset] & 0xFF);
+    }
+
+    /**
+     * Converts bytes to lower case hex, as used for the content hashes of the voice files
+     *
+     * @param bytes - the bytes to convert
+     * @return the hex string
+     */
+    public static String toHex(final byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
 }
@@ -0,0 +1,95 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The outcome of comparing a recording with a reference. The lag is where the reference starts in the recording, in
+ * the frames of the recording, and the similarity is the normalized cross-correlation there.
+ */
+public final class ComparisonResult {
+    private final long lagFrames;
+    private final double lagMillis;
+    private final double similarity;
+    private final double snrDb;
+    private final int channel;
+
+    /**
+     * Constructor for ComparisonResult
+     *
+     * @param lagFrames  - frame of the recording at which the reference starts
+     * @param lagMillis  - the same lag in milliseconds, with the precision of the sub-sample peak
+     * @param similarity - normalized cross-correlation at the lag, between -1 and 1
+     * @param snrDb      - signal to noise ratio implied by the similarity, in dB
+     * @param channel    - the channel of the recording that matched best
+     */
+    ComparisonResult(final long lagFrames, final double lagMillis, final double similarity, final double snrDb,
+                     final int channel) {
+        this.lagFrames = lagFrames;
+        this.lagMillis = lagMillis;
+        this.similarity = similarity;
+        this.snrDb = snrDb;
+        this.channel = channel;
+    }
+
+    /**
+     * Getter for the frame of the recording at which the reference starts
+     *
+     * @return the lag in recording frames
+     */
+    public long getLagFrames() {
+        return lagFrames;
+    }
+
+    /**
+     * Getter for the lag in milliseconds
+     *
+     * @return the lag in milliseconds
+     */
+    public double getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Getter for the normalized cross-correlation at the lag
+     *
+     * @return the similarity, 1 for a recording identical to the reference from the lag on
+     */
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    /**
+     * Getter for the signal to noise ratio, what does not correlate with the reference counting as noise
+     *
+     * @return the ratio in dB
+     */
+    public double getSnrDb() {
+        return snrDb;
+    }
+
+    /**
+     * Getter for the channel of the recording that matched best
+     *
+     * @return the channel, 0 for the first
+     */
+    public int getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import in.co.gauravtiwari.voice.server.audio.design.AudioFileModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Keeps the decoded audio of voice files in memory, so playing them skips parsing and decoding, e.g. mp3 prompts
+ * preloaded at startup. Files are added with put and looked up by AudioPlayer, an entry is dropped when its file has
+ * changed since it was decoded. The least recently played entries are evicted beyond -DdecodedCacheMegabytes
+ * (defaults to 256) of audio.
+ * <p>
+ * With -DpcmCacheDir the decoded audio is also kept on disk by the PcmStore and mapped into memory from there, off
+ * the heap. A file missing from the cache is then looked up in the store before it is decoded, so the prompts
+ * decoded before a restart, or by another server sharing the directory, are played without decoding them again.
+ */
+public final class DecodedAudioCache {
+    private static final Logger LOG = LoggerFactory.getLogger(DecodedAudioCache.class);
+    private static final long MAX_BYTES = Math.max(0, Long.getLong("decodedCacheMegabytes", 256)) * 1024 * 1024;
+    private static final int READ_SIZE = 64 * 1024;
+
+    // in access order, the eldest entry is the least recently played
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes;
+
+    /**
+     * Private constructor
+     */
+    private DecodedAudioCache() {
+    }
+
+    /**
+     * Decodes a voice file and keeps its audio, it is taken from the PcmStore when it is already there
+     *
+     * @param file - the voice file
+     * @throws AudioException - when the file cannot be decoded or its audio is larger than the cache
+     */
+    public static void put(final File file) throws AudioException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        String storeKey = PcmStore.isEnabled() ? PcmStore.getKey(file) : null;
+        DecodedAudio audio = storeKey != null ? PcmStore.read(storeKey) : null;
+        if (audio != null) {
+            LOG.info("Mapped the decoded audio of {} from the store, {} bytes", file, audio.getSize());
+        } else {
+            audio = decode(file, storeKey);
+            LOG.info("Decoded {} into the cache, {} bytes", file, audio.getSize());
+        }
+        keep(file, new Entry(audio, lastModified, length));
+    }
+
+    /**
+     * Returns the decoded audio of a voice file, if it is cached or stored and the file has not changed since
+     *
+     * @param file - the voice file
+     * @return the decoded audio, null when it is not cached
+     */
+    static DecodedAudio get(final File file) {
+        Entry entry;
+        synchronized (ENTRIES) {
+            entry = ENTRIES.get(getKey(file));
+        }
+        if (entry != null && entry.lastModified == file.lastModified() && entry.length == file.length()) {
+            AudioMetrics.DECODED_CACHE_HITS.inc();
+            return entry.audio;
+        }
+        AudioMetrics.DECODED_CACHE_MISSES.inc();
+        return PcmStore.isEnabled() ? getStored(file) : null;
+    }
+
+    /**
+     * Tells the cache the SHA-256 of a voice file the server has just written, so the PcmStore finds its decoded
+     * audio without reading the file to hash it
+     *
+     * @param file - the voice file
+     * @param hash - the SHA-256 of its content in hex
+     */
+    public static void setContentHash(final File file, final String hash) {
+        if (PcmStore.isEnabled()) {
+            PcmStore.setKey(file, hash);
+        }
+    }
+
+    /**
+     * Returns the number of voice files in the cache
+     *
+     * @return the number of entries
+     */
+    public static int size() {
+        synchronized (ENTRIES) {
+            return ENTRIES.size();
+        }
+    }
+
+    /**
+     * Looks a voice file up in the PcmStore and keeps its audio when it is there. Only the files whose key is known
+     * are looked up, those the server wrote, downloaded or preloaded: hashing a whole file on the way to the device
+     * would cost about as much as decoding it.
+     *
+     * @param file - the voice file
+     * @return the decoded audio, null when it is not stored
+     */
+    private static DecodedAudio getStored(final File file) {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        String key = PcmStore.getKnownKey(file);
+        DecodedAudio audio = key != null ? PcmStore.read(key) : null;
+        if (audio == null || audio.getSize() > MAX_BYTES) {
+            AudioMetrics.PCM_STORE_MISSES.inc();
+            return null;
+        }
+        AudioMetrics.PCM_STORE_HITS.inc();
+        keep(file, new Entry(audio, lastModified, length));
+        return audio;
+    }
+
+    /**
+     * Decodes a voice file, and stores its audio when the PcmStore is enabled
+     *
+     * @param file     - the voice file
+     * @param storeKey - its key in the PcmStore, null when the store is not enabled
+     * @return the decoded audio, mapped from the store when it could be stored
+     */
+    private static DecodedAudio decode(final File file, final String storeKey) throws AudioException {
+        AudioFileModel audioFile = AudioUtility.getAudioFile(file);
+        AudioFormat format = audioFile.getAudioFormat();
+        byte[] data = readFully(audioFile.getAudioInputStream(), format);
+        if (data.length > MAX_BYTES) {
+            throw new AudioException("Decoded audio of " + file + " is larger than the cache");
+        }
+        DecodedAudio stored = storeKey != null ? PcmStore.write(storeKey, data, format, audioFile.getDuration()) : null;
+        return stored != null ? stored : new DecodedAudio(ByteBuffer.wrap(data), format, audioFile.getDuration());
+    }
+
+    /**
+     * Adds an entry to the cache and evicts the least recently played ones beyond its size
+     */
+    private static void keep(final File file, final Entry entry) {
+        synchronized (ENTRIES) {
+            Entry previous = ENTRIES.put(getKey(file), entry);
+            cachedBytes += entry.audio.getSize() - (previous != null ? previous.audio.getSize() : 0);
+            evict();
+            AudioMetrics.DECODED_CACHE_BYTES.add(cachedBytes - AudioMetrics.DECODED_CACHE_BYTES.get());
+        }
+    }
+
+    /**
+     * Drops the least recently played entries until the cache fits in its size, under the lock
+     */
+    private static void evict() {
+        Iterator<Entry> eldest = ENTRIES.values().iterator();
+        while (cachedBytes > MAX_BYTES && eldest.hasNext()) {
+            cachedBytes -= eldest.next().audio.getSize();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Key of a voice file in the cache
+     */
+    private static String getKey(final File file) {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Reads a decoded stream to its end, in whole frames
+     */
+    private static byte[] readFully(final AudioInputStream stream, final AudioFormat format) throws AudioException {
+        int frameSize = Math.max(1, format.getFrameSize());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_SIZE - READ_SIZE % frameSize];
+        try (AudioInputStream in = stream) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            throw new AudioException("Failed to decode audio file", e);
+        }
+        byte[] data = out.toByteArray();
+        int whole = data.length - data.length % frameSize;
+        if (whole == data.length) {
+            return data;
+        }
+        byte[] frames = new byte[whole];
+        System.arraycopy(data, 0, frames, 0, whole);
+        return frames;
+    }
+
+    /**
+     * A voice file in the cache, with the modification time and the length it had when it was decoded
+     */
+    private static final class Entry {
+        private final DecodedAudio audio;
+        private final long lastModified;
+        private final long length;
+
+        private Entry(final DecodedAudio audio, final long lastModified, final long length) {
+            this.audio = audio;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The decoded audio of a voice file, in the heap or mapped from the PcmStore
+     */
+    static final class DecodedAudio {
+        private final ByteBuffer data;
+        private final AudioFormat format;
+        private final long duration;
+
+        /**
+         * Constructor for DecodedAudio
+         *
+         * @param data     - the frames, from the position to the limit of the buffer
+         * @param format   - their format
+         * @param duration - their duration in microseconds
+         */
+        DecodedAudio(final ByteBuffer data, final AudioFormat format, final long duration) {
+            this.data = data;
+            this.format = format;
+            this.duration = duration;
+        }
+
+        /**
+         * Getter for the format of the audio
+         *
+         * @return the decoded format
+         */
+        AudioFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * Getter for the duration of the audio
+         *
+         * @return the duration in microseconds
+         */
+        long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Getter for the size of the audio
+         *
+         * @return the number of bytes of the frames
+         */
+        long getSize() {
+            return data.remaining();
+        }
+
+        /**
+         * Returns a new stream on the audio, it reads the frames where they are without copying them first
+         *
+         * @return the stream, at its first frame
+         */
+        AudioInputStream newStream() {
+            return new AudioInputStream(new BufferInputStream(data.duplicate()), format, data.remaining() / format.getFrameSize());
+        }
+    }
+
+    /**
+     * A stream reading a buffer from its position to its limit
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long count) {
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Downsamples signed 16 bit PCM by an integer factor. A windowed-sinc low-pass filter removes everything above the
+ * new Nyquist frequency before the samples are decimated, so nothing aliases into the lower rate.
+ */
+public class DownsamplingEncoder extends AudioEncoder {
+    // filter taps per unit of decimation factor on each side of the center tap
+    private static final int TAPS_PER_FACTOR = 8;
+    // cutoff as a fraction of the new Nyquist frequency, leaves room for the transition band of the filter
+    private static final double CUTOFF_RATIO = 0.9;
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
+
+    private final AudioFormat encodedFormat;
+    private final int factor;
+    private final float[] taps;
+    // per channel history, every sample is stored twice so the filter always reads a contiguous window
+    private final float[][] history;
+    private final int[] historyPosition;
+    private final int[] phase;
+    private final byte[] output;
+    private int outputLength;
+
+    /**
+     * Constructor for the downsampling encoder
+     *
+     * @param out          - the stream the encoded audio is written to
+     * @param sourceFormat - the format of the PCM frames written to this encoder
+     * @param sampleRate   - the sample rate to downsample to, it must divide the source sample rate
+     * @throws AudioException - thrown when the source format is not signed 16 bit PCM or the rate does not divide it
+     */
+    public DownsamplingEncoder(final OutputStream out, final AudioFormat sourceFormat, final float sampleRate) throws AudioException {
+        super(out, sourceFormat);
+        float ratio = sourceFormat.getSampleRate() / sampleRate;
+        if (sampleRate <= 0 || ratio < 1 || Math.abs(ratio - Math.round(ratio)) > 1e-6) {
+            throw new AudioException("The sample rate " + sampleRate + " must divide the recording sample rate "
+                    + sourceFormat.getSampleRate());
+        }
+        this.factor = Math.round(ratio);
+        this.taps = createLowPassFilter(factor);
+        int channels = getChannels();
+        this.history = new float[channels][taps.length * 2];
+        this.historyPosition = new int[channels];
+        this.phase = new int[channels];
+        this.output = new byte[OUTPUT_BUFFER_SIZE - OUTPUT_BUFFER_SIZE % (2 * channels)];
+        this.encodedFormat = new AudioFormat(sampleRate, 16, channels, true, sourceFormat.isBigEndian());
+    }
+
+    /**
+     * Creates a Hamming windowed-sinc low-pass filter for the decimation factor, normalized to unity gain
+     *
+     * @param factor - the decimation factor
+     * @return the filter taps
+     */
+    private static float[] createLowPassFilter(final int factor) {
+        int half = TAPS_PER_FACTOR * factor;
+        float[] filter = new float[2 * half + 1];
+        // cutoff in cycles per input sample
+        double cutoff = CUTOFF_RATIO * 0.5 / factor;
+        double sum = 0;
+        for (int n = 0; n < filter.length; n++) {
+            int m = n - half;
+            double sinc = m == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * m) / (Math.PI * m);
+            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * n / (filter.length - 1));
+            filter[n] = (float) (sinc * window);
+            sum += filter[n];
+        }
+        for (int n = 0; n < filter.length; n++) {
+            filter[n] /= sum;
+        }
+        return filter;
+    }
+
+    @Override
+    protected void encodeSample(final int sample, final int channel) throws IOException {
+        float[] channelHistory = history[channel];
+        int position = historyPosition[channel];
+        channelHistory[position] = sample;
+        channelHistory[position + taps.length] = sample;
+        position = position + 1 == taps.length ? 0 : position + 1;
+        historyPosition[channel] = position;
+
+        if (factor == 1 || ++phase[channel] == factor) {
+            phase[channel] = 0;
+            // the window starting at position holds the last taps.length samples, oldest first
+            float filtered = 0;
+            for (int n = 0; n < taps.length; n++) {
+                filtered += taps[n] * channelHistory[position + n];
+            }
+            writeSample(Math.round(Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, filtered))));
+        }
+    }
+
+    /**
+     * Appends a sample to the output buffer and writes the buffer out when it is full
+     */
+    private void writeSample(final int sample) throws IOException {
+        if (isBigEndian()) {
+            output[outputLength++] = (byte) (sample >> 8);
+            output[outputLength++] = (byte) sample;
+        } else {
+            output[outputLength++] = (byte) sample;
+            output[outputLength++] = (byte) (sample >> 8);
+        }
+        if (outputLength == output.length) {
+            emit(output, 0, outputLength);
+            outputLength = 0;
+        }
+    }
+
+    @Override
+    protected void finishEncoding() throws IOException {
+        if (outputLength > 0) {
+            emit(output, 0, outputLength);
+            outputLength = 0;
+        }
+    }
+
+    @Override
+    public AudioFormat getEncodedFormat() {
+        return encodedFormat;
+    }
+}
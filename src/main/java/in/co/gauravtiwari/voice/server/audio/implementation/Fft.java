@@ -0,0 +1,127 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * In place radix-2 fast Fourier transform of complex signals held in two primitive arrays, the real and the
+ * imaginary parts. The twiddle factors of each size are computed once and shared by all the threads.
+ */
+final class Fft {
+    private static final Map<Integer, double[][]> TWIDDLES = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor
+     */
+    private Fft() {
+    }
+
+    /**
+     * Returns the smallest power of two not below a size
+     *
+     * @param size - the size, at least 1
+     * @return the power of two
+     */
+    static int getSize(final int size) {
+        int n = Integer.highestOneBit(Math.max(1, size));
+        return n == size ? n : n << 1;
+    }
+
+    /**
+     * Transforms a signal in place
+     *
+     * @param re      - the real parts, its length must be a power of two
+     * @param im      - the imaginary parts, of the same length
+     * @param inverse - true for the inverse transform, scaled by 1/n so it undoes the forward transform
+     */
+    static void transform(final double[] re, final double[] im, final boolean inverse) {
+        int n = re.length;
+        if (Integer.bitCount(n) != 1 || im.length != n) {
+            throw new IllegalArgumentException("Transform size must be a power of two, not " + n);
+        }
+        reorder(re, im);
+        double[][] twiddles = TWIDDLES.computeIfAbsent(n, Fft::createTwiddles);
+        double[] cos = twiddles[0];
+        double[] sin = twiddles[1];
+        double sign = inverse ? 1 : -1;
+        for (int half = 1; half < n; half <<= 1) {
+            int stride = n / (half << 1);
+            for (int start = 0; start < n; start += half << 1) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * stride];
+                    double wi = sign * sin[k * stride];
+                    int even = start + k;
+                    int odd = even + half;
+                    double tr = re[odd] * wr - im[odd] * wi;
+                    double ti = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - tr;
+                    im[odd] = im[even] - ti;
+                    re[even] += tr;
+                    im[even] += ti;
+                }
+            }
+        }
+        if (inverse) {
+            double scale = 1.0 / n;
+            for (int i = 0; i < n; i++) {
+                re[i] *= scale;
+                im[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Puts the samples in bit reversed order
+     */
+    private static void reorder(final double[] re, final double[] im) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+    }
+
+    /**
+     * Computes the cosines and sines of the first half turn for a size
+     */
+    private static double[][] createTwiddles(final int n) {
+        double[] cos = new double[Math.max(1, n / 2)];
+        double[] sin = new double[cos.length];
+        for (int k = 0; k < cos.length; k++) {
+            double angle = 2 * Math.PI * k / n;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+        return new double[][]{cos, sin};
+    }
+}
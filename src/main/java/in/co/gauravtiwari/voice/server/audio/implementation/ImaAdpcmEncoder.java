@@ -0,0 +1,191 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Encodes signed 16 bit PCM to IMA ADPCM as laid out in WAV files (format tag 0x11), 4 bits per sample.
+ * Every block starts with a header per channel holding the first sample and the step index, followed by
+ * 4 byte words of 8 samples interleaved per channel.
+ */
+public class ImaAdpcmEncoder extends AudioEncoder {
+    /**
+     * The encoding of IMA ADPCM audio
+     */
+    public static final AudioFormat.Encoding IMA_ADPCM = new AudioFormat.Encoding("IMA_ADPCM");
+    /**
+     * The AudioFormat property holding the number of sample frames per block
+     */
+    public static final String SAMPLES_PER_BLOCK = "samplesPerBlock";
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+    private static final int[] INDEX_TABLE = {-1, -1, -1, -1, 2, 4, 6, 8};
+    private static final int HEADER_BYTES_PER_CHANNEL = 4;
+    private static final int SAMPLES_PER_WORD = 8;
+    private static final int BLOCK_BYTES_PER_CHANNEL = 256;
+    private static final float BLOCK_SAMPLE_RATE_STEP = 11025;
+
+    private final AudioFormat encodedFormat;
+    private final int samplesPerBlock;
+    private final byte[] block;
+    private final int[] predictor;
+    private final int[] index;
+    // number of samples of the current block already encoded, per channel
+    private final int[] blockSamples;
+
+    /**
+     * Constructor for the IMA ADPCM encoder
+     *
+     * @param out          - the stream the encoded audio is written to
+     * @param sourceFormat - the format of the PCM frames written to this encoder
+     * @throws AudioException - thrown when the source format is not signed 16 bit PCM
+     */
+    public ImaAdpcmEncoder(final OutputStream out, final AudioFormat sourceFormat) throws AudioException {
+        super(out, sourceFormat);
+        int channels = getChannels();
+        // Same block sizes as the usual WAV encoders: 256 bytes per channel per 11 kHz of sample rate
+        int blockAlign = BLOCK_BYTES_PER_CHANNEL * channels
+                * Math.max(1, Math.round(sourceFormat.getSampleRate() / BLOCK_SAMPLE_RATE_STEP));
+        this.samplesPerBlock = (blockAlign - HEADER_BYTES_PER_CHANNEL * channels) * 2 / channels + 1;
+        this.block = new byte[blockAlign];
+        this.predictor = new int[channels];
+        this.index = new int[channels];
+        this.blockSamples = new int[channels];
+        this.encodedFormat = new AudioFormat(IMA_ADPCM, sourceFormat.getSampleRate(), 4, channels, blockAlign,
+                sourceFormat.getSampleRate() / samplesPerBlock, false,
+                Collections.<String, Object>singletonMap(SAMPLES_PER_BLOCK, samplesPerBlock));
+    }
+
+    @Override
+    protected void encodeSample(final int sample, final int channel) throws IOException {
+        int position = blockSamples[channel]++;
+        if (position == 0) {
+            // The first sample of every block is stored uncompressed in the block header
+            predictor[channel] = sample;
+            int header = channel * HEADER_BYTES_PER_CHANNEL;
+            block[header] = (byte) sample;
+            block[header + 1] = (byte) (sample >> 8);
+            block[header + 2] = (byte) index[channel];
+            block[header + 3] = 0;
+        } else {
+            int nibble = encodeNibble(sample, channel);
+            int channels = getChannels();
+            int word = (position - 1) / SAMPLES_PER_WORD;
+            int inWord = (position - 1) % SAMPLES_PER_WORD;
+            int offset = HEADER_BYTES_PER_CHANNEL * channels
+                    + (word * channels + channel) * HEADER_BYTES_PER_CHANNEL + inWord / 2;
+            if (inWord % 2 == 0) {
+                block[offset] = (byte) nibble;
+            } else {
+                block[offset] |= (byte) (nibble << 4);
+            }
+        }
+
+        if (channel == getChannels() - 1 && blockSamples[channel] == samplesPerBlock) {
+            emit(block, 0, block.length);
+            for (int c = 0; c < blockSamples.length; c++) {
+                blockSamples[c] = 0;
+            }
+        }
+    }
+
+    /**
+     * Quantizes the difference between the sample and the prediction to 4 bits and updates the channel state
+     * the same way the decoder will
+     *
+     * @param sample  - the sample value
+     * @param channel - the channel of the sample
+     * @return the 4 bit code
+     */
+    private int encodeNibble(final int sample, final int channel) {
+        int step = STEP_TABLE[index[channel]];
+        int diff = sample - predictor[channel];
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        int delta = step >> 3;
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+            delta += step;
+        }
+
+        int prediction = (nibble & 8) != 0 ? predictor[channel] - delta : predictor[channel] + delta;
+        predictor[channel] = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, prediction));
+        index[channel] = Math.max(0, Math.min(STEP_TABLE.length - 1, index[channel] + INDEX_TABLE[nibble & 7]));
+        return nibble;
+    }
+
+    @Override
+    protected void finishEncoding() throws IOException {
+        int samples = blockSamples[0];
+        if (samples == 0) {
+            return;
+        }
+        // The last block is cut after the last complete word, the unused nibbles of that word are left at zero
+        int channels = getChannels();
+        int words = (samples - 1 + SAMPLES_PER_WORD - 1) / SAMPLES_PER_WORD;
+        int length = HEADER_BYTES_PER_CHANNEL * channels * (1 + words);
+        int lastWordFill = (samples - 1) % SAMPLES_PER_WORD;
+        if (lastWordFill != 0) {
+            for (int c = 0; c < channels; c++) {
+                int offset = HEADER_BYTES_PER_CHANNEL * channels
+                        + ((words - 1) * channels + c) * HEADER_BYTES_PER_CHANNEL;
+                for (int b = (lastWordFill + 1) / 2; b < HEADER_BYTES_PER_CHANNEL; b++) {
+                    block[offset + b] = 0;
+                }
+                if (lastWordFill % 2 == 1) {
+                    block[offset + lastWordFill / 2] &= 0x0F;
+                }
+            }
+        }
+        emit(block, 0, length);
+        for (int c = 0; c < blockSamples.length; c++) {
+            blockSamples[c] = 0;
+        }
+    }
+
+    @Override
+    public AudioFormat getEncodedFormat() {
+        return encodedFormat;
+    }
+}
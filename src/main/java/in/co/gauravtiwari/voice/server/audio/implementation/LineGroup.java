@@ -0,0 +1,124 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The audio lines taken by one call on a device, so the call can be taken off the device by closing them.
+ * A call started through call gets its lines added to the group, the lines opened once the group is closed are
+ * refused with LineUnavailableException. Closing the lines ends the playback or the recording holding them the way
+ * the end of its audio would.
+ * <p>
+ * A group created while a call of another group starts is nested in it, as for a call holding two devices: its
+ * lines also belong to the enclosing group, and closing the enclosing group closes them too.
+ */
+public final class LineGroup {
+    private static final ThreadLocal<LineGroup> CURRENT = new ThreadLocal<>();
+
+    private final LineGroup parent = CURRENT.get();
+    private final List<Line> lines = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Starts a call, the lines it gets while it starts belong to this group
+     *
+     * @param start - starts the call, on the calling thread
+     * @param <T>   - the result of the start
+     * @return what start returned
+     * @throws Exception - what start threw
+     */
+    public <T> T call(final Callable<T> start) throws Exception {
+        LineGroup previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return start.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Stops and closes the lines of the group, and the lines the call gets later. Only the first call has an effect.
+     */
+    public void close() {
+        List<Line> taken;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            taken = new ArrayList<>(lines);
+            lines.clear();
+        }
+        for (Line line : taken) {
+            if (line instanceof DataLine) {
+                ((DataLine) line).stop();
+            }
+            line.close();
+        }
+    }
+
+    /**
+     * Adds a line to the group of the call starting on this thread, if any
+     *
+     * @param line - the line just taken from its mixer
+     * @return the line
+     * @throws LineUnavailableException - when the group of the call is already closed
+     */
+    static Line track(final Line line) throws LineUnavailableException {
+        LineGroup group = CURRENT.get();
+        if (group == null) {
+            return line;
+        }
+        if (group.add(line)) {
+            return line;
+        }
+        for (LineGroup taken = group; taken != null; taken = taken.parent) {
+            taken.remove(line);
+        }
+        line.close();
+        throw new LineUnavailableException("The device was taken by a call of higher priority");
+    }
+
+    /**
+     * Adds a line to this group and the groups it is nested in
+     *
+     * @return false when one of them is already closed
+     */
+    private boolean add(final Line line) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            lines.add(line);
+        }
+        return parent == null || parent.add(line);
+    }
+
+    private synchronized void remove(final Line line) {
+        lines.remove(line);
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The mixers of the system with their lines, looked up by number or by name without asking AudioSystem again.
+ * The numbers are the positions in AudioSystem.getMixerInfo, as before, and change when devices are plugged in or
+ * out, the names of the devices do not: a mixer is named after its Mixer.Info name, followed by #2, #3... when
+ * several mixers share it.
+ * <p>
+ * The index is checked against AudioSystem every -DmixerRefreshSeconds (defaults to 10, 0 to never check) and when a
+ * name is not found. Only the mixers that appeared are described again, the others keep their entry.
+ * <p>
+ * A call resolves its mixer once, by name or number, to an Entry and passes the entry down: it keeps addressing the
+ * same device when the numbers change while it waits for the device or runs. The default mixer of AudioSystem and
+ * the dry run mixer have entries of their own, DEFAULT and DRY_RUN, which are not listed.
+ */
+public final class MixerIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(MixerIndex.class);
+    private static final long REFRESH_SECONDS = Long.getLong("mixerRefreshSeconds", 10);
+
+    /**
+     * Any suitable mixer of AudioSystem, mixer number -1
+     */
+    public static final Entry DEFAULT = new Entry(-1, "default");
+
+    /**
+     * The dry run mixer, AudioUtility.DRY_RUN_MIXER
+     */
+    public static final Entry DRY_RUN = new Entry(AudioUtility.DRY_RUN_MIXER, "dryrun");
+
+    private static volatile Snapshot snapshot =
+            Snapshot.build(Collections.<String, Entry>emptyMap(), AudioSystem.getMixerInfo());
+
+    static {
+        if (REFRESH_SECONDS > 0) {
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mixer-index");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(MixerIndex::refresh, REFRESH_SECONDS, REFRESH_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Private constructor
+     */
+    private MixerIndex() {
+    }
+
+    /**
+     * Returns the mixers in the order of their numbers
+     *
+     * @return the entries of the mixers
+     */
+    public static List<Entry> getEntries() {
+        return snapshot.entries;
+    }
+
+    /**
+     * Returns the entry of a mixer by number, checking AudioSystem again when the number is past the known mixers
+     *
+     * @param mixerNumber - the index number for the mixer array, -1 for DEFAULT or AudioUtility.DRY_RUN_MIXER
+     * @return the entry of the mixer
+     * @throws AudioException - when there is no such mixer
+     */
+    public static Entry getEntry(final int mixerNumber) throws AudioException {
+        if (mixerNumber == AudioUtility.DRY_RUN_MIXER) {
+            return DRY_RUN;
+        }
+        if (mixerNumber < 0) {
+            return DEFAULT;
+        }
+        List<Entry> entries = snapshot.entries;
+        if (mixerNumber >= entries.size()) {
+            refresh();
+            entries = snapshot.entries;
+        }
+        if (mixerNumber >= entries.size()) {
+            throw new AudioException("No mixer " + mixerNumber);
+        }
+        return entries.get(mixerNumber);
+    }
+
+    /**
+     * Returns the entry of a mixer by name, checking AudioSystem again when the name is not known
+     *
+     * @param name - the name of the mixer, as listed by getEntries
+     * @return the entry of the mixer
+     * @throws AudioException - when there is no mixer of that name
+     */
+    public static Entry getEntry(final String name) throws AudioException {
+        Entry entry = snapshot.byName.get(name);
+        if (entry == null) {
+            refresh();
+            entry = snapshot.byName.get(name);
+        }
+        if (entry == null) {
+            throw new AudioException("No mixer named " + name);
+        }
+        return entry;
+    }
+
+    /**
+     * Checks the index against the mixers of AudioSystem and rebuilds it when they have changed
+     */
+    public static synchronized void refresh() {
+        Snapshot current = snapshot;
+        Mixer.Info[] infos = AudioSystem.getMixerInfo();
+        if (current.matches(infos)) {
+            return;
+        }
+        Map<String, Entry> known = new HashMap<>();
+        for (Entry entry : current.entries) {
+            known.put(entry.key, entry);
+        }
+        Snapshot rebuilt = Snapshot.build(known, infos);
+        snapshot = rebuilt;
+        LOG.info("Mixer index rebuilt with {} mixers", rebuilt.entries.size());
+    }
+
+    /**
+     * Identifies a Mixer.Info across calls to AudioSystem, which may return new objects for the same device
+     */
+    private static String getKey(final Mixer.Info info) {
+        return info.getName() + '\n' + info.getVendor() + '\n' + info.getDescription() + '\n' + info.getVersion();
+    }
+
+    /**
+     * The index at a point in time, never changed once built
+     */
+    private static final class Snapshot {
+        private final List<Entry> entries;
+        private final Map<String, Entry> byName;
+
+        private Snapshot(final List<Entry> entries, final Map<String, Entry> byName) {
+            this.entries = entries;
+            this.byName = byName;
+        }
+
+        /**
+         * Builds the index of the given mixers, reusing the entries of those already known
+         */
+        private static Snapshot build(final Map<String, Entry> known, final Mixer.Info[] infos) {
+            List<Entry> entries = new ArrayList<>(infos.length);
+            Map<String, Entry> byName = new HashMap<>();
+            Map<String, Integer> nameCounts = new HashMap<>();
+            for (int number = 0; number < infos.length; number++) {
+                String key = getKey(infos[number]);
+                int count = nameCounts.merge(infos[number].getName(), 1, Integer::sum);
+                String name = count == 1 ? infos[number].getName() : infos[number].getName() + " #" + count;
+                Entry previous = known.get(key);
+                Entry entry = previous != null && previous.name.equals(name)
+                        ? new Entry(number, previous)
+                        : new Entry(number, name, key, AudioSystem.getMixer(infos[number]));
+                entries.add(entry);
+                byName.put(name, entry);
+            }
+            return new Snapshot(Collections.unmodifiableList(entries), byName);
+        }
+
+        /**
+         * Checks whether the index lists the given mixers, in the same order
+         */
+        private boolean matches(final Mixer.Info[] infos) {
+            if (infos.length != entries.size()) {
+                return false;
+            }
+            for (int i = 0; i < infos.length; i++) {
+                if (!entries.get(i).key.equals(getKey(infos[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A mixer of the index with the descriptions of its lines
+     */
+    public static final class Entry {
+        private final int number;
+        private final String name;
+        private final String key;
+        private final Mixer mixer;
+        private final List<Line.Info> sourceLines;
+        private final List<Line.Info> targetLines;
+
+        private Entry(final int number, final String name, final String key, final Mixer mixer) {
+            this.number = number;
+            this.name = name;
+            this.key = key;
+            this.mixer = mixer;
+            this.sourceLines = Collections.unmodifiableList(Arrays.asList(mixer.getSourceLineInfo()));
+            this.targetLines = Collections.unmodifiableList(Arrays.asList(mixer.getTargetLineInfo()));
+        }
+
+        private Entry(final int number, final String name) {
+            this.number = number;
+            this.name = name;
+            this.key = name;
+            this.mixer = null;
+            this.sourceLines = Collections.emptyList();
+            this.targetLines = Collections.emptyList();
+        }
+
+        private Entry(final int number, final Entry known) {
+            this.number = number;
+            this.name = known.name;
+            this.key = known.key;
+            this.mixer = known.mixer;
+            this.sourceLines = known.sourceLines;
+            this.targetLines = known.targetLines;
+        }
+
+        /**
+         * Getter for the number of the mixer, at the time the entry was looked up
+         *
+         * @return the index number for the mixer array, -1 for DEFAULT or AudioUtility.DRY_RUN_MIXER for DRY_RUN
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Getter for the name of the mixer
+         *
+         * @return the name, unique among the mixers
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Getter for the mixer
+         *
+         * @return the mixer, null for DEFAULT and DRY_RUN
+         */
+        public Mixer getMixer() {
+            return mixer;
+        }
+
+        /**
+         * Checks whether this is the entry of the dry run mixer
+         *
+         * @return true for DRY_RUN
+         */
+        public boolean isDryRun() {
+            return this == DRY_RUN;
+        }
+
+        /**
+         * Getter for the output lines of the mixer
+         *
+         * @return the descriptions of the clips, source data lines and ports
+         */
+        public List<Line.Info> getSourceLines() {
+            return sourceLines;
+        }
+
+        /**
+         * Getter for the input lines of the mixer
+         *
+         * @return the descriptions of the target data lines and ports
+         */
+        public List<Line.Info> getTargetLines() {
+            return targetLines;
+        }
+    }
+}
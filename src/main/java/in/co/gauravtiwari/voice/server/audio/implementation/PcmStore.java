@@ -0,0 +1,268 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Keeps decoded audio on disk in -DpcmCacheDir, so the DecodedAudioCache is warm again after a restart. Each voice
+ * file is stored under the SHA-256 of its content, a downloaded prompt saved under a new name is found again.
+ * <p>
+ * A store file is a header followed by the frames: the magic VPCM, the format version, the encoding name, the sample
+ * rate, the sample size in bits, the channels, the frame size, the frame rate, the byte order, the duration in
+ * microseconds and the length of the frames. The files are read by mapping them into memory, outside of the heap.
+ * They are written to a temporary file and renamed, so several servers on the same host can share the directory.
+ */
+final class PcmStore {
+    private static final Logger LOG = LoggerFactory.getLogger(PcmStore.class);
+    private static final String DIRECTORY = System.getProperty("pcmCacheDir");
+    private static final int MAGIC = 0x5650434D;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".pcm";
+    private static final int READ_SIZE = 64 * 1024;
+    private static final int KNOWN_KEYS_KEPT = 4096;
+
+    // keys of the voice files written or hashed by the server, by path, so they are not read again to hash them
+    private static final Map<String, KnownKey> KNOWN_KEYS = new LinkedHashMap<String, KnownKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, KnownKey> eldest) {
+            return size() > KNOWN_KEYS_KEPT;
+        }
+    };
+
+    /**
+     * Private constructor
+     */
+    private PcmStore() {
+    }
+
+    /**
+     * Checks whether decoded audio is kept on disk
+     *
+     * @return true when -DpcmCacheDir is set
+     */
+    static boolean isEnabled() {
+        return DIRECTORY != null && !DIRECTORY.isEmpty();
+    }
+
+    /**
+     * Returns the key of a voice file in the store, hashing the file unless its key is already known. The key
+     * computed is remembered until the file changes.
+     *
+     * @param file - the voice file
+     * @return the SHA-256 of its content in hex
+     * @throws AudioException - when the file cannot be read
+     */
+    static String getKey(final File file) throws AudioException {
+        String known = getKnownKey(file);
+        if (known != null) {
+            return known;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[READ_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            String key = AudioUtility.toHex(digest.digest());
+            remember(file, new KnownKey(key, lastModified, length));
+            return key;
+        } catch (IOException e) {
+            throw new AudioException("Failed to read audio file " + file, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the key of a voice file if it is known, without reading the file
+     *
+     * @param file - the voice file
+     * @return the SHA-256 of its content in hex, null when it was not computed or given since the file last changed
+     */
+    static String getKnownKey(final File file) {
+        KnownKey known;
+        synchronized (KNOWN_KEYS) {
+            known = KNOWN_KEYS.get(file.getAbsolutePath());
+        }
+        if (known != null && known.lastModified == file.lastModified() && known.length == file.length()) {
+            return known.key;
+        }
+        return null;
+    }
+
+    /**
+     * Remembers the key of a voice file whose content was hashed as it was written
+     *
+     * @param file - the voice file
+     * @param key  - the SHA-256 of its content in hex
+     */
+    static void setKey(final File file, final String key) {
+        remember(file, new KnownKey(key, file.lastModified(), file.length()));
+    }
+
+    private static void remember(final File file, final KnownKey known) {
+        synchronized (KNOWN_KEYS) {
+            KNOWN_KEYS.put(file.getAbsolutePath(), known);
+        }
+    }
+
+    /**
+     * Maps the decoded audio of a voice file
+     *
+     * @param key - the key of the voice file
+     * @return the audio, null when it is not stored or its store file is unreadable
+     */
+    static DecodedAudioCache.DecodedAudio read(final String key) {
+        File stored = getFile(key);
+        if (!stored.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                LOG.warn("Ignoring {}, it is not a decoded audio file of this version", stored);
+                return null;
+            }
+            byte[] encoding = new byte[mapped.getShort() & 0xFFFF];
+            mapped.get(encoding);
+            AudioFormat format = new AudioFormat(new AudioFormat.Encoding(new String(encoding, StandardCharsets.UTF_8)),
+                    mapped.getFloat(), mapped.getInt(), mapped.getInt(), mapped.getInt(), mapped.getFloat(),
+                    mapped.get() != 0);
+            long duration = mapped.getLong();
+            long length = mapped.getLong();
+            if (length != mapped.remaining()) {
+                LOG.warn("Ignoring {}, it is truncated", stored);
+                return null;
+            }
+            return new DecodedAudioCache.DecodedAudio(mapped.slice(), format, duration);
+        } catch (IOException | BufferUnderflowException e) {
+            LOG.warn("Unable to read decoded audio from {}: {}", stored, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the decoded audio of a voice file and maps it
+     *
+     * @param key      - the key of the voice file
+     * @param data     - the decoded frames
+     * @param format   - their format
+     * @param duration - their duration in microseconds
+     * @return the mapped audio, null when it could not be stored
+     */
+    static DecodedAudioCache.DecodedAudio write(final String key, final byte[] data, final AudioFormat format,
+                                                final long duration) {
+        File stored = getFile(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(stored.getParentFile().toPath());
+            temporary = Files.createTempFile(stored.getParentFile().toPath(), key, ".tmp");
+            try (OutputStream file = Files.newOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, READ_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                byte[] encoding = format.getEncoding().toString().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(encoding.length);
+                out.write(encoding);
+                out.writeFloat(format.getSampleRate());
+                out.writeInt(format.getSampleSizeInBits());
+                out.writeInt(format.getChannels());
+                out.writeInt(format.getFrameSize());
+                out.writeFloat(format.getFrameRate());
+                out.writeBoolean(format.isBigEndian());
+                out.writeLong(duration);
+                out.writeLong(data.length);
+                out.write(data);
+            }
+            // readable by the other servers sharing the directory, temporary files are only readable by their owner
+            if (!temporary.toFile().setReadable(true, false)) {
+                LOG.warn("Unable to make {} readable by other users", stored);
+            }
+            Files.move(temporary, stored.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to store decoded audio in {}: {}", stored, e.getMessage());
+            deleteQuietly(temporary);
+            return null;
+        }
+        return read(key);
+    }
+
+    /**
+     * Returns the store file of a key
+     */
+    private static File getFile(final String key) {
+        return new File(DIRECTORY, key + SUFFIX);
+    }
+
+    /**
+     * Deletes a temporary file left by a failed write
+     */
+    private static void deleteQuietly(final Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warn("Unable to delete {}", path);
+        }
+    }
+
+    /**
+     * The key of a voice file, with the modification time and the length the file had when it was hashed
+     */
+    private static final class KnownKey {
+        private final String key;
+        private final long lastModified;
+        private final long length;
+
+        private KnownKey(final String key, final long lastModified, final long length) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
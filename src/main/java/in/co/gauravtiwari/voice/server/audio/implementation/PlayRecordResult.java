@@ -0,0 +1,119 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The outcome of a simultaneous play and record. All frame numbers are in the coordinates of the captured audio,
+ * frame 0 being the first frame of getAudio().
+ */
+public final class PlayRecordResult {
+    private final ByteArrayOutputStream audio;
+    private final AudioFormat audioFormat;
+    private final long playbackStartFrame;
+    private final long playbackEndFrame;
+    private final long latencyFrames;
+    private final SignalStatistics statistics;
+
+    /**
+     * Constructor for PlayRecordResult
+     *
+     * @param audio              - the captured audio
+     * @param audioFormat        - the format of the captured audio
+     * @param playbackStartFrame - capture frame at which the playback line started
+     * @param playbackEndFrame   - capture frame at which the playback line stopped
+     * @param latencyFrames      - calibrated round-trip latency in capture frames, -1 if the mixers are not calibrated
+     * @param statistics         - statistics of the captured signal, may be null
+     */
+    PlayRecordResult(final ByteArrayOutputStream audio, final AudioFormat audioFormat, final long playbackStartFrame,
+                     final long playbackEndFrame, final long latencyFrames, final SignalStatistics statistics) {
+        this.audio = audio;
+        this.audioFormat = audioFormat;
+        this.playbackStartFrame = playbackStartFrame;
+        this.playbackEndFrame = playbackEndFrame;
+        this.latencyFrames = latencyFrames;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Getter for the captured audio
+     *
+     * @return the buffer holding the captured audio in getAudioFormat()
+     */
+    public ByteArrayOutputStream getAudio() {
+        return audio;
+    }
+
+    /**
+     * Getter for a copy of the captured audio
+     *
+     * @return the captured audio in getAudioFormat()
+     */
+    public byte[] getAudioData() {
+        return audio.toByteArray();
+    }
+
+    /**
+     * Getter for the format of the captured audio
+     *
+     * @return the capture format
+     */
+    public AudioFormat getAudioFormat() {
+        return audioFormat;
+    }
+
+    /**
+     * Getter for the capture frame at which the playback started
+     *
+     * @return the playback start frame
+     */
+    public long getPlaybackStartFrame() {
+        return playbackStartFrame;
+    }
+
+    /**
+     * Getter for the capture frame at which the playback ended
+     *
+     * @return the playback end frame
+     */
+    public long getPlaybackEndFrame() {
+        return playbackEndFrame;
+    }
+
+    /**
+     * Getter for the round-trip latency between the two mixers.
+     * Sound played at playback frame n shows up in the capture at frame n + latency.
+     *
+     * @return the latency in capture frames, -1 if the mixers have not been calibrated
+     */
+    public long getLatencyFrames() {
+        return latencyFrames;
+    }
+
+    /**
+     * Getter for the statistics of the captured signal
+     *
+     * @return the signal statistics, null if not supported for the capture format
+     */
+    public SignalStatistics getStatistics() {
+        return statistics;
+    }
+}
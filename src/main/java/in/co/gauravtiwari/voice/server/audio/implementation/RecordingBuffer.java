@@ -0,0 +1,48 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The buffer a recording session captures into. Its bytes are read in place once the session is stopped, so writing
+ * or comparing a recording does not copy it first as toByteArray() would.
+ */
+final class RecordingBuffer extends ByteArrayOutputStream {
+
+    /**
+     * Returns the array holding the captured bytes, the first size() bytes of it are the recording
+     *
+     * @return the internal array, not a copy
+     */
+    synchronized byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Returns a stream over the captured bytes, sharing the internal array
+     *
+     * @return the stream
+     */
+    synchronized ByteArrayInputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+}
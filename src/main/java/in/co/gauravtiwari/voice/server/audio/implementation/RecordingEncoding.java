@@ -0,0 +1,29 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Enum type for the encoding applied to a recording while it is captured.
+ * PCM - the frames as captured by the line
+ * IMA_ADPCM - 4 bit IMA ADPCM, a quarter of the size of 16 bit PCM
+ * PCM_DOWNSAMPLED - 16 bit PCM low-pass filtered and downsampled to a lower sample rate
+ */
+public enum RecordingEncoding {
+    PCM, IMA_ADPCM, PCM_DOWNSAMPLED
+}
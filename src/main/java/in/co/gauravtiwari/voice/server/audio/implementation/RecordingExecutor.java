@@ -23,7 +23,9 @@ import org.slf4j.LoggerFactory;
 import javax.sound.sampled.LineEvent;
 import javax.sound.sampled.LineListener;
 import javax.sound.sampled.TargetDataLine;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * created by Gaurav Tiwari
@@ -38,22 +40,53 @@ public class RecordingExecutor implements Runnable, LineListener {
     private static final int BUFFER_RATIO = 5;
     // Recording time in milliseconds
     private final TargetDataLine line;
-    private final ByteArrayOutputStream out;
-    private boolean recordingCompleted = false;
+    private final OutputStream out;
+    private final SignalStatistics statistics;
+    private final CompletableFuture<Void> limitReached = new CompletableFuture<>();
+    private long remainingBytes = Long.MAX_VALUE;
+    private volatile boolean recordingCompleted = false;
     private byte[] data;
 
     /**
      * The recording executor would need the line to start and the output stream to put the recorded data
      *
      * @param line A TargetDataLine object to call start() on
-     * @param out  A ByteArrayOutputStream to write the data to
+     * @param out  An OutputStream to write the data to, either the recording itself or an encoder in front of it
      */
-    public RecordingExecutor(final TargetDataLine line, final ByteArrayOutputStream out) {
+    public RecordingExecutor(final TargetDataLine line, final OutputStream out) {
+        this(line, out, null);
+    }
+
+    /**
+     * The recording executor can also keep running statistics of the captured signal
+     *
+     * @param line       A TargetDataLine object to call start() on
+     * @param out        An OutputStream to write the data to, either the recording itself or an encoder in front of it
+     * @param statistics The statistics to update with every chunk read from the line, may be null
+     */
+    public RecordingExecutor(final TargetDataLine line, final OutputStream out, final SignalStatistics statistics) {
         this.line = line;
         this.out = out;
+        this.statistics = statistics;
         this.data = new byte[line.getBufferSize() / BUFFER_RATIO];
     }
 
+    /**
+     * The recording executor can also stop by itself once it has captured a number of frames
+     *
+     * @param line       A TargetDataLine object to call start() on
+     * @param out        An OutputStream to write the data to, either the recording itself or an encoder in front of it
+     * @param statistics The statistics to update with every chunk read from the line, may be null
+     * @param frameLimit The number of frames to capture, 0 or less to capture until the recording is completed
+     */
+    RecordingExecutor(final TargetDataLine line, final OutputStream out, final SignalStatistics statistics,
+                      final long frameLimit) {
+        this(line, out, statistics);
+        if (frameLimit > 0) {
+            this.remainingBytes = frameLimit * line.getFormat().getFrameSize();
+        }
+    }
+
     /**
      * Run method for this runnable to put data from the line buffer to output stream
      */
@@ -63,15 +96,40 @@ public class RecordingExecutor implements Runnable, LineListener {
         // Begin audio capture.
         line.start();
 
-        // Continue to record until interrupted
-        while (!recordingCompleted) {
-            // Read the next chunk of data from the TargetDataLine.
-            numBytesRead = line.read(data, 0, data.length);
-            // Save this chunk of data.
-            out.write(data, 0, numBytesRead);
+        try {
+            // Continue to record until interrupted
+            while (!recordingCompleted) {
+                // Read the next chunk of data from the TargetDataLine.
+                numBytesRead = line.read(data, 0, getReadLength());
+                // Save this chunk of data.
+                save(numBytesRead);
+                if (remainingBytes == 0) {
+                    recordingCompleted = true;
+                    limitReached.complete(null);
+                }
+            }
+
+            cleanup();
+        } catch (IOException e) {
+            LOG.error("Failed to save recorded audio: " + e.getMessage());
         }
+    }
 
-        cleanup();
+    /**
+     * Returns a future completed once the frame limit of the recording has been captured
+     *
+     * @return the future, never completed for recordings without a frame limit
+     */
+    CompletableFuture<Void> getLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * Marks the recording as completed without waiting for the STOP event of the line, so the capture loop exits
+     * after its current read
+     */
+    void complete() {
+        recordingCompleted = true;
     }
 
     /**
@@ -93,9 +151,31 @@ public class RecordingExecutor implements Runnable, LineListener {
      * The drain method will cause the mixer's remaining data to get delivered to the target data line's buffer.
      * If we don't drain the data, the captured sound might seem to be truncated prematurely at the end.
      */
-    private void cleanup() {
+    private void cleanup() throws IOException {
         line.drain();
-        int numBytesRead = line.read(data, 0, data.length);
+        int numBytesRead = line.read(data, 0, getReadLength());
+        save(numBytesRead);
+    }
+
+    /**
+     * Returns how much to read from the line, at most what is left of the frame limit
+     *
+     * @return the number of bytes
+     */
+    private int getReadLength() {
+        return (int) Math.min(data.length, remainingBytes);
+    }
+
+    /**
+     * Adds the chunk of data just read to the statistics and writes it to the output stream
+     *
+     * @param numBytesRead the number of bytes read into the data buffer
+     */
+    private void save(final int numBytesRead) throws IOException {
+        if (statistics != null) {
+            statistics.update(data, 0, numBytesRead);
+        }
         out.write(data, 0, numBytesRead);
+        remainingBytes -= numBytesRead;
     }
 }
@@ -0,0 +1,261 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import in.co.gauravtiwari.voice.server.metrics.Gauge;
+import in.co.gauravtiwari.voice.server.metrics.PhaseTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.TargetDataLine;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * An open-ended recording on a TargetDataLine. The capture runs on its own thread from the moment the session is
+ * started by AudioRecorder.startRecording until stop() is called, or until it has captured its frame limit.
+ * On the dry run mixer the capture runs as fast as the CPU allows and a session reports the length of its audio as
+ * its elapsed time, as if it had been captured in real time.
+ */
+public final class RecordingSession {
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingSession.class);
+    // How long stop() waits for the capture thread to drain the line before closing it, and again after
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    private final TargetDataLine line;
+    private final AudioFormat format;
+    private final RecordingExecutor recordingExecutor;
+    private final Thread recordingThread;
+    private final RecordingBuffer out;
+    private final RecordingEncoding encoding;
+    private final AudioEncoder encoder;
+    private final SignalStatistics statistics;
+    private final Gauge activeLines;
+    private final PhaseTimings timings;
+    private final boolean dryRun;
+    private final long startNanos;
+    private volatile long stopNanos;
+    private volatile boolean stopped;
+    private AudioException failure;
+
+    /**
+     * Starts capturing from an already opened line
+     *
+     * @param line        the opened TargetDataLine to capture from
+     * @param format      the format the line was opened with
+     * @param mixer       the entry of the mixer of the line
+     * @param encoding    the encoding applied to the frames while they are captured
+     * @param sampleRate  the sample rate to downsample to, only used with PCM_DOWNSAMPLED
+     * @param timings     the timing breakdown the phases of the recording are marked into
+     * @param frameLimit  the number of frames to capture, 0 or less to capture until stop() is called
+     * @throws AudioException if the captured format cannot be encoded as requested
+     */
+    RecordingSession(final TargetDataLine line, final AudioFormat format, final MixerIndex.Entry mixer,
+                     final RecordingEncoding encoding, final float sampleRate,
+                     final PhaseTimings timings, final long frameLimit) throws AudioException {
+        this.line = line;
+        this.timings = timings;
+        this.dryRun = mixer.isDryRun();
+        this.format = format;
+        this.out = new RecordingBuffer();
+        this.encoding = encoding;
+        switch (encoding) {
+            case IMA_ADPCM:
+                this.encoder = new ImaAdpcmEncoder(out, format);
+                break;
+            case PCM_DOWNSAMPLED:
+                this.encoder = new DownsamplingEncoder(out, format, sampleRate);
+                break;
+            default:
+                this.encoder = null;
+        }
+        this.statistics = SignalStatistics.isSupported(format) ? new SignalStatistics(format) : null;
+        this.recordingExecutor = new RecordingExecutor(line, encoder != null ? encoder : out, statistics, frameLimit);
+        this.recordingThread = new Thread(recordingExecutor, "recording-" + Integer.toHexString(hashCode()));
+
+        // Listen to events emitted by line when it stops and closes
+        line.addLineListener(recordingExecutor);
+
+        // Start the line here rather than on the capture thread, so frame positions are meaningful once this returns
+        line.start();
+        this.startNanos = System.nanoTime();
+        timings.mark("firstFrame");
+        recordingThread.start();
+        this.activeLines = AudioMetrics.activeLines(AudioMetrics.CAPTURE, mixer);
+        activeLines.inc();
+    }
+
+    /**
+     * Stops the capture, waits for the remaining data to be drained from the line and releases the line.
+     * Calling stop on an already stopped session just returns the captured data, or fails again.
+     * <p>
+     * A capture thread still blocked in a read once the line is drained gets its line closed under it. If it does not
+     * end then either, the recording fails: its encoder is not finished and its audio is not returned while the
+     * thread may still be writing them.
+     *
+     * @return the captured audio in the format of getAudioFormat()
+     * @throws AudioException if interrupted while waiting for the capture thread to finish, or if it does not finish
+     */
+    public synchronized ByteArrayOutputStream stop() throws AudioException {
+        if (stopped) {
+            if (failure != null) {
+                throw failure;
+            }
+            return out;
+        }
+        stopped = true;
+        stopNanos = System.nanoTime();
+        timings.mark("endOfAudio");
+        try {
+            // Stop recording, the capture thread drains what is left in the line buffer
+            line.stop();
+            recordingExecutor.complete();
+            recordingThread.join(STOP_TIMEOUT_MILLIS);
+            if (recordingThread.isAlive()) {
+                LOG.warn("Recording thread did not finish within " + STOP_TIMEOUT_MILLIS + " ms, closing line");
+                // Closing the line makes a read blocked on it return
+                line.close();
+                recordingThread.join(STOP_TIMEOUT_MILLIS);
+            }
+            if (recordingThread.isAlive()) {
+                failure = new AudioException("Recording thread did not finish after its line was closed");
+                throw failure;
+            }
+            if (encoder != null) {
+                encoder.finish();
+            }
+        } catch (IOException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            failure = new AudioException("Failed to encode the recording", e);
+            throw failure;
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage() + e.getCause());
+            Thread.currentThread().interrupt();
+            failure = new AudioException("Interrupted while waiting for recording to finish", e);
+            throw failure;
+        } finally {
+            // Close the line to free up the resource
+            line.close();
+            timings.mark("lineClosed");
+            activeLines.dec();
+            AudioMetrics.RECORD.recordSince(startNanos);
+        }
+        AudioMetrics.RECORDED_BYTES.add(out.size());
+        return out;
+    }
+
+    /**
+     * Returns the number of frames the line has captured since the session started.
+     * Frame n of the captured data was captured when this method returned n.
+     *
+     * @return the current capture frame position
+     */
+    public long getFramePosition() {
+        return line.getLongFramePosition();
+    }
+
+    /**
+     * Returns a future completed once the session has captured its frame limit, it still has to be stopped, but not
+     * from the capture thread that completes the future
+     *
+     * @return the future, never completed for sessions without a frame limit
+     */
+    public CompletableFuture<Void> whenCaptured() {
+        return recordingExecutor.getLimitReached();
+    }
+
+    /**
+     * Returns whether stop() has been called on this session
+     *
+     * @return true once the capture has been stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Getter for the format of the recorded audio returned by stop()
+     *
+     * @return the encoded format, or the format the line was opened with if the recording is not encoded
+     */
+    public AudioFormat getAudioFormat() {
+        return encoder != null ? encoder.getEncodedFormat() : format;
+    }
+
+    /**
+     * Getter for the encoding applied to the recording
+     *
+     * @return the recording encoding
+     */
+    public RecordingEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Getter for the format the line captures in
+     *
+     * @return the format the line was opened with
+     */
+    public AudioFormat getCaptureFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the number of frames captured so far, in the capture format
+     *
+     * @return the number of captured frames
+     */
+    public long getCapturedFrames() {
+        return encoder != null ? encoder.getEncodedFrames() : out.size() / format.getFrameSize();
+    }
+
+    /**
+     * Getter for the statistics of the captured signal, they are complete once the session is stopped
+     *
+     * @return the signal statistics, null if they are not supported for the capture format
+     */
+    public SignalStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the time the capture thread spent encoding the recording
+     *
+     * @return the encoding time in nanoseconds, 0 for recordings that are not encoded
+     */
+    public long getEncodeNanos() {
+        return encoder != null ? encoder.getEncodeNanos() : 0;
+    }
+
+    /**
+     * Returns how long this session has been (or was) capturing
+     *
+     * @return the capture time in milliseconds, the length of the captured audio for dry runs
+     */
+    public long getElapsedMillis() {
+        if (dryRun) {
+            return (long) (getCapturedFrames() * 1000 / (double) format.getFrameRate());
+        }
+        long end = stopped ? stopNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Running statistics of signed 16 bit PCM audio, updated with every chunk the capture loop reads so the audio never
+ * has to be scanned again. The audio is also cut into short windows, a window whose RMS level is below
+ * -DsilenceThreshold (dBFS, defaults to -50) counts as silent.
+ * <p>
+ * All channels are counted together. Nothing is allocated after construction.
+ */
+public final class SignalStatistics {
+    private static final double FULL_SCALE = 32768.0;
+    // level reported for digital silence, well below the quietest non-zero 16 bit sample
+    private static final double MIN_DBFS = -120;
+    private static final int WINDOW_MILLIS = 20;
+    private static final double DEFAULT_SILENCE_THRESHOLD = -50;
+    private static final double SILENCE_THRESHOLD = getSilenceThreshold();
+
+    private final boolean bigEndian;
+    private final int windowSamples;
+    private final double silentWindowSumSquares;
+
+    private long samples;
+    private long sum;
+    private double sumSquares;
+    private int peak;
+    private long clippedSamples;
+    private int windowPosition;
+    private double windowSumSquares;
+    private long windows;
+    private long silentWindows;
+
+    /**
+     * Constructor for the statistics of audio in the given format
+     *
+     * @param format - the format of the audio, it must be signed 16 bit PCM
+     */
+    public SignalStatistics(final AudioFormat format) {
+        this.bigEndian = format.isBigEndian();
+        this.windowSamples = Math.max(1, (int) (format.getSampleRate() * WINDOW_MILLIS / 1000) * format.getChannels());
+        double silentLevel = FULL_SCALE * Math.pow(10, SILENCE_THRESHOLD / 20);
+        this.silentWindowSumSquares = silentLevel * silentLevel * windowSamples;
+    }
+
+    /**
+     * Reads the silence threshold from the system properties
+     *
+     * @return the silence threshold in dBFS
+     */
+    private static double getSilenceThreshold() {
+        String threshold = System.getProperty("silenceThreshold");
+        if (threshold != null) {
+            try {
+                return Double.parseDouble(threshold);
+            } catch (NumberFormatException e) {
+                return DEFAULT_SILENCE_THRESHOLD;
+            }
+        }
+        return DEFAULT_SILENCE_THRESHOLD;
+    }
+
+    /**
+     * Returns whether statistics can be computed for audio in the given format
+     *
+     * @param format - the format of the audio
+     * @return true for signed 16 bit PCM
+     */
+    public static boolean isSupported(final AudioFormat format) {
+        return AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) && format.getSampleSizeInBits() == 16;
+    }
+
+    /**
+     * Adds a chunk of audio to the statistics
+     *
+     * @param data   - the audio
+     * @param offset - offset of the first byte, at the start of a frame
+     * @param length - number of bytes, a whole number of frames
+     */
+    public void update(final byte[] data, final int offset, final int length) {
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i += 2) {
+            int sample = AudioUtility.getSample(data, i, bigEndian);
+            int magnitude = Math.abs(sample);
+            double square = (double) sample * sample;
+
+            sum += sample;
+            sumSquares += square;
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            if (sample == Short.MAX_VALUE || sample == Short.MIN_VALUE) {
+                clippedSamples++;
+            }
+
+            windowSumSquares += square;
+            if (++windowPosition == windowSamples) {
+                windows++;
+                if (windowSumSquares < silentWindowSumSquares) {
+                    silentWindows++;
+                }
+                windowPosition = 0;
+                windowSumSquares = 0;
+            }
+        }
+        samples += (length / 2);
+    }
+
+    /**
+     * Getter for the number of samples seen, over all channels
+     *
+     * @return the sample count
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Getter for the RMS level of the audio
+     *
+     * @return the RMS level in dBFS, -120 for digital silence
+     */
+    public double getRmsDbfs() {
+        return samples == 0 ? MIN_DBFS : toDbfs(Math.sqrt(sumSquares / samples));
+    }
+
+    /**
+     * Getter for the peak level of the audio
+     *
+     * @return the peak level in dBFS, -120 for digital silence
+     */
+    public double getPeakDbfs() {
+        return toDbfs(peak);
+    }
+
+    /**
+     * Getter for the number of samples at full scale
+     *
+     * @return the clipped sample count
+     */
+    public long getClippedSamples() {
+        return clippedSamples;
+    }
+
+    /**
+     * Getter for the mean sample value relative to full scale
+     *
+     * @return the DC offset between -1 and 1
+     */
+    public double getDcOffset() {
+        return samples == 0 ? 0 : sum / (double) samples / FULL_SCALE;
+    }
+
+    /**
+     * Getter for the fraction of complete windows that are silent
+     *
+     * @return the silence ratio between 0 and 1
+     */
+    public double getSilenceRatio() {
+        return windows == 0 ? 1 : silentWindows / (double) windows;
+    }
+
+    /**
+     * Converts a sample magnitude to dBFS
+     */
+    private static double toDbfs(final double magnitude) {
+        return magnitude == 0 ? MIN_DBFS : Math.max(MIN_DBFS, 20 * Math.log10(magnitude / FULL_SCALE));
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.implementation;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Writes audio held in memory to a WAV file in the format it actually has. The header is built from the AudioFormat
+ * and the audio is written through a small direct buffer, converted to the little endian WAV sample layout chunk by
+ * chunk, so no copy of the whole audio is ever made.
+ * <p>
+ * A file is never rewritten in place: it is written next to its target and renamed over it. A target that is a hard
+ * link, like a voice file deduplicated by the ContentStore, is replaced by a new file and the content it shared with
+ * other names is left as it was.
+ */
+public final class WavWriter {
+    // size of the direct buffer the audio goes through, multiple of every frame size up to 24 bytes
+    private static final int CHUNK_SIZE = 64 * 1024 - 64 * 1024 % 24;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_IMA_ADPCM = 0x11;
+    private static final int PCM_FORMAT_CHUNK_SIZE = 16;
+    private static final int ADPCM_FORMAT_CHUNK_SIZE = 20;
+
+    /**
+     * Private constructor
+     */
+    private WavWriter() {
+    }
+
+    /**
+     * Writes the audio to a WAV file
+     *
+     * @param data       - the audio
+     * @param format     - the format of the audio
+     * @param outputFile - the WAV file to write, it is replaced if it exists, not rewritten
+     * @throws IOException - when the file cannot be written or the format has no WAV representation
+     */
+    public static void write(final byte[] data, final AudioFormat format, final File outputFile) throws IOException {
+        write(data, 0, data.length, format, outputFile);
+    }
+
+    /**
+     * Writes part of a byte array as audio to a WAV file
+     *
+     * @param data       - the audio
+     * @param offset     - offset of the first byte of audio
+     * @param length     - number of bytes of audio
+     * @param format     - the format of the audio
+     * @param outputFile - the WAV file to write, it is replaced if it exists, not rewritten
+     * @throws IOException - when the file cannot be written or the format has no WAV representation
+     */
+    public static void write(final byte[] data, final int offset, final int length, final AudioFormat format,
+                             final File outputFile) throws IOException {
+        ByteBuffer header = createHeader(format, length);
+        int sampleBytes = (format.getSampleSizeInBits() + 7) / 8;
+        boolean isPcm = !ImaAdpcmEncoder.IMA_ADPCM.equals(format.getEncoding());
+        boolean swapBytes = isPcm && format.isBigEndian() && sampleBytes > 1;
+        // WAV stores 8 bit samples unsigned and wider samples signed
+        boolean flipSign = isPcm && (sampleBytes == 1
+                ? AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                : AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding()));
+
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.min(CHUNK_SIZE, Math.max(length, 1)));
+        replace(outputFile, channel -> {
+            ByteBuffer[] buffers = {header, chunk};
+            int position = offset;
+            int end = offset + length;
+            do {
+                int chunkLength = Math.min(chunk.capacity(), end - position);
+                chunk.clear();
+                fillChunk(chunk, data, position, chunkLength, sampleBytes, swapBytes, flipSign);
+                chunk.flip();
+                position += chunkLength;
+                // the header goes out with the first chunk, afterwards it has nothing remaining
+                while (header.hasRemaining() || chunk.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } while (position < end);
+        });
+    }
+
+    /**
+     * Writes bytes that already are a complete WAV file
+     *
+     * @param wav        - the WAV file content, header included
+     * @param outputFile - the WAV file to write, it is replaced if it exists, not rewritten
+     * @throws IOException - when the file cannot be written
+     */
+    public static void write(final byte[] wav, final File outputFile) throws IOException {
+        replace(outputFile, channel -> {
+            ByteBuffer buffer = ByteBuffer.wrap(wav);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        });
+    }
+
+    /**
+     * Writes a new file next to the output file and renames it over the output file, atomically where the file
+     * system allows it. The new file is removed if anything fails, leaving the output file untouched.
+     *
+     * @param outputFile - the file to replace
+     * @param content    - writes the content of the file
+     * @throws IOException - when the file cannot be written or renamed
+     */
+    private static void replace(final File outputFile, final Content content) throws IOException {
+        Path target = outputFile.toPath().toAbsolutePath();
+        Path temporary = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        boolean replaced = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                content.writeTo(channel);
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            replaced = true;
+        } finally {
+            if (!replaced) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Writes the content of a file to its channel
+     */
+    private interface Content {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Copies audio into the chunk, reversing the byte order of every sample and flipping the sign bit if needed
+     *
+     * @param chunk       - the direct buffer to fill
+     * @param data        - the audio
+     * @param offset      - offset of the first byte to copy
+     * @param length      - number of bytes to copy
+     * @param sampleBytes - the sample size in bytes
+     * @param swapBytes   - whether the byte order of every sample is reversed
+     * @param flipSign    - whether the most significant bit of every sample is flipped
+     */
+    private static void fillChunk(final ByteBuffer chunk, final byte[] data, final int offset, final int length,
+                                  final int sampleBytes, final boolean swapBytes, final boolean flipSign) {
+        if (!swapBytes && !flipSign) {
+            chunk.put(data, offset, length);
+            return;
+        }
+        int end = offset + length - length % sampleBytes;
+        // position of the most significant byte within a sample of the source
+        int mostSignificant = swapBytes ? 0 : sampleBytes - 1;
+        for (int sample = offset; sample < end; sample += sampleBytes) {
+            for (int k = 0; k < sampleBytes; k++) {
+                int i = swapBytes ? sampleBytes - 1 - k : k;
+                byte value = data[sample + i];
+                chunk.put(flipSign && i == mostSignificant ? (byte) (value ^ 0x80) : value);
+            }
+        }
+        chunk.put(data, end, offset + length - end);
+    }
+
+    /**
+     * Creates the RIFF header of a WAV file holding the given amount of audio
+     *
+     * @param format     - the format of the audio
+     * @param dataLength - the number of bytes of audio
+     * @return the header, little endian and ready to be written
+     * @throws IOException - when the format has no WAV representation
+     */
+    public static ByteBuffer createHeader(final AudioFormat format, final long dataLength) throws IOException {
+        boolean isAdpcm = ImaAdpcmEncoder.IMA_ADPCM.equals(format.getEncoding());
+        int formatTag;
+        if (isAdpcm) {
+            formatTag = WAVE_FORMAT_IMA_ADPCM;
+        } else if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+            formatTag = WAVE_FORMAT_IEEE_FLOAT;
+        } else if (AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                || AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())) {
+            formatTag = WAVE_FORMAT_PCM;
+        } else {
+            throw new IOException("Audio encoding " + format.getEncoding() + " cannot be written to a WAV file");
+        }
+
+        int channels = format.getChannels();
+        int sampleRate = Math.round(format.getSampleRate());
+        int blockAlign = format.getFrameSize();
+        int formatChunkSize = isAdpcm ? ADPCM_FORMAT_CHUNK_SIZE : PCM_FORMAT_CHUNK_SIZE;
+        // RIFF, fmt and data chunk headers, plus the fact chunk that compressed formats need
+        int headerSize = 12 + 8 + formatChunkSize + (isAdpcm ? 12 : 0) + 8;
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        header.putInt((int) (headerSize - 8 + dataLength));
+        header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        header.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(formatChunkSize);
+        header.putShort((short) formatTag);
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        if (isAdpcm) {
+            int samplesPerBlock = (Integer) format.getProperty(ImaAdpcmEncoder.SAMPLES_PER_BLOCK);
+            header.putInt((int) ((long) sampleRate * blockAlign / samplesPerBlock));
+            header.putShort((short) blockAlign);
+            header.putShort((short) format.getSampleSizeInBits());
+            header.putShort((short) 2);
+            header.putShort((short) samplesPerBlock);
+            header.put("fact".getBytes(StandardCharsets.US_ASCII));
+            header.putInt(4);
+            header.putInt((int) getAdpcmFrames(dataLength, blockAlign, channels, samplesPerBlock));
+        } else {
+            header.putInt(sampleRate * blockAlign);
+            header.putShort((short) blockAlign);
+            header.putShort((short) format.getSampleSizeInBits());
+        }
+        header.put("data".getBytes(StandardCharsets.US_ASCII));
+        header.putInt((int) dataLength);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Counts the sample frames in IMA ADPCM audio, the last block may be shorter than the others
+     */
+    private static long getAdpcmFrames(final long dataLength, final int blockAlign, final int channels,
+                                       final int samplesPerBlock) {
+        long frames = dataLength / blockAlign * samplesPerBlock;
+        long lastBlock = dataLength % blockAlign;
+        if (lastBlock >= 4L * channels) {
+            frames += (lastBlock - 4L * channels) * 2 / channels + 1;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioSystem;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Switch and settings of the virtual audio backend, set -DvirtualAudio=true to run the server on machines without
+ * sound devices. VirtualMixerProvider then adds mixers whose lines behave like the ones of a sound card, with a
+ * buffer that fills and drains at the frame rate of their format, but without any device behind them:
+ * <p>
+ * -DvirtualAudioMixers - number of virtual mixers, defaults to 1
+ * <p>
+ * -DvirtualAudioInput - what the input lines capture: silence, noise, tone or tone:[hertz], or the path of an audio
+ * file that is replayed in a loop, defaults to tone:1000
+ * <p>
+ * -DvirtualAudioOutput - where the output lines play to: discard, memory to keep the last audio played on each
+ * mixer, or the path of a directory to write one WAV file per line, defaults to discard
+ * <p>
+ * -DvirtualAudioSpeed - how much faster than real time the lines run, defaults to 1.
+ * Only the clock of the lines is accelerated, a recording timed by the server captures speed times its length.
+ * <p>
+ * -DvirtualAudioBufferMillis - length of the line buffers when they are opened without a buffer size, defaults to 500
+ * <p>
+ * -DvirtualAudioMaxLines - lines of each direction a mixer can have open at once, defaults to 0 for no limit
+ * <p>
+ * The dry run mixer is a virtual mixer that is always available, also without the switch, but not listed by
+ * AudioSystem. Its lines play and capture as fast as they are written and read, see getDryRunMixer:
+ * <p>
+ * -DdryRunInput - what its input lines capture, like -DvirtualAudioInput, defaults to tone:1000
+ * <p>
+ * -DdryRunOutput - where its output lines play to, like -DvirtualAudioOutput, defaults to discard
+ */
+public final class VirtualAudio {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualAudio.class);
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("virtualAudio", "false"));
+    private static final double SPEED = getSpeedProperty();
+
+    static final int MIXERS = Math.max(1, getIntProperty("virtualAudioMixers", 1));
+    static final int BUFFER_MILLIS = Math.max(1, getIntProperty("virtualAudioBufferMillis", 500));
+    static final int MAX_LINES = getIntProperty("virtualAudioMaxLines", AudioSystem.NOT_SPECIFIED);
+    static final String INPUT = System.getProperty("virtualAudioInput", "tone:1000");
+    static final String OUTPUT = System.getProperty("virtualAudioOutput", "discard");
+    static final String DRY_RUN_INPUT = System.getProperty("dryRunInput", "tone:1000");
+    static final String DRY_RUN_OUTPUT = System.getProperty("dryRunOutput", "discard");
+
+    // delivers the line events and ends the clips, like the event thread of a sound card
+    private static final ScheduledExecutorService EVENTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "virtual-audio-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Private constructor
+     */
+    private VirtualAudio() {
+    }
+
+    /**
+     * Getter for whether the virtual mixers are available
+     *
+     * @return true when -DvirtualAudio=true
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Getter for how much faster than real time the virtual lines run
+     *
+     * @return the speed, 1 for real time
+     */
+    public static double getSpeed() {
+        return SPEED;
+    }
+
+    /**
+     * Returns the dry run mixer. Its clips end as soon as they are started, its output lines take whatever is
+     * written to them at once and its input lines deliver -DdryRunInput as fast as it is read, so the audio of a
+     * request is decoded, encoded and analysed at the speed of the CPU instead of the speed of its frame rate.
+     *
+     * @return the dry run mixer, created the first time it is asked for
+     */
+    public static VirtualMixer getDryRunMixer() {
+        return DryRun.MIXER;
+    }
+
+    /**
+     * Converts a time into a number of frames at the speed of the virtual lines
+     *
+     * @param nanos     - the time in nanoseconds
+     * @param frameRate - the frame rate of the line
+     * @return the number of frames played or captured in that time
+     */
+    static long toFrames(final long nanos, final float frameRate) {
+        return (long) (nanos * (frameRate * SPEED / NANOS_PER_SECOND));
+    }
+
+    /**
+     * Converts a number of frames into the time the virtual lines take to play or capture them
+     *
+     * @param frames    - the number of frames
+     * @param frameRate - the frame rate of the line
+     * @return the time in nanoseconds, rounded up
+     */
+    static long toNanos(final long frames, final float frameRate) {
+        return (long) Math.ceil(frames * NANOS_PER_SECOND / (frameRate * SPEED));
+    }
+
+    /**
+     * Runs a task on the event thread
+     *
+     * @param task - the task, it must be short
+     */
+    static void dispatch(final Runnable task) {
+        EVENTS.execute(task);
+    }
+
+    /**
+     * Runs a task on the event thread after a delay
+     *
+     * @param task  - the task, it must be short
+     * @param nanos - the delay in nanoseconds
+     * @return the scheduled task
+     */
+    static ScheduledFuture<?> schedule(final Runnable task, final long nanos) {
+        return EVENTS.schedule(task, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The dry run mixer, created the first time it is asked for
+     */
+    private static final class DryRun {
+        private static final VirtualMixer MIXER = createMixer();
+
+        private DryRun() {
+        }
+
+        private static VirtualMixer createMixer() {
+            VirtualMixer mixer = new VirtualMixer("Dry Run Mixer", VirtualSignal.parse(DRY_RUN_INPUT),
+                    VirtualSink.parse(DRY_RUN_OUTPUT), false);
+            LOG.info("Dry run mixer capturing {} and playing to {}", DRY_RUN_INPUT, DRY_RUN_OUTPUT);
+            return mixer;
+        }
+    }
+
+    /**
+     * Reads the -DvirtualAudioSpeed property
+     */
+    private static double getSpeedProperty() {
+        String value = System.getProperty("virtualAudioSpeed");
+        if (null != value) {
+            try {
+                double speed = Double.parseDouble(value.trim());
+                if (speed > 0 && !Double.isInfinite(speed)) {
+                    return speed;
+                }
+            } catch (NumberFormatException e) {
+                LOG.debug("Speed is not a number", e);
+            }
+            LOG.warn("Invalid value {} for virtualAudioSpeed, running in real time", value);
+        }
+        return 1;
+    }
+
+    /**
+     * Reads an integer from the system properties
+     *
+     * @param name         - name of the system property
+     * @param defaultValue - value used when the property is missing or not a number
+     * @return the value
+     */
+    private static int getIntProperty(final String name, final int defaultValue) {
+        String value = System.getProperty(name);
+        if (null != value) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value {} for {}, using {}", value, name, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+}
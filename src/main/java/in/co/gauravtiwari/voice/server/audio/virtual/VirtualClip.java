@@ -0,0 +1,312 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A virtual clip. Its audio is loaded when it is opened and played at the frame rate of its format, following its
+ * loop points, then handed to the sink. It stops by itself at the end of its audio and reports STOP, like the clips
+ * of a sound card.
+ */
+final class VirtualClip extends VirtualLine implements Clip {
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final VirtualSink sink;
+    private VirtualSink.Output output;
+    private byte[] data;
+    private int frameLength;
+    private int position;
+    private int loopStart;
+    private int loopEnd;
+    private int loops;
+    private long startNanos;
+    private ScheduledFuture<?> end;
+
+    /**
+     * Constructor for VirtualClip
+     *
+     * @param mixer - the mixer of the clip
+     * @param info  - the description of the clip
+     * @param sink  - where the clip plays to
+     */
+    VirtualClip(final VirtualMixer mixer, final DataLine.Info info, final VirtualSink sink) {
+        super(mixer, info);
+        this.sink = sink;
+    }
+
+    @Override
+    public void open() {
+        throw new IllegalArgumentException("A clip is opened with its audio");
+    }
+
+    @Override
+    public synchronized void open(final AudioFormat format, final byte[] audio, final int offset, final int bufferSize)
+            throws LineUnavailableException {
+        if (isOpen()) {
+            throw new IllegalStateException("Clip is already open");
+        }
+        int frameSize = format.getFrameSize();
+        if (frameSize <= 0 || bufferSize % frameSize != 0) {
+            throw new IllegalArgumentException("Clip audio must be a whole number of frames of " + format);
+        }
+        data = Arrays.copyOfRange(audio, offset, offset + bufferSize);
+        openLine(format, bufferSize);
+    }
+
+    @Override
+    public void open(final AudioInputStream stream) throws LineUnavailableException, IOException {
+        AudioFormat format = stream.getFormat();
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_SIZE - READ_SIZE % Math.max(1, format.getFrameSize())];
+        int length;
+        while ((length = stream.read(buffer)) != -1) {
+            audio.write(buffer, 0, length);
+        }
+        int size = audio.size() - audio.size() % Math.max(1, format.getFrameSize());
+        open(format, audio.toByteArray(), 0, size);
+    }
+
+    @Override
+    void onOpen() {
+        frameLength = data.length / getFormat().getFrameSize();
+        position = 0;
+        loopStart = 0;
+        loopEnd = frameLength - 1;
+        loops = 0;
+        output = sink.open(getMixer(), getFormat());
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!isRunning()) {
+            loops = 0;
+        }
+        super.start();
+    }
+
+    @Override
+    public synchronized void loop(final int count) {
+        if (isRunning()) {
+            return;
+        }
+        loops = count;
+        super.start();
+    }
+
+    @Override
+    void onStart(final long now) {
+        startNanos = now;
+        scheduleEnd();
+    }
+
+    @Override
+    void onStop(final long now) {
+        cancelEnd();
+        advance(Math.min(framesBetween(startNanos, now), getRemaining()), true);
+    }
+
+    @Override
+    void onClose() {
+        output.close();
+        output = null;
+        data = null;
+    }
+
+    /**
+     * Waits until the clip has played to its end, also while it loops continuously
+     */
+    @Override
+    public synchronized void drain() {
+        try {
+            while (isRunning()) {
+                long remaining = getRemaining();
+                if (remaining == Long.MAX_VALUE) {
+                    wait();
+                } else {
+                    awaitFrames(remaining - Math.min(remaining, framesBetween(startNanos, System.nanoTime())));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Does nothing, the audio of a clip stays loaded until it is closed
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return isRunning();
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return data == null ? 0 : data.length;
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        if (!isRunning()) {
+            return position;
+        }
+        return advance(Math.min(framesBetween(startNanos, System.nanoTime()), getRemaining()), false);
+    }
+
+    @Override
+    public synchronized int getFrameLength() {
+        return isOpen() ? frameLength : AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public synchronized long getMicrosecondLength() {
+        return isOpen() ? (long) (frameLength * 1000000.0 / getFormat().getFrameRate()) : AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public synchronized void setFramePosition(final int frames) {
+        if (isRunning()) {
+            onStop(System.nanoTime());
+        }
+        position = Math.max(0, Math.min(frames, frameLength));
+        if (isRunning()) {
+            onStart(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void setMicrosecondPosition(final long microseconds) {
+        setFramePosition((int) (microseconds * getFormat().getFrameRate() / 1000000.0));
+    }
+
+    @Override
+    public synchronized void setLoopPoints(final int start, final int endFrame) {
+        int last = endFrame == -1 ? frameLength - 1 : endFrame;
+        if (start < 0 || start >= frameLength || last < start || last >= frameLength) {
+            throw new IllegalArgumentException("Invalid loop points " + start + " - " + endFrame
+                    + " for a clip of " + frameLength + " frames");
+        }
+        loopStart = start;
+        loopEnd = last;
+    }
+
+    /**
+     * Ends the playback when the clip reaches the end of its audio
+     */
+    private synchronized void reachEnd(final ScheduledFuture<?>[] task) {
+        if (!isRunning() || end != task[0]) {
+            return;
+        }
+        end = null;
+        advance(getRemaining(), true);
+        setStopped();
+    }
+
+    /**
+     * Schedules the end of the playback, unless the clip loops continuously
+     */
+    private void scheduleEnd() {
+        long remaining = getRemaining();
+        if (remaining == Long.MAX_VALUE) {
+            return;
+        }
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = VirtualAudio.schedule(() -> reachEnd(task), toNanos(remaining));
+        end = task[0];
+    }
+
+    /**
+     * Cancels the scheduled end of the playback
+     */
+    private void cancelEnd() {
+        if (end != null) {
+            end.cancel(false);
+            end = null;
+        }
+    }
+
+    /**
+     * Returns the number of frames the clip plays before it reaches the end of its audio
+     *
+     * @return the frames, Long.MAX_VALUE when it loops continuously
+     */
+    private long getRemaining() {
+        if (position > loopEnd || loops == 0) {
+            return frameLength - position;
+        }
+        if (loops == LOOP_CONTINUOUSLY) {
+            return Long.MAX_VALUE;
+        }
+        return frameLength - position + (long) loops * (loopEnd + 1 - loopStart);
+    }
+
+    /**
+     * Follows the clip over played frames, jumping back to the loop start at the loop end while loops remain
+     *
+     * @param played - the frames played since the clip started or was last advanced
+     * @param commit - true to move the clip and hand the frames to the sink, false to only compute the position
+     * @return the position reached
+     */
+    private int advance(final long played, final boolean commit) {
+        int frameSize = getFormat().getFrameSize();
+        int at = position;
+        int loopsLeft = loops;
+        long left = played;
+        while (left > 0) {
+            int stop = loopsLeft != 0 && at <= loopEnd ? loopEnd + 1 : frameLength;
+            int step = (int) Math.min(left, stop - at);
+            if (commit) {
+                output.write(data, at * frameSize, step * frameSize);
+            }
+            at += step;
+            left -= step;
+            if (at == loopEnd + 1 && loopsLeft != 0) {
+                at = loopStart;
+                if (loopsLeft != LOOP_CONTINUOUSLY) {
+                    loopsLeft--;
+                }
+            } else if (at >= frameLength) {
+                break;
+            }
+        }
+        if (commit) {
+            position = at;
+            loops = loopsLeft;
+        }
+        return at;
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The state shared by the virtual lines: open, running, their format and buffer, and their listeners.
+ * The position of a running line is computed from the time elapsed since it started, no thread moves the audio.
+ * The state changes under the lock of the line and the events are delivered on the virtual audio event thread.
+ */
+abstract class VirtualLine implements DataLine {
+    // shortest wait for frames to be played or captured, so blocked reads and writes do not spin
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // frames an unpaced line has played or captured at any time, small enough to be added to a position
+    private static final long UNPACED_FRAMES = Long.MAX_VALUE / 4;
+    private static final Control[] NO_CONTROLS = new Control[0];
+
+    private final VirtualMixer mixer;
+    private final DataLine.Info info;
+    private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+
+    private AudioFormat format;
+    private int frameSize;
+    private int bufferFrames;
+    private boolean open;
+    private boolean running;
+
+    /**
+     * Constructor for VirtualLine
+     *
+     * @param mixer - the mixer of the line
+     * @param info  - the description of the line
+     */
+    VirtualLine(final VirtualMixer mixer, final DataLine.Info info) {
+        this.mixer = mixer;
+        this.info = info;
+    }
+
+    /**
+     * Called under the lock once the line is open with its format and buffer
+     *
+     * @throws LineUnavailableException - when the line cannot be used, it is then released
+     */
+    abstract void onOpen() throws LineUnavailableException;
+
+    /**
+     * Called under the lock when the line starts
+     *
+     * @param now - the time it starts at, in nanoseconds
+     */
+    abstract void onStart(long now);
+
+    /**
+     * Called under the lock when the line is stopped
+     *
+     * @param now - the time it is stopped at, in nanoseconds
+     */
+    abstract void onStop(long now);
+
+    /**
+     * Called under the lock when the line is closed, after it was stopped
+     */
+    abstract void onClose();
+
+    /**
+     * Opens the line
+     *
+     * @param requested   - the format of the line
+     * @param bufferBytes - the size of its buffer, rounded down to whole frames
+     * @throws LineUnavailableException - when the mixer has no line left or the line cannot be used
+     */
+    final synchronized void openLine(final AudioFormat requested, final int bufferBytes) throws LineUnavailableException {
+        if (open) {
+            if (!requested.matches(format)) {
+                throw new IllegalStateException("Line is already open with format " + format);
+            }
+            return;
+        }
+        if (!VirtualMixer.isFormatSupported(requested)) {
+            throw new IllegalArgumentException("Virtual lines do not support the format " + requested);
+        }
+        mixer.reserve(this);
+        format = requested;
+        frameSize = requested.getFrameSize();
+        bufferFrames = Math.max(1, bufferBytes / frameSize);
+        open = true;
+        try {
+            onOpen();
+        } catch (LineUnavailableException | RuntimeException e) {
+            open = false;
+            mixer.release(this);
+            throw e;
+        }
+        fire(LineEvent.Type.OPEN);
+    }
+
+    /**
+     * Returns the size of the buffer of a line opened without one
+     *
+     * @param lineFormat - the format of the line
+     * @return the size in bytes of -DvirtualAudioBufferMillis of audio
+     */
+    static int getDefaultBufferSize(final AudioFormat lineFormat) {
+        long frames = Math.max(1, (long) (lineFormat.getFrameRate() * VirtualAudio.BUFFER_MILLIS / 1000));
+        return (int) Math.min(Integer.MAX_VALUE / lineFormat.getFrameSize(), frames) * lineFormat.getFrameSize();
+    }
+
+    /**
+     * Checks that a length is a whole number of frames, like sound card lines do
+     *
+     * @param length - the number of bytes to read or write
+     */
+    final void checkFrames(final int length) {
+        if (length % frameSize != 0) {
+            throw new IllegalArgumentException("Illegal request to read or write " + length
+                    + " bytes, it must be a multiple of the frame size " + frameSize);
+        }
+    }
+
+    /**
+     * Waits under the lock of the line for the time frames take to be played or captured, or until the state of
+     * the line changes
+     *
+     * @param frames - number of frames to wait for
+     * @throws InterruptedException - when the waiting thread is interrupted
+     */
+    final void awaitFrames(final long frames) throws InterruptedException {
+        long nanos = Math.max(MIN_WAIT_NANOS, toNanos(frames));
+        TimeUnit.NANOSECONDS.timedWait(this, nanos);
+    }
+
+    /**
+     * Converts a number of frames into the time the line takes to play or capture them
+     *
+     * @param frames - the number of frames
+     * @return the time in nanoseconds, 0 for the lines of an unpaced mixer
+     */
+    final long toNanos(final long frames) {
+        return mixer.isPaced() ? VirtualAudio.toNanos(frames, format.getFrameRate()) : 0;
+    }
+
+    /**
+     * Getter for whether the line runs at the frame rate of its format
+     *
+     * @return false for the lines of the dry run mixer
+     */
+    final boolean isPaced() {
+        return mixer.isPaced();
+    }
+
+    /**
+     * Converts the time elapsed since a given time into frames
+     *
+     * @param since - the start time, in nanoseconds
+     * @param now   - the current time, in nanoseconds
+     * @return the frames played or captured in between, more than any line holds for the lines of an unpaced mixer
+     */
+    final long framesBetween(final long since, final long now) {
+        if (!mixer.isPaced()) {
+            return UNPACED_FRAMES;
+        }
+        return VirtualAudio.toFrames(now - since, format.getFrameRate());
+    }
+
+    /**
+     * Reports a state change of the line to its listeners, on the event thread
+     *
+     * @param type - the type of change
+     */
+    final void fire(final LineEvent.Type type) {
+        LineEvent event = new LineEvent(this, type, getLongFramePosition());
+        VirtualAudio.dispatch(() -> {
+            for (LineListener listener : listeners) {
+                listener.update(event);
+            }
+        });
+    }
+
+    /**
+     * Marks the line as stopped and reports it, under the lock, once onStop or the end of a clip has updated its
+     * position
+     */
+    final void setStopped() {
+        running = false;
+        notifyAll();
+        fire(LineEvent.Type.STOP);
+    }
+
+    /**
+     * Getter for the mixer of the line
+     *
+     * @return the mixer
+     */
+    final VirtualMixer getMixer() {
+        return mixer;
+    }
+
+    /**
+     * Getter for the buffer of the line in frames
+     *
+     * @return the number of frames the buffer holds
+     */
+    final int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    @Override
+    public void open() throws LineUnavailableException {
+        AudioFormat defaultFormat = VirtualMixer.getDefaultFormat();
+        openLine(defaultFormat, getDefaultBufferSize(defaultFormat));
+    }
+
+    @Override
+    public final void close() {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            if (running) {
+                onStop(System.nanoTime());
+                setStopped();
+            }
+            onClose();
+            open = false;
+            mixer.release(this);
+            notifyAll();
+            fire(LineEvent.Type.CLOSE);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!open || running) {
+            return;
+        }
+        running = true;
+        onStart(System.nanoTime());
+        notifyAll();
+        fire(LineEvent.Type.START);
+    }
+
+    @Override
+    public final synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        onStop(System.nanoTime());
+        setStopped();
+    }
+
+    @Override
+    public final synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public final synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public final synchronized AudioFormat getFormat() {
+        return format != null ? format : VirtualMixer.getDefaultFormat();
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return bufferFrames * frameSize;
+    }
+
+    @Override
+    public final int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public final long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1000000.0 / getFormat().getFrameRate());
+    }
+
+    @Override
+    public final float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public final Line.Info getLineInfo() {
+        return info;
+    }
+
+    @Override
+    public final Control[] getControls() {
+        return NO_CONTROLS.clone();
+    }
+
+    @Override
+    public final boolean isControlSupported(final Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public final Control getControl(final Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public final void addLineListener(final LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public final void removeLineListener(final LineListener listener) {
+        listeners.remove(listener);
+    }
+}
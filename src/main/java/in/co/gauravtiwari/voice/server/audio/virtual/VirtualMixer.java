@@ -0,0 +1,354 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A virtual mixer with Clip and SourceDataLine outputs and TargetDataLine inputs in any linear PCM format of 8, 16,
+ * 24 or 32 bits. Its lines are created on demand, up to -DvirtualAudioMaxLines of each direction open at once.
+ * With -DvirtualAudioOutput=memory the audio of the last lines played is kept and returned by getPlayedAudio.
+ */
+public final class VirtualMixer implements Mixer {
+    private static final int PLAYED_AUDIO_KEPT = 16;
+    private static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    private static final AudioFormat[] FORMATS = createFormats();
+    private static final Control[] NO_CONTROLS = new Control[0];
+
+    private final Mixer.Info mixerInfo;
+    private final VirtualSignal signal;
+    private final VirtualSink sink;
+    private final boolean paced;
+    private final DataLine.Info clipInfo = new DataLine.Info(Clip.class, FORMATS,
+            AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED);
+    private final DataLine.Info sourceInfo = new DataLine.Info(SourceDataLine.class, FORMATS,
+            AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED);
+    private final DataLine.Info targetInfo = new DataLine.Info(TargetDataLine.class, FORMATS,
+            AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED);
+    private final List<Line> sourceLines = new CopyOnWriteArrayList<>();
+    private final List<Line> targetLines = new CopyOnWriteArrayList<>();
+    private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+    private final Deque<PlayedAudio> playedAudio = new ArrayDeque<>();
+    private volatile boolean open;
+
+    /**
+     * Constructor for VirtualMixer
+     *
+     * @param name   - name of the mixer
+     * @param signal - the signal its input lines capture
+     * @param sink   - where its output lines play to
+     * @param paced  - true for lines that run at the frame rate of their format, false for lines that play and
+     *               capture as fast as they are written and read
+     */
+    VirtualMixer(final String name, final VirtualSignal signal, final VirtualSink sink, final boolean paced) {
+        this.mixerInfo = new VirtualMixerInfo(name);
+        this.signal = signal;
+        this.sink = sink;
+        this.paced = paced;
+    }
+
+    /**
+     * Getter for whether the lines of this mixer run at the frame rate of their format
+     *
+     * @return false for the dry run mixer, whose lines do not wait
+     */
+    boolean isPaced() {
+        return paced;
+    }
+
+    /**
+     * Returns the audio of the last lines played on this mixer, the oldest first, when -DvirtualAudioOutput=memory
+     *
+     * @return a new stream on the audio of each line
+     */
+    public List<AudioInputStream> getPlayedAudio() {
+        List<AudioInputStream> streams = new ArrayList<>();
+        synchronized (playedAudio) {
+            for (PlayedAudio audio : playedAudio) {
+                streams.add(new AudioInputStream(new ByteArrayInputStream(audio.data), audio.format,
+                        audio.data.length / audio.format.getFrameSize()));
+            }
+        }
+        return streams;
+    }
+
+    /**
+     * Forgets the audio played on this mixer so far
+     */
+    public void clearPlayedAudio() {
+        synchronized (playedAudio) {
+            playedAudio.clear();
+        }
+    }
+
+    /**
+     * Keeps the audio of a closed output line
+     *
+     * @param data   - the audio played
+     * @param format - its format
+     */
+    void keepPlayedAudio(final byte[] data, final AudioFormat format) {
+        synchronized (playedAudio) {
+            if (playedAudio.size() == PLAYED_AUDIO_KEPT) {
+                playedAudio.removeFirst();
+            }
+            playedAudio.addLast(new PlayedAudio(data, format));
+        }
+    }
+
+    /**
+     * Checks whether virtual lines can play or capture a format
+     *
+     * @param format - the format
+     * @return true for linear PCM of 8 to 32 bits with a known frame rate
+     */
+    static boolean isFormatSupported(final AudioFormat format) {
+        if (format.getFrameRate() <= 0 || format.getChannels() <= 0) {
+            return false;
+        }
+        for (AudioFormat supported : FORMATS) {
+            if (format.matches(supported)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getter for the format of lines opened without one
+     *
+     * @return 44.1 kHz, 16 bit, stereo, little endian
+     */
+    static AudioFormat getDefaultFormat() {
+        return DEFAULT_FORMAT;
+    }
+
+    /**
+     * Takes one of the lines of the mixer for a line being opened
+     *
+     * @param line - the line
+     * @throws LineUnavailableException - when the mixer has -DvirtualAudioMaxLines lines of its direction open
+     */
+    synchronized void reserve(final VirtualLine line) throws LineUnavailableException {
+        List<Line> lines = line instanceof TargetDataLine ? targetLines : sourceLines;
+        if (VirtualAudio.MAX_LINES > 0 && lines.size() >= VirtualAudio.MAX_LINES) {
+            throw new LineUnavailableException(mixerInfo.getName() + " already has " + lines.size() + " "
+                    + (line instanceof TargetDataLine ? "input" : "output") + " lines open");
+        }
+        lines.add(line);
+    }
+
+    /**
+     * Gives back the line of a closed line
+     *
+     * @param line - the line
+     */
+    synchronized void release(final VirtualLine line) {
+        (line instanceof TargetDataLine ? targetLines : sourceLines).remove(line);
+    }
+
+    @Override
+    public Mixer.Info getMixerInfo() {
+        return mixerInfo;
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo() {
+        return new Line.Info[]{sourceInfo, clipInfo};
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo() {
+        return new Line.Info[]{targetInfo};
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo(final Line.Info info) {
+        return matching(getSourceLineInfo(), info);
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo(final Line.Info info) {
+        return matching(getTargetLineInfo(), info);
+    }
+
+    @Override
+    public boolean isLineSupported(final Line.Info info) {
+        return getSourceLineInfo(info).length > 0 || getTargetLineInfo(info).length > 0;
+    }
+
+    @Override
+    public Line getLine(final Line.Info info) throws LineUnavailableException {
+        if (info.matches(sourceInfo)) {
+            return new VirtualSourceDataLine(this, sourceInfo, sink);
+        } else if (info.matches(clipInfo)) {
+            return new VirtualClip(this, clipInfo, sink);
+        } else if (info.matches(targetInfo)) {
+            return new VirtualTargetDataLine(this, targetInfo, signal);
+        }
+        throw new IllegalArgumentException("Line unsupported: " + info);
+    }
+
+    @Override
+    public int getMaxLines(final Line.Info info) {
+        if (!isLineSupported(info)) {
+            return 0;
+        }
+        return VirtualAudio.MAX_LINES > 0 ? VirtualAudio.MAX_LINES : AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line[] getSourceLines() {
+        return sourceLines.toArray(new Line[0]);
+    }
+
+    @Override
+    public Line[] getTargetLines() {
+        return targetLines.toArray(new Line[0]);
+    }
+
+    @Override
+    public void synchronize(final Line[] lines, final boolean maintainSync) {
+        throw new IllegalArgumentException("Virtual mixers do not synchronize lines");
+    }
+
+    @Override
+    public void unsynchronize(final Line[] lines) {
+        throw new IllegalArgumentException("Virtual mixers do not synchronize lines");
+    }
+
+    @Override
+    public boolean isSynchronizationSupported(final Line[] lines, final boolean maintainSync) {
+        return false;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new Line.Info(Mixer.class);
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return NO_CONTROLS.clone();
+    }
+
+    @Override
+    public boolean isControlSupported(final Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(final Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(final LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLineListener(final LineListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the line descriptions matching a requested one
+     */
+    private static Line.Info[] matching(final Line.Info[] supported, final Line.Info requested) {
+        List<Line.Info> matches = new ArrayList<>();
+        for (Line.Info info : supported) {
+            if (requested.matches(info)) {
+                matches.add(info);
+            }
+        }
+        return matches.toArray(new Line.Info[0]);
+    }
+
+    /**
+     * Creates the formats of the lines: signed PCM of 8, 16, 24 and 32 bits in both byte orders and unsigned PCM of
+     * 8 bits, with any number of channels and any frame rate
+     */
+    private static AudioFormat[] createFormats() {
+        List<AudioFormat> formats = new ArrayList<>();
+        for (int bits = 8; bits <= 32; bits += 8) {
+            for (boolean bigEndian : new boolean[]{false, true}) {
+                formats.add(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED, bits,
+                        AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, bigEndian));
+            }
+        }
+        formats.add(new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, AudioSystem.NOT_SPECIFIED, 8,
+                AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, false));
+        return formats.toArray(new AudioFormat[0]);
+    }
+
+    /**
+     * The audio played by a closed output line
+     */
+    private static final class PlayedAudio {
+        private final byte[] data;
+        private final AudioFormat format;
+
+        private PlayedAudio(final byte[] data, final AudioFormat format) {
+            this.data = data;
+            this.format = format;
+        }
+    }
+
+    /**
+     * Description of a virtual mixer
+     */
+    private static final class VirtualMixerInfo extends Mixer.Info {
+        private VirtualMixerInfo(final String name) {
+            super(name, "Gaurav Tiwari", "Virtual audio mixer for machines without sound devices", "1.0");
+        }
+    }
+}
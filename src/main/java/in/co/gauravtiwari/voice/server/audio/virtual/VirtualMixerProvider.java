@@ -0,0 +1,83 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.spi.MixerProvider;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Adds the virtual mixers to AudioSystem when -DvirtualAudio=true, it is registered in
+ * META-INF/services/javax.sound.sampled.spi.MixerProvider. Without the switch it provides no mixer at all.
+ * The virtual mixers come after the mixers of the sound devices, so on a machine that has some, the default lines
+ * are still the real ones and the virtual mixers are used by their number.
+ */
+public final class VirtualMixerProvider extends MixerProvider {
+    private static final Mixer.Info[] NO_MIXERS = new Mixer.Info[0];
+
+    @Override
+    public Mixer.Info[] getMixerInfo() {
+        if (!VirtualAudio.isEnabled()) {
+            return NO_MIXERS;
+        }
+        VirtualMixer[] mixers = Mixers.MIXERS;
+        Mixer.Info[] infos = new Mixer.Info[mixers.length];
+        for (int i = 0; i < mixers.length; i++) {
+            infos[i] = mixers[i].getMixerInfo();
+        }
+        return infos;
+    }
+
+    @Override
+    public Mixer getMixer(final Mixer.Info info) {
+        if (VirtualAudio.isEnabled()) {
+            for (VirtualMixer mixer : Mixers.MIXERS) {
+                if (mixer.getMixerInfo().equals(info)) {
+                    return mixer;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Mixer not supported: " + info);
+    }
+
+    /**
+     * The virtual mixers, created the first time they are asked for
+     */
+    private static final class Mixers {
+        private static final Logger LOG = LoggerFactory.getLogger(VirtualMixerProvider.class);
+        private static final VirtualMixer[] MIXERS = createMixers();
+
+        private Mixers() {
+        }
+
+        private static VirtualMixer[] createMixers() {
+            VirtualSignal signal = VirtualSignal.parse(VirtualAudio.INPUT);
+            VirtualSink sink = VirtualSink.parse(VirtualAudio.OUTPUT);
+            VirtualMixer[] mixers = new VirtualMixer[VirtualAudio.MIXERS];
+            for (int i = 0; i < mixers.length; i++) {
+                mixers[i] = new VirtualMixer("Virtual Mixer " + i, signal, sink, true);
+            }
+            LOG.info("Virtual audio has {} mixers capturing {} and playing to {} at {} times real time",
+                    mixers.length, VirtualAudio.INPUT, VirtualAudio.OUTPUT, VirtualAudio.getSpeed());
+            return mixers;
+        }
+    }
+}
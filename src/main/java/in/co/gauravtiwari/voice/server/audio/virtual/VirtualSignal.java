@@ -0,0 +1,200 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The signal captured by the virtual input lines. Every frame is computed from its position, so a line produces the
+ * same audio whatever the size and timing of its reads, in any PCM format it is opened with.
+ */
+abstract class VirtualSignal {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualSignal.class);
+    private static final double AMPLITUDE = 0.5;
+    private static final double DEFAULT_TONE_HERTZ = 1000;
+
+    /**
+     * Creates the signal described by -DvirtualAudioInput
+     *
+     * @param description - silence, noise, tone, tone:[hertz] or the path of an audio file
+     * @return the signal, silence when the description is invalid
+     */
+    static VirtualSignal parse(final String description) {
+        String value = description.trim();
+        try {
+            if ("silence".equalsIgnoreCase(value)) {
+                return new Silence();
+            } else if ("noise".equalsIgnoreCase(value)) {
+                return new Noise();
+            } else if ("tone".equalsIgnoreCase(value)) {
+                return new Tone(DEFAULT_TONE_HERTZ);
+            } else if (value.toLowerCase().startsWith("tone:")) {
+                return new Tone(Double.parseDouble(value.substring("tone:".length())));
+            }
+            return new Recording(new File(value));
+        } catch (NumberFormatException | IOException | UnsupportedAudioFileException e) {
+            LOG.error("Invalid virtual audio input {}, capturing silence", description, e);
+            return new Silence();
+        }
+    }
+
+    /**
+     * Returns the value of a sample
+     *
+     * @param frame     - position of the frame from the start of the capture
+     * @param channel   - channel of the sample
+     * @param frameRate - frame rate of the line
+     * @return the sample between -1 and 1
+     */
+    abstract double getSample(long frame, int channel, float frameRate);
+
+    /**
+     * Writes frames of the signal in the format of a line
+     *
+     * @param format     - the PCM format of the line
+     * @param firstFrame - position of the first frame from the start of the capture
+     * @param buffer     - the buffer to write to
+     * @param offset     - offset of the first frame in the buffer
+     * @param frames     - number of frames to write
+     */
+    final void fill(final AudioFormat format, final long firstFrame, final byte[] buffer, final int offset,
+                    final int frames) {
+        int channels = format.getChannels();
+        int sampleBytes = format.getFrameSize() / channels;
+        boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+        boolean bigEndian = format.isBigEndian();
+        long fullScale = (1L << (sampleBytes * 8 - 1)) - 1;
+        int position = offset;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int channel = 0; channel < channels; channel++) {
+                long sample = Math.round(getSample(firstFrame + frame, channel, format.getFrameRate()) * fullScale);
+                if (!signed) {
+                    sample += fullScale + 1;
+                }
+                for (int i = 0; i < sampleBytes; i++) {
+                    int shift = 8 * (bigEndian ? sampleBytes - 1 - i : i);
+                    buffer[position++] = (byte) (sample >> shift);
+                }
+            }
+        }
+    }
+
+    /**
+     * No signal at all
+     */
+    private static final class Silence extends VirtualSignal {
+        @Override
+        double getSample(final long frame, final int channel, final float frameRate) {
+            return 0;
+        }
+    }
+
+    /**
+     * A sine wave at half of the full scale
+     */
+    private static final class Tone extends VirtualSignal {
+        private final double hertz;
+
+        private Tone(final double hertz) {
+            if (hertz < 0 || Double.isNaN(hertz) || Double.isInfinite(hertz)) {
+                throw new NumberFormatException("Invalid tone frequency " + hertz);
+            }
+            this.hertz = hertz;
+        }
+
+        @Override
+        double getSample(final long frame, final int channel, final float frameRate) {
+            // the phase is kept within one period so the tone stays exact on long captures
+            return AMPLITUDE * Math.sin(2 * Math.PI * ((frame * hertz) % frameRate) / frameRate);
+        }
+    }
+
+    /**
+     * White noise at half of the full scale, the same frames always have the same samples
+     */
+    private static final class Noise extends VirtualSignal {
+        @Override
+        double getSample(final long frame, final int channel, final float frameRate) {
+            // splitmix64 of the position of the sample
+            long z = frame * 31 + channel + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+            return AMPLITUDE * ((z >>> 11) / (double) (1L << 53) * 2 - 1);
+        }
+    }
+
+    /**
+     * An audio file replayed in a loop, resampled to the frame rate of the line by picking the nearest sample and
+     * with its last channel repeated on lines with more channels
+     */
+    private static final class Recording extends VirtualSignal {
+        private static final double SHORT_SCALE = 32768.0;
+
+        private final short[] samples;
+        private final int channels;
+        private final float frameRate;
+        private final long frames;
+
+        private Recording(final File file) throws IOException, UnsupportedAudioFileException {
+            try (AudioInputStream source = AudioSystem.getAudioInputStream(file)) {
+                AudioFormat sourceFormat = source.getFormat();
+                AudioFormat format = new AudioFormat(sourceFormat.getSampleRate(), 16, sourceFormat.getChannels(),
+                        true, true);
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                try (AudioInputStream stream = AudioSystem.getAudioInputStream(format, source)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int length;
+                    while ((length = stream.read(buffer)) != -1) {
+                        decoded.write(buffer, 0, length);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new UnsupportedAudioFileException("Cannot decode " + file + " to PCM: " + e.getMessage());
+                }
+                byte[] data = decoded.toByteArray();
+                this.samples = new short[data.length / 2];
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = (short) ((data[2 * i] << 8) | (data[2 * i + 1] & 0xFF));
+                }
+                this.channels = format.getChannels();
+                this.frameRate = format.getSampleRate();
+                this.frames = samples.length / channels;
+            }
+            if (frames == 0) {
+                throw new IOException("Audio file " + file + " is empty");
+            }
+            LOG.info("Virtual input lines replay {} frames of {}", frames, file);
+        }
+
+        @Override
+        double getSample(final long frame, final int channel, final float lineFrameRate) {
+            long sourceFrame = (long) (frame * (double) frameRate / lineFrameRate) % frames;
+            return samples[(int) (sourceFrame * channels + Math.min(channel, channels - 1))] / SHORT_SCALE;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.WavWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Where the virtual output lines play to. The audio reaches the sink as it is played, so frames flushed from a line
+ * before they were played are not in it.
+ */
+final class VirtualSink {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualSink.class);
+
+    private final Mode mode;
+    private final File directory;
+    private final AtomicLong fileCount = new AtomicLong();
+
+    /**
+     * What a sink does with the audio
+     */
+    private enum Mode {
+        DISCARD, MEMORY, FILES
+    }
+
+    /**
+     * Private constructor, use parse
+     */
+    private VirtualSink(final Mode mode, final File directory) {
+        this.mode = mode;
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the sink described by -DvirtualAudioOutput
+     *
+     * @param description - discard, memory or the path of a directory
+     * @return the sink, discarding the audio when the directory cannot be created
+     */
+    static VirtualSink parse(final String description) {
+        String value = description.trim();
+        if ("discard".equalsIgnoreCase(value)) {
+            return new VirtualSink(Mode.DISCARD, null);
+        } else if ("memory".equalsIgnoreCase(value)) {
+            return new VirtualSink(Mode.MEMORY, null);
+        }
+        File directory = new File(value);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.error("Cannot create the virtual audio output directory {}, discarding the audio played", directory);
+            return new VirtualSink(Mode.DISCARD, null);
+        }
+        return new VirtualSink(Mode.FILES, directory);
+    }
+
+    /**
+     * Opens the output of a line
+     *
+     * @param mixer  - the mixer of the line
+     * @param format - the format of the line
+     * @return the output the line writes what it plays to
+     */
+    Output open(final VirtualMixer mixer, final AudioFormat format) {
+        return new Output(mixer, format);
+    }
+
+    /**
+     * The audio played by one line, kept until the line is closed
+     */
+    final class Output {
+        private final VirtualMixer mixer;
+        private final AudioFormat format;
+        private final ByteArrayOutputStream audio;
+
+        private Output(final VirtualMixer mixer, final AudioFormat format) {
+            this.mixer = mixer;
+            this.format = format;
+            this.audio = mode == Mode.DISCARD ? null : new ByteArrayOutputStream();
+        }
+
+        /**
+         * Adds played audio
+         *
+         * @param data   - the audio
+         * @param offset - offset of the first byte
+         * @param length - number of bytes
+         */
+        void write(final byte[] data, final int offset, final int length) {
+            if (audio != null) {
+                audio.write(data, offset, length);
+            }
+        }
+
+        /**
+         * Hands the audio played by the line over to the mixer or to its file
+         */
+        void close() {
+            if (audio == null || audio.size() == 0) {
+                return;
+            }
+            if (mode == Mode.MEMORY) {
+                mixer.keepPlayedAudio(audio.toByteArray(), format);
+                return;
+            }
+            File file = new File(directory, mixer.getMixerInfo().getName().replace(' ', '-') + "-"
+                    + fileCount.incrementAndGet() + ".wav");
+            try {
+                WavWriter.write(audio.toByteArray(), format, file);
+            } catch (IOException e) {
+                LOG.warn("Failed to write the virtual audio output {}", file, e);
+            }
+        }
+    }
+}
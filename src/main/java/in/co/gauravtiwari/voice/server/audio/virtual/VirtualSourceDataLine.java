@@ -0,0 +1,218 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A virtual output line. Written frames wait in its buffer and are played at the frame rate of its format while it
+ * runs, then handed to the sink. A write blocks while the buffer is full, the position stops moving when the buffer
+ * runs empty and resumes with the next write.
+ * <p>
+ * A write to a stopped line returns as soon as the buffer is full rather than waiting for the line to start.
+ */
+final class VirtualSourceDataLine extends VirtualLine implements SourceDataLine {
+    private final VirtualSink sink;
+    private VirtualSink.Output output;
+    private byte[] ring;
+    private long startNanos;
+    private long startFrames;
+    private long playedFrames;
+    private long writtenFrames;
+    private long deliveredFrames;
+    private long flushes;
+
+    /**
+     * Constructor for VirtualSourceDataLine
+     *
+     * @param mixer - the mixer of the line
+     * @param info  - the description of the line
+     * @param sink  - where the line plays to
+     */
+    VirtualSourceDataLine(final VirtualMixer mixer, final DataLine.Info info, final VirtualSink sink) {
+        super(mixer, info);
+        this.sink = sink;
+    }
+
+    @Override
+    public void open(final AudioFormat format, final int bufferSize) throws LineUnavailableException {
+        openLine(format, bufferSize);
+    }
+
+    @Override
+    public void open(final AudioFormat format) throws LineUnavailableException {
+        openLine(format, getDefaultBufferSize(format));
+    }
+
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        checkFrames(length);
+        int frameSize = getFormat().getFrameSize();
+        int bufferFrames = getBufferFrames();
+        int done = 0;
+        synchronized (this) {
+            long flushCount = flushes;
+            while (done < length && isOpen() && flushCount == flushes) {
+                long now = System.nanoTime();
+                long played = getPlayed(now);
+                deliver(played);
+                if (isRunning() && played == writtenFrames) {
+                    // the buffer ran empty, playing resumes from now
+                    startFrames = played;
+                    startNanos = now;
+                }
+                int free = (int) (bufferFrames - (writtenFrames - played));
+                int frames = Math.min(free, (length - done) / frameSize);
+                int start = (int) (writtenFrames % bufferFrames);
+                int first = Math.min(frames, bufferFrames - start);
+                System.arraycopy(buffer, offset + done, ring, start * frameSize, first * frameSize);
+                System.arraycopy(buffer, offset + done + first * frameSize, ring, 0, (frames - first) * frameSize);
+                writtenFrames += frames;
+                done += frames * frameSize;
+                if (done == length || !isRunning()) {
+                    break;
+                }
+                try {
+                    awaitFrames(Math.min((length - done) / frameSize, bufferFrames));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return done;
+    }
+
+    @Override
+    void onOpen() {
+        ring = new byte[getBufferSize()];
+        output = sink.open(getMixer(), getFormat());
+        startFrames = 0;
+        playedFrames = 0;
+        writtenFrames = 0;
+        deliveredFrames = 0;
+    }
+
+    @Override
+    void onStart(final long now) {
+        startNanos = now;
+    }
+
+    @Override
+    void onStop(final long now) {
+        playedFrames = getPlayed(now);
+        startFrames = playedFrames;
+        deliver(playedFrames);
+    }
+
+    @Override
+    void onClose() {
+        output.close();
+        output = null;
+        ring = null;
+    }
+
+    /**
+     * Waits until the frames in the buffer have been played, also while the line is stopped
+     */
+    @Override
+    public synchronized void drain() {
+        try {
+            while (isOpen() && getPlayed(System.nanoTime()) < writtenFrames) {
+                if (isRunning()) {
+                    awaitFrames(writtenFrames - getPlayed(System.nanoTime()));
+                } else {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (isOpen()) {
+            deliver(getPlayed(System.nanoTime()));
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (!isOpen()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long played = getPlayed(now);
+        deliver(played);
+        writtenFrames = played;
+        playedFrames = played;
+        startFrames = played;
+        startNanos = now;
+        flushes++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int available() {
+        if (!isOpen()) {
+            return 0;
+        }
+        long queued = writtenFrames - getPlayed(System.nanoTime());
+        return (int) (getBufferFrames() - queued) * getFormat().getFrameSize();
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return isRunning() && getPlayed(System.nanoTime()) < writtenFrames;
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        return isOpen() ? getPlayed(System.nanoTime()) : playedFrames;
+    }
+
+    /**
+     * Returns the frames played since the line was opened
+     *
+     * @param now - the current time, in nanoseconds
+     * @return the position of the line
+     */
+    private long getPlayed(final long now) {
+        if (!isRunning()) {
+            return playedFrames;
+        }
+        return Math.min(writtenFrames, startFrames + framesBetween(startNanos, now));
+    }
+
+    /**
+     * Hands the frames played so far to the sink
+     *
+     * @param played - the position of the line
+     */
+    private void deliver(final long played) {
+        int frameSize = getFormat().getFrameSize();
+        int bufferFrames = getBufferFrames();
+        while (deliveredFrames < played) {
+            int start = (int) (deliveredFrames % bufferFrames);
+            int frames = (int) Math.min(played - deliveredFrames, bufferFrames - start);
+            output.write(ring, start * frameSize, frames * frameSize);
+            deliveredFrames += frames;
+        }
+    }
+}
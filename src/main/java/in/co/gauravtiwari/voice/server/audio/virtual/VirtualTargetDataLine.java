@@ -0,0 +1,172 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.audio.virtual;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A virtual input line. While it runs, frames of the virtual signal enter its buffer at the frame rate of its format.
+ * A read blocks until it has all the frames it asked for, unless the line is stopped, flushed or closed, and frames
+ * not read before the buffer is full are lost, the oldest first, as on a sound card.
+ */
+final class VirtualTargetDataLine extends VirtualLine implements TargetDataLine {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualTargetDataLine.class);
+
+    private final VirtualSignal signal;
+    private long startNanos;
+    private long capturedFrames;
+    private long readFrames;
+    private long flushes;
+    private long lostFrames;
+
+    /**
+     * Constructor for VirtualTargetDataLine
+     *
+     * @param mixer  - the mixer of the line
+     * @param info   - the description of the line
+     * @param signal - the signal the line captures
+     */
+    VirtualTargetDataLine(final VirtualMixer mixer, final DataLine.Info info, final VirtualSignal signal) {
+        super(mixer, info);
+        this.signal = signal;
+    }
+
+    @Override
+    public void open(final AudioFormat format, final int bufferSize) throws LineUnavailableException {
+        openLine(format, bufferSize);
+    }
+
+    @Override
+    public void open(final AudioFormat format) throws LineUnavailableException {
+        openLine(format, getDefaultBufferSize(format));
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        checkFrames(length);
+        int frameSize = getFormat().getFrameSize();
+        int done = 0;
+        synchronized (this) {
+            long flushCount = flushes;
+            while (done < length && isOpen() && flushCount == flushes) {
+                long captured = getCaptured(System.nanoTime());
+                int frames = (int) Math.min(captured - readFrames, (length - done) / frameSize);
+                signal.fill(getFormat(), readFrames, buffer, offset + done, frames);
+                readFrames += frames;
+                done += frames * frameSize;
+                if (done == length || !isRunning()) {
+                    break;
+                }
+                if (!isPaced()) {
+                    continue;
+                }
+                try {
+                    awaitFrames((length - done) / frameSize);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return done;
+    }
+
+    @Override
+    void onOpen() {
+        startNanos = 0;
+        capturedFrames = 0;
+        readFrames = 0;
+        lostFrames = 0;
+    }
+
+    @Override
+    void onStart(final long now) {
+        startNanos = now;
+    }
+
+    @Override
+    void onStop(final long now) {
+        capturedFrames = getCaptured(now);
+    }
+
+    @Override
+    void onClose() {
+        if (lostFrames > 0) {
+            LOG.debug("{} lost {} frames that were not read in time", getMixer().getMixerInfo().getName(), lostFrames);
+        }
+    }
+
+    /**
+     * Does nothing, the frames captured so far are already in the buffer
+     */
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public synchronized void flush() {
+        readFrames = getCaptured(System.nanoTime());
+        flushes++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int available() {
+        if (!isOpen()) {
+            return 0;
+        }
+        return (int) (getCaptured(System.nanoTime()) - readFrames) * getFormat().getFrameSize();
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return isRunning();
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        return isOpen() ? getCaptured(System.nanoTime()) : capturedFrames;
+    }
+
+    /**
+     * Returns the frames captured since the line was opened, dropping the unread ones the buffer cannot hold.
+     * The buffer of an unpaced line is always full.
+     *
+     * @param now - the current time, in nanoseconds
+     * @return the position of the line
+     */
+    private long getCaptured(final long now) {
+        if (!isPaced()) {
+            return isRunning() ? readFrames + getBufferFrames() : capturedFrames;
+        }
+        long captured = isRunning() ? capturedFrames + framesBetween(startNanos, now) : capturedFrames;
+        long overflow = captured - readFrames - getBufferFrames();
+        if (overflow > 0) {
+            readFrames += overflow;
+            lostFrames += overflow;
+        }
+        return captured;
+    }
+}
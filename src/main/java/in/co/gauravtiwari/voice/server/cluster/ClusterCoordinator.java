@@ -0,0 +1,90 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.cluster;
+
+import in.co.gauravtiwari.voice.server.voice.server.MetricsHttpHandler;
+import in.co.gauravtiwari.voice.server.voice.server.VirtualThreads;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The coordinator of a cluster of voice automation servers, one endpoint in front of the sound devices of several
+ * hosts. The servers join it with -DclusterCoordinator=http://coordinator:9080 and the clients call it like a single
+ * server, see ClusterRouter for where their calls go. Run it with
+ * java -cp VoiceAutomationServer-1.0.1.jar in.co.gauravtiwari.voice.server.cluster.ClusterCoordinator
+ * <p>
+ * Set -DclusterPort to the port to listen on (defaults to 9080) and -DbindAddress to the address (defaults to
+ * 0.0.0.0). Nodes that have not registered for -DclusterNodeTimeoutSeconds (defaults to 15) are dropped, and a node
+ * has -DclusterCallTimeoutSeconds (defaults to 600) to answer a call. The calls are forwarded from
+ * -DclusterProxyThreads threads (defaults to 64), or from virtual threads with -DvirtualThreads=true on Java 21.
+ * The metrics of the coordinator are served on /metrics.
+ */
+public final class ClusterCoordinator {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterCoordinator.class);
+    private static final int DEFAULT_PORT = 9080;
+
+    /**
+     * Private constructor
+     */
+    private ClusterCoordinator() {
+    }
+
+    /**
+     * Starts the coordinator and keeps it running
+     *
+     * @param args - unused, the coordinator is configured with system properties
+     * @throws IOException          - when the coordinator cannot listen
+     * @throws InterruptedException - when the main thread is interrupted
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        String bindAddress = System.getProperty("bindAddress", "0.0.0.0");
+        int port = Integer.getInteger("clusterPort", DEFAULT_PORT);
+        ClusterRouter router = new ClusterRouter(Long.getLong("clusterNodeTimeoutSeconds", 15));
+        ClusterProxyHandler handler = new ClusterProxyHandler(router, newExecutor(),
+                Long.getLong("clusterCallTimeoutSeconds", 600));
+        HttpServer server = HttpServer.createSimpleServer(null, bindAddress, port);
+        server.getServerConfiguration().addHttpHandler(new MetricsHttpHandler(), "/metrics");
+        server.getServerConfiguration().addHttpHandler(handler, "/");
+        server.start();
+        LOG.info("Cluster coordinator started at http://{}:{}/", bindAddress, port);
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Creates the threads forwarding the calls
+     */
+    private static ExecutorService newExecutor() {
+        if (VirtualThreads.isEnabled()) {
+            return Executors.newCachedThreadPool(VirtualThreads.newThreadFactory("cluster-proxy-"));
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, Integer.getInteger("clusterProxyThreads", 64)), runnable -> {
+            Thread thread = new Thread(runnable, "cluster-proxy-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.cluster;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A node of the cluster as seen by the coordinator: where it is, the mixers it registered last and the calls
+ * routed to it that have not been answered yet.
+ */
+final class ClusterNode {
+    private final String name;
+    private final AtomicInteger activeCalls = new AtomicInteger();
+    private volatile String url;
+    private volatile Set<String> mixers = Collections.emptySet();
+    private volatile long lastSeenNanos;
+
+    /**
+     * Constructor for ClusterNode
+     *
+     * @param name - name of the node, unique in the cluster
+     */
+    ClusterNode(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Notes a registration of the node
+     *
+     * @param nodeUrl    - base url of the api of the node
+     * @param nodeMixers - names of its mixers
+     */
+    void update(final String nodeUrl, final List<String> nodeMixers) {
+        this.url = nodeUrl.endsWith("/") ? nodeUrl : nodeUrl + "/";
+        this.mixers = nodeMixers == null ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(nodeMixers));
+        this.lastSeenNanos = System.nanoTime();
+    }
+
+    /**
+     * Getter for the name of the node
+     *
+     * @return the name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for the url of the node
+     *
+     * @return the base url of its api, ending with a slash
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * Getter for the mixers of the node
+     *
+     * @return the names of its mixers
+     */
+    Set<String> getMixers() {
+        return mixers;
+    }
+
+    /**
+     * Getter for the time of the last registration
+     *
+     * @return the System.nanoTime of the last registration
+     */
+    long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    /**
+     * Getter for the calls in flight on the node
+     *
+     * @return the counter of the calls routed to the node and not answered yet
+     */
+    AtomicInteger getActiveCalls() {
+        return activeCalls;
+    }
+}
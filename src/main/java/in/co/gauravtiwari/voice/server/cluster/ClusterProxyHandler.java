@@ -0,0 +1,493 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.cluster;
+
+import in.co.gauravtiwari.voice.server.metrics.Counter;
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationClusterNode;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessageStatus;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The endpoint of the cluster. Nodes register on POST /cluster/nodes and GET /cluster/nodes lists them, every other
+ * call is forwarded to the node chosen by the ClusterRouter and answered with the response of the node. The names
+ * of the mixers and the voice files of Json calls are translated to those of the node on the way, so is the
+ * mixerName query parameter of calls sending audio.
+ * <p>
+ * The calls are forwarded from the threads of the given executor, the Grizzly workers only read the Json requests.
+ * The other bodies, the audio of uploads and plays, are streamed to the node as they arrive, and so are the
+ * responses of the node that are not Json, the recorded audio, without being held by the coordinator.
+ */
+final class ClusterProxyHandler extends HttpHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterProxyHandler.class);
+    private static final String NODES_PATH = "/cluster/nodes";
+    private static final String JSON = "application/json";
+    private static final String[] FORWARDED_REQUEST_HEADERS = {"Accept", "X-Timing"};
+    private static final String[] FORWARDED_RESPONSE_HEADERS = {"X-Timing", "Retry-After"};
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int BUFFER_SIZE = 8192;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Counter ROUTING_FAILURES = Metrics.counter("voice_cluster_routing_failures_total",
+            "Calls the coordinator found no node for");
+    private static final Counter NODE_FAILURES = Metrics.counter("voice_cluster_node_failures_total",
+            "Calls forwarded to a node that did not answer");
+
+    private final ClusterRouter router;
+    private final ExecutorService executor;
+    private final int readTimeoutMillis;
+
+    /**
+     * Constructor for ClusterProxyHandler
+     *
+     * @param router             - the routing table
+     * @param executor           - the threads forwarding the calls
+     * @param callTimeoutSeconds - time a node has to answer a call
+     */
+    ClusterProxyHandler(final ClusterRouter router, final ExecutorService executor, final long callTimeoutSeconds) {
+        this.router = router;
+        this.executor = executor;
+        this.readTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(callTimeoutSeconds);
+    }
+
+    @Override
+    public void service(final Request request, final Response response) throws Exception {
+        if (NODES_PATH.equals(request.getRequestURI())) {
+            serveNodes(request, response);
+            return;
+        }
+        // the Json calls are read to route them, the others are streamed to their node
+        byte[] body = request.getMethod() == Method.GET || isJson(request.getContentType())
+                ? readFully(request.getInputStream()) : null;
+        response.suspend();
+        executor.execute(() -> {
+            try {
+                forward(request, body, response);
+            } catch (IOException e) {
+                LOG.warn("Unable to answer {}: {}", request.getRequestURI(), e.getMessage());
+            } finally {
+                response.resume();
+            }
+        });
+    }
+
+    /**
+     * Registers a node or lists the nodes
+     */
+    private void serveNodes(final Request request, final Response response) throws IOException {
+        if (request.getMethod() == Method.POST) {
+            try {
+                router.register(MAPPER.readValue(request.getInputStream(), VoiceAutomationClusterNode.class));
+                writeMessage(response, HttpStatus.OK_200.getStatusCode(),
+                        new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Registered"));
+            } catch (IOException | IllegalArgumentException e) {
+                writeMessage(response, HttpStatus.BAD_REQUEST_400.getStatusCode(),
+                        new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+            }
+            return;
+        }
+        List<VoiceAutomationClusterNode> nodes = new ArrayList<>();
+        for (ClusterNode node : router.getNodes()) {
+            VoiceAutomationClusterNode description = new VoiceAutomationClusterNode();
+            description.setName(node.getName());
+            description.setUrl(node.getUrl());
+            description.setMixers(new ArrayList<>(node.getMixers()));
+            description.setActiveCalls(node.getActiveCalls().get());
+            nodes.add(description);
+        }
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Nodes");
+        vam.setNodes(nodes);
+        writeMessage(response, HttpStatus.OK_200.getStatusCode(), vam);
+    }
+
+    /**
+     * Routes a call, forwards it and writes the response of the node
+     *
+     * @param body - the body of a Json call, null to stream the body of the request to the node
+     */
+    private void forward(final Request request, final byte[] body, final Response response) throws IOException {
+        String path = request.getRequestURI();
+        ObjectNode message = parseMessage(request.getContentType(), body);
+        String mixerName = message != null ? getText(message, "mixerName") : getParameter(request, "mixerName");
+        String recordMixerName = message != null ? getText(message, "recordMixerName") : null;
+        String sessionId = message != null ? getText(message, "sessionId") : null;
+        String voiceFile = message != null ? getText(message, "voiceFilePath") : null;
+        String referenceFile = message != null ? getText(message, "referenceFilePath") : null;
+        ClusterNode node = router.getSessionNode(sessionId);
+        try {
+            if (node == null) {
+                node = router.route(mixerName, recordMixerName, voiceFile);
+            }
+        } catch (ClusterRoutingException e) {
+            ROUTING_FAILURES.inc();
+            int status = e.isNoNodes() ? HttpStatus.SERVICE_UNAVAILABLE_503.getStatusCode()
+                    : HttpStatus.OK_200.getStatusCode();
+            writeMessage(response, status, new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+            return;
+        }
+        Metrics.counter("voice_cluster_calls_total", "Calls forwarded by the coordinator, by node",
+                "node", node.getName()).inc();
+        node.getActiveCalls().incrementAndGet();
+        try {
+            NodeResponse answer;
+            try {
+                byte[] forwarded = body;
+                String query = request.getQueryString();
+                if (message != null) {
+                    translate(message, "mixerName");
+                    translate(message, "recordMixerName");
+                    if (voiceFile != null) {
+                        message.put("voiceFilePath", getNodeFile(node, voiceFile));
+                    }
+                    if (referenceFile != null) {
+                        message.put("referenceFilePath", getNodeFile(node, referenceFile));
+                    }
+                    forwarded = MAPPER.writeValueAsBytes(message);
+                } else if (mixerName != null) {
+                    query = replaceParameter(query, "mixerName", router.getLocalMixerName(mixerName));
+                }
+                answer = call(node, request.getMethod().getMethodString(), path, query,
+                        request.getContentType(), request, forwarded);
+            } catch (IOException e) {
+                NODE_FAILURES.inc();
+                writeMessage(response, HttpStatus.BAD_GATEWAY_502.getStatusCode(),
+                        new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL,
+                                "Node " + node.getName() + " did not answer: " + e.getMessage()));
+                return;
+            }
+            noteState(path, node, sessionId, answer);
+            answer.write(response);
+        } finally {
+            node.getActiveCalls().decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the name a node knows a voice file by, copying it from the node that has it when needed
+     */
+    private String getNodeFile(final ClusterNode node, final String fileName) throws IOException {
+        ClusterNode owner = router.getFileOwner(fileName);
+        if (owner == null || owner == node) {
+            return fileName;
+        }
+        String copy = router.getCopy(node, fileName);
+        if (copy != null) {
+            return copy;
+        }
+        ObjectNode load = MAPPER.createObjectNode();
+        load.put("voiceFilePath", owner.getUrl() + "files/" + fileName);
+        NodeResponse answer = call(node, "POST", "/load", null, JSON, null, MAPPER.writeValueAsBytes(load));
+        JsonNode loaded = answer.readMessage();
+        answer.close();
+        if (loaded == null || !"SUCCESS".equals(getText(loaded, "status"))) {
+            throw new IOException("unable to copy voice file " + fileName + " from node " + owner.getName());
+        }
+        copy = getText(loaded, "voiceFilePath");
+        router.copiedFile(node, fileName, copy);
+        LOG.info("Copied voice file {} from node {} to node {}", fileName, owner.getName(), node.getName());
+        return copy;
+    }
+
+    /**
+     * Notes the recordings and voice files a successful call left on its node
+     */
+    private void noteState(final String path, final ClusterNode node, final String sessionId, final NodeResponse answer) {
+        if (path.endsWith("/record/stop") || path.endsWith("/compare") && sessionId != null) {
+            router.stoppedSession(sessionId);
+            return;
+        }
+        boolean load = path.endsWith("/load") || path.endsWith("/upload");
+        if (!load && !path.endsWith("/record/start")) {
+            return;
+        }
+        JsonNode message = answer.readMessage();
+        if (message == null || !"SUCCESS".equals(getText(message, "status"))) {
+            return;
+        }
+        if (load && getText(message, "voiceFilePath") != null) {
+            router.storedFile(getText(message, "voiceFilePath"), node);
+        } else if (!load && getText(message, "sessionId") != null) {
+            router.startedSession(getText(message, "sessionId"), node);
+        }
+    }
+
+    /**
+     * Sends a call to a node and reads its response, a response that is not Json is left to be streamed by write
+     *
+     * @param body - the body to send, null to stream the body of the request
+     */
+    private NodeResponse call(final ClusterNode node, final String method, final String path, final String query,
+                              final String contentType, final Request request, final byte[] body) throws IOException {
+        String base = node.getUrl();
+        URL url = new URL(base.substring(0, base.length() - 1) + path + (query != null ? "?" + query : ""));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(readTimeoutMillis);
+            if (request != null) {
+                for (String header : FORWARDED_REQUEST_HEADERS) {
+                    if (request.getHeader(header) != null) {
+                        connection.setRequestProperty(header, request.getHeader(header));
+                    }
+                }
+            }
+            if (body == null || body.length > 0 || "POST".equals(method)) {
+                connection.setDoOutput(true);
+                if (contentType != null) {
+                    connection.setRequestProperty("Content-Type", contentType);
+                }
+                long length = body != null ? body.length : request.getContentLengthLong();
+                if (length >= 0) {
+                    connection.setFixedLengthStreamingMode(length);
+                } else {
+                    connection.setChunkedStreamingMode(BUFFER_SIZE);
+                }
+                try (OutputStream out = connection.getOutputStream()) {
+                    if (body != null) {
+                        out.write(body);
+                    } else {
+                        copy(request.getInputStream(), out);
+                    }
+                }
+            }
+            int status = connection.getResponseCode();
+            NodeResponse answer = new NodeResponse(status, connection.getContentType());
+            for (String header : FORWARDED_RESPONSE_HEADERS) {
+                answer.headers.add(connection.getHeaderField(header));
+            }
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (isJson(answer.contentType)) {
+                answer.body = readFully(in);
+            } else {
+                answer.stream = in;
+                answer.contentLength = connection.getContentLengthLong();
+            }
+            return answer;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces a mixer name by the one its node knows it by
+     */
+    private void translate(final ObjectNode message, final String field) {
+        String name = getText(message, field);
+        if (name != null) {
+            message.put(field, router.getLocalMixerName(name));
+        }
+    }
+
+    /**
+     * Parses the body of a Json call
+     *
+     * @return the message, null for other calls and for bodies that are not a Json object, the node answers those
+     */
+    private static ObjectNode parseMessage(final String contentType, final byte[] body) {
+        if (!isJson(contentType) || body == null || body.length == 0) {
+            return null;
+        }
+        try {
+            JsonNode message = MAPPER.readTree(body);
+            return message instanceof ObjectNode ? (ObjectNode) message : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a body is Json
+     */
+    private static boolean isJson(final String contentType) {
+        return contentType != null && contentType.startsWith(JSON);
+    }
+
+    /**
+     * Returns a text field of a Json message
+     */
+    private static String getText(final JsonNode message, final String field) {
+        JsonNode value = message.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Returns a query parameter of a call
+     */
+    private static String getParameter(final Request request, final String name) throws UnsupportedEncodingException {
+        String query = request.getQueryString();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && name.equals(parameter.substring(0, equals))) {
+                return URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value of a query parameter
+     */
+    private static String replaceParameter(final String query, final String name, final String value)
+            throws UnsupportedEncodingException {
+        StringBuilder replaced = new StringBuilder();
+        for (String parameter : query.split("&")) {
+            if (replaced.length() > 0) {
+                replaced.append('&');
+            }
+            replaced.append(parameter.startsWith(name + "=")
+                    ? name + "=" + URLEncoder.encode(value, "UTF-8") : parameter);
+        }
+        return replaced.toString();
+    }
+
+    /**
+     * Writes a VoiceAutomationMessage as the response
+     */
+    private static void writeMessage(final Response response, final int status, final VoiceAutomationMessage message)
+            throws IOException {
+        byte[] body = MAPPER.writeValueAsBytes(message);
+        response.setStatus(status);
+        response.setContentType(JSON);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Copies a body to its end
+     */
+    private static void copy(final InputStream in, final OutputStream out) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Reads a body to its end, so that the connection can be reused
+     */
+    private static byte[] readFully(final InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The response of a node
+     */
+    private static final class NodeResponse {
+        private final int status;
+        private final String contentType;
+        private final List<String> headers = new ArrayList<>();
+        private byte[] body;
+        private InputStream stream;
+        private long contentLength;
+
+        private NodeResponse(final int status, final String contentType) {
+            this.status = status;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Parses the body of a Json response
+         *
+         * @return the message, null for other responses
+         */
+        private JsonNode readMessage() {
+            return parseMessage(contentType, body);
+        }
+
+        /**
+         * Writes the response of the node as the response of the coordinator
+         */
+        private void write(final Response response) throws IOException {
+            response.setStatus(status);
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            for (int i = 0; i < FORWARDED_RESPONSE_HEADERS.length; i++) {
+                if (headers.get(i) != null) {
+                    response.setHeader(FORWARDED_RESPONSE_HEADERS[i], headers.get(i));
+                }
+            }
+            if (body != null) {
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                return;
+            }
+            if (contentLength >= 0) {
+                response.setContentLengthLong(contentLength);
+            }
+            copy(stream, response.getOutputStream());
+        }
+
+        /**
+         * Reads a streamed body to its end without writing it, so that the connection can be reused
+         */
+        private void close() throws IOException {
+            if (stream != null) {
+                readFully(stream);
+                stream = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.cluster;
+
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationClusterNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The routing table of the coordinator. A call naming a mixer goes to the nodes that registered a mixer of that name,
+ * a call also naming a record mixer to the nodes that have both, a call naming none to any node, and among those to
+ * the one with the fewest calls in flight. A mixer name can be prefixed with the name of its node and a slash,
+ * e.g. lab-2:9090/Virtual Mixer 0, when several nodes have a mixer of the same name and the call needs one of them.
+ * <p>
+ * The recordings started on a node are stopped on it, and the voice files loaded or uploaded to a node are copied
+ * to the node a later call is routed to, once per node, from the /files api of the node that has them.
+ * A node that has not registered again within the timeout is dropped with its recordings and files.
+ */
+final class ClusterRouter {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterRouter.class);
+    private static final char NODE_SEPARATOR = '/';
+
+    private final long timeoutNanos;
+    private final Map<String, ClusterNode> nodes = new ConcurrentHashMap<>();
+    private final Map<String, ClusterNode> sessions = new ConcurrentHashMap<>();
+    private final Map<String, ClusterNode> files = new ConcurrentHashMap<>();
+    // file names of the copies of the voice files, by node and file name
+    private final Map<String, String> copies = new ConcurrentHashMap<>();
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    /**
+     * Constructor for ClusterRouter
+     *
+     * @param timeoutSeconds - time after its last registration a node is dropped
+     */
+    ClusterRouter(final long timeoutSeconds) {
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+    }
+
+    /**
+     * Adds a node to the cluster or updates it
+     *
+     * @param registration - the registration sent by the node
+     * @throws IllegalArgumentException - when the registration has no name or url
+     */
+    void register(final VoiceAutomationClusterNode registration) {
+        if (registration.getName() == null || registration.getUrl() == null) {
+            throw new IllegalArgumentException("A node registers with its name and url");
+        }
+        ClusterNode node = nodes.computeIfAbsent(registration.getName(), ClusterNode::new);
+        boolean joined = node.getLastSeenNanos() == 0;
+        node.update(registration.getUrl(), registration.getMixers());
+        if (joined) {
+            LOG.info("Node {} joined at {} with mixers {}", node.getName(), node.getUrl(), node.getMixers());
+        }
+    }
+
+    /**
+     * Returns the nodes of the cluster, dropping the ones that stopped registering
+     *
+     * @return the live nodes
+     */
+    List<ClusterNode> getNodes() {
+        long now = System.nanoTime();
+        List<ClusterNode> live = new ArrayList<>();
+        for (ClusterNode node : nodes.values()) {
+            if (now - node.getLastSeenNanos() > timeoutNanos) {
+                drop(node);
+            } else {
+                live.add(node);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Chooses the node for a call
+     *
+     * @param mixerName       - the mixer the call names, possibly prefixed with its node, null for any mixer
+     * @param recordMixerName - the mixer the call records from when it is another one, null for any mixer
+     * @param fileName        - the voice file the call plays, preferred between nodes equally busy, may be null
+     * @return the node with the fewest calls in flight among those that can take the call
+     * @throws ClusterRoutingException - when there is no node, or no node has both mixers
+     */
+    ClusterNode route(final String mixerName, final String recordMixerName, final String fileName)
+            throws ClusterRoutingException {
+        List<ClusterNode> live = getNodes();
+        if (live.isEmpty()) {
+            throw new ClusterRoutingException("No node has joined the cluster", true);
+        }
+        List<ClusterNode> candidates = new ArrayList<>();
+        for (ClusterNode node : live) {
+            if (hasMixer(node, mixerName) && hasMixer(node, recordMixerName)) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new ClusterRoutingException(mixerName != null && recordMixerName != null
+                    ? "No node of the cluster has both mixers " + mixerName + " and " + recordMixerName
+                    : "No node of the cluster has a mixer named " + (mixerName != null ? mixerName : recordMixerName),
+                    false);
+        }
+        ClusterNode owner = fileName == null ? null : files.get(fileName);
+        int start = Math.floorMod(rotation.getAndIncrement(), candidates.size());
+        ClusterNode chosen = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            ClusterNode node = candidates.get((start + i) % candidates.size());
+            int calls = node.getActiveCalls().get();
+            if (chosen == null || calls < chosen.getActiveCalls().get()
+                    || calls == chosen.getActiveCalls().get() && node == owner) {
+                chosen = node;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Checks whether a node has a mixer
+     *
+     * @param node      - the node
+     * @param mixerName - the mixer, possibly prefixed with its node, null for any mixer
+     * @return true when the mixer is null or a mixer of the node
+     */
+    private boolean hasMixer(final ClusterNode node, final String mixerName) {
+        if (mixerName == null) {
+            return true;
+        }
+        ClusterNode named = getNamedNode(mixerName);
+        return (named == null || named == node) && node.getMixers().contains(getLocalMixerName(mixerName));
+    }
+
+    /**
+     * Returns the name a node knows a mixer by, without the prefix of the node
+     *
+     * @param mixerName - the mixer the call names, may be null
+     * @return the name of the mixer on its node
+     */
+    String getLocalMixerName(final String mixerName) {
+        return getNamedNode(mixerName) != null
+                ? mixerName.substring(mixerName.indexOf(NODE_SEPARATOR) + 1) : mixerName;
+    }
+
+    /**
+     * Returns the node of a recording
+     *
+     * @param sessionId - the id of the recording session
+     * @return the node the recording was started on, null when it is not known
+     */
+    ClusterNode getSessionNode(final String sessionId) {
+        return sessionId == null ? null : sessions.get(sessionId);
+    }
+
+    /**
+     * Notes a recording started on a node
+     *
+     * @param sessionId - the id of the recording session
+     * @param node      - the node
+     */
+    void startedSession(final String sessionId, final ClusterNode node) {
+        sessions.put(sessionId, node);
+    }
+
+    /**
+     * Forgets a recording once stopped
+     *
+     * @param sessionId - the id of the recording session
+     */
+    void stoppedSession(final String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /**
+     * Returns the node a voice file was loaded or uploaded to
+     *
+     * @param fileName - the file name returned by the node
+     * @return the node, null when the file is not known
+     */
+    ClusterNode getFileOwner(final String fileName) {
+        return fileName == null ? null : files.get(fileName);
+    }
+
+    /**
+     * Notes a voice file loaded or uploaded to a node
+     *
+     * @param fileName - the file name returned by the node
+     * @param node     - the node
+     */
+    void storedFile(final String fileName, final ClusterNode node) {
+        files.put(fileName, node);
+    }
+
+    /**
+     * Returns the copy of a voice file on a node
+     *
+     * @param node     - the node
+     * @param fileName - the file name returned by the node that has the file
+     * @return the file name of the copy, null when it has not been copied yet
+     */
+    String getCopy(final ClusterNode node, final String fileName) {
+        return copies.get(node.getName() + '\n' + fileName);
+    }
+
+    /**
+     * Notes the copy of a voice file to a node
+     *
+     * @param node     - the node
+     * @param fileName - the file name returned by the node that has the file
+     * @param copy     - the file name of the copy
+     */
+    void copiedFile(final ClusterNode node, final String fileName, final String copy) {
+        copies.put(node.getName() + '\n' + fileName, copy);
+    }
+
+    /**
+     * Returns the node a mixer name is prefixed with
+     */
+    private ClusterNode getNamedNode(final String mixerName) {
+        int separator = mixerName == null ? -1 : mixerName.indexOf(NODE_SEPARATOR);
+        return separator <= 0 ? null : nodes.get(mixerName.substring(0, separator));
+    }
+
+    /**
+     * Drops a node that stopped registering, with its recordings, files and copies
+     */
+    private void drop(final ClusterNode node) {
+        if (!nodes.remove(node.getName(), node)) {
+            return;
+        }
+        sessions.values().removeIf(owner -> owner == node);
+        files.values().removeIf(owner -> owner == node);
+        copies.keySet().removeIf(key -> key.startsWith(node.getName() + '\n'));
+        LOG.warn("Node {} left the cluster, it has not registered for {} s", node.getName(),
+                TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
+    }
+}
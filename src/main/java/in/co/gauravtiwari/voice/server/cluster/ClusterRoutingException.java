@@ -0,0 +1,47 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.cluster;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Thrown when the coordinator has no node to route a call to
+ */
+class ClusterRoutingException extends Exception {
+    private final boolean noNodes;
+
+    /**
+     * Constructor for ClusterRoutingException
+     *
+     * @param message - the reason
+     * @param noNodes - true when no node is registered at all, false when none of them fits the call
+     */
+    ClusterRoutingException(final String message, final boolean noNodes) {
+        super(message);
+        this.noNodes = noNodes;
+    }
+
+    /**
+     * Getter for whether the cluster has no node at all
+     *
+     * @return true when no node is registered
+     */
+    boolean isNoNodes() {
+        return noNodes;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.loadtest;
+
+import in.co.gauravtiwari.voice.server.metrics.LatencyHistogram;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The measurements of one kind of call during a load test.
+ * <p>
+ * The service time of a call runs from the moment it was sent, the response time from the moment it was due
+ * according to the rate of the scenario. A client still waiting for its previous call sends the next one late, and
+ * with service times only the calls the server held up would go missing from the percentiles, the coordinated
+ * omission. The response times include that wait, and the calls sent late are counted.
+ */
+final class CallStatistics {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private final String name;
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+    private final LatencyHistogram responseTimes = new LatencyHistogram();
+    private final LongAccumulator maxServiceNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxResponseNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder lateCalls = new LongAdder();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for CallStatistics
+     *
+     * @param name - name of the call in the report
+     */
+    CallStatistics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a completed call
+     *
+     * @param dueNanos  - when the call was due
+     * @param sentNanos - when it was sent
+     * @param doneNanos - when its response was read
+     * @param late      - true when it was sent late enough to count as held up by the previous call
+     * @param outcome   - the status of the response, e.g. 200 SUCCESS, 429 or IOException
+     * @param error     - true when the call failed
+     */
+    void record(final long dueNanos, final long sentNanos, final long doneNanos, final boolean late,
+                final String outcome, final boolean error) {
+        serviceTimes.record(doneNanos - sentNanos);
+        responseTimes.record(doneNanos - dueNanos);
+        maxServiceNanos.accumulate(doneNanos - sentNanos);
+        maxResponseNanos.accumulate(doneNanos - dueNanos);
+        maxLagNanos.accumulate(sentNanos - dueNanos);
+        calls.increment();
+        if (error) {
+            errors.increment();
+        }
+        if (late) {
+            lateCalls.increment();
+        }
+        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Getter for the name of the call
+     *
+     * @return the name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for the number of calls recorded
+     *
+     * @return the call count
+     */
+    long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * Getter for the number of calls sent late
+     *
+     * @return the late call count
+     */
+    long getLateCalls() {
+        return lateCalls.sum();
+    }
+
+    /**
+     * Writes a line of the report table
+     *
+     * @param seconds - the measured time
+     * @return the line
+     */
+    String toLine(final double seconds) {
+        StringBuilder line = new StringBuilder(String.format("%-16s %8d %7d %9.1f %7d  |",
+                name, calls.sum(), errors.sum(), calls.sum() / seconds, lateCalls.sum()));
+        appendTimes(line, serviceTimes, maxServiceNanos);
+        line.append("  |");
+        appendTimes(line, responseTimes, maxResponseNanos);
+        return line.toString();
+    }
+
+    /**
+     * Returns the header of the report table
+     *
+     * @return the header lines
+     */
+    static String header() {
+        String times = String.format("%8s %8s %8s %8s %8s", "p50", "p90", "p99", "p99.9", "max");
+        return String.format("%-16s %8s %7s %9s %7s  | %-44s |  %s%n%-16s %8s %7s %9s %7s  | %s  | %s",
+                "", "", "", "", "", "service time ms", "response time ms",
+                "call", "calls", "errors", "calls/s", "late", times, times);
+    }
+
+    /**
+     * Returns the statistics for the Json report
+     *
+     * @param seconds - the measured time
+     * @return the statistics by name
+     */
+    Map<String, Object> toReport(final double seconds) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("calls", calls.sum());
+        report.put("errors", errors.sum());
+        report.put("callsPerSecond", calls.sum() / seconds);
+        report.put("lateCalls", lateCalls.sum());
+        report.put("maxLagMillis", toMillis(maxLagNanos.get()));
+        report.put("serviceTimeMillis", toReport(serviceTimes, maxServiceNanos));
+        report.put("responseTimeMillis", toReport(responseTimes, maxResponseNanos));
+        Map<String, Long> outcomeCounts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> outcomeCounts.put(outcome, count.sum()));
+        report.put("outcomes", outcomeCounts);
+        return report;
+    }
+
+    /**
+     * Appends the percentiles and the maximum of a histogram to a report line
+     */
+    private static void appendTimes(final StringBuilder line, final LatencyHistogram times, final LongAccumulator max) {
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(" %8.1f", getPercentile(times, max, percentile)));
+        }
+        line.append(String.format(" %8.1f", toMillis(max.get())));
+    }
+
+    /**
+     * Returns the percentiles and the maximum of a histogram for the Json report
+     */
+    private static Map<String, Double> toReport(final LatencyHistogram times, final LongAccumulator max) {
+        Map<String, Double> report = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            report.put("p" + BigDecimal.valueOf(percentile * 100).stripTrailingZeros().toPlainString(),
+                    getPercentile(times, max, percentile));
+        }
+        report.put("max", toMillis(max.get()));
+        return report;
+    }
+
+    /**
+     * Returns a percentile in milliseconds, the histogram gives the upper bound of its bucket so it is capped to the
+     * maximum
+     */
+    private static double getPercentile(final LatencyHistogram times, final LongAccumulator max, final double percentile) {
+        return Math.min(times.getQuantile(percentile) * MILLIS_PER_SECOND, toMillis(max.get()));
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds
+     */
+    private static double toMillis(final long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
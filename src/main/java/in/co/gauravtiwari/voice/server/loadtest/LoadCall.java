@@ -0,0 +1,148 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.loadtest;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.Map;
+
+/**
+ * A POJO describing one kind of call of a LoadScenario.
+ * <p>
+ * name - name of the call in the report, defaults to its path
+ * method - HTTP method, defaults to POST
+ * path - path of the API relative to the base url, e.g. play
+ * weight - share of the calls of this kind, relative to the weights of the others
+ * body - the Json request body, a VoiceAutomationMessage
+ * headers - additional request headers, e.g. Accept or X-Timing
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LoadCall {
+    private String name;
+    private String method;
+    private String path;
+    private int weight;
+    private Map<String, Object> body;
+    private Map<String, String> headers;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public LoadCall() {
+    }
+
+    /**
+     * Getter for name field.
+     * @return name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Setter for name field.
+     * @param name - name of the call in the report, defaults to its path
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Getter for method field.
+     * @return method
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Setter for method field.
+     * @param method - HTTP method, defaults to POST
+     */
+    public void setMethod(final String method) {
+        this.method = method;
+    }
+
+    /**
+     * Getter for path field.
+     * @return path
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Setter for path field.
+     * @param path - path of the API relative to the base url, e.g. play
+     */
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    /**
+     * Getter for weight field.
+     * @return weight
+     */
+    public int getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Setter for weight field.
+     * @param weight - share of the calls of this kind, relative to the weights of the others
+     */
+    public void setWeight(final int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Getter for body field.
+     * @return body
+     */
+    public Map<String, Object> getBody() {
+        return this.body;
+    }
+
+    /**
+     * Setter for body field.
+     * @param body - the Json request body, a VoiceAutomationMessage
+     */
+    public void setBody(final Map<String, Object> body) {
+        this.body = body;
+    }
+
+    /**
+     * Getter for headers field.
+     * @return headers
+     */
+    public Map<String, String> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Setter for headers field.
+     * @param headers - additional request headers, e.g. Accept or X-Timing
+     */
+    public void setHeaders(final Map<String, String> headers) {
+        this.headers = headers;
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.loadtest;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Drives a running VoiceAutomationServer with the mix of calls of a scenario file and reports the throughput, the
+ * errors and the latency percentiles of every kind of call:
+ * <p>
+ * java -cp VoiceAutomationServer.jar in.co.gauravtiwari.voice.server.loadtest.LoadGenerator scenario.json [report.json]
+ * <p>
+ * Each simulated client sends one call at a time and, when the scenario has a rate, its calls are due at fixed
+ * intervals so that all the clients together send rate calls per second. A call due while the previous one is still
+ * running is sent late, its response time still counts from when it was due, see CallStatistics. The run warns when
+ * calls were sent late or the rate was not reached, the clients are then too few for the server's latency.
+ * <p>
+ * The calls are chosen by weight with a random generator seeded per client from the scenario, so a run sends the
+ * same calls as the previous runs of the same scenario. Start the server with -DvirtualAudio=true to load test it
+ * without sound devices.
+ */
+public final class LoadGenerator {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int DEFAULT_CLIENTS = 1;
+    private static final int DEFAULT_DURATION_SECONDS = 60;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 60000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // share of calls sent late, or of the rate missed, from which the report warns
+    private static final double WARNING_RATIO = 0.01;
+
+    private final LoadScenario scenario;
+    private final List<PreparedCall> calls = new ArrayList<>();
+    private final CallStatistics total = new CallStatistics("all");
+    private final int totalWeight;
+    private final LongAccumulator lastSentNanos = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    /**
+     * Constructor for LoadGenerator
+     *
+     * @param scenario - the scenario to run
+     * @throws IOException - when a request body cannot be serialized
+     */
+    public LoadGenerator(final LoadScenario scenario) throws IOException {
+        if (scenario.getCalls() == null || scenario.getCalls().isEmpty()) {
+            throw new IllegalArgumentException("The scenario has no calls");
+        }
+        if (scenario.getBaseUrl() == null) {
+            throw new IllegalArgumentException("The scenario has no baseUrl");
+        }
+        this.scenario = scenario;
+        int weights = 0;
+        for (LoadCall call : scenario.getCalls()) {
+            PreparedCall prepared = new PreparedCall(scenario.getBaseUrl(), call);
+            weights += prepared.weight;
+            calls.add(prepared);
+        }
+        this.totalWeight = weights;
+    }
+
+    /**
+     * Main method running a scenario file and printing its report
+     *
+     * @param args - the scenario file, and optionally the file to write the Json report to
+     * @throws IOException          - when the scenario or the report cannot be read or written
+     * @throws InterruptedException - when interrupted while the clients run
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadGenerator scenario.json [report.json]");
+            System.exit(2);
+        }
+        LoadScenario scenario = MAPPER.readValue(new File(args[0]), LoadScenario.class);
+        // keep a connection per client alive between its calls
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(Math.max(DEFAULT_CLIENTS, scenario.getClients())));
+        }
+        LoadGenerator generator = new LoadGenerator(scenario);
+        Map<String, Object> report = generator.run();
+        if (args.length > 1) {
+            MAPPER.configure(SerializationConfig.Feature.INDENT_OUTPUT, true);
+            MAPPER.writeValue(new File(args[1]), report);
+        }
+    }
+
+    /**
+     * Runs the scenario and prints its report
+     *
+     * @return the Json report: the scenario, the measured time and the statistics of every call and of all of them
+     * @throws InterruptedException - when interrupted while the clients run
+     */
+    public Map<String, Object> run() throws InterruptedException {
+        int clients = Math.max(DEFAULT_CLIENTS, scenario.getClients());
+        long durationNanos = TimeUnit.SECONDS.toNanos(scenario.getDurationSeconds() > 0
+                ? scenario.getDurationSeconds() : DEFAULT_DURATION_SECONDS);
+        long startNanos = System.nanoTime() + START_DELAY_NANOS;
+        long measureNanos = startNanos + TimeUnit.SECONDS.toNanos(Math.max(0, scenario.getWarmupSeconds()));
+        long endNanos = measureNanos + durationNanos;
+        long intervalNanos = scenario.getRate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(clients) / scenario.getRate()) : 0;
+
+        System.out.println(String.format("Running %d clients for %d s after %d s of warm up against %s, %s",
+                clients, TimeUnit.NANOSECONDS.toSeconds(durationNanos), Math.max(0, scenario.getWarmupSeconds()),
+                scenario.getBaseUrl(), intervalNanos > 0 ? scenario.getRate() + " calls per second" : "unpaced"));
+        CountDownLatch finished = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    runClient(client, clients, startNanos + intervalNanos * client / clients, intervalNanos,
+                            measureNanos, endNanos);
+                } finally {
+                    finished.countDown();
+                }
+            }, "load-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        finished.await();
+        // calls due near the end are sent after it when the clients fall behind, the throughput counts that time;
+        // no call may have been sent in the measured time at all when every call outlasts it
+        long lastSent = lastSentNanos.get();
+        long measuredNanos = lastSent == Long.MIN_VALUE ? durationNanos : Math.max(durationNanos, lastSent - measureNanos);
+        double seconds = measuredNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        return report(seconds, intervalNanos);
+    }
+
+    /**
+     * Sends the calls of one client until the end of the run
+     *
+     * @param client        - the number of the client
+     * @param clients       - the number of clients
+     * @param firstDueNanos - when the first call of the client is due
+     * @param intervalNanos - time between two calls of the client, 0 to send them back to back
+     * @param measureNanos  - when the warm up ends
+     * @param endNanos      - when the run ends
+     */
+    private void runClient(final int client, final int clients, final long firstDueNanos, final long intervalNanos,
+                           final long measureNanos, final long endNanos) {
+        Random random = new Random(scenario.getSeed() * clients + client);
+        long lateNanos = Math.max(MIN_LATE_NANOS, intervalNanos / 10);
+        long dueNanos = firstDueNanos;
+        while (true) {
+            long now = System.nanoTime();
+            if (intervalNanos == 0) {
+                // unpaced, the next call is due as soon as the previous one returned
+                dueNanos = Math.max(now, firstDueNanos);
+            }
+            while (now < dueNanos) {
+                LockSupport.parkNanos(dueNanos - now);
+                now = System.nanoTime();
+            }
+            if (dueNanos >= endNanos) {
+                return;
+            }
+            PreparedCall call = pick(random);
+            long sentNanos = System.nanoTime();
+            String outcome = call.send(scenario.getTimeoutMillis() > 0 ? scenario.getTimeoutMillis() : DEFAULT_TIMEOUT_MILLIS);
+            long doneNanos = System.nanoTime();
+            if (dueNanos >= measureNanos) {
+                boolean late = intervalNanos > 0 && sentNanos - dueNanos > lateNanos;
+                boolean error = !outcome.startsWith("200 SUCCESS") && !outcome.equals("200");
+                call.statistics.record(dueNanos, sentNanos, doneNanos, late, outcome, error);
+                total.record(dueNanos, sentNanos, doneNanos, late, outcome, error);
+                lastSentNanos.accumulate(sentNanos);
+            }
+            dueNanos += intervalNanos;
+        }
+    }
+
+    /**
+     * Chooses the next call by weight
+     */
+    private PreparedCall pick(final Random random) {
+        int ticket = random.nextInt(totalWeight);
+        for (PreparedCall call : calls) {
+            ticket -= call.weight;
+            if (ticket < 0) {
+                return call;
+            }
+        }
+        return calls.get(calls.size() - 1);
+    }
+
+    /**
+     * Prints the report table and its warnings and returns the Json report
+     */
+    private Map<String, Object> report(final double seconds, final long intervalNanos) {
+        System.out.println(CallStatistics.header());
+        Map<String, Object> callReports = new LinkedHashMap<>();
+        for (PreparedCall call : calls) {
+            System.out.println(call.statistics.toLine(seconds));
+            callReports.put(call.statistics.getName(), call.statistics.toReport(seconds));
+        }
+        System.out.println(total.toLine(seconds));
+
+        List<String> warnings = new ArrayList<>();
+        if (total.getLateCalls() > total.getCalls() * WARNING_RATIO) {
+            warnings.add(String.format("%d of %d calls were sent late because the client was still waiting for its "
+                    + "previous call, coordinated omission: the service times understate the latency, the response "
+                    + "times include the wait", total.getLateCalls(), total.getCalls()));
+        }
+        double achievedRate = total.getCalls() / seconds;
+        if (intervalNanos > 0 && achievedRate < scenario.getRate() * (1 - WARNING_RATIO)) {
+            warnings.add(String.format("Only %.1f of the %.1f calls per second were sent, add clients",
+                    achievedRate, scenario.getRate()));
+        }
+        for (String warning : warnings) {
+            System.out.println("WARNING: " + warning);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("scenario", scenario);
+        report.put("measuredSeconds", seconds);
+        report.put("calls", callReports);
+        report.put("all", total.toReport(seconds));
+        report.put("warnings", warnings);
+        return report;
+    }
+
+    /**
+     * A call of the scenario with its url and its serialized body
+     */
+    private static final class PreparedCall {
+        private final URL url;
+        private final String method;
+        private final int weight;
+        private final byte[] body;
+        private final Map<String, String> headers;
+        private final CallStatistics statistics;
+
+        private PreparedCall(final String baseUrl, final LoadCall call) throws IOException {
+            if (call.getPath() == null) {
+                throw new IllegalArgumentException("A call of the scenario has no path");
+            }
+            String base = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+            this.url = new URL(base + (call.getPath().startsWith("/") ? call.getPath().substring(1) : call.getPath()));
+            this.method = call.getMethod() != null ? call.getMethod().toUpperCase() : "POST";
+            this.weight = call.getWeight() > 0 ? call.getWeight() : 1;
+            this.body = call.getBody() != null ? MAPPER.writeValueAsBytes(call.getBody()) : null;
+            this.headers = call.getHeaders() != null ? call.getHeaders() : Collections.<String, String>emptyMap();
+            this.statistics = new CallStatistics(call.getName() != null ? call.getName() : call.getPath());
+        }
+
+        /**
+         * Sends the call and reads its response
+         *
+         * @param timeoutMillis - the read timeout
+         * @return the outcome: the status code, followed by the status of the VoiceAutomationMessage for Json
+         * responses, or the name of the exception when the call failed
+         */
+        private String send(final int timeoutMillis) {
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod(method);
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                connection.setReadTimeout(timeoutMillis);
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+                if (body != null && !"GET".equals(method)) {
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json");
+                    connection.setFixedLengthStreamingMode(body.length);
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+                }
+                int status = connection.getResponseCode();
+                byte[] response = readFully(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+                String contentType = connection.getContentType();
+                if (contentType != null && contentType.startsWith("application/json") && response.length > 0) {
+                    JsonNode message = MAPPER.readTree(response);
+                    if (message != null && message.has("status")) {
+                        return status + " " + message.get("status").asText();
+                    }
+                }
+                return String.valueOf(status);
+            } catch (IOException e) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                return e.getClass().getSimpleName();
+            }
+        }
+
+        /**
+         * Reads a response body to its end, so that the connection can be reused
+         */
+        private static byte[] readFully(final InputStream in) throws IOException {
+            if (in == null) {
+                return new byte[0];
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, length);
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+}
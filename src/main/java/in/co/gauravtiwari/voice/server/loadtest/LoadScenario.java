@@ -0,0 +1,186 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.loadtest;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A POJO describing a load test run by LoadGenerator, read from a Json scenario file.
+ * <p>
+ * baseUrl - url of the server, e.g. http://localhost:9010/
+ * durationSeconds - how long the calls are measured, after the warm up
+ * warmupSeconds - how long the calls run before they are measured
+ * clients - number of simulated clients, each sending one call at a time
+ * rate - calls per second of all the clients together, 0 for every client sending its next call as soon as the
+ * previous one returned
+ * seed - seed of the choice of the calls, the same seed sends the same sequence of calls
+ * timeoutMillis - read timeout of a call
+ * calls - the calls and their weight in the mix
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LoadScenario {
+    private String baseUrl;
+    private int durationSeconds;
+    private int warmupSeconds;
+    private int clients;
+    private double rate;
+    private long seed;
+    private int timeoutMillis;
+    private List<LoadCall> calls;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public LoadScenario() {
+    }
+
+    /**
+     * Getter for baseUrl field.
+     * @return baseUrl
+     */
+    public String getBaseUrl() {
+        return this.baseUrl;
+    }
+
+    /**
+     * Setter for baseUrl field.
+     * @param baseUrl - url of the server, e.g. http://localhost:9010/
+     */
+    public void setBaseUrl(final String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Getter for durationSeconds field.
+     * @return durationSeconds
+     */
+    public int getDurationSeconds() {
+        return this.durationSeconds;
+    }
+
+    /**
+     * Setter for durationSeconds field.
+     * @param durationSeconds - how long the calls are measured, after the warm up
+     */
+    public void setDurationSeconds(final int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * Getter for warmupSeconds field.
+     * @return warmupSeconds
+     */
+    public int getWarmupSeconds() {
+        return this.warmupSeconds;
+    }
+
+    /**
+     * Setter for warmupSeconds field.
+     * @param warmupSeconds - how long the calls run before they are measured
+     */
+    public void setWarmupSeconds(final int warmupSeconds) {
+        this.warmupSeconds = warmupSeconds;
+    }
+
+    /**
+     * Getter for clients field.
+     * @return clients
+     */
+    public int getClients() {
+        return this.clients;
+    }
+
+    /**
+     * Setter for clients field.
+     * @param clients - number of simulated clients, each sending one call at a time
+     */
+    public void setClients(final int clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Getter for rate field.
+     * @return rate
+     */
+    public double getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Setter for rate field.
+     * @param rate - calls per second of all the clients together, 0 for every client sending its next call as soon
+     *             as the previous one returned
+     */
+    public void setRate(final double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Getter for seed field.
+     * @return seed
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Setter for seed field.
+     * @param seed - seed of the choice of the calls, the same seed sends the same sequence of calls
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Getter for timeoutMillis field.
+     * @return timeoutMillis
+     */
+    public int getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
+    /**
+     * Setter for timeoutMillis field.
+     * @param timeoutMillis - read timeout of a call
+     */
+    public void setTimeoutMillis(final int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Getter for calls field.
+     * @return calls
+     */
+    public List<LoadCall> getCalls() {
+        return this.calls;
+    }
+
+    /**
+     * Setter for calls field.
+     * @param calls - the calls and their weight in the mix
+     */
+    public void setCalls(final List<LoadCall> calls) {
+        this.calls = calls;
+    }
+}
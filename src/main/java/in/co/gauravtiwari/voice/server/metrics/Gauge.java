@@ -0,0 +1,71 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A lock-free value that goes up and down, e.g. open lines.
+ */
+public final class Gauge implements Metric {
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * Package-private constructor, gauges are obtained from Metrics
+     */
+    Gauge() {
+    }
+
+    /**
+     * Adds one to the gauge
+     */
+    public void inc() {
+        value.increment();
+    }
+
+    /**
+     * Removes one from the gauge
+     */
+    public void dec() {
+        value.decrement();
+    }
+
+    /**
+     * Adds to the gauge
+     *
+     * @param delta - the amount to add, negative to remove
+     */
+    public void add(final long delta) {
+        value.add(delta);
+    }
+
+    /**
+     * Getter for the value
+     *
+     * @return the current value
+     */
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public void write(final StringBuilder out, final String name, final String labels) {
+        Metrics.writeSample(out, name, labels, get());
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A lock-free latency histogram of fixed memory. Latencies are counted in microseconds into buckets of 8 per power
+ * of two, so a quantile is exact within 12.5%, from 1 microsecond up to about 19 hours. Longer latencies are counted
+ * in the last bucket.
+ * <p>
+ * It is written as a Prometheus summary with the p50, p99 and p999 quantiles in seconds.
+ */
+public final class LatencyHistogram implements Metric {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final double MICROS_PER_SECOND = 1000000.0;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    /**
+     * Creates a histogram outside of the registry, the ones served on /metrics are obtained from Metrics
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Records a latency
+     *
+     * @param nanos - the latency in nanoseconds
+     */
+    public void record(final long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    /**
+     * Records the latency of an operation started at the given time
+     *
+     * @param startNanos - the System.nanoTime() when the operation started
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Getter for the number of recorded latencies
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the latency below which the given share of the recorded latencies fall
+     *
+     * @param quantile - the share, between 0 and 1
+     * @return the upper bound of the bucket holding the quantile in seconds, 0 when nothing was recorded
+     */
+    public double getQuantile(final double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i) / MICROS_PER_SECOND;
+            }
+        }
+        return upperBoundOf(BUCKETS - 1) / MICROS_PER_SECOND;
+    }
+
+    @Override
+    public void write(final StringBuilder out, final String name, final String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            Metrics.writeSample(out, name, labels + separator + "quantile=\"" + quantile + "\"", getQuantile(quantile));
+        }
+        Metrics.writeSample(out, name + "_sum", labels, sumMicros.sum() / MICROS_PER_SECOND);
+        Metrics.writeSample(out, name + "_count", labels, getCount());
+    }
+
+    /**
+     * Index of the bucket counting a latency, the values below 8 have a bucket each, the others share a bucket
+     * with the values having the same 3 bits below their highest bit
+     */
+    static int bucketOf(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest latency in microseconds counted by a bucket
+     */
+    static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
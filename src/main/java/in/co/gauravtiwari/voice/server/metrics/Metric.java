@@ -0,0 +1,34 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.metrics;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A metric of the registry, written in the Prometheus text format.
+ */
+interface Metric {
+
+    /**
+     * Writes the samples of the metric
+     *
+     * @param out    - where the samples are written
+     * @param name   - name of the metric family
+     * @param labels - the labels of the metric, e.g. endpoint="play", empty for none
+     */
+    void write(StringBuilder out, String name, String labels);
+}
@@ -0,0 +1,175 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The registry of the metrics of the server, written in the Prometheus text format by the /metrics endpoint.
+ * <p>
+ * A metric is identified by its name and labels, asking twice for the same one returns the same instance, so
+ * hot paths keep the instances they use instead of looking them up. Labels are given as name, value pairs.
+ */
+public final class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final ConcurrentMap<String, Family<?>> FAMILIES = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Returns a counter, creating it the first time
+     *
+     * @param name   - name of the metric, ending with _total
+     * @param help   - description of the metric
+     * @param labels - label name, value pairs
+     * @return the counter
+     */
+    public static Counter counter(final String name, final String help, final String... labels) {
+        return family(name, help, "counter", Counter.class, Counter::new).get(labels);
+    }
+
+    /**
+     * Returns a gauge, creating it the first time
+     *
+     * @param name   - name of the metric
+     * @param help   - description of the metric
+     * @param labels - label name, value pairs
+     * @return the gauge
+     */
+    public static Gauge gauge(final String name, final String help, final String... labels) {
+        return family(name, help, "gauge", Gauge.class, Gauge::new).get(labels);
+    }
+
+    /**
+     * Returns a latency histogram, creating it the first time
+     *
+     * @param name   - name of the metric, ending with _seconds
+     * @param help   - description of the metric
+     * @param labels - label name, value pairs
+     * @return the histogram
+     */
+    public static LatencyHistogram histogram(final String name, final String help, final String... labels) {
+        return family(name, help, "summary", LatencyHistogram.class, LatencyHistogram::new).get(labels);
+    }
+
+    /**
+     * Writes all the metrics, sorted by name
+     *
+     * @return the metrics in the Prometheus text format
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family<?> family : new TreeMap<>(FAMILIES).values()) {
+            family.write(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes one sample line
+     */
+    static void writeSample(final StringBuilder out, final String name, final String labels, final double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Returns the family of a metric, checking it is not registered with another type
+     */
+    @SuppressWarnings("unchecked")
+    private static <M extends Metric> Family<M> family(final String name, final String help, final String type,
+                                                      final Class<M> metricClass, final Supplier<M> factory) {
+        Family<?> family = FAMILIES.computeIfAbsent(name, key -> new Family<>(name, help, type, metricClass, factory));
+        if (family.metricClass != metricClass) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return (Family<M>) family;
+    }
+
+    /**
+     * The metrics sharing a name, one per set of labels
+     */
+    private static final class Family<M extends Metric> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Class<M> metricClass;
+        private final Supplier<M> factory;
+        private final ConcurrentMap<String, M> metrics = new ConcurrentHashMap<>();
+
+        private Family(final String name, final String help, final String type, final Class<M> metricClass,
+                       final Supplier<M> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.metricClass = metricClass;
+            this.factory = factory;
+        }
+
+        private M get(final String... labels) {
+            String key = formatLabels(labels);
+            M metric = metrics.get(key);
+            return metric != null ? metric : metrics.computeIfAbsent(key, k -> factory.get());
+        }
+
+        private void write(final StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, M> metric : new TreeMap<>(metrics).entrySet()) {
+                metric.getValue().write(out, name, metric.getKey());
+            }
+        }
+
+        private static String formatLabels(final String... labels) {
+            if (labels.length % 2 != 0) {
+                throw new IllegalArgumentException("Labels must be name, value pairs");
+            }
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                key.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            }
+            return key.toString();
+        }
+
+        private static String escape(final String value) {
+            return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The timing breakdown of one request: the time each phase of the request was reached, in nanoseconds of the
+ * monotonic clock since the request started. Phases are marked from whichever thread reaches them, the request
+ * thread, the line event thread or the audio timer, and keep the time of their first mark.
+ * <p>
+ * A view with a prefix marks into the same breakdown, e.g. record. for the recording of a play and record.
+ */
+public final class PhaseTimings {
+    public static final String HEADER = "X-Timing";
+
+    private static final PhaseTimings DISABLED = new PhaseTimings(null, 0, "");
+
+    private final Map<String, Long> marks;
+    private final long startNanos;
+    private final String prefix;
+
+    /**
+     * Private constructor
+     */
+    private PhaseTimings(final Map<String, Long> marks, final long startNanos, final String prefix) {
+        this.marks = marks;
+        this.startNanos = startNanos;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Starts the breakdown of a request now
+     *
+     * @return the timings
+     */
+    public static PhaseTimings start() {
+        return new PhaseTimings(new LinkedHashMap<String, Long>(), System.nanoTime(), "");
+    }
+
+    /**
+     * Returns timings that ignore their marks, for requests that did not ask for the breakdown
+     *
+     * @return the disabled timings
+     */
+    public static PhaseTimings disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Getter for whether the marks are kept
+     *
+     * @return false for the disabled timings
+     */
+    public boolean isEnabled() {
+        return marks != null;
+    }
+
+    /**
+     * Returns a view marking its phases with a prefix into the same breakdown
+     *
+     * @param phasePrefix - the prefix, e.g. record.
+     * @return the view
+     */
+    public PhaseTimings withPrefix(final String phasePrefix) {
+        return isEnabled() ? new PhaseTimings(marks, startNanos, prefix + phasePrefix) : this;
+    }
+
+    /**
+     * Marks that a phase was reached now
+     *
+     * @param phase - name of the phase
+     */
+    public void mark(final String phase) {
+        if (marks == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        synchronized (marks) {
+            if (!marks.containsKey(prefix + phase)) {
+                marks.put(prefix + phase, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Returns the breakdown
+     *
+     * @return the phases in the order they were reached, with their time in nanoseconds since the request started
+     */
+    public Map<String, Long> toMap() {
+        if (marks == null) {
+            return Collections.emptyMap();
+        }
+        synchronized (marks) {
+            return new LinkedHashMap<>(marks);
+        }
+    }
+
+    /**
+     * Formats the breakdown for the X-Timing header
+     *
+     * @return the phases as phase=nanoseconds separated by commas, e.g. parsed=182000, lineAcquired=950000
+     */
+    public String toHeader() {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, Long> mark : toMap().entrySet()) {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(mark.getKey()).append('=').append(mark.getValue());
+        }
+        return header.toString();
+    }
+}
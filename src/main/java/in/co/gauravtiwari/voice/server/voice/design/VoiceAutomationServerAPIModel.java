@@ -19,7 +19,9 @@ package in.co.gauravtiwari.voice.server.voice.design;
 
 import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
 
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 
 /**
  * created by Gaurav Tiwari
@@ -33,28 +35,144 @@ public interface VoiceAutomationServerAPIModel {
      *
      * @param request The request from the client in Json format serialized
      *                into a VoiceAutomationMessage object by jackson
-     * @return Response to the client, providing a status and message to
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status and message to
      * the requested service
      */
-    Response load(VoiceAutomationMessage request);
+    void load(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Saves the voice file sent as the raw request body into filesystem, the format is recognized from the
+     * content. The returned file name is accepted by play like the one returned by load.
+     *
+     * @param body The wav or mp3 voice file
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status, the file name
+     * and the SHA-256 of the voice file
+     */
+    void upload(InputStream body, AsyncResponse asyncResponse);
 
     /**
      * Plays the voice to device.
      *
      * @param request The request from the client in Json format serialized
      *                into a VoiceAutomationMessage object by jackson
-     * @return Response to the client, providing a status and message to
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status and message to
      * the requested service
      */
-    Response play(VoiceAutomationMessage request);
+    void play(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Plays the voice sent as the raw request body to device, the format is recognized from the content.
+     *
+     * @param body        The wav or mp3 voice file
+     * @param mixerNumber The mixer to play to, null for the default one
+     * @param mixerName   The name of the mixer to play to, instead of its number
+     * @param dryRun      Whether to play to the dry run mixer, null for the server default
+     * @param clientId    The client sharing the device, for the device scheduler
+     * @param priority    The priority class of the call, HIGH, NORMAL or LOW, null for NORMAL
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status and message to
+     * the requested service
+     */
+    void playStream(InputStream body, Integer mixerNumber, String mixerName, Boolean dryRun, String clientId, String priority,
+                    AsyncResponse asyncResponse);
+
+    /**
+     * Plays the voice sent in a multipart/mixed request to device. The optional first part is the request
+     * in Json, the next part is the wav or mp3 voice file.
+     *
+     * @param body The multipart request body
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status and message to
+     * the requested service
+     */
+    void playMultipart(InputStream body, AsyncResponse asyncResponse);
 
     /**
      * Records the audio played from the device
      *
      * @param request The request from the client in Json format serialized
      *                into a VoiceAutomationMessage object by jackson
-     * @return Response to the client, providing a status and message to
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status and message to
      * the rquested service
      */
-    Response record(VoiceAutomationMessage request);
+    void record(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Starts an open-ended recording on the device, it runs until stopRecording is called
+     * or the server maximum session time is reached
+     *
+     * @param request The request from the client in Json format serialized
+     *                into a VoiceAutomationMessage object by jackson
+     * @param asyncResponse The suspended response, resumed with the Response to the client, carrying the id of the recording session
+     */
+    void startRecording(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Stops an open-ended recording and returns the recorded audio
+     *
+     * @param request The request from the client in Json format serialized
+     *                into a VoiceAutomationMessage object by jackson
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status, message and
+     * the recorded audio
+     */
+    void stopRecording(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Plays the voice to a device while recording its reply from another device
+     *
+     * @param request The request from the client in Json format serialized
+     *                into a VoiceAutomationMessage object by jackson
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status, message, the recorded
+     * audio and where the playback is located in it
+     */
+    void playAndRecord(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Measures the round-trip latency between the play and record devices through a loopback
+     *
+     * @param request The request from the client in Json format serialized
+     *                into a VoiceAutomationMessage object by jackson
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status, message and the latency
+     */
+    void calibrate(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Compares a recording, of a recording session or in a voice file, with a reference voice file
+     *
+     * @param request The request from the client in Json format serialized
+     *                into a VoiceAutomationMessage object by jackson
+     * @param asyncResponse The suspended response, resumed with the Response to the client, providing a status, message and
+     * where the reference is in the recording and how alike they are
+     */
+    void compare(VoiceAutomationMessage request, AsyncResponse asyncResponse);
+
+    /**
+     * Reports the utilization of the execution pools the calls run in, for capacity planning
+     *
+     * @return Response to the client, providing a status and the statistics of every pool
+     */
+    Response pools();
+
+    /**
+     * Lists the mixers, their lines and the audio formats of the lines, with the names requests can address them by
+     *
+     * @param refresh - true to check the mixers of the system first, else the index is served as it is
+     * @return Response to the client, providing a status and the capabilities of every mixer
+     */
+    Response mixers(boolean refresh);
+
+    /**
+     * Serves a voice file downloaded or uploaded to this server, so the other nodes of a cluster can copy it
+     *
+     * @param fileName The file name returned by load or upload
+     * @return Response to the client, the voice file, or 404 with a FAIL status when there is no such file
+     */
+    Response file(String fileName);
+
+    /**
+     * Reports whether the server has preloaded its preload manifest, so load balancers route calls to warm
+     * servers only
+     *
+     * @return Response to the client, 200 with a SUCCESS status when ready, else 503 with a FAIL status, and the
+     * progress of the preloading
+     */
+    Response ready();
 }
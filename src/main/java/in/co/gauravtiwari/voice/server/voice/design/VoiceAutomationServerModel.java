@@ -29,4 +29,9 @@ public interface VoiceAutomationServerModel {
      * and the supplied hostname
      */
     void startServer();
+
+    /**
+     * stopServer stops accepting calls, lets the calls in flight complete and then stops the http server
+     */
+    void stopServer();
 }
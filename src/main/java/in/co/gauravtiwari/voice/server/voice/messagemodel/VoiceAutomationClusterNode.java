@@ -0,0 +1,113 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A POJO describing a node of a cluster, sent by the node when it registers with the coordinator and listed by the
+ * coordinator inside a VoiceAutomationMessage.
+ * <p>
+ * name - name of the node, unique in the cluster
+ * url - base url of the api of the node
+ * mixers - names of the mixers of the node
+ * activeCalls - number of calls the coordinator is waiting on the node for
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationClusterNode {
+    private String name;
+    private String url;
+    private List<String> mixers;
+    private int activeCalls;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationClusterNode() {
+    }
+
+    /**
+     * Getter for name field.
+     * @return name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Setter for name field.
+     * @param name - name of the node, unique in the cluster
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Getter for url field.
+     * @return url
+     */
+    public String getUrl() {
+        return this.url;
+    }
+
+    /**
+     * Setter for url field.
+     * @param url - base url of the api of the node
+     */
+    public void setUrl(final String url) {
+        this.url = url;
+    }
+
+    /**
+     * Getter for mixers field.
+     * @return mixers
+     */
+    public List<String> getMixers() {
+        return this.mixers;
+    }
+
+    /**
+     * Setter for mixers field.
+     * @param mixers - names of the mixers of the node
+     */
+    public void setMixers(final List<String> mixers) {
+        this.mixers = mixers;
+    }
+
+    /**
+     * Getter for activeCalls field.
+     * @return activeCalls
+     */
+    public int getActiveCalls() {
+        return this.activeCalls;
+    }
+
+    /**
+     * Setter for activeCalls field.
+     * @param activeCalls - number of calls the coordinator is waiting on the node for
+     */
+    public void setActiveCalls(final int activeCalls) {
+        this.activeCalls = activeCalls;
+    }
+}
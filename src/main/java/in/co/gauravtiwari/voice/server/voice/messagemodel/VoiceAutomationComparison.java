@@ -0,0 +1,128 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * A POJO carrying the outcome of comparing a recording with a reference voice file inside a VoiceAutomationMessage.
+ * <p>
+ * lagFrames - frame of the recording at which the reference starts
+ * lagMillis - the same lag in milliseconds, with sub-sample precision
+ * similarity - normalized cross-correlation at the lag, between -1 and 1
+ * snrDb - signal to noise ratio in dB, what does not correlate with the reference counting as noise
+ * channel - the channel of the recording that matched best, 0 for the first
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationComparison {
+    private long lagFrames;
+    private double lagMillis;
+    private double similarity;
+    private double snrDb;
+    private int channel;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationComparison() {
+    }
+
+    /**
+     * Getter for lagFrames field.
+     * @return lagFrames
+     */
+    public long getLagFrames() {
+        return this.lagFrames;
+    }
+
+    /**
+     * Setter for lagFrames field.
+     * @param lagFrames - frame of the recording at which the reference starts
+     */
+    public void setLagFrames(final long lagFrames) {
+        this.lagFrames = lagFrames;
+    }
+
+    /**
+     * Getter for lagMillis field.
+     * @return lagMillis
+     */
+    public double getLagMillis() {
+        return this.lagMillis;
+    }
+
+    /**
+     * Setter for lagMillis field.
+     * @param lagMillis - the same lag in milliseconds, with sub-sample precision
+     */
+    public void setLagMillis(final double lagMillis) {
+        this.lagMillis = lagMillis;
+    }
+
+    /**
+     * Getter for similarity field.
+     * @return similarity
+     */
+    public double getSimilarity() {
+        return this.similarity;
+    }
+
+    /**
+     * Setter for similarity field.
+     * @param similarity - normalized cross-correlation at the lag, between -1 and 1
+     */
+    public void setSimilarity(final double similarity) {
+        this.similarity = similarity;
+    }
+
+    /**
+     * Getter for snrDb field.
+     * @return snrDb
+     */
+    public double getSnrDb() {
+        return this.snrDb;
+    }
+
+    /**
+     * Setter for snrDb field.
+     * @param snrDb - signal to noise ratio in dB, what does not correlate with the reference counting as noise
+     */
+    public void setSnrDb(final double snrDb) {
+        this.snrDb = snrDb;
+    }
+
+    /**
+     * Getter for channel field.
+     * @return channel
+     */
+    public int getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Setter for channel field.
+     * @param channel - the channel of the recording that matched best, 0 for the first
+     */
+    public void setChannel(final int channel) {
+        this.channel = channel;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A POJO describing an audio line of a mixer inside a VoiceAutomationMixerCapabilities.
+ * <p>
+ * type - kind of line, Clip, SourceDataLine, TargetDataLine or Port
+ * formats - the audio formats the line supports, empty for ports
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationLineCapabilities {
+    private String type;
+    private List<String> formats;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationLineCapabilities() {
+    }
+
+    /**
+     * Getter for type field.
+     * @return type
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Setter for type field.
+     * @param type - kind of line, Clip, SourceDataLine, TargetDataLine or Port
+     */
+    public void setType(final String type) {
+        this.type = type;
+    }
+
+    /**
+     * Getter for formats field.
+     * @return formats
+     */
+    public List<String> getFormats() {
+        return this.formats;
+    }
+
+    /**
+     * Setter for formats field.
+     * @param formats - the audio formats the line supports, empty for ports
+     */
+    public void setFormats(final List<String> formats) {
+        this.formats = formats;
+    }
+}
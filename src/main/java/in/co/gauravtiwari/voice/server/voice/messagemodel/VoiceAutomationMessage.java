@@ -19,6 +19,8 @@ package in.co.gauravtiwari.voice.server.voice.messagemodel;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 
 import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A POJO that is used when the server serializes and deserializes
@@ -47,6 +49,32 @@ public class VoiceAutomationMessage {
     private String voiceFilePath;
     private long recordingDuration;
     private byte[] audioData;
+    private String sessionId;
+    private Integer mixerNumber;
+    private Integer recordMixerNumber;
+    private Long playbackStartFrame;
+    private Long playbackEndFrame;
+    private Long latencyFrames;
+    private String recordingEncoding;
+    private Float recordingSampleRate;
+    private Long payloadBytes;
+    private Long encodeMicrosPerSecond;
+    private boolean statisticsOnly;
+    private VoiceAutomationSignalStatistics signalStatistics;
+    private String contentHash;
+    private List<VoiceAutomationPoolStatistics> pools;
+    private boolean timed;
+    private Map<String, Long> timings;
+    private Boolean dryRun;
+    private String mixerName;
+    private String recordMixerName;
+    private List<VoiceAutomationMixerCapabilities> mixers;
+    private List<VoiceAutomationClusterNode> nodes;
+    private String clientId;
+    private String priority;
+    private Long deadlineMillis;
+    private String referenceFilePath;
+    private VoiceAutomationComparison comparison;
 
     /**
      * Default Constructor needed for jackson serialization.
@@ -158,6 +186,427 @@ public class VoiceAutomationMessage {
         this.recordingDuration = recordingDuration;
     }
 
+    /**
+     * Getter for sessionId field. The session id identifies an open-ended recording started with /record/start
+     * @return sessionId
+     */
+    public String getSessionId() {
+        return this.sessionId;
+    }
+
+    /**
+     * Setter for sessionId field
+     * @param sessionId - the id of the recording session
+     */
+    public void setSessionId(final String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Getter for mixerNumber field. When not set, the mixer from -DaudioPort is used
+     * @return mixerNumber
+     */
+    public Integer getMixerNumber() {
+        return this.mixerNumber;
+    }
+
+    /**
+     * Setter for mixerNumber field
+     * @param mixerNumber - the index of the mixer to use for the request
+     */
+    public void setMixerNumber(final Integer mixerNumber) {
+        this.mixerNumber = mixerNumber;
+    }
+
+    /**
+     * Getter for recordMixerNumber field. It is the mixer recorded from by /playrecord, when not set mixerNumber is used
+     * @return recordMixerNumber
+     */
+    public Integer getRecordMixerNumber() {
+        return this.recordMixerNumber;
+    }
+
+    /**
+     * Setter for recordMixerNumber field
+     * @param recordMixerNumber - the index of the mixer to record from
+     */
+    public void setRecordMixerNumber(final Integer recordMixerNumber) {
+        this.recordMixerNumber = recordMixerNumber;
+    }
+
+    /**
+     * Getter for playbackStartFrame field. It is the frame of audioData at which the playback started
+     * @return playbackStartFrame
+     */
+    public Long getPlaybackStartFrame() {
+        return this.playbackStartFrame;
+    }
+
+    /**
+     * Setter for playbackStartFrame field
+     * @param playbackStartFrame - the frame of audioData at which the playback started
+     */
+    public void setPlaybackStartFrame(final Long playbackStartFrame) {
+        this.playbackStartFrame = playbackStartFrame;
+    }
+
+    /**
+     * Getter for playbackEndFrame field. It is the frame of audioData at which the playback ended
+     * @return playbackEndFrame
+     */
+    public Long getPlaybackEndFrame() {
+        return this.playbackEndFrame;
+    }
+
+    /**
+     * Setter for playbackEndFrame field
+     * @param playbackEndFrame - the frame of audioData at which the playback ended
+     */
+    public void setPlaybackEndFrame(final Long playbackEndFrame) {
+        this.playbackEndFrame = playbackEndFrame;
+    }
+
+    /**
+     * Getter for latencyFrames field. It is the calibrated round-trip latency between the mixers in frames,
+     * -1 when the mixers have not been calibrated
+     * @return latencyFrames
+     */
+    public Long getLatencyFrames() {
+        return this.latencyFrames;
+    }
+
+    /**
+     * Setter for latencyFrames field
+     * @param latencyFrames - the round-trip latency between the mixers in frames
+     */
+    public void setLatencyFrames(final Long latencyFrames) {
+        this.latencyFrames = latencyFrames;
+    }
+
+    /**
+     * Getter for recordingEncoding field. It is one of PCM, IMA_ADPCM or PCM_DOWNSAMPLED, PCM when not set
+     * @return recordingEncoding
+     */
+    public String getRecordingEncoding() {
+        return this.recordingEncoding;
+    }
+
+    /**
+     * Setter for recordingEncoding field
+     * @param recordingEncoding - the encoding applied to the recording while it is captured
+     */
+    public void setRecordingEncoding(final String recordingEncoding) {
+        this.recordingEncoding = recordingEncoding;
+    }
+
+    /**
+     * Getter for recordingSampleRate field. It is the sample rate PCM_DOWNSAMPLED recordings are downsampled to
+     * @return recordingSampleRate
+     */
+    public Float getRecordingSampleRate() {
+        return this.recordingSampleRate;
+    }
+
+    /**
+     * Setter for recordingSampleRate field
+     * @param recordingSampleRate - the sample rate to downsample the recording to
+     */
+    public void setRecordingSampleRate(final Float recordingSampleRate) {
+        this.recordingSampleRate = recordingSampleRate;
+    }
+
+    /**
+     * Getter for payloadBytes field. It is the size of the recorded or uploaded audio in bytes
+     * @return payloadBytes
+     */
+    public Long getPayloadBytes() {
+        return this.payloadBytes;
+    }
+
+    /**
+     * Setter for payloadBytes field
+     * @param payloadBytes - the size of the recorded audio in bytes
+     */
+    public void setPayloadBytes(final Long payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    /**
+     * Getter for encodeMicrosPerSecond field. It is the time spent encoding each second of recorded audio
+     * @return encodeMicrosPerSecond
+     */
+    public Long getEncodeMicrosPerSecond() {
+        return this.encodeMicrosPerSecond;
+    }
+
+    /**
+     * Setter for encodeMicrosPerSecond field
+     * @param encodeMicrosPerSecond - the encoding time per second of audio in microseconds
+     */
+    public void setEncodeMicrosPerSecond(final Long encodeMicrosPerSecond) {
+        this.encodeMicrosPerSecond = encodeMicrosPerSecond;
+    }
+
+    /**
+     * Getter for statisticsOnly field. When set in a recording request, the response carries the signal statistics
+     * without the recorded audio
+     * @return statisticsOnly
+     */
+    public boolean isStatisticsOnly() {
+        return this.statisticsOnly;
+    }
+
+    /**
+     * Setter for statisticsOnly field
+     * @param statisticsOnly - whether the recorded audio is left out of the response
+     */
+    public void setStatisticsOnly(final boolean statisticsOnly) {
+        this.statisticsOnly = statisticsOnly;
+    }
+
+    /**
+     * Getter for signalStatistics field. It summarizes the recorded signal
+     * @return signalStatistics
+     */
+    public VoiceAutomationSignalStatistics getSignalStatistics() {
+        return this.signalStatistics;
+    }
+
+    /**
+     * Setter for signalStatistics field
+     * @param signalStatistics - the summary of the recorded signal
+     */
+    public void setSignalStatistics(final VoiceAutomationSignalStatistics signalStatistics) {
+        this.signalStatistics = signalStatistics;
+    }
+
+    /**
+     * Getter for contentHash field. It is the hex SHA-256 of an uploaded voice file
+     * @return contentHash
+     */
+    public String getContentHash() {
+        return this.contentHash;
+    }
+
+    /**
+     * Setter for contentHash field
+     * @param contentHash - hex SHA-256 of the voice file content
+     */
+    public void setContentHash(final String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Getter for pools field. It reports the utilization of the execution pools
+     * @return pools
+     */
+    public List<VoiceAutomationPoolStatistics> getPools() {
+        return this.pools;
+    }
+
+    /**
+     * Setter for pools field
+     * @param pools - the utilization of every execution pool
+     */
+    public void setPools(final List<VoiceAutomationPoolStatistics> pools) {
+        this.pools = pools;
+    }
+
+    /**
+     * Getter for timed field. When set in a request, the response carries the timing breakdown of its phases
+     * in timings and in the X-Timing header
+     * @return timed
+     */
+    public boolean isTimed() {
+        return this.timed;
+    }
+
+    /**
+     * Setter for timed field
+     * @param timed - whether the response carries its timing breakdown
+     */
+    public void setTimed(final boolean timed) {
+        this.timed = timed;
+    }
+
+    /**
+     * Getter for timings field. The phases of the request in the order they were reached, with their time
+     * in nanoseconds since the request started
+     * @return timings
+     */
+    public Map<String, Long> getTimings() {
+        return this.timings;
+    }
+
+    /**
+     * Setter for timings field
+     * @param timings - the timing breakdown of the request
+     */
+    public void setTimings(final Map<String, Long> timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Getter for dryRun field. When true in a play, record or playrecord request, the audio is played to and
+     * recorded from the dry run mixer as fast as the CPU allows. When not set, -DdryRun decides
+     * @return dryRun
+     */
+    public Boolean getDryRun() {
+        return this.dryRun;
+    }
+
+    /**
+     * Setter for dryRun field
+     * @param dryRun - true for a dry run, false for a run on the mixers, null for the server default
+     */
+    public void setDryRun(final Boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Getter for mixerName field. It addresses the mixer by name instead of mixerNumber, see /mixers
+     * @return mixerName
+     */
+    public String getMixerName() {
+        return this.mixerName;
+    }
+
+    /**
+     * Setter for mixerName field
+     * @param mixerName - name of the mixer to play to or record from
+     */
+    public void setMixerName(final String mixerName) {
+        this.mixerName = mixerName;
+    }
+
+    /**
+     * Getter for recordMixerName field. It addresses the record mixer by name instead of recordMixerNumber
+     * @return recordMixerName
+     */
+    public String getRecordMixerName() {
+        return this.recordMixerName;
+    }
+
+    /**
+     * Setter for recordMixerName field
+     * @param recordMixerName - name of the mixer to record from
+     */
+    public void setRecordMixerName(final String recordMixerName) {
+        this.recordMixerName = recordMixerName;
+    }
+
+    /**
+     * Getter for mixers field. It describes the mixers and their lines
+     * @return mixers
+     */
+    public List<VoiceAutomationMixerCapabilities> getMixers() {
+        return this.mixers;
+    }
+
+    /**
+     * Setter for mixers field
+     * @param mixers - the mixers and their lines
+     */
+    public void setMixers(final List<VoiceAutomationMixerCapabilities> mixers) {
+        this.mixers = mixers;
+    }
+
+    /**
+     * Getter for nodes field. It lists the nodes of a cluster
+     * @return nodes
+     */
+    public List<VoiceAutomationClusterNode> getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Setter for nodes field
+     * @param nodes - the nodes of the cluster
+     */
+    public void setNodes(final List<VoiceAutomationClusterNode> nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Getter for clientId field. It names the client sharing the devices with others, see DeviceScheduler.
+     * @return clientId
+     */
+    public String getClientId() {
+        return this.clientId;
+    }
+
+    /**
+     * Setter for clientId field
+     * @param clientId - the client id
+     */
+    public void setClientId(final String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * Getter for priority field. It is HIGH, NORMAL or LOW, see DevicePriority.
+     * @return priority
+     */
+    public String getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Setter for priority field
+     * @param priority - the priority class
+     */
+    public void setPriority(final String priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Getter for deadlineMillis field. It is how long the call may wait for its device.
+     * @return deadlineMillis
+     */
+    public Long getDeadlineMillis() {
+        return this.deadlineMillis;
+    }
+
+    /**
+     * Setter for deadlineMillis field
+     * @param deadlineMillis - the deadline in milliseconds
+     */
+    public void setDeadlineMillis(final Long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Getter for referenceFilePath field. It names the reference voice file a recording is compared with
+     * @return referenceFilePath
+     */
+    public String getReferenceFilePath() {
+        return this.referenceFilePath;
+    }
+
+    /**
+     * Setter for referenceFilePath field
+     * @param referenceFilePath - the reference voice file, a file name from load or upload or a path
+     */
+    public void setReferenceFilePath(final String referenceFilePath) {
+        this.referenceFilePath = referenceFilePath;
+    }
+
+    /**
+     * Getter for comparison field. It describes how a recording matched its reference
+     * @return comparison
+     */
+    public VoiceAutomationComparison getComparison() {
+        return this.comparison;
+    }
+
+    /**
+     * Setter for comparison field
+     * @param comparison - the outcome of the comparison
+     */
+    public void setComparison(final VoiceAutomationComparison comparison) {
+        this.comparison = comparison;
+    }
+
     /**
      * Stringify contents of VoiceAutomationMessage.
      * @return string of the class fields
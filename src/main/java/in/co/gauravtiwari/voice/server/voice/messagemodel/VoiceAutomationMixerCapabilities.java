@@ -0,0 +1,148 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A POJO describing a mixer and its lines inside a VoiceAutomationMessage, see MixerIndex.
+ * <p>
+ * number - index number of the mixer, changes when devices are plugged in or out
+ * name - name of the mixer, stable across changes of the devices
+ * vendor - vendor of the mixer
+ * description - description of the mixer
+ * sourceLines - the output lines of the mixer
+ * targetLines - the input lines of the mixer
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationMixerCapabilities {
+    private int number;
+    private String name;
+    private String vendor;
+    private String description;
+    private List<VoiceAutomationLineCapabilities> sourceLines;
+    private List<VoiceAutomationLineCapabilities> targetLines;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationMixerCapabilities() {
+    }
+
+    /**
+     * Getter for number field.
+     * @return number
+     */
+    public int getNumber() {
+        return this.number;
+    }
+
+    /**
+     * Setter for number field.
+     * @param number - index number of the mixer, changes when devices are plugged in or out
+     */
+    public void setNumber(final int number) {
+        this.number = number;
+    }
+
+    /**
+     * Getter for name field.
+     * @return name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Setter for name field.
+     * @param name - name of the mixer, stable across changes of the devices
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Getter for vendor field.
+     * @return vendor
+     */
+    public String getVendor() {
+        return this.vendor;
+    }
+
+    /**
+     * Setter for vendor field.
+     * @param vendor - vendor of the mixer
+     */
+    public void setVendor(final String vendor) {
+        this.vendor = vendor;
+    }
+
+    /**
+     * Getter for description field.
+     * @return description
+     */
+    public String getDescription() {
+        return this.description;
+    }
+
+    /**
+     * Setter for description field.
+     * @param description - description of the mixer
+     */
+    public void setDescription(final String description) {
+        this.description = description;
+    }
+
+    /**
+     * Getter for sourceLines field.
+     * @return sourceLines
+     */
+    public List<VoiceAutomationLineCapabilities> getSourceLines() {
+        return this.sourceLines;
+    }
+
+    /**
+     * Setter for sourceLines field.
+     * @param sourceLines - the output lines of the mixer
+     */
+    public void setSourceLines(final List<VoiceAutomationLineCapabilities> sourceLines) {
+        this.sourceLines = sourceLines;
+    }
+
+    /**
+     * Getter for targetLines field.
+     * @return targetLines
+     */
+    public List<VoiceAutomationLineCapabilities> getTargetLines() {
+        return this.targetLines;
+    }
+
+    /**
+     * Setter for targetLines field.
+     * @param targetLines - the input lines of the mixer
+     */
+    public void setTargetLines(final List<VoiceAutomationLineCapabilities> targetLines) {
+        this.targetLines = targetLines;
+    }
+}
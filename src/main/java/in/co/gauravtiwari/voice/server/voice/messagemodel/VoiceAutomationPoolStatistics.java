@@ -0,0 +1,236 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * A POJO carrying the utilization of an execution pool inside a VoiceAutomationMessage.
+ * <p>
+ * name - name of the pool, network, device or control
+ * virtualThreads - whether the pool runs its calls on virtual threads
+ * maxThreads - maximum number of threads of the pool
+ * activeThreads - number of threads running a call
+ * queuedTasks - number of calls waiting for a thread
+ * queueCapacity - maximum number of calls waiting for a thread
+ * operations - number of operations in flight
+ * maxOperations - maximum number of operations in flight
+ * completedTasks - number of calls completed since the server started
+ * rejectedTasks - number of calls refused since the server started
+ * utilization - share of busy threads, between 0 and 1
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationPoolStatistics {
+    private String name;
+    private boolean virtualThreads;
+    private int maxThreads;
+    private int activeThreads;
+    private int queuedTasks;
+    private int queueCapacity;
+    private int operations;
+    private int maxOperations;
+    private long completedTasks;
+    private long rejectedTasks;
+    private double utilization;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationPoolStatistics() {
+    }
+
+    /**
+     * Getter for name field.
+     * @return name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Setter for name field.
+     * @param name - name of the pool, network, device or control
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Getter for virtualThreads field.
+     * @return virtualThreads
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * Setter for virtualThreads field.
+     * @param virtualThreads - whether the pool runs its calls on virtual threads
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Getter for maxThreads field.
+     * @return maxThreads
+     */
+    public int getMaxThreads() {
+        return this.maxThreads;
+    }
+
+    /**
+     * Setter for maxThreads field.
+     * @param maxThreads - maximum number of threads of the pool
+     */
+    public void setMaxThreads(final int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Getter for activeThreads field.
+     * @return activeThreads
+     */
+    public int getActiveThreads() {
+        return this.activeThreads;
+    }
+
+    /**
+     * Setter for activeThreads field.
+     * @param activeThreads - number of threads running a call
+     */
+    public void setActiveThreads(final int activeThreads) {
+        this.activeThreads = activeThreads;
+    }
+
+    /**
+     * Getter for queuedTasks field.
+     * @return queuedTasks
+     */
+    public int getQueuedTasks() {
+        return this.queuedTasks;
+    }
+
+    /**
+     * Setter for queuedTasks field.
+     * @param queuedTasks - number of calls waiting for a thread
+     */
+    public void setQueuedTasks(final int queuedTasks) {
+        this.queuedTasks = queuedTasks;
+    }
+
+    /**
+     * Getter for queueCapacity field.
+     * @return queueCapacity
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * Setter for queueCapacity field.
+     * @param queueCapacity - maximum number of calls waiting for a thread
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Getter for operations field.
+     * @return operations
+     */
+    public int getOperations() {
+        return this.operations;
+    }
+
+    /**
+     * Setter for operations field.
+     * @param operations - number of operations in flight
+     */
+    public void setOperations(final int operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Getter for maxOperations field.
+     * @return maxOperations
+     */
+    public int getMaxOperations() {
+        return this.maxOperations;
+    }
+
+    /**
+     * Setter for maxOperations field.
+     * @param maxOperations - maximum number of operations in flight
+     */
+    public void setMaxOperations(final int maxOperations) {
+        this.maxOperations = maxOperations;
+    }
+
+    /**
+     * Getter for completedTasks field.
+     * @return completedTasks
+     */
+    public long getCompletedTasks() {
+        return this.completedTasks;
+    }
+
+    /**
+     * Setter for completedTasks field.
+     * @param completedTasks - number of calls completed since the server started
+     */
+    public void setCompletedTasks(final long completedTasks) {
+        this.completedTasks = completedTasks;
+    }
+
+    /**
+     * Getter for rejectedTasks field.
+     * @return rejectedTasks
+     */
+    public long getRejectedTasks() {
+        return this.rejectedTasks;
+    }
+
+    /**
+     * Setter for rejectedTasks field.
+     * @param rejectedTasks - number of calls refused since the server started
+     */
+    public void setRejectedTasks(final long rejectedTasks) {
+        this.rejectedTasks = rejectedTasks;
+    }
+
+    /**
+     * Getter for utilization field.
+     * @return utilization
+     */
+    public double getUtilization() {
+        return this.utilization;
+    }
+
+    /**
+     * Setter for utilization field.
+     * @param utilization - share of busy threads, between 0 and 1
+     */
+    public void setUtilization(final double utilization) {
+        this.utilization = utilization;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A POJO read from the Json file of -DpreloadManifest, listing what the server warms up at startup.
+ * <p>
+ * prompts - urls or local paths of the voice files to download and decode
+ * mixers - names or index numbers of the mixers whose lines to open once, -1 for the default mixer. The names are
+ * those listed by /mixers, which unlike the numbers do not change when devices are plugged in or out.
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationPreloadManifest {
+    private List<String> prompts;
+    private List<String> mixers;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationPreloadManifest() {
+    }
+
+    /**
+     * Getter for prompts field.
+     * @return prompts
+     */
+    public List<String> getPrompts() {
+        return this.prompts;
+    }
+
+    /**
+     * Setter for prompts field.
+     * @param prompts - urls or local paths of the voice files to download and decode
+     */
+    public void setPrompts(final List<String> prompts) {
+        this.prompts = prompts;
+    }
+
+    /**
+     * Getter for mixers field.
+     * @return mixers
+     */
+    public List<String> getMixers() {
+        return this.mixers;
+    }
+
+    /**
+     * Setter for mixers field.
+     * @param mixers - names or index numbers of the mixers whose lines to open once, -1 for the default mixer
+     */
+    public void setMixers(final List<String> mixers) {
+        this.mixers = mixers;
+    }
+}
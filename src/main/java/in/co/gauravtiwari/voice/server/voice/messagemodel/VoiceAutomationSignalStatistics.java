@@ -0,0 +1,146 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.messagemodel;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * A POJO carrying the summary of a recorded signal inside a VoiceAutomationMessage.
+ * <p>
+ * samples - number of samples recorded, over all channels
+ * rmsDbfs - RMS level in dBFS
+ * peakDbfs - peak level in dBFS
+ * clippedSamples - number of samples at full scale
+ * dcOffset - mean sample value relative to full scale, between -1 and 1
+ * silenceRatio - fraction of 20 ms windows below the silence threshold, between 0 and 1
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VoiceAutomationSignalStatistics {
+    private long samples;
+    private double rmsDbfs;
+    private double peakDbfs;
+    private long clippedSamples;
+    private double dcOffset;
+    private double silenceRatio;
+
+    /**
+     * Default Constructor needed for jackson serialization.
+     */
+    public VoiceAutomationSignalStatistics() {
+    }
+
+    /**
+     * Getter for samples field.
+     * @return samples
+     */
+    public long getSamples() {
+        return this.samples;
+    }
+
+    /**
+     * Setter for samples field.
+     * @param samples - number of samples recorded
+     */
+    public void setSamples(final long samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * Getter for rmsDbfs field.
+     * @return rmsDbfs
+     */
+    public double getRmsDbfs() {
+        return this.rmsDbfs;
+    }
+
+    /**
+     * Setter for rmsDbfs field.
+     * @param rmsDbfs - RMS level in dBFS
+     */
+    public void setRmsDbfs(final double rmsDbfs) {
+        this.rmsDbfs = rmsDbfs;
+    }
+
+    /**
+     * Getter for peakDbfs field.
+     * @return peakDbfs
+     */
+    public double getPeakDbfs() {
+        return this.peakDbfs;
+    }
+
+    /**
+     * Setter for peakDbfs field.
+     * @param peakDbfs - peak level in dBFS
+     */
+    public void setPeakDbfs(final double peakDbfs) {
+        this.peakDbfs = peakDbfs;
+    }
+
+    /**
+     * Getter for clippedSamples field.
+     * @return clippedSamples
+     */
+    public long getClippedSamples() {
+        return this.clippedSamples;
+    }
+
+    /**
+     * Setter for clippedSamples field.
+     * @param clippedSamples - number of samples at full scale
+     */
+    public void setClippedSamples(final long clippedSamples) {
+        this.clippedSamples = clippedSamples;
+    }
+
+    /**
+     * Getter for dcOffset field.
+     * @return dcOffset
+     */
+    public double getDcOffset() {
+        return this.dcOffset;
+    }
+
+    /**
+     * Setter for dcOffset field.
+     * @param dcOffset - mean sample value relative to full scale
+     */
+    public void setDcOffset(final double dcOffset) {
+        this.dcOffset = dcOffset;
+    }
+
+    /**
+     * Getter for silenceRatio field.
+     * @return silenceRatio
+     */
+    public double getSilenceRatio() {
+        return this.silenceRatio;
+    }
+
+    /**
+     * Setter for silenceRatio field.
+     * @param silenceRatio - fraction of silent windows
+     */
+    public void setSilenceRatio(final double silenceRatio) {
+        this.silenceRatio = silenceRatio;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.MixerIndex;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationClusterNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Registers the server with the coordinator of a cluster when -DclusterCoordinator is set to its url, see
+ * ClusterCoordinator. The registration carries the names of the mixers and is sent again every
+ * -DclusterHeartbeatSeconds (defaults to 5), so the coordinator drops the nodes that stopped and learns the mixers
+ * plugged in since. A server with a preload manifest registers once it is ready.
+ * <p>
+ * The node is named by -DclusterNodeName and reached at -DclusterNodeUrl, they default to the host and port of the
+ * server and to its url, with the address of the host when the server listens on 0.0.0.0.
+ */
+final class ClusterMember {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterMember.class);
+    private static final String COORDINATOR = System.getProperty("clusterCoordinator");
+    private static final int HEARTBEAT_SECONDS = Math.max(1, ExecutionPools.getIntProperty("clusterHeartbeatSeconds", 5));
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final URL registrationUrl;
+    private final String name;
+    private final String url;
+    // only used by the heartbeat thread
+    private boolean registered;
+    private boolean failing;
+
+    /**
+     * Constructor for ClusterMember
+     *
+     * @param coordinator - url of the coordinator
+     * @param serverUri   - url the server listens on
+     * @throws IOException - when the url of the coordinator is malformed
+     */
+    private ClusterMember(final String coordinator, final URI serverUri) throws IOException {
+        this.registrationUrl = new URL(coordinator.endsWith("/") ? coordinator + "cluster/nodes"
+                : coordinator + "/cluster/nodes");
+        String host = "0.0.0.0".equals(serverUri.getHost()) ? getHostAddress() : serverUri.getHost();
+        this.url = System.getProperty("clusterNodeUrl", "http://" + host + ":" + serverUri.getPort() + "/");
+        this.name = System.getProperty("clusterNodeName", host + ":" + serverUri.getPort());
+    }
+
+    /**
+     * Starts the heartbeat of the server, does nothing without -DclusterCoordinator
+     *
+     * @param serverUri - url the server listens on
+     */
+    static void start(final URI serverUri) {
+        if (COORDINATOR == null || COORDINATOR.trim().isEmpty()) {
+            return;
+        }
+        ClusterMember member;
+        try {
+            member = new ClusterMember(COORDINATOR.trim(), serverUri);
+        } catch (IOException e) {
+            LOG.error("Invalid cluster coordinator url {}: {}", COORDINATOR, e.getMessage());
+            return;
+        }
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(member::register, 0, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        LOG.info("Joining the cluster of {} as {} at {}", COORDINATOR, member.name, member.url);
+    }
+
+    /**
+     * Sends the registration of the node to the coordinator
+     */
+    private void register() {
+        if (!Preloader.isReady()) {
+            return;
+        }
+        VoiceAutomationClusterNode node = new VoiceAutomationClusterNode();
+        node.setName(name);
+        node.setUrl(url);
+        List<String> mixers = new ArrayList<>();
+        for (MixerIndex.Entry entry : MixerIndex.getEntries()) {
+            mixers.add(entry.getName());
+        }
+        node.setMixers(mixers);
+        HttpURLConnection connection = null;
+        try {
+            byte[] body = MAPPER.writeValueAsBytes(node);
+            connection = (HttpURLConnection) registrationUrl.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("coordinator answered " + status);
+            }
+            failing = false;
+            if (!registered) {
+                LOG.info("Registered with the cluster coordinator {}", COORDINATOR);
+                registered = true;
+            }
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            // logged once until the coordinator is reached again
+            if (!failing) {
+                LOG.warn("Unable to register with the cluster coordinator {}: {}", COORDINATOR, e.getMessage());
+            }
+            registered = false;
+            failing = true;
+        }
+    }
+
+    /**
+     * Reads a response body to its end, so that the connection can be reused
+     */
+    private static void drain(final InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[1024];
+            while (stream.read(buffer) != -1) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Returns the address of this host, localhost when it cannot be obtained
+     */
+    private static String getHostAddress() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Enum type for the priority class of a call waiting for a device, see DeviceScheduler.
+ * HIGH - served before the other classes, and takes the device from a LOW call when it has to wait
+ * NORMAL - the default
+ * LOW - served when no other call waits, long recordings and soak tests
+ */
+public enum DevicePriority {
+    HIGH, NORMAL, LOW;
+
+    /**
+     * Returns the priority class named in a request
+     *
+     * @param name - the name in any case, null or empty for NORMAL
+     * @return the priority class
+     * @throws IllegalArgumentException - when there is no such class
+     */
+    public static DevicePriority parse(final String name) {
+        return name == null || name.isEmpty() ? NORMAL : valueOf(name.toUpperCase());
+    }
+}
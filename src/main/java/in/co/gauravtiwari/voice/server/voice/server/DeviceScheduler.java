@@ -0,0 +1,399 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.LineGroup;
+import in.co.gauravtiwari.voice.server.audio.implementation.MixerIndex;
+import in.co.gauravtiwari.voice.server.metrics.Counter;
+import in.co.gauravtiwari.voice.server.metrics.Gauge;
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Shares the mixers between the clients of the server when -DdeviceScheduler=true. Each mixer runs up to
+ * -DdeviceSlots calls at once (defaults to 1), the others wait in its queue instead of failing on a busy line.
+ * <p>
+ * The waiting calls are served by priority class, HIGH before NORMAL before LOW, and within a class by weighted fair
+ * queuing across their client ids: a call costs its length in milliseconds divided by the weight of its client, set
+ * with -DclientWeights=suiteA:4,suiteB:1 (a client not listed weighs 1), and the client that has used the mixer the
+ * least so far goes first. A long soak recording of one client delays the calls of the others by one call at most.
+ * <p>
+ * A call still waiting after its deadline, -DdeviceQueueDeadlineMillis by default (30000), is refused as retryable.
+ * A HIGH call that has to wait takes the mixer from the LOW call started last, unless -DdevicePreemption=false:
+ * the lines of that call are closed and it fails. The time the calls waited is in voice_device_queue_wait_seconds
+ * by client and priority.
+ * <p>
+ * The mixers are told apart by their names, which unlike their numbers do not change when devices are plugged in or
+ * out, so a queue stays with its device. The dry run mixer is not scheduled, its calls do not hold a device.
+ */
+public final class DeviceScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceScheduler.class);
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("deviceScheduler", "false"));
+    private static final int SLOTS = Math.max(1, ExecutionPools.getIntProperty("deviceSlots", 1));
+    private static final int DEADLINE_MILLIS = ExecutionPools.getIntProperty("deviceQueueDeadlineMillis", 30000);
+    private static final boolean PREEMPTION = Boolean.parseBoolean(System.getProperty("devicePreemption", "true"));
+    private static final Map<String, Integer> WEIGHTS = parseWeights(System.getProperty("clientWeights", ""));
+    private static final String DEFAULT_CLIENT = "default";
+    private static final long DEFAULT_COST_MILLIS = 1000;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final Map<String, Device> DEVICES = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            daemonThreads("device-scheduler"));
+    private static final ExecutorService STARTER = Executors.newCachedThreadPool(VirtualThreads.isEnabled()
+            ? VirtualThreads.newThreadFactory("device-start-")
+            : daemonThreads("device-start"));
+
+    private static final Counter EXPIRED = rejections("deadline");
+    private static final Counter PREEMPTED = rejections("preempted");
+
+    /**
+     * Private constructor
+     */
+    private DeviceScheduler() {
+    }
+
+    /**
+     * Checks whether the calls on a mixer go through the scheduler
+     *
+     * @param mixer - the entry of the mixer
+     * @return true when -DdeviceScheduler=true and the mixer is not the dry run mixer
+     */
+    public static boolean isScheduled(final MixerIndex.Entry mixer) {
+        return ENABLED && !mixer.isDryRun();
+    }
+
+    /**
+     * Starts a call on a mixer once the mixer has a free slot for it. The call is started on the calling thread when
+     * the mixer is free, else on a thread of the scheduler.
+     *
+     * @param mixer          - the entry of the mixer the call uses, MixerIndex.DEFAULT for the default mixer
+     * @param clientId       - the client sending the call, null for the default client
+     * @param priority       - the priority class of the call
+     * @param costMillis     - how long the call holds the mixer, 0 or less when unknown
+     * @param deadlineMillis - how long the call may wait, 0 or less for -DdeviceQueueDeadlineMillis
+     * @param start          - starts the call and returns the stage completed when it releases the mixer
+     * @param <T>            - the result of the call
+     * @return the stage completed with the result of the call, or with a DeviceSchedulingException when it was
+     * refused or taken off the mixer
+     */
+    public static <T> CompletableFuture<T> schedule(final MixerIndex.Entry mixer, final String clientId,
+                                                    final DevicePriority priority, final long costMillis,
+                                                    final long deadlineMillis,
+                                                    final Callable<? extends CompletableFuture<T>> start) {
+        if (!isScheduled(mixer)) {
+            try {
+                return start.call();
+            } catch (Exception e) {
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        Device device = DEVICES.computeIfAbsent(mixer.getName(), Device::new);
+        String client = clientId == null || clientId.isEmpty() ? DEFAULT_CLIENT : clientId;
+        Call<T> call = new Call<>(device, client, priority, costMillis > 0 ? costMillis : DEFAULT_COST_MILLIS, start);
+        long deadline = deadlineMillis > 0 ? deadlineMillis : DEADLINE_MILLIS;
+        Call<?> victim = null;
+        boolean granted;
+        synchronized (device) {
+            device.tag(call);
+            granted = device.running.size() < SLOTS && device.isQueueEmpty();
+            if (granted) {
+                device.grant(call);
+            } else {
+                device.enqueue(call);
+                call.deadline = TIMER.schedule(() -> call.expire(deadline), deadline, TimeUnit.MILLISECONDS);
+                if (PREEMPTION && priority == DevicePriority.HIGH) {
+                    victim = device.takeVictim();
+                }
+            }
+        }
+        if (granted) {
+            call.start();
+        } else {
+            LOG.info("{} call of {} waits for mixer {}", priority, client, device.label);
+            if (victim != null) {
+                victim.preempt();
+            }
+        }
+        return call.result;
+    }
+
+    /**
+     * Parses the client weights, a comma separated list of client:weight
+     */
+    private static Map<String, Integer> parseWeights(final String weights) {
+        Map<String, Integer> parsed = new HashMap<>();
+        for (String entry : weights.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                parsed.put(entry.substring(0, colon).trim(), Math.max(1, Integer.parseInt(entry.substring(colon + 1).trim())));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                LOG.warn("Ignoring client weight {}, expected client:weight", entry);
+            }
+        }
+        return Collections.unmodifiableMap(parsed);
+    }
+
+    /**
+     * Creates a factory of daemon threads named prefix followed by a counter
+     */
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static Counter rejections(final String reason) {
+        return Metrics.counter("voice_device_rejections_total",
+                "Calls refused or taken off a mixer by the device scheduler", "reason", reason);
+    }
+
+    /**
+     * The calls running on a mixer and the calls waiting for it
+     */
+    private static final class Device {
+        private static final Comparator<Call<?>> FAIR_ORDER = Comparator.<Call<?>>comparingDouble(call -> call.finishTag)
+                .thenComparingLong(call -> call.sequence);
+
+        private final String label;
+        private final Gauge queued;
+        private final List<Call<?>> running = new ArrayList<>();
+        private final Map<DevicePriority, PriorityQueue<Call<?>>> queues = new EnumMap<>(DevicePriority.class);
+        private final Map<String, Double> lastFinishTags = new HashMap<>();
+        private double virtualTime;
+        private long sequence;
+
+        private Device(final String mixerName) {
+            this.label = mixerName;
+            this.queued = Metrics.gauge("voice_device_queued_calls", "Calls waiting for a mixer in the device scheduler",
+                    "mixer", label);
+            for (DevicePriority priority : DevicePriority.values()) {
+                queues.put(priority, new PriorityQueue<>(FAIR_ORDER));
+            }
+        }
+
+        /**
+         * Gives a call its fair queuing tags: it starts when its client's previous call finishes, or now when the
+         * client has none pending, and finishes its cost divided by the weight of the client later
+         */
+        private void tag(final Call<?> call) {
+            Double lastFinish = lastFinishTags.get(call.client);
+            call.startTag = lastFinish == null ? virtualTime : Math.max(virtualTime, lastFinish);
+            call.finishTag = call.startTag + call.cost / (double) WEIGHTS.getOrDefault(call.client, 1);
+            call.sequence = sequence++;
+            lastFinishTags.put(call.client, call.finishTag);
+        }
+
+        private boolean isQueueEmpty() {
+            for (PriorityQueue<Call<?>> queue : queues.values()) {
+                if (!queue.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void enqueue(final Call<?> call) {
+            queues.get(call.priority).add(call);
+            queued.inc();
+        }
+
+        /**
+         * Removes a call from the queue
+         *
+         * @return false when it has already left the queue
+         */
+        private boolean remove(final Call<?> call) {
+            if (!queues.get(call.priority).remove(call)) {
+                return false;
+            }
+            queued.dec();
+            return true;
+        }
+
+        /**
+         * Takes the next call off the queue, the one of the highest priority class that finishes first
+         *
+         * @return the call, null when none waits
+         */
+        private Call<?> poll() {
+            for (PriorityQueue<Call<?>> queue : queues.values()) {
+                Call<?> call = queue.poll();
+                if (call != null) {
+                    queued.dec();
+                    return call;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gives a slot to a call and moves the virtual time to its start, the clients with no call finishing later
+         * are forgotten
+         */
+        private void grant(final Call<?> call) {
+            running.add(call);
+            virtualTime = Math.max(virtualTime, call.startTag);
+            lastFinishTags.values().removeIf(finishTag -> finishTag <= virtualTime);
+            if (call.deadline != null) {
+                call.deadline.cancel(false);
+            }
+            Metrics.histogram("voice_device_queue_wait_seconds", "Time calls waited for a mixer in the device scheduler",
+                    "client", call.client, "priority", call.priority.name().toLowerCase()).recordSince(call.queuedNanos);
+        }
+
+        /**
+         * Picks the LOW call started last to give its slot to a HIGH call
+         *
+         * @return the call, null when no LOW call runs
+         */
+        private Call<?> takeVictim() {
+            for (int i = running.size() - 1; i >= 0; i--) {
+                Call<?> call = running.get(i);
+                if (call.priority == DevicePriority.LOW && !call.preempted) {
+                    call.preempted = true;
+                    return call;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A call on a mixer, waiting or running
+     */
+    private static final class Call<T> {
+        private final Device device;
+        private final String client;
+        private final DevicePriority priority;
+        private final long cost;
+        private final Callable<? extends CompletableFuture<T>> start;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final LineGroup lines = new LineGroup();
+        private final long queuedNanos = System.nanoTime();
+        private double startTag;
+        private double finishTag;
+        private long sequence;
+        private ScheduledFuture<?> deadline;
+        private boolean preempted;
+
+        private Call(final Device device, final String client, final DevicePriority priority, final long cost,
+                     final Callable<? extends CompletableFuture<T>> start) {
+            this.device = device;
+            this.client = client;
+            this.priority = priority;
+            this.cost = cost;
+            this.start = start;
+        }
+
+        /**
+         * Starts the call, it releases its slot when it ends
+         */
+        private void start() {
+            try {
+                lines.call(start).whenComplete((value, error) -> {
+                    release();
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (Exception e) {
+                release();
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Gives back the slot of the call and starts the calls that take it, only the first call has an effect
+         */
+        private void release() {
+            List<Call<?>> granted = new ArrayList<>();
+            synchronized (device) {
+                if (!device.running.remove(this)) {
+                    return;
+                }
+                Call<?> next;
+                while (device.running.size() < SLOTS && (next = device.poll()) != null) {
+                    device.grant(next);
+                    granted.add(next);
+                }
+            }
+            for (Call<?> next : granted) {
+                STARTER.execute(next::start);
+            }
+        }
+
+        /**
+         * Refuses the call if it is still waiting
+         */
+        private void expire(final long deadlineMillis) {
+            synchronized (device) {
+                if (!device.remove(this)) {
+                    return;
+                }
+            }
+            EXPIRED.inc();
+            LOG.warn("{} call of {} waited more than {} ms for mixer {}", priority, client, deadlineMillis, device.label);
+            result.completeExceptionally(new DeviceSchedulingException("Mixer " + device.label
+                    + " stayed busy for more than " + deadlineMillis + " ms", true));
+        }
+
+        /**
+         * Fails the call and closes its lines so a HIGH call can take its slot
+         */
+        private void preempt() {
+            if (result.completeExceptionally(new DeviceSchedulingException("Mixer " + device.label
+                    + " was taken by a call of higher priority", false))) {
+                PREEMPTED.inc();
+                LOG.warn("{} call of {} taken off mixer {} by a call of higher priority", priority, client, device.label);
+            }
+            lines.close();
+            release();
+        }
+    }
+}
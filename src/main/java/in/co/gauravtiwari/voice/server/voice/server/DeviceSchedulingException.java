@@ -0,0 +1,48 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Thrown when a call waiting for a device is refused by the DeviceScheduler, or taken off the device
+ */
+public class DeviceSchedulingException extends Exception {
+    private final boolean retryable;
+
+    /**
+     * Constructor for DeviceSchedulingException
+     *
+     * @param message   - the reason
+     * @param retryable - true when the call waited past its deadline and can be sent again later, false when it was
+     *                  taken off the device by a call of higher priority
+     */
+    DeviceSchedulingException(final String message, final boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    /**
+     * Getter for whether the call can be sent again later
+     *
+     * @return true for a call that waited past its deadline
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
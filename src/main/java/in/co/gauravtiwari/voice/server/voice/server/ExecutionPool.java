@@ -0,0 +1,285 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * A bounded pool of threads with a bounded queue in front of it. A task that finds every thread busy and the queue
+ * full is refused at once instead of waiting, so the caller can answer the client straight away.
+ * <p>
+ * An operation submitted with trySubmit only uses a thread to start, it then completes on its own, e.g. when a
+ * playback ends. It keeps one of the pool's operation slots until it completes, so the number of operations in
+ * flight is bounded too, independently of the number of threads.
+ * <p>
+ * The threads are virtual threads when VirtualThreads is enabled.
+ */
+public final class ExecutionPool {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final long OPERATION_POLL_MILLIS = 50;
+
+    private final String name;
+    private final int queueCapacity;
+    private final int maxOperations;
+    private final Semaphore operations;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    /**
+     * Constructor for ExecutionPool
+     *
+     * @param name          - name of the pool, also used for its threads
+     * @param threads       - maximum number of threads running tasks
+     * @param queueCapacity - maximum number of tasks waiting for a thread, 0 for none
+     * @param maxOperations - maximum number of operations in flight
+     */
+    public ExecutionPool(final String name, final int threads, final int queueCapacity, final int maxOperations) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.maxOperations = maxOperations;
+        this.operations = new Semaphore(maxOperations);
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<Runnable>(queueCapacity) : new SynchronousQueue<Runnable>();
+        ThreadFactory threadFactory = VirtualThreads.isEnabled()
+                ? VirtualThreads.newThreadFactory(name + "-pool-") : new NamedThreadFactory(name);
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+                threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task in the pool if it has room for it
+     *
+     * @param task - the task to run
+     * @return false when the pool is saturated or shut down and the task was refused
+     */
+    public boolean tryExecute(final Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedTasks.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Starts an operation in the pool if it has room for it. The operation runs on a pool thread and returns the
+     * stage that completes it, its slot is given back when that stage completes.
+     *
+     * @param operation - starts the operation
+     * @param <T>       - the result of the operation
+     * @return the completion of the operation, null when the pool is saturated or shut down and the operation was refused
+     */
+    public <T> CompletableFuture<T> trySubmit(final Callable<? extends CompletionStage<T>> operation) {
+        if (!operations.tryAcquire()) {
+            rejectedTasks.incrementAndGet();
+            return null;
+        }
+        CompletableFuture<T> completion = new CompletableFuture<>();
+        completion.whenComplete((result, error) -> operations.release());
+        boolean accepted = tryExecute(() -> {
+            try {
+                operation.call().whenComplete((result, error) -> {
+                    if (error != null) {
+                        completion.completeExceptionally(error);
+                    } else {
+                        completion.complete(result);
+                    }
+                });
+            } catch (Exception e) {
+                completion.completeExceptionally(e);
+            }
+        });
+        if (!accepted) {
+            operations.release();
+            return null;
+        }
+        return completion;
+    }
+
+    /**
+     * Stops accepting tasks, the running and queued ones still complete
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits, after shutdown(), for the running and queued tasks and then for the operations in flight to complete
+     *
+     * @param timeout - how long to wait
+     * @param unit    - the unit of the timeout
+     * @return true when they all completed, false when the timeout elapsed first
+     * @throws InterruptedException - when interrupted while waiting
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!executor.awaitTermination(timeout, unit)) {
+            return false;
+        }
+        // the operations end on their own threads, e.g. when a playback ends, there is nothing to join
+        while (getOperations() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(OPERATION_POLL_MILLIS);
+        }
+        return true;
+    }
+
+    /**
+     * Getter for whether the pool has been shut down
+     *
+     * @return true once shutdown() was called
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Getter for the pool name
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for whether the pool runs on virtual threads
+     *
+     * @return true for virtual threads, false for platform threads
+     */
+    public boolean isVirtualThreads() {
+        return VirtualThreads.isEnabled();
+    }
+
+    /**
+     * Getter for the maximum number of threads
+     *
+     * @return the thread limit
+     */
+    public int getMaxThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Getter for the number of threads running a task
+     *
+     * @return the busy thread count
+     */
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Getter for the number of tasks waiting for a thread
+     *
+     * @return the queue length
+     */
+    public int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Getter for the maximum number of tasks waiting for a thread
+     *
+     * @return the queue limit
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Getter for the number of operations started with trySubmit and not completed yet
+     *
+     * @return the operations in flight
+     */
+    public int getOperations() {
+        return maxOperations - operations.availablePermits();
+    }
+
+    /**
+     * Getter for the maximum number of operations in flight
+     *
+     * @return the operation limit
+     */
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    /**
+     * Getter for the number of tasks run to completion
+     *
+     * @return the completed task count
+     */
+    public long getCompletedTasks() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Getter for the number of tasks refused since the pool started
+     *
+     * @return the rejected task count
+     */
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     * Getter for the share of threads that are busy
+     *
+     * @return the utilization between 0 and 1
+     */
+    public double getUtilization() {
+        return executor.getActiveCount() / (double) executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Daemon threads named after the pool
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(final String name) {
+            this.prefix = name + "-pool-";
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
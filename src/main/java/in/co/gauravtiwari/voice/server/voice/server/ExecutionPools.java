@@ -0,0 +1,150 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * The pools the API calls run in, so that long blocking calls cannot starve the others:
+ * <p>
+ * network - calls that download or receive voice files (load, upload),
+ * set -DnetworkPoolSize and -DnetworkQueueSize, default to 8 threads and 32 queued calls
+ * <p>
+ * device - calls that hold an audio device while they run (play, record, playrecord, calibrate),
+ * set -DdevicePoolSize and -DdeviceQueueSize, default to 4 threads and 64 queued calls.
+ * The threads only start playbacks and recordings, which then end on their own, so up to -DdeviceMaxOperations
+ * (defaults to 1024) of them can be in flight.
+ * <p>
+ * control - short calls like record/start and record/stop,
+ * set -DcontrolPoolSize and -DcontrolQueueSize, default to 4 threads and 64 queued calls
+ * <p>
+ * compute - calls that decode and analyse audio (compare), set -DcomputePoolSize and -DcomputeQueueSize, default to
+ * 2 threads and 16 queued calls. The analysis itself runs on the fork/join pool of AudioComparator.
+ * <p>
+ * The operations in flight of the network, control and compute pools default to their threads plus their queue, set
+ * -DnetworkMaxOperations, -DcontrolMaxOperations and -DcomputeMaxOperations to change it.
+ * A call refused by a saturated pool is answered with 429 and a Retry-After of -DretryAfterSeconds (defaults to 1).
+ * Once the server is stopping the pools are shut down and refuse every call, which is answered with 503 instead.
+ * <p>
+ * With -DvirtualThreads=true the pools run on virtual threads and their size defaults to their operations in flight,
+ * so that no admitted call waits in the queue for a thread.
+ */
+public final class ExecutionPools {
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionPools.class);
+
+    public static final ExecutionPool NETWORK = createPool("network", 8, 32, 0);
+    public static final ExecutionPool DEVICE = createPool("device", 4, 64, 1024);
+    public static final ExecutionPool CONTROL = createPool("control", 4, 64, 0);
+    public static final ExecutionPool COMPUTE = createPool("compute", 2, 16, 0);
+    public static final int RETRY_AFTER_SECONDS = getIntProperty("retryAfterSeconds", 1);
+
+    private static final List<ExecutionPool> POOLS = Collections.unmodifiableList(Arrays.asList(NETWORK, DEVICE, CONTROL, COMPUTE));
+
+    /**
+     * Private constructor for ExecutionPools.
+     */
+    private ExecutionPools() {
+    }
+
+    /**
+     * Returns all the pools
+     *
+     * @return the network, device, control and compute pools
+     */
+    public static List<ExecutionPool> getPools() {
+        return POOLS;
+    }
+
+    /**
+     * Stops all the pools from accepting calls
+     */
+    public static void shutdown() {
+        for (ExecutionPool pool : POOLS) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the calls and operations in flight in all the pools to complete, after shutdown()
+     *
+     * @param timeout - how long to wait for all the pools together
+     * @param unit    - the unit of the timeout
+     * @return true when they all completed, false when the timeout elapsed first
+     * @throws InterruptedException - when interrupted while waiting
+     */
+    public static boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutionPool pool : POOLS) {
+            if (!pool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a pool sized from the system properties
+     *
+     * @param name            - name of the pool, prefix of its system properties
+     * @param defaultThreads  - number of threads when -D[name]PoolSize is not set
+     * @param defaultCapacity - queue capacity when -D[name]QueueSize is not set
+     * @param defaultMaxOperations - operations in flight when -D[name]MaxOperations is not set, 0 for threads plus queue
+     * @return the pool
+     */
+    private static ExecutionPool createPool(final String name, final int defaultThreads, final int defaultCapacity,
+                                            final int defaultMaxOperations) {
+        int threads = Math.max(1, getIntProperty(name + "PoolSize", defaultThreads));
+        int capacity = Math.max(0, getIntProperty(name + "QueueSize", defaultCapacity));
+        int maxOperations = getIntProperty(name + "MaxOperations", defaultMaxOperations);
+        if (maxOperations <= 0) {
+            maxOperations = threads + capacity;
+        }
+        if (VirtualThreads.isEnabled() && System.getProperty(name + "PoolSize") == null) {
+            threads = maxOperations;
+        }
+        LOG.info("{} pool has {} {} threads, queues up to {} calls and runs up to {} operations",
+                name, threads, VirtualThreads.isEnabled() ? "virtual" : "platform", capacity, maxOperations);
+        return new ExecutionPool(name, threads, capacity, maxOperations);
+    }
+
+    /**
+     * Reads an integer from the system properties
+     *
+     * @param name         - name of the system property
+     * @param defaultValue - value used when the property is missing or not a number
+     * @return the value
+     */
+    static int getIntProperty(final String name, final int defaultValue) {
+        String value = System.getProperty(name);
+        if (null != value) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value {} for {}, using {}", value, name, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+}
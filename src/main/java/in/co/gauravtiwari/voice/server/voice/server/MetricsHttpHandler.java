@@ -0,0 +1,57 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Serves the metrics of the server in the Prometheus text format on /metrics, next to the API. It is a plain
+ * Grizzly handler, so scraping does not go through Jersey nor use the execution pools.
+ */
+public class MetricsHttpHandler extends HttpHandler {
+
+    /**
+     * Writes the metrics for a GET request.
+     *
+     * @param request  - the request
+     * @param response - the response
+     * @throws Exception - when the response cannot be written
+     */
+    @Override
+    public void service(final Request request, final Response response) throws Exception {
+        if (request.getMethod() != Method.GET && request.getMethod() != Method.HEAD) {
+            response.setStatus(HttpStatus.METHOD_NOT_ALLOWED_405);
+            response.setHeader("Allow", "GET, HEAD");
+            return;
+        }
+        byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        response.setContentType(Metrics.CONTENT_TYPE);
+        response.setContentLength(body.length);
+        if (request.getMethod() == Method.GET) {
+            response.getOutputStream().write(body);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioException;
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioUtility;
+import in.co.gauravtiwari.voice.server.audio.implementation.DecodedAudioCache;
+import in.co.gauravtiwari.voice.server.audio.implementation.MixerIndex;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationPreloadManifest;
+import in.co.gauravtiwari.voice.server.voice.serverresources.DownloadVoiceFileException;
+import in.co.gauravtiwari.voice.server.voice.serverresources.VoiceAutomationServerUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Warms up the server from the Json manifest of -DpreloadManifest while it starts, e.g.
+ * {"prompts": ["https://example.com/hello.mp3", "/prompts/menu.wav"], "mixers": ["Speakers", 1]}, the mixers are given
+ * by name or by number.
+ * The prompts given by url are downloaded, and /load of the same url returns them, then every prompt is decoded into
+ * the DecodedAudioCache. A clip and an input line of every mixer are opened and closed once to load their driver,
+ * they are not held open since a held input line would keep the device from the recordings. The work runs on
+ * -DpreloadThreads (defaults to 4) threads of its own, so it does not take the pools of the calls, and /ready answers
+ * 503 until it is done.
+ */
+public final class Preloader {
+    private static final Logger LOG = LoggerFactory.getLogger(Preloader.class);
+    private static final String MANIFEST = System.getProperty("preloadManifest");
+    private static final int THREADS = Math.max(1, ExecutionPools.getIntProperty("preloadThreads", 4));
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final AtomicInteger TOTAL = new AtomicInteger();
+    private static final AtomicInteger DONE = new AtomicInteger();
+    private static final AtomicInteger FAILED = new AtomicInteger();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static volatile boolean ready = MANIFEST == null || MANIFEST.trim().isEmpty();
+
+    /**
+     * Private constructor
+     */
+    private Preloader() {
+    }
+
+    /**
+     * Starts the preloading of the manifest in the background, does nothing without -DpreloadManifest
+     */
+    static void start() {
+        if (ready) {
+            return;
+        }
+        VoiceAutomationPreloadManifest manifest;
+        try {
+            manifest = MAPPER.readValue(new File(MANIFEST.trim()), VoiceAutomationPreloadManifest.class);
+        } catch (IOException e) {
+            LOG.error("Unable to read the preload manifest {}: {}", MANIFEST, e.getMessage());
+            FAILED.incrementAndGet();
+            ready = true;
+            return;
+        }
+        List<String> prompts = orEmpty(manifest.getPrompts());
+        List<String> mixers = orEmpty(manifest.getMixers());
+        TOTAL.set(prompts.size() + mixers.size());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "preload-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (String prompt : prompts) {
+            tasks.add(CompletableFuture.runAsync(() -> preloadPrompt(prompt), executor));
+        }
+        for (String mixer : mixers) {
+            tasks.add(CompletableFuture.runAsync(() -> prepareMixer(mixer), executor));
+        }
+        LOG.info("Preloading {} prompts and {} mixers from {}", prompts.size(), mixers.size(), MANIFEST);
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).whenComplete((result, error) -> {
+            executor.shutdown();
+            ready = true;
+            LOG.info("Preload done, {}", getProgress());
+            StartupReport.preloaded();
+        });
+    }
+
+    /**
+     * Checks whether the preloading is done, failed prompts and mixers included
+     *
+     * @return true when every entry of the manifest has been preloaded or has failed, or without a manifest
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Describes the progress of the preloading
+     *
+     * @return e.g. 3 of 10 preloaded, 1 failed
+     */
+    public static String getProgress() {
+        return DONE.get() + " of " + TOTAL.get() + " preloaded, " + FAILED.get() + " failed";
+    }
+
+    /**
+     * Downloads a prompt given by url and decodes it into the cache
+     *
+     * @param prompt - url or local path of the voice file
+     */
+    private static void preloadPrompt(final String prompt) {
+        try {
+            String fileName = prompt.contains("://") ? VoiceAutomationServerUtils.preloadVoiceFile(prompt) : prompt;
+            DecodedAudioCache.put(VoiceAutomationServerUtils.getVoiceFile(fileName));
+        } catch (DownloadVoiceFileException | AudioException | RuntimeException e) {
+            LOG.warn("Unable to preload prompt {}: {}", prompt, e.getMessage());
+            FAILED.incrementAndGet();
+        }
+        DONE.incrementAndGet();
+    }
+
+    /**
+     * Opens the lines of a mixer once
+     *
+     * @param mixer - name or index number of the mixer
+     */
+    private static void prepareMixer(final String mixer) {
+        try {
+            AudioUtility.prepareMixer(getMixer(mixer));
+        } catch (AudioException | RuntimeException e) {
+            LOG.warn("Unable to prepare mixer {}: {}", mixer, e.getMessage());
+            FAILED.incrementAndGet();
+        }
+        DONE.incrementAndGet();
+    }
+
+    /**
+     * Resolves a mixer of the manifest, a number when it is one, else a name
+     *
+     * @param mixer - name or index number of the mixer, null for the default mixer
+     * @return the entry of the mixer
+     * @throws AudioException - when there is no such mixer
+     */
+    private static MixerIndex.Entry getMixer(final String mixer) throws AudioException {
+        if (mixer == null) {
+            return MixerIndex.DEFAULT;
+        }
+        try {
+            return MixerIndex.getEntry(Integer.parseInt(mixer.trim()));
+        } catch (NumberFormatException e) {
+            return MixerIndex.getEntry(mixer);
+        }
+    }
+
+    /**
+     * Returns a list of the manifest, empty when it is missing
+     */
+    private static <T> List<T> orEmpty(final List<T> list) {
+        return list == null ? Collections.<T>emptyList() : list;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Measures the startup of the server from the start of the JVM: when it listens, when the audio system is warmed up,
+ * when the preload manifest is preloaded and when it served its first successful request. Each time is logged once
+ * and served on /metrics as voice_startup_milliseconds, labelled by phase.
+ */
+public final class StartupReport {
+    private static final Logger LOG = LoggerFactory.getLogger(StartupReport.class);
+    private static final AtomicBoolean FIRST_SUCCESS = new AtomicBoolean();
+
+    /**
+     * Private constructor
+     */
+    private StartupReport() {
+    }
+
+    /**
+     * Notes that the server is listening
+     */
+    static void listening() {
+        report("listening");
+    }
+
+    /**
+     * Notes that the audio system has been warmed up
+     */
+    static void audioWarmedUp() {
+        report("audio_warm_up");
+    }
+
+    /**
+     * Notes that the preload manifest has been preloaded
+     */
+    static void preloaded() {
+        report("preloaded");
+    }
+
+    /**
+     * Notes a successful response, only the first one is reported. It is called for every response, so after the
+     * first one it only reads a flag.
+     */
+    public static void requestSucceeded() {
+        if (!FIRST_SUCCESS.get() && FIRST_SUCCESS.compareAndSet(false, true)) {
+            report("first_request");
+        }
+    }
+
+    /**
+     * Logs the time a phase was reached and sets its gauge
+     *
+     * @param phase - the phase of the startup
+     */
+    private static void report(final String phase) {
+        long millis = ManagementFactory.getRuntimeMXBean().getUptime();
+        Metrics.gauge("voice_startup_milliseconds", "Time from the start of the JVM to a phase of the startup",
+                "phase", phase).add(millis);
+        LOG.info("Startup phase {} reached {} ms after the JVM started", phase, millis);
+    }
+}
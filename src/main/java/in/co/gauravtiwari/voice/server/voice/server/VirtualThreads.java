@@ -0,0 +1,122 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Switch to run the Grizzly workers and the execution pools on virtual threads, set -DvirtualThreads=true.
+ * The server is still built for Java 8, the virtual threads are created by reflection when it runs on Java 21 or
+ * later, on older runtimes the switch is ignored with a warning and platform threads are used.
+ * <p>
+ * A blocked virtual thread gives back its carrier thread, so the pools can have as many threads as operations in
+ * flight without the memory of as many platform stacks.
+ */
+public final class VirtualThreads {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method NAME = findMethod("java.lang.Thread$Builder", "name", String.class, long.class);
+    private static final Method FACTORY = findMethod("java.lang.Thread$Builder", "factory");
+    private static final boolean ENABLED = isRequested() && isAvailable();
+
+    /**
+     * Private constructor
+     */
+    private VirtualThreads() {
+    }
+
+    /**
+     * Getter for whether the server runs on virtual threads
+     *
+     * @return true when -DvirtualThreads=true and the runtime supports them
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Creates a factory of virtual threads named prefix followed by a counter
+     *
+     * @param prefix - prefix of the thread names
+     * @return the factory, null when virtual threads are not enabled
+     */
+    public static ThreadFactory newThreadFactory(final String prefix) {
+        if (!ENABLED) {
+            return null;
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual threads", e);
+        }
+    }
+
+    /**
+     * Reads the -DvirtualThreads switch
+     */
+    private static boolean isRequested() {
+        return Boolean.parseBoolean(System.getProperty("virtualThreads", "false"));
+    }
+
+    /**
+     * Checks the runtime supports virtual threads, warning when they were requested but are missing
+     */
+    private static boolean isAvailable() {
+        if (OF_VIRTUAL != null && NAME != null && FACTORY != null) {
+            try {
+                // Java 19 and 20 have them as a preview feature that fails unless it is enabled
+                FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), "probe-", 1L));
+                LOG.info("Running on virtual threads");
+                return true;
+            } catch (ReflectiveOperationException e) {
+                LOG.debug("Virtual threads are not usable", e);
+            }
+        }
+        LOG.warn("Virtual threads need Java 21 or later, running on {} with platform threads",
+                System.getProperty("java.version"));
+        return false;
+    }
+
+    /**
+     * Looks up a public method by class name, null when the class or the method does not exist
+     */
+    private static Method findMethod(final String className, final String name, final Class<?>... parameterTypes) {
+        try {
+            return findMethod(Class.forName(className), name, parameterTypes);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up a public method, null when it does not exist
+     */
+    private static Method findMethod(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
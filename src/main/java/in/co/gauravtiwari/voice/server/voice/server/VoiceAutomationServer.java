@@ -16,12 +16,18 @@
 
 package in.co.gauravtiwari.voice.server.voice.server;
 
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioUtility;
 import in.co.gauravtiwari.voice.server.voice.design.VoiceAutomationServerModel;
-import com.sun.jersey.api.container.grizzly2.GrizzlyServerFactory;
-import com.sun.jersey.api.core.PackagesResourceConfig;
-import com.sun.jersey.api.core.ResourceConfig;
-import com.sun.jersey.api.json.JSONConfiguration;
+import in.co.gauravtiwari.voice.server.voice.serverresources.ContentStore;
+import in.co.gauravtiwari.voice.server.voice.serverresources.DownloadIndex;
+import in.co.gauravtiwari.voice.server.voice.serverresources.JSONParseExceptionMapper;
+import in.co.gauravtiwari.voice.server.voice.serverresources.MetricsFilter;
+import in.co.gauravtiwari.voice.server.voice.serverresources.VoiceAutomationServerAPI;
+import org.codehaus.jackson.jaxrs.JacksonJsonProvider;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,14 +36,30 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of a http server for Voice Automation.
  * Set -DVoiceAutomationServerPort in VM options to specify port, defaults to 9010.
  * The server will try to obtain hostname and begin listening on specified port.
  * If the server cannot obtain the hostname, it defaults to localhost.
+ * Set -DbindAddress to listen on a given address or host name instead, e.g. 0.0.0.0, without looking up the hostname.
+ * Set -DfastStart=true for nodes that restart often: the server listens on 0.0.0.0 unless -DbindAddress is set and
+ * the AudioSystem providers and the mixer table are loaded in the background while it starts, instead of by the
+ * first playback or recording. The times to listen, to warm up and to serve the first successful request are
+ * logged and served on /metrics, see StartupReport.
+ * Set -DpreloadManifest to a Json file of prompts and mixers to download, decode and open while the server starts,
+ * /ready answers 503 until they are, see Preloader.
+ * Set -DclusterCoordinator to the url of a ClusterCoordinator to serve as a node of its cluster, see ClusterMember.
+ * The resources and providers are registered by class, the packages are not scanned.
+ * Set -DworkerThreads to size the Grizzly worker pool, the API calls themselves run in the pools of ExecutionPools
+ * and their responses are resumed from there, the workers only parse requests and hand them over.
+ * Set -DvirtualThreads=true to run the workers and the pools on virtual threads on Java 21 or later.
+ * The metrics of the server are served on /metrics in the Prometheus text format.
+ * The server is stopped by stopServer, which main also runs when the JVM is shut down: the calls made from then on
+ * are answered with 503, the calls in flight get -DshutdownGraceSeconds (defaults to 10) to complete, then the http
+ * server stops.
  */
 
 /**
@@ -50,7 +72,11 @@ public class VoiceAutomationServer implements VoiceAutomationServerModel {
     //Any port between 9000 and 9100
     //Any port between 9200 and 9400
     private static final int DEFAULT_PORT = 9090;
-    private static final URI BASE_URI = UriBuilder.fromUri("http://" + getHostName() + "/").port(getPort(DEFAULT_PORT)).build();
+    private static final boolean FAST_START = Boolean.parseBoolean(System.getProperty("fastStart", "false"));
+    private static final int SHUTDOWN_GRACE_SECONDS = ExecutionPools.getIntProperty("shutdownGraceSeconds", 10);
+    // How long the http server gets to write the last responses once the calls have completed
+    private static final long RESPONSE_GRACE_SECONDS = 1;
+    private final URI baseUri = UriBuilder.fromUri("http://" + getBindAddress() + "/").port(getPort(DEFAULT_PORT)).build();
     private HttpServer httpServer;
 
     /**
@@ -73,6 +99,19 @@ public class VoiceAutomationServer implements VoiceAutomationServerModel {
         return defaultPort;
     }
 
+    /**
+     * Returns the address the server listens on: -DbindAddress, 0.0.0.0 for a fast start, or else the hostname
+     *
+     * @return the address or host name to listen on
+     */
+    private static String getBindAddress() {
+        String bindAddress = System.getProperty("bindAddress");
+        if (null != bindAddress && !bindAddress.trim().isEmpty()) {
+            return bindAddress.trim();
+        }
+        return FAST_START ? "0.0.0.0" : getHostName();
+    }
+
     /**
      * This method returns the hostname of the current machine, if hostname cannot be obtained, it uses localhost
      *
@@ -95,6 +134,7 @@ public class VoiceAutomationServer implements VoiceAutomationServerModel {
      */
     public static void main(String[] args) {
         VoiceAutomationServer vaServer = new VoiceAutomationServer();
+        Runtime.getRuntime().addShutdownHook(new Thread(vaServer::stopServer, "server-stop"));
         try {
             vaServer.startServer();
             Thread.currentThread().join();
@@ -109,27 +149,86 @@ public class VoiceAutomationServer implements VoiceAutomationServerModel {
      * @return uri to reach server
      */
     public String getURI() {
-        return BASE_URI.toString();
+        return baseUri.toString();
     }
 
     /**
-     * Creates an instance of HttpServer by loading resources in serverresources.
+     * Creates an instance of HttpServer with the resources and providers of serverresources.
      */
     public void startServer() {
         LOG.info("Initializing Voice Automation server");
-        ResourceConfig rc = new PackagesResourceConfig("in.co.gauravtiwari.voice.server.voice.serverresources");
-        //Create config map and add to resource config to turn
-        // on json serialization for a POJO
-        Map<String, Object> config = new HashMap<String, Object>();
-        config.put(JSONConfiguration.FEATURE_POJO_MAPPING, true);
-        rc.setPropertiesAndFeatures(config);
+        if (FAST_START) {
+            startAudioWarmUp();
+        }
+        DownloadIndex.load();
+        ContentStore.start();
+        Preloader.start();
+        ResourceConfig rc = new ResourceConfig()
+                .register(VoiceAutomationServerAPI.class)
+                .register(JSONParseExceptionMapper.class)
+                .register(MetricsFilter.class)
+                // Json serialization of the POJOs, without the exception mappers of Jackson1Feature
+                // so that JSONParseExceptionMapper answers malformed requests
+                .register(JacksonJsonProvider.class);
         try {
-            this.httpServer = GrizzlyServerFactory.createHttpServer(BASE_URI, rc);
-            LOG.info("Voice Automation server started at " + BASE_URI);
+            this.httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
+            int workerThreads = ExecutionPools.getIntProperty("workerThreads", 0);
+            if (workerThreads > 0 || VirtualThreads.isEnabled()) {
+                ThreadPoolConfig workerConfig = ThreadPoolConfig.defaultConfig().setPoolName("grizzly-worker");
+                if (workerThreads > 0) {
+                    workerConfig.setCorePoolSize(workerThreads).setMaxPoolSize(workerThreads);
+                }
+                if (VirtualThreads.isEnabled()) {
+                    workerConfig.setThreadFactory(VirtualThreads.newThreadFactory("grizzly-worker-"));
+                }
+                this.httpServer.getListener("grizzly").getTransport().setWorkerThreadPoolConfig(workerConfig);
+            }
+            this.httpServer.getServerConfiguration().addHttpHandler(new MetricsHttpHandler(), "/metrics");
             this.httpServer.start();
+            LOG.info("Voice Automation server started at " + baseUri);
+            StartupReport.listening();
+            ClusterMember.start(baseUri);
         } catch (IOException ex) {
             LOG.error("Voice Automation server failed to start: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
+
+    /**
+     * Stops the server. The pools are shut down first, so that the calls made while the calls in flight complete are
+     * answered with 503 by a server that still listens, then the http server is stopped.
+     */
+    public void stopServer() {
+        LOG.info("Stopping Voice Automation server");
+        ExecutionPools.shutdown();
+        try {
+            if (!ExecutionPools.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Calls still in flight after " + SHUTDOWN_GRACE_SECONDS + " s, stopping anyway");
+            }
+            if (httpServer != null) {
+                httpServer.shutdown(RESPONSE_GRACE_SECONDS, TimeUnit.SECONDS).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while stopping, stopping now");
+            if (httpServer != null) {
+                httpServer.shutdownNow();
+            }
+        } catch (ExecutionException e) {
+            LOG.error("Voice Automation server failed to stop: " + e.getCause());
+        }
+        LOG.info("Voice Automation server stopped");
+    }
+
+    /**
+     * Loads the AudioSystem providers and the mixer table on a background thread
+     */
+    private static void startAudioWarmUp() {
+        Thread warmUp = new Thread(() -> {
+            AudioUtility.warmUp();
+            StartupReport.audioWarmedUp();
+        }, "audio-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
 }
@@ -0,0 +1,153 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessageStatus;
+import in.co.gauravtiwari.voice.server.voice.server.DeviceSchedulingException;
+import in.co.gauravtiwari.voice.server.voice.server.ExecutionPool;
+import in.co.gauravtiwari.voice.server.voice.server.ExecutionPools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Runs the calls of the API in their execution pool and resumes their suspended response when they complete.
+ * The container thread returns as soon as the call is handed over, and the pool thread as soon as the call has
+ * started its audio, the response is then resumed from the completion of the playback, recording or download.
+ * <p>
+ * A call the pool cannot take is answered at once with 429 Too Many Requests, or 503 Service Unavailable once the
+ * server is stopping, both with a Retry-After header. So is a call that waited past its deadline for a device, see
+ * DeviceScheduler.
+ */
+public final class AsyncCalls {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncCalls.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Private constructor
+     */
+    private AsyncCalls() {
+    }
+
+    /**
+     * Runs a call in a pool and resumes the response with its result
+     *
+     * @param pool          - the pool to run the call in
+     * @param asyncResponse - the suspended response of the call
+     * @param call          - starts the call and returns the stage completed with its response
+     */
+    public static void submit(final ExecutionPool pool, final AsyncResponse asyncResponse,
+                              final Callable<? extends CompletionStage<Response>> call) {
+        CompletableFuture<Response> completion = pool.trySubmit(call);
+        if (completion == null) {
+            asyncResponse.resume(reject(pool));
+            return;
+        }
+        completion.whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof DeviceSchedulingException) {
+                    asyncResponse.resume(refuse((DeviceSchedulingException) cause));
+                    return;
+                }
+                LOG.error("Call failed in the {} pool", pool.getName(), cause);
+                asyncResponse.resume(ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, cause.getMessage())));
+            } else {
+                asyncResponse.resume(response);
+            }
+        });
+    }
+
+    /**
+     * Runs a call that completes on its pool thread, like a download, and resumes the response with its result
+     *
+     * @param pool          - the pool to run the call in
+     * @param asyncResponse - the suspended response of the call
+     * @param call          - runs the call and returns its response
+     */
+    public static void run(final ExecutionPool pool, final AsyncResponse asyncResponse, final Callable<Response> call) {
+        submit(pool, asyncResponse, () -> CompletableFuture.completedFuture(call.call()));
+    }
+
+    /**
+     * Wraps a message into the usual response
+     *
+     * @param vam - the message
+     * @return the 200 response carrying the message in Json
+     */
+    public static Response ok(final VoiceAutomationMessage vam) {
+        return Response.status(Response.Status.OK).entity(vam).type(MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Wraps a message into a completed stage of the usual response, for calls failing before they start
+     *
+     * @param vam - the message
+     * @return the completed stage
+     */
+    public static CompletableFuture<Response> completed(final VoiceAutomationMessage vam) {
+        return CompletableFuture.completedFuture(ok(vam));
+    }
+
+    /**
+     * Creates the answer to a call refused by the device scheduler
+     *
+     * @param refusal - why the call was refused
+     * @return the 429 response for a call that waited past its deadline, the usual response for a call taken off
+     * its device
+     */
+    private static Response refuse(final DeviceSchedulingException refusal) {
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, refusal.getMessage());
+        if (!refusal.isRetryable()) {
+            return ok(vam);
+        }
+        return Response.status(TOO_MANY_REQUESTS)
+                .header("Retry-After", ExecutionPools.RETRY_AFTER_SECONDS)
+                .entity(vam)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .build();
+    }
+
+    /**
+     * Creates the answer to a call refused by its pool
+     *
+     * @param pool - the pool that refused the call
+     * @return the 429 or 503 response
+     */
+    private static Response reject(final ExecutionPool pool) {
+        boolean stopping = pool.isShutdown();
+        LOG.warn("{} pool refused a call, {}", pool.getName(), stopping ? "server is stopping" : "pool is saturated");
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, stopping
+                ? "Server is stopping"
+                : "Server is busy, the " + pool.getName() + " pool is saturated");
+        return Response.status(stopping ? Response.Status.SERVICE_UNAVAILABLE.getStatusCode() : TOO_MANY_REQUESTS)
+                .header("Retry-After", ExecutionPools.RETRY_AFTER_SECONDS)
+                .entity(vam)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .build();
+    }
+}
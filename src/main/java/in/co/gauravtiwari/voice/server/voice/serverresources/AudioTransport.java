@@ -0,0 +1,224 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessageStatus;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.sound.sampled.AudioFormat;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Content negotiation of the audio carrying APIs. Besides Json with base64 audio, a response can be
+ * application/octet-stream, the raw audio with the message in headers, or multipart/mixed, a Json part with the
+ * message followed by a part with the raw audio. Binary responses are streamed from the recording buffer, the audio
+ * is neither copied nor encoded.
+ */
+public final class AudioTransport {
+    public static final String MULTIPART_MIXED = "multipart/mixed";
+    public static final MediaType MULTIPART_MIXED_TYPE = new MediaType("multipart", "mixed");
+    public static final String AUDIO_FORMAT_HEADER = "X-Audio-Format";
+    public static final String STATUS_HEADER = "X-Voice-Automation-Status";
+    public static final String MESSAGE_HEADER = "X-Voice-Automation-Message";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    static {
+        // the message is only one part of the response, the stream must stay open
+        MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    }
+
+    /**
+     * Private constructor
+     */
+    private AudioTransport() {
+    }
+
+    /**
+     * Builds the response to a request that returns audio, in the representation the client accepts
+     *
+     * @param vam     - the response message, without audio
+     * @param audio   - the audio, null if there is none to return
+     * @param format    - the format of the audio
+     * @param mediaType - the representation selected with selectMediaType
+     * @return the response
+     */
+    public static Response buildResponse(final VoiceAutomationMessage vam, final ByteArrayOutputStream audio,
+                                         final AudioFormat format, final MediaType mediaType) {
+        // failures and messages without audio are always Json
+        if (audio == null || vam.getStatus() != VoiceAutomationMessageStatus.SUCCESS
+                || MediaType.APPLICATION_JSON_TYPE.equals(mediaType)) {
+            if (audio != null) {
+                vam.setAudioData(audio.toByteArray());
+            }
+            return Response.status(Response.Status.OK).entity(vam).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }
+
+        String formatDescription = describe(format);
+        if (MediaType.APPLICATION_OCTET_STREAM_TYPE.equals(mediaType)) {
+            StreamingOutput body = audio::writeTo;
+            return Response.status(Response.Status.OK).entity(body).type(mediaType)
+                    .header(AUDIO_FORMAT_HEADER, formatDescription)
+                    .header(STATUS_HEADER, vam.getStatus())
+                    .header(MESSAGE_HEADER, toJson(vam))
+                    .build();
+        }
+
+        String boundary = UUID.randomUUID().toString();
+        StreamingOutput body = out -> writeMultipart(out, boundary, vam, audio, formatDescription);
+        return Response.status(Response.Status.OK).entity(body)
+                .type(new MediaType("multipart", "mixed", Collections.singletonMap("boundary", boundary)))
+                .build();
+    }
+
+    /**
+     * Writes a multipart/mixed body with the message in the first part and the audio in the second one
+     */
+    private static void writeMultipart(final OutputStream out, final String boundary, final VoiceAutomationMessage vam,
+                                       final ByteArrayOutputStream audio, final String formatDescription) throws IOException {
+        writeBoundary(out, boundary, false);
+        writeHeader(out, "Content-Type", MediaType.APPLICATION_JSON);
+        out.write(CRLF);
+        MAPPER.writeValue(out, vam);
+        writeBoundary(out, boundary, false);
+        writeHeader(out, "Content-Type", MediaType.APPLICATION_OCTET_STREAM);
+        writeHeader(out, AUDIO_FORMAT_HEADER, formatDescription);
+        out.write(CRLF);
+        audio.writeTo(out);
+        writeBoundary(out, boundary, true);
+    }
+
+    /**
+     * Reads the message of a multipart/mixed request and leaves the reader on the audio part.
+     * The message is the Json part, the audio is the part that follows it.
+     *
+     * @param reader - the reader of the request body
+     * @return the message, or an empty message if the body has no Json part
+     * @throws IOException - when the body is not a valid multipart body or has no audio part
+     */
+    public static VoiceAutomationMessage readMultipartMessage(final MultipartMixedReader reader) throws IOException {
+        VoiceAutomationMessage request = new VoiceAutomationMessage();
+        while (reader.nextPart()) {
+            String contentType = reader.getHeader("Content-Type");
+            if (contentType == null || !MediaType.valueOf(contentType).isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return request;
+            }
+            request = MAPPER.readValue(reader.getPartStream(), VoiceAutomationMessage.class);
+        }
+        throw new IOException("Multipart request has no audio part");
+    }
+
+    /**
+     * Opens a reader on a multipart/mixed request body
+     *
+     * @param body        - the request body
+     * @param contentType - the content type of the request
+     * @return the reader
+     * @throws IOException - when the content type has no boundary
+     */
+    public static MultipartMixedReader openMultipart(final InputStream body, final MediaType contentType) throws IOException {
+        String boundary = contentType == null ? null : contentType.getParameters().get("boundary");
+        if (boundary == null || boundary.isEmpty()) {
+            throw new IOException("Multipart request has no boundary");
+        }
+        return new MultipartMixedReader(body, boundary);
+    }
+
+    /**
+     * Selects the representation of a response from the Accept header, Json unless the client prefers a binary one.
+     * It must be called on the container thread, the headers are not available once the call is handed over.
+     *
+     * @param headers - the headers of the request
+     * @return Json, octet-stream or multipart/mixed
+     */
+    public static MediaType selectMediaType(final HttpHeaders headers) {
+        if (headers == null) {
+            return MediaType.APPLICATION_JSON_TYPE;
+        }
+        // the acceptable media types are sorted by preference
+        for (MediaType accepted : headers.getAcceptableMediaTypes()) {
+            if (accepted.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return MediaType.APPLICATION_JSON_TYPE;
+            }
+            if (accepted.isCompatible(MediaType.APPLICATION_OCTET_STREAM_TYPE)) {
+                return MediaType.APPLICATION_OCTET_STREAM_TYPE;
+            }
+            if (accepted.isCompatible(MULTIPART_MIXED_TYPE)) {
+                return MULTIPART_MIXED_TYPE;
+            }
+        }
+        return MediaType.APPLICATION_JSON_TYPE;
+    }
+
+    /**
+     * Describes an audio format for the X-Audio-Format header
+     *
+     * @param format - the audio format
+     * @return the description, e.g. encoding=PCM_SIGNED;sampleRate=48000.0;sampleSizeInBits=16;channels=1;bigEndian=true
+     */
+    static String describe(final AudioFormat format) {
+        return "encoding=" + format.getEncoding()
+                + ";sampleRate=" + format.getSampleRate()
+                + ";sampleSizeInBits=" + format.getSampleSizeInBits()
+                + ";channels=" + format.getChannels()
+                + ";frameSize=" + format.getFrameSize()
+                + ";bigEndian=" + format.isBigEndian();
+    }
+
+    /**
+     * Serializes the message for the message header
+     */
+    private static String toJson(final VoiceAutomationMessage vam) {
+        try {
+            return MAPPER.writeValueAsString(vam);
+        } catch (IOException e) {
+            return vam.getMessage();
+        }
+    }
+
+    /**
+     * Writes a multipart boundary line, the line break before it ends the previous part
+     */
+    private static void writeBoundary(final OutputStream out, final String boundary, final boolean last) throws IOException {
+        out.write(CRLF);
+        out.write(("--" + boundary + (last ? "--" : "")).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes a part header line
+     */
+    private static void writeHeader(final OutputStream out, final String name, final String value) throws IOException {
+        out.write((name + ": " + value).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+}
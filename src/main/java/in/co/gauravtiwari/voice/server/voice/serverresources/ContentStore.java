@@ -0,0 +1,180 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.DecodedAudioCache;
+import in.co.gauravtiwari.voice.server.metrics.Counter;
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Keeps one physical copy of each voice file content in the content directory of DOWNLOAD_BASE_DIR, named by its
+ * SHA-256. The files downloaded or received are hashed while they are written, then linked to the content: the
+ * first copy of a content becomes a hard link of the content file, the next copies are replaced by hard links to it.
+ * The same prompt under several urls or uploaded several times takes the space of one file, and the decoded audio
+ * of the PcmStore is computed once per content.
+ * <p>
+ * The link count of a content file is its reference count, a content file no longer linked to any voice file is
+ * deleted at startup and every -DcontentSweepSeconds (defaults to 600). Set -DcontentDedup=false to keep every copy,
+ * the files also stay separate on a filesystem without hard links.
+ */
+public final class ContentStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentStore.class);
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("contentDedup", "true"));
+    private static final long SWEEP_SECONDS = Math.max(1, Long.getLong("contentSweepSeconds", 600));
+    private static final File DIRECTORY = new File(VoiceAutomationServerUtils.DOWNLOAD_BASE_DIR, "content");
+    private static final String LINK_COUNT = "unix:nlink";
+    private static final Counter DEDUPLICATED = Metrics.counter("voice_content_deduplicated_total",
+            "Voice files replaced by a link to an identical stored content");
+    private static final Counter DEDUPLICATED_BYTES = Metrics.counter("voice_content_deduplicated_bytes_total",
+            "Bytes of disk saved by linking identical voice files");
+    private static final Object LOCK = new Object();
+
+    /**
+     * Private constructor
+     */
+    private ContentStore() {
+    }
+
+    /**
+     * Deletes the unreferenced content now and every -DcontentSweepSeconds, the server calls it once at startup
+     */
+    public static void start() {
+        if (!ENABLED) {
+            return;
+        }
+        sweep();
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "content-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(ContentStore::sweep, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Links a voice file just written to its content, it is replaced by a link to an identical content already
+     * stored. A file that cannot be linked is left as it is.
+     *
+     * @param file - the voice file
+     * @param hash - the SHA-256 of its content in hex
+     */
+    static void deduplicate(final File file, final String hash) {
+        if (!ENABLED) {
+            return;
+        }
+        String name = file.getName();
+        Path content = new File(DIRECTORY, hash + name.substring(Math.max(0, name.lastIndexOf('.')))).toPath();
+        try {
+            synchronized (LOCK) {
+                Files.createDirectories(content.getParent());
+                if (!link(file.toPath(), content)) {
+                    Files.createLink(content, file.toPath());
+                }
+            }
+        } catch (FileAlreadyExistsException e) {
+            // stored by another server sharing the directory since
+            deduplicateQuietly(file.toPath(), content);
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            LOG.warn("Unable to link {} to its content: {}", file, e.getMessage());
+            return;
+        }
+        DecodedAudioCache.setContentHash(file, hash);
+    }
+
+    /**
+     * Replaces a voice file by a link to its stored content, through a temporary link renamed over the file so the
+     * file never goes missing
+     *
+     * @return false when the content is not stored
+     */
+    private static boolean link(final Path file, final Path content) throws IOException {
+        if (!Files.isRegularFile(content)) {
+            return false;
+        }
+        long size = Files.size(file);
+        if (Files.size(content) != size) {
+            LOG.warn("Stored content {} has another size than {}, leaving it as it is", content, file);
+            return true;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".link");
+        try {
+            Files.createLink(temporary, content);
+        } catch (NoSuchFileException e) {
+            // swept since
+            return false;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        DEDUPLICATED.inc();
+        DEDUPLICATED_BYTES.add(size);
+        return true;
+    }
+
+    /**
+     * Replaces a voice file by a link to its stored content, logging the failures
+     */
+    private static void deduplicateQuietly(final Path file, final Path content) {
+        try {
+            synchronized (LOCK) {
+                link(file, content);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to link {} to its content: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the content files no voice file links to any more
+     */
+    private static void sweep() {
+        if (!DIRECTORY.isDirectory()) {
+            return;
+        }
+        int deleted = 0;
+        synchronized (LOCK) {
+            try (DirectoryStream<Path> contents = Files.newDirectoryStream(DIRECTORY.toPath())) {
+                for (Path content : contents) {
+                    if (((Number) Files.getAttribute(content, LINK_COUNT)).intValue() <= 1) {
+                        Files.deleteIfExists(content);
+                        deleted++;
+                    }
+                }
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+                LOG.warn("Unable to sweep {}: {}", DIRECTORY, e.getMessage());
+            }
+        }
+        if (deleted > 0) {
+            LOG.info("Deleted {} unreferenced contents from {}", deleted, DIRECTORY);
+        }
+    }
+}
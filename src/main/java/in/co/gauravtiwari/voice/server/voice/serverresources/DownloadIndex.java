@@ -0,0 +1,336 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.DecodedAudioCache;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Remembers which file of DOWNLOAD_BASE_DIR each url was downloaded to, with the validators the server sent
+ * (ETag and Last-Modified), the SHA-256 of the content, its size and format and when it was last loaded. A url
+ * loaded again is revalidated with a conditional request and its file reused when the server answers 304, also
+ * after a restart.
+ * <p>
+ * The index lives in memory and is kept in voice-downloads.idx in DOWNLOAD_BASE_DIR, a log with one Json record per
+ * line that is only appended to, so a crash loses at most the record being written, and a torn last line is skipped
+ * when the index is loaded. Every -DdownloadIndexCompactSeconds (defaults to 600) the log is rewritten with one
+ * record per url, renamed over the old one. Set -DdownloadIndex=false to download every url again.
+ */
+public final class DownloadIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(DownloadIndex.class);
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("downloadIndex", "true"));
+    private static final long COMPACT_SECONDS = Math.max(1, Long.getLong("downloadIndexCompactSeconds", 600));
+    private static final File FILE = new File(VoiceAutomationServerUtils.DOWNLOAD_BASE_DIR, "voice-downloads.idx");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final Object LOG_LOCK = new Object();
+
+    private static FileOutputStream log;
+    private static boolean loaded;
+    private static boolean dirty;
+
+    /**
+     * Private constructor
+     */
+    private DownloadIndex() {
+    }
+
+    /**
+     * Loads the index and starts its compaction, the server calls it once at startup
+     */
+    public static void load() {
+        if (!ENABLED) {
+            return;
+        }
+        synchronized (LOG_LOCK) {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            long start = System.nanoTime();
+            int records = read();
+            ENTRIES.values().removeIf(entry -> !entry.isPresent());
+            for (Entry entry : ENTRIES.values()) {
+                if (entry.getContentHash() != null) {
+                    DecodedAudioCache.setContentHash(VoiceAutomationServerUtils.getVoiceFile(entry.getFileName()),
+                            entry.getContentHash());
+                }
+            }
+            LOG.info("Loaded {} downloaded voice files from {} in {} ms", ENTRIES.size(), FILE,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            dirty = records != ENTRIES.size();
+            compact();
+        }
+        ScheduledExecutorService compaction = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "download-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compaction.scheduleWithFixedDelay(() -> {
+            synchronized (LOG_LOCK) {
+                compact();
+            }
+        }, COMPACT_SECONDS, COMPACT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the download of a url, if its file is still there
+     *
+     * @param url - the url
+     * @return the download, null when the url was not downloaded or its file is gone
+     */
+    static Entry get(final String url) {
+        if (!ENABLED) {
+            return null;
+        }
+        load();
+        Entry entry = ENTRIES.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isPresent()) {
+            ENTRIES.remove(url, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Marks a download as loaded now
+     *
+     * @param entry - the download
+     */
+    static void touch(final Entry entry) {
+        entry.lastAccess = System.currentTimeMillis();
+        synchronized (LOG_LOCK) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Adds the download of a url, it replaces the previous download of the url
+     *
+     * @param entry - the download
+     */
+    static void put(final Entry entry) {
+        if (!ENABLED) {
+            return;
+        }
+        load();
+        synchronized (LOG_LOCK) {
+            ENTRIES.put(entry.url, entry);
+            dirty = true;
+            try {
+                if (log == null) {
+                    log = new FileOutputStream(FILE, true);
+                }
+                log.write(toLine(entry));
+                log.getFD().sync();
+            } catch (IOException e) {
+                LOG.warn("Unable to append to {}: {}", FILE, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the log into the index, a later record of a url replaces the earlier ones
+     *
+     * @return the number of records read
+     */
+    private static int read() {
+        if (!FILE.isFile()) {
+            return 0;
+        }
+        int records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(FILE.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = fromLine(line);
+                if (entry != null) {
+                    ENTRIES.put(entry.url, entry);
+                }
+                records++;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read {}: {}", FILE, e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * Rewrites the log with the current record of each url when the index has changed since it was last written,
+     * under the lock
+     */
+    private static void compact() {
+        if (!dirty) {
+            return;
+        }
+        Path temporary = new File(FILE.getPath() + ".tmp").toPath();
+        try {
+            try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+                for (Entry entry : ENTRIES.values()) {
+                    out.write(toLine(entry));
+                }
+                out.getFD().sync();
+            }
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.move(temporary, FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn("Unable to compact {}: {}", FILE, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a record of the log
+     */
+    private static byte[] toLine(final Entry entry) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("url", entry.url);
+        record.put("fileName", entry.fileName);
+        record.put("etag", entry.etag);
+        record.put("lastModified", entry.lastModified);
+        record.put("contentHash", entry.contentHash);
+        record.put("size", entry.size);
+        record.put("contentType", entry.contentType);
+        record.put("lastAccess", entry.lastAccess);
+        return (MAPPER.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a record of the log
+     *
+     * @return the download, null for a torn or unreadable record
+     */
+    private static Entry fromLine(final String line) {
+        try {
+            Map<?, ?> record = MAPPER.readValue(line, Map.class);
+            Entry entry = new Entry((String) record.get("url"), (String) record.get("fileName"),
+                    (String) record.get("etag"), (String) record.get("lastModified"),
+                    (String) record.get("contentHash"), ((Number) record.get("size")).longValue(),
+                    (String) record.get("contentType"));
+            entry.lastAccess = ((Number) record.get("lastAccess")).longValue();
+            return entry.url != null && entry.fileName != null ? entry : null;
+        } catch (IOException | ClassCastException | NullPointerException e) {
+            LOG.warn("Skipping unreadable record of {}", FILE);
+            return null;
+        }
+    }
+
+    /**
+     * The download of a url
+     */
+    static final class Entry {
+        private final String url;
+        private final String fileName;
+        private final String etag;
+        private final String lastModified;
+        private final String contentHash;
+        private final long size;
+        private final String contentType;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        /**
+         * Constructor for Entry
+         *
+         * @param url          - the url
+         * @param fileName     - the name of its file in DOWNLOAD_BASE_DIR
+         * @param etag         - the ETag the server sent, may be null
+         * @param lastModified - the Last-Modified the server sent, may be null
+         * @param contentHash  - the SHA-256 of the content in hex
+         * @param size         - the size of the content
+         * @param contentType  - the Content-Type the server sent
+         */
+        Entry(final String url, final String fileName, final String etag, final String lastModified,
+              final String contentHash, final long size, final String contentType) {
+            this.url = url;
+            this.fileName = fileName;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Getter for the name of the file
+         *
+         * @return the name in DOWNLOAD_BASE_DIR
+         */
+        String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Getter for the SHA-256 of the content
+         *
+         * @return the hash in hex
+         */
+        String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * Getter for the ETag
+         *
+         * @return the ETag, null when the server sent none
+         */
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Getter for the Last-Modified date
+         *
+         * @return the date as the server sent it, null when it sent none
+         */
+        String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Checks whether the file of the download is still there, with its size
+         */
+        private boolean isPresent() {
+            File file = new File(VoiceAutomationServerUtils.DOWNLOAD_BASE_DIR + fileName);
+            return file.isFile() && file.length() == size;
+        }
+    }
+}
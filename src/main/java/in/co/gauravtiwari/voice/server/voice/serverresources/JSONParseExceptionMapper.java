@@ -26,7 +26,7 @@ import javax.ws.rs.ext.Provider;
 
 /**
  * Implementation of an Exception Mapper.
- * Registered this class by tagging it with @Provider.
+ * Registered this class by tagging it with @Provider and listing it in VoiceAutomationServer.
  * Jersey uses this class to create an HTTP response when the exception occurs.
  * JsonParseException occurs when the HTTP request body is not a valid json.
  */
@@ -0,0 +1,125 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessageStatus;
+import in.co.gauravtiwari.voice.server.voice.server.StartupReport;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Implementation of a filter reporting the latency of every API call into Metrics.
+ * Registered this class by tagging it with @Provider and listing it in VoiceAutomationServer.
+ * <p>
+ * The latency of a call runs from the request being matched to its response being resumed, labelled by the API
+ * method, e.g. play or playStream. Writing the response body is measured apart, by media type.
+ * The first successful response is reported to StartupReport.
+ */
+
+/**
+ * created by Gaurav Tiwari
+ */
+
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+    private static final String START_PROPERTY = MetricsFilter.class.getName() + ".start";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    /**
+     * Notes the time the call started.
+     *
+     * @param requestContext the request
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext) {
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    /**
+     * Records the latency and the status of the call.
+     *
+     * @param requestContext  the request
+     * @param responseContext the response, before its body is written
+     */
+    @Override
+    public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+        Object start = requestContext.getProperty(START_PROPERTY);
+        String endpoint = getEndpoint();
+        if (start instanceof Long) {
+            Metrics.histogram("voice_request_seconds", "Latency of the API calls until their response is ready",
+                    "endpoint", endpoint).recordSince((Long) start);
+        }
+        Metrics.counter("voice_responses_total", "Responses of the API calls by HTTP status",
+                "endpoint", endpoint, "code", String.valueOf(responseContext.getStatus())).inc();
+        if (isSuccessful(responseContext)) {
+            StartupReport.requestSucceeded();
+        }
+    }
+
+    /**
+     * Records the time to serialize and write the response body.
+     *
+     * @param context the body being written
+     * @throws IOException when the body cannot be written
+     */
+    @Override
+    public void aroundWriteTo(final WriterInterceptorContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            MediaType mediaType = context.getMediaType();
+            Metrics.histogram("voice_serialization_seconds", "Time to serialize and write a response body",
+                    "media_type", mediaType == null ? "none" : mediaType.getType() + "/" + mediaType.getSubtype())
+                    .recordSince(start);
+        }
+    }
+
+    /**
+     * Whether a call succeeded, the failures of the API are answered with 200 and a FAIL message
+     */
+    private static boolean isSuccessful(final ContainerResponseContext responseContext) {
+        Object entity = responseContext.getEntity();
+        return responseContext.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL
+                && !(entity instanceof VoiceAutomationMessage
+                && ((VoiceAutomationMessage) entity).getStatus() == VoiceAutomationMessageStatus.FAIL);
+    }
+
+    /**
+     * The API method that served the call, unmatched for requests that matched none
+     */
+    private String getEndpoint() {
+        Method method = resourceInfo == null ? null : resourceInfo.getResourceMethod();
+        return method == null ? "unmatched" : method.getName();
+    }
+}
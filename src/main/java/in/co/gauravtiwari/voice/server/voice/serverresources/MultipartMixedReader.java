@@ -0,0 +1,238 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Reads the parts of a multipart body one after the other straight from the request stream.
+ * Every part is exposed as an InputStream that ends at the next boundary, so a part is never held in memory
+ * and only a small fixed buffer is used whatever the size of the body.
+ */
+public class MultipartMixedReader {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_LINE = 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private final PartInputStream partInputStream = new PartInputStream();
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private boolean partOpen;
+    private boolean finished;
+    private Map<String, String> headers = new HashMap<>();
+
+    /**
+     * Constructor for the reader
+     *
+     * @param in       - the request body
+     * @param boundary - the boundary parameter of the multipart content type
+     */
+    public MultipartMixedReader(final InputStream in, final String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.buffer = new byte[BUFFER_SIZE + delimiter.length];
+        // The first boundary is not preceded by a line break, pretend it is so every boundary looks the same
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Moves to the next part, skipping whatever is left of the current one, and reads its headers
+     *
+     * @return false when there are no more parts
+     * @throws IOException - when the body cannot be read or is not a valid multipart body
+     */
+    public boolean nextPart() throws IOException {
+        if (finished) {
+            return false;
+        }
+        // skip the rest of the current part, or the preamble before the first part
+        partOpen = true;
+        while (partInputStream.skip(BUFFER_SIZE) > 0) {
+            continue;
+        }
+        if (!ensure(delimiter.length + 2)) {
+            throw new IOException("Multipart body ended before its closing boundary");
+        }
+        position += delimiter.length;
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            finished = true;
+            return false;
+        }
+        // rest of the boundary line, it can only hold transport padding
+        readLine();
+
+        headers = new HashMap<>();
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        partOpen = true;
+        return true;
+    }
+
+    /**
+     * Returns a header of the current part
+     *
+     * @param name - the header name, in any case
+     * @return the header value or null if the part has no such header
+     */
+    public String getHeader(final String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the body of the current part, it ends at the next boundary
+     *
+     * @return the part body
+     */
+    public InputStream getPartStream() {
+        return partInputStream;
+    }
+
+    /**
+     * Reads a header line, without its line break
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            if (!ensure(1)) {
+                throw new IOException("Multipart body ended inside the part headers");
+            }
+            byte b = buffer[position++];
+            if (b == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            if (line.length() == MAX_HEADER_LINE) {
+                throw new IOException("Multipart header line too long");
+            }
+            line.append((char) (b & 0xFF));
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of unread bytes
+     *
+     * @return false if the body ends before that
+     */
+    private boolean ensure(final int count) throws IOException {
+        while (limit - position < count) {
+            if (endOfStream) {
+                return false;
+            }
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many of the unread bytes certainly belong to the current part,
+     * 0 when the delimiter starts at the current position
+     */
+    private int partBytesAvailable() throws IOException {
+        ensure(delimiter.length);
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] != delimiter[0]) {
+                continue;
+            }
+            int length = Math.min(delimiter.length, limit - i);
+            boolean matches = true;
+            for (int j = 1; j < length && matches; j++) {
+                matches = buffer[i + j] == delimiter[j];
+            }
+            if (matches) {
+                if (length == delimiter.length || i > position) {
+                    return i - position;
+                }
+                // a partial delimiter at the very end of the body is part data
+                return endOfStream ? limit - position : 0;
+            }
+        }
+        return limit - position;
+    }
+
+    /**
+     * The body of the current part
+     */
+    private final class PartInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (!partOpen) {
+                return -1;
+            }
+            int available = partBytesAvailable();
+            if (available == 0) {
+                partOpen = false;
+                if (limit - position < delimiter.length) {
+                    throw new IOException("Multipart body ended before its closing boundary");
+                }
+                return -1;
+            }
+            int count = Math.min(len, available);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            if (!partOpen) {
+                return 0;
+            }
+            int available = partBytesAvailable();
+            if (available == 0) {
+                partOpen = false;
+                return 0;
+            }
+            int count = (int) Math.min(n, available);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ Copyright [2018] [Gaurav Tiwari]
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package in.co.gauravtiwari.voice.server.voice.serverresources;
+
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioException;
+import in.co.gauravtiwari.voice.server.audio.implementation.RecordingSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by Gaurav Tiwari
+ * <p>
+ * Keeps track of the open-ended recordings started through /record/start.
+ * Every session has a maximum lifetime, set -DmaxRecordingSessionTime (milliseconds) to change it, defaults to 10 minutes.
+ * A session reaching its lifetime is stopped by the server and its audio is kept for
+ * -DrecordingSessionRetention milliseconds (defaults to 1 minute) so that a late /record/stop still gets it.
+ */
+public final class RecordingSessionManager {
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingSessionManager.class);
+    private static final long DEFAULT_MAX_SESSION_TIME = 600000;  // 10 minutes
+    private static final long DEFAULT_SESSION_RETENTION = 60000;  // 1 minute
+    private static final long REAPER_INTERVAL_MILLIS = 500;
+    private static final long MAX_SESSION_TIME = getMillisProperty("maxRecordingSessionTime", DEFAULT_MAX_SESSION_TIME);
+    private static final long SESSION_RETENTION = getMillisProperty("recordingSessionRetention", DEFAULT_SESSION_RETENTION);
+
+    private static final Map<String, Entry> SESSIONS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recording-session-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        REAPER.scheduleWithFixedDelay(RecordingSessionManager::reap,
+                REAPER_INTERVAL_MILLIS, REAPER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Private constructor for RecordingSessionManager.
+     */
+    private RecordingSessionManager() {
+    }
+
+    /**
+     * Reads a duration in milliseconds from the system properties
+     *
+     * @param name         - name of the system property
+     * @param defaultValue - value used when the property is missing or not a number
+     * @return the duration in milliseconds
+     */
+    private static long getMillisProperty(final String name, final long defaultValue) {
+        String value = System.getProperty(name);
+        if (null != value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value for " + name + ", using default " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Registers a running recording session.
+     *
+     * @param session     - the running recording session
+     * @param maxDuration - the maximum recording time requested by the client in milliseconds,
+     *                    0 or less to use the server maximum. It is never allowed to exceed the server maximum.
+     * @return the id the client uses to stop the session
+     */
+    public static String register(final RecordingSession session, final long maxDuration) {
+        long lifetime = maxDuration > 0 ? Math.min(maxDuration, MAX_SESSION_TIME) : MAX_SESSION_TIME;
+        String sessionId = UUID.randomUUID().toString();
+        SESSIONS.put(sessionId, new Entry(session, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lifetime)));
+        LOG.info("Recording session {} started, maximum lifetime {} ms", sessionId, lifetime);
+        return sessionId;
+    }
+
+    /**
+     * Returns a session without stopping it.
+     *
+     * @param sessionId - the id returned by register
+     * @return the session or null if there is no such session or it has already been cleaned up
+     */
+    public static RecordingSession get(final String sessionId) {
+        Entry entry = sessionId == null ? null : SESSIONS.get(sessionId);
+        return entry == null ? null : entry.session;
+    }
+
+    /**
+     * Stops the session and forgets about it.
+     *
+     * @param sessionId - the id returned by register
+     * @return the stopped session or null if there is no such session or it has already been cleaned up
+     * @throws AudioException - exception in stopping the recording
+     */
+    public static RecordingSession stop(final String sessionId) throws AudioException {
+        if (sessionId == null) {
+            return null;
+        }
+        Entry entry = SESSIONS.remove(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        entry.session.stop();
+        LOG.info("Recording session {} stopped after {} ms", sessionId, entry.session.getElapsedMillis());
+        return entry.session;
+    }
+
+    /**
+     * Stops sessions that reached their lifetime and drops stopped sessions nobody collected.
+     */
+    private static void reap() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Entry>> iterator = SESSIONS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = iterator.next();
+            Entry entry = mapEntry.getValue();
+            if (now - entry.deadline < 0) {
+                continue;
+            }
+            if (!entry.session.isStopped()) {
+                try {
+                    entry.session.stop();
+                    LOG.warn("Recording session {} reached its maximum lifetime and was stopped", mapEntry.getKey());
+                } catch (AudioException e) {
+                    LOG.error("Failed to stop recording session " + mapEntry.getKey() + ": " + e.getMessage());
+                }
+                entry.deadline = now + TimeUnit.MILLISECONDS.toNanos(SESSION_RETENTION);
+            } else {
+                iterator.remove();
+                LOG.warn("Recording session {} was never collected and has been discarded", mapEntry.getKey());
+            }
+        }
+    }
+
+    /**
+     * A registered session with the time at which the reaper acts on it next.
+     */
+    private static final class Entry {
+        private final RecordingSession session;
+        private volatile long deadline;
+
+        private Entry(final RecordingSession session, final long deadline) {
+            this.session = session;
+            this.deadline = deadline;
+        }
+    }
+}
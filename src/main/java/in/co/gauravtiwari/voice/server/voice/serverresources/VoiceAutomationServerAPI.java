@@ -16,33 +16,94 @@
 
 package in.co.gauravtiwari.voice.server.voice.serverresources;
 
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioComparator;
 import in.co.gauravtiwari.voice.server.audio.implementation.AudioException;
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioPlayRecorder;
 import in.co.gauravtiwari.voice.server.audio.implementation.AudioPlayer;
 import in.co.gauravtiwari.voice.server.audio.implementation.AudioRecorder;
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioUtility;
+import in.co.gauravtiwari.voice.server.audio.implementation.ComparisonResult;
+import in.co.gauravtiwari.voice.server.audio.implementation.MixerIndex;
+import in.co.gauravtiwari.voice.server.audio.implementation.PlayRecordResult;
+import in.co.gauravtiwari.voice.server.audio.implementation.RecordingEncoding;
+import in.co.gauravtiwari.voice.server.audio.implementation.RecordingSession;
+import in.co.gauravtiwari.voice.server.audio.implementation.SignalStatistics;
+import in.co.gauravtiwari.voice.server.metrics.PhaseTimings;
 import in.co.gauravtiwari.voice.server.voice.design.VoiceAutomationServerAPIModel;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationComparison;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationLineCapabilities;
 import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessage;
 import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMessageStatus;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationMixerCapabilities;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationPoolStatistics;
+import in.co.gauravtiwari.voice.server.voice.messagemodel.VoiceAutomationSignalStatistics;
+import in.co.gauravtiwari.voice.server.voice.server.DevicePriority;
+import in.co.gauravtiwari.voice.server.voice.server.DeviceScheduler;
+import in.co.gauravtiwari.voice.server.voice.server.ExecutionPool;
+import in.co.gauravtiwari.voice.server.voice.server.ExecutionPools;
+import in.co.gauravtiwari.voice.server.voice.server.Preloader;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A resource class that gets loaded in voice.
  * This resource class provides the mapping from API paths to functions.
  * All APIs accept HTTP POST requests with Json and returns a response in Json.
  * The response is VoiceAutomationMessage and serialized into a Json payload.
+ * <p>
+ * The APIs returning audio also answer in application/octet-stream or multipart/mixed when the client asks for
+ * it in the Accept header, and play accepts the audio itself in the same two forms, see AudioTransport.
+ * <p>
+ * The responses are suspended and the calls run in the execution pools, see AsyncCalls. Playbacks and recordings
+ * resume their response when they end, no thread waits for them.
+ * <p>
+ * A request with timed set, or with an X-Timing header, gets the timing breakdown of its phases in the timings of
+ * the response and in its X-Timing header, see PhaseTimings.
+ * <p>
+ * A request with dryRun set, or any request with -DdryRun=true, plays to and records from the dry run mixer, see
+ * VirtualAudio.getDryRunMixer. It answers like a run on a device, with the audio of -DdryRunInput as the recording,
+ * without waiting for the audio to play.
+ * <p>
+ * With -DdeviceScheduler=true the calls on a device wait for it in the DeviceScheduler, by their priority and
+ * client id. The open-ended recordings of record/start are not scheduled, they have no length to queue them by.
  */
 @Path("/")
 public class VoiceAutomationServerAPI implements VoiceAutomationServerAPIModel {
     private static final Logger LOG = LoggerFactory.getLogger(VoiceAutomationServerAPI.class);
 
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+
+    @Context
+    private HttpHeaders headers;
+
     /**
      * The load voice file from url API.
      */
@@ -50,21 +111,57 @@ public class VoiceAutomationServerAPI implements VoiceAutomationServerAPIModel {
     @POST
     @Path("load")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response load(final VoiceAutomationMessage request) {
+    public void load(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
         LOG.info("entered load controller");
-        String voiceFileUrl = request.getVoiceFilePath();
-        VoiceAutomationMessage vam;
-        LOG.info("file url {}", voiceFileUrl);
-        try {
-            String fileName = VoiceAutomationServerUtils.downloadVoiceFile(voiceFileUrl);
-            vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Loaded", fileName);
-            LOG.info("loaded file {}", fileName);
-        } catch (DownloadVoiceFileException e) {
-            vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
-            LOG.info("exception loading file");
-        }
+        boolean timed = isTimed(request);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.run(ExecutionPools.NETWORK, asyncResponse, () -> {
+            timings.mark("dispatched");
+            String voiceFileUrl = request.getVoiceFilePath();
+            VoiceAutomationMessage vam;
+            LOG.info("file url {}", voiceFileUrl);
+            try {
+                String fileName = VoiceAutomationServerUtils.loadVoiceFile(voiceFileUrl);
+                timings.mark("downloaded");
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Loaded", fileName);
+                LOG.info("loaded file {}", fileName);
+            } catch (DownloadVoiceFileException e) {
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
+                LOG.info("exception loading file");
+            }
+            return withTimings(AsyncCalls.ok(vam), timings, timed);
+        });
+    }
 
-        return Response.status(Response.Status.OK).entity(vam).build();
+    /**
+     * The upload voice file from request body API.
+     */
+    @Override
+    @POST
+    @Path("upload")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void upload(final InputStream body, @Suspended final AsyncResponse asyncResponse) {
+        boolean timed = isTimed(null);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.run(ExecutionPools.NETWORK, asyncResponse, () -> {
+            timings.mark("dispatched");
+            VoiceAutomationMessage vam;
+            try {
+                MessageDigest digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+                String fileName = VoiceAutomationServerUtils.storeVoiceFile(body, digest);
+                timings.mark("received");
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Uploaded", fileName);
+                vam.setContentHash(AudioUtility.toHex(digest.digest()));
+                vam.setPayloadBytes(VoiceAutomationServerUtils.getVoiceFile(fileName).length());
+                LOG.info("uploaded file {}", fileName);
+            } catch (NoSuchAlgorithmException e) {
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
+            } catch (DownloadVoiceFileException e) {
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
+                LOG.info("exception uploading file");
+            }
+            return withTimings(AsyncCalls.ok(vam), timings, timed);
+        });
     }
 
     /**
@@ -74,87 +171,757 @@ public class VoiceAutomationServerAPI implements VoiceAutomationServerAPIModel {
     @POST
     @Path("play")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response play(final VoiceAutomationMessage request) {
-        VoiceAutomationMessage vam;
-        String fileName = request.getVoiceFilePath();
-        String portNumberStr = System.getProperty("audioPort");
+    public void play(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        boolean timed = isTimed(request);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.submit(ExecutionPools.DEVICE, asyncResponse, () -> {
+            timings.mark("dispatched");
+            return startPlayback(VoiceAutomationServerUtils.getVoiceFile(request.getVoiceFilePath()), request, false, timings)
+                    .thenApply(response -> withTimings(response, timings, timed));
+        });
+    }
 
-        if (portNumberStr != null && !portNumberStr.isEmpty()) {
+    /**
+     * The play voice sent as the raw request body to device API.
+     */
+    @Override
+    @POST
+    @Path("play")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void playStream(final InputStream body, @QueryParam("mixerNumber") final Integer mixerNumber,
+                           @QueryParam("mixerName") final String mixerName, @QueryParam("dryRun") final Boolean dryRun,
+                           @QueryParam("clientId") final String clientId, @QueryParam("priority") final String priority,
+                           @Suspended final AsyncResponse asyncResponse) {
+        VoiceAutomationMessage request = new VoiceAutomationMessage();
+        request.setClientId(clientId);
+        request.setPriority(priority);
+        request.setMixerNumber(mixerNumber);
+        request.setMixerName(mixerName);
+        request.setDryRun(dryRun);
+        boolean timed = isTimed(null);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.submit(ExecutionPools.DEVICE, asyncResponse, () -> {
+            timings.mark("dispatched");
+            return playUploadedVoice(body, request, timings).thenApply(response -> withTimings(response, timings, timed));
+        });
+    }
+
+    /**
+     * The play voice sent as a multipart request to device API.
+     */
+    @Override
+    @POST
+    @Path("play")
+    @Consumes(AudioTransport.MULTIPART_MIXED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void playMultipart(final InputStream body, @Suspended final AsyncResponse asyncResponse) {
+        MediaType contentType = headers.getMediaType();
+        // whether the breakdown is wanted is only known once the Json part is read
+        PhaseTimings timings = PhaseTimings.start();
+        boolean timingHeader = isTimed(null);
+        AsyncCalls.submit(ExecutionPools.DEVICE, asyncResponse, () -> {
+            timings.mark("dispatched");
             try {
-                int portNumber = Integer.parseInt(portNumberStr);
-                //if file is a local file
-                if (fileName.contains(File.separator)) {
-                    //file is a local file, then create a file
-                    File localFile = new File(fileName);
-                    if (localFile.isFile()) {
-                        AudioPlayer.playAudio(localFile, portNumber);
-                    }
-                } else {
-                    AudioPlayer.playAudio(new File(VoiceAutomationServerUtils.DOWNLOAD_BASE_DIR + fileName), portNumber);
-                }
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Played");
+                MultipartMixedReader reader = AudioTransport.openMultipart(body, contentType);
+                VoiceAutomationMessage request = AudioTransport.readMultipartMessage(reader);
+                boolean timed = timingHeader || request.isTimed();
+                return playUploadedVoice(reader.getPartStream(), request, timings)
+                        .thenApply(response -> withTimings(response, timings, timed));
+            } catch (IOException e) {
+                return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * The record audio from device api
+     */
+    @Override
+    @POST
+    @Path("record")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, AudioTransport.MULTIPART_MIXED})
+    public void record(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        MediaType mediaType = AudioTransport.selectMediaType(headers);
+        boolean timed = isTimed(request);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.submit(ExecutionPools.DEVICE, asyncResponse, () -> {
+            timings.mark("dispatched");
+            return startTimedRecording(request, mediaType, timings, timed)
+                    .thenApply(response -> withTimings(response, timings, timed));
+        });
+    }
+
+    /**
+     * The start open-ended recording from device api
+     */
+    @Override
+    @POST
+    @Path("record/start")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void startRecording(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        AsyncCalls.run(ExecutionPools.CONTROL, asyncResponse, () -> {
+            VoiceAutomationMessage vam;
+            try {
+                RecordingSession session = AudioRecorder.startRecording(AudioRecorder.getDefaultAudioFormat(),
+                        getMixer(request), getRecordingEncoding(request), getRecordingSampleRate(request),
+                        PhaseTimings.disabled());
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Recording started");
+                vam.setSessionId(RecordingSessionManager.register(session, request.getRecordingDuration()));
             } catch (NumberFormatException e) {
                 vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unable to convert audio port to integer");
+            } catch (IllegalArgumentException e) {
+                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unsupported recording encoding " + request.getRecordingEncoding());
             } catch (AudioException e) {
                 vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
             }
-        } else {
-            LOG.info("No audio port set, using default 0");
+            return AsyncCalls.ok(vam);
+        });
+    }
+
+    /**
+     * The stop open-ended recording api
+     */
+    @Override
+    @POST
+    @Path("record/stop")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, AudioTransport.MULTIPART_MIXED})
+    public void stopRecording(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        MediaType mediaType = AudioTransport.selectMediaType(headers);
+        AsyncCalls.run(ExecutionPools.CONTROL, asyncResponse, () -> {
+            RecordingSession session = RecordingSessionManager.stop(request.getSessionId());
+            if (session == null) {
+                return AsyncCalls.ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unknown or expired recording session"));
+            }
+            return getRecordedResponse(session, request, mediaType, PhaseTimings.disabled(), false);
+        });
+    }
+
+    /**
+     * The play voice to device and record its reply api
+     */
+    @Override
+    @POST
+    @Path("playrecord")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, AudioTransport.MULTIPART_MIXED})
+    public void playAndRecord(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        MediaType mediaType = AudioTransport.selectMediaType(headers);
+        boolean timed = isTimed(request);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.submit(ExecutionPools.DEVICE, asyncResponse, () -> {
+            timings.mark("dispatched");
+            return startPlayAndRecord(request, mediaType, timings, timed)
+                    .thenApply(response -> withTimings(response, timings, timed));
+        });
+    }
+
+    /**
+     * The measure round-trip latency through a loopback api
+     */
+    @Override
+    @POST
+    @Path("playrecord/calibrate")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void calibrate(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        // the calibration lasts about a second, it holds its device thread
+        AsyncCalls.submit(ExecutionPools.DEVICE, asyncResponse, () -> {
             try {
-                //if file is a local file
-                if (fileName.contains(File.separator)) {
-                    //file is a local file, then create a file
-                    File localFile = new File(fileName);
-                    if (localFile.isFile()) {
-                        AudioPlayer.playAudio(localFile);
+                MixerIndex.Entry playMixer = getMixer(request);
+                MixerIndex.Entry recordMixer = getRecordMixer(request, playMixer);
+                return onDevices(playMixer, recordMixer, request, 0, PhaseTimings.disabled(), () -> {
+                    long latency = AudioPlayRecorder.calibrate(playMixer, recordMixer);
+                    VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Calibrated");
+                    vam.setLatencyFrames(latency);
+                    return AsyncCalls.completed(vam);
+                });
+            } catch (NumberFormatException e) {
+                return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unable to convert audio port to integer"));
+            } catch (AudioException e) {
+                return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * The compare recording with reference api. The recording is the audio of the recording session of sessionId,
+     * which is stopped, or else the voice file of voiceFilePath.
+     */
+    @Override
+    @POST
+    @Path("compare")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void compare(final VoiceAutomationMessage request, @Suspended final AsyncResponse asyncResponse) {
+        boolean timed = isTimed(request);
+        PhaseTimings timings = timed ? PhaseTimings.start() : PhaseTimings.disabled();
+        AsyncCalls.run(ExecutionPools.COMPUTE, asyncResponse, () -> {
+            timings.mark("dispatched");
+            if (request.getReferenceFilePath() == null) {
+                return AsyncCalls.ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "No reference file to compare with"));
+            }
+            File reference = VoiceAutomationServerUtils.getVoiceFile(request.getReferenceFilePath());
+            VoiceAutomationMessage vam;
+            try {
+                ComparisonResult result;
+                if (request.getSessionId() != null) {
+                    RecordingSession session = RecordingSessionManager.get(request.getSessionId());
+                    if (session != null && !AudioComparator.isSupported(session.getAudioFormat())) {
+                        // the session keeps recording, its audio can still be collected by record/stop
+                        return AsyncCalls.ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL,
+                                "A recording encoded as " + session.getEncoding() + " cannot be compared"));
                     }
+                    session = RecordingSessionManager.stop(request.getSessionId());
+                    if (session == null) {
+                        return AsyncCalls.ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unknown or expired recording session"));
+                    }
+                    vam = getRecordedMessage(session);
+                    vam.setSessionId(request.getSessionId());
+                    timings.mark("recorded");
+                    result = AudioComparator.compare(session.stop(), session.getAudioFormat(), reference);
+                } else if (request.getVoiceFilePath() != null) {
+                    result = AudioComparator.compare(VoiceAutomationServerUtils.getVoiceFile(request.getVoiceFilePath()), reference);
+                    vam = new VoiceAutomationMessage();
+                    vam.setVoiceFilePath(request.getVoiceFilePath());
                 } else {
-                    AudioPlayer.playAudio(new File(VoiceAutomationServerUtils.DOWNLOAD_BASE_DIR + fileName));
+                    return AsyncCalls.ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "No recording to compare"));
                 }
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Played");
+                timings.mark("compared");
+                vam.setStatus(VoiceAutomationMessageStatus.SUCCESS);
+                vam.setMessage("Compared");
+                vam.setReferenceFilePath(request.getReferenceFilePath());
+                vam.setComparison(getComparison(result));
             } catch (AudioException e) {
                 vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
             }
+            return withTimings(AsyncCalls.ok(vam), timings, timed);
+        });
+    }
+
+    /**
+     * The execution pool utilization api
+     */
+    @Override
+    @GET
+    @Path("pools")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response pools() {
+        List<VoiceAutomationPoolStatistics> pools = new ArrayList<>();
+        for (ExecutionPool pool : ExecutionPools.getPools()) {
+            VoiceAutomationPoolStatistics statistics = new VoiceAutomationPoolStatistics();
+            statistics.setName(pool.getName());
+            statistics.setVirtualThreads(pool.isVirtualThreads());
+            statistics.setMaxThreads(pool.getMaxThreads());
+            statistics.setActiveThreads(pool.getActiveThreads());
+            statistics.setQueuedTasks(pool.getQueuedTasks());
+            statistics.setQueueCapacity(pool.getQueueCapacity());
+            statistics.setOperations(pool.getOperations());
+            statistics.setMaxOperations(pool.getMaxOperations());
+            statistics.setCompletedTasks(pool.getCompletedTasks());
+            statistics.setRejectedTasks(pool.getRejectedTasks());
+            statistics.setUtilization(pool.getUtilization());
+            pools.add(statistics);
         }
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Pools");
+        vam.setPools(pools);
         return Response.status(Response.Status.OK).entity(vam).build();
     }
 
     /**
-     * The record audio from device api
+     * The voice file api, it serves the voice files downloaded or uploaded to this server to the other nodes of a
+     * cluster
      */
     @Override
-    @POST
-    @Path("record")
+    @GET
+    @Path("files/{fileName}")
+    public Response file(@PathParam("fileName") final String fileName) {
+        File voiceFile = new File(VoiceAutomationServerUtils.DOWNLOAD_BASE_DIR + fileName);
+        String extension = FilenameUtils.getExtension(fileName);
+        if (!FilenameUtils.getName(fileName).equals(fileName) || !voiceFile.isFile()
+                || !("wav".equals(extension) || "mp3".equals(extension))) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "No voice file " + fileName))
+                    .build();
+        }
+        return Response.ok(voiceFile, "wav".equals(extension) ? "audio/wav" : "audio/mpeg").build();
+    }
+
+    /**
+     * The mixer capabilities api
+     */
+    @Override
+    @GET
+    @Path("mixers")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response record(final VoiceAutomationMessage request) {
-        VoiceAutomationMessage vam;
-        String portNumberStr = System.getProperty("audioPort");
-        long recodingDuration = request.getRecordingDuration();
-        if (portNumberStr != null && !portNumberStr.isEmpty()) {
+    public Response mixers(@QueryParam("refresh") final boolean refresh) {
+        if (refresh) {
+            MixerIndex.refresh();
+        }
+        List<VoiceAutomationMixerCapabilities> mixers = new ArrayList<>();
+        for (MixerIndex.Entry entry : MixerIndex.getEntries()) {
+            Mixer.Info info = entry.getMixer().getMixerInfo();
+            VoiceAutomationMixerCapabilities capabilities = new VoiceAutomationMixerCapabilities();
+            capabilities.setNumber(entry.getNumber());
+            capabilities.setName(entry.getName());
+            capabilities.setVendor(info.getVendor());
+            capabilities.setDescription(info.getDescription());
+            capabilities.setSourceLines(getLineCapabilities(entry.getSourceLines()));
+            capabilities.setTargetLines(getLineCapabilities(entry.getTargetLines()));
+            mixers.add(capabilities);
+        }
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Mixers");
+        vam.setMixers(mixers);
+        return Response.status(Response.Status.OK).entity(vam).build();
+    }
+
+    /**
+     * The readiness api
+     */
+    @Override
+    @GET
+    @Path("ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response ready() {
+        if (!Preloader.isReady()) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL,
+                            "Warming up, " + Preloader.getProgress()))
+                    .build();
+        }
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS,
+                "Ready, " + Preloader.getProgress());
+        return Response.status(Response.Status.OK).entity(vam).build();
+    }
+
+    /**
+     * Starts a recording of the requested duration
+     *
+     * @param request   - the request from the client
+     * @param mediaType - the representation of the response
+     * @param timings   - the timing breakdown of the request
+     * @param timed     - whether the response carries the timing breakdown
+     * @return the stage completed with the response once the recording has stopped
+     */
+    private static CompletableFuture<Response> startTimedRecording(final VoiceAutomationMessage request, final MediaType mediaType,
+                                                                   final PhaseTimings timings, final boolean timed) {
+        CompletableFuture<Response> response;
+        try {
+            MixerIndex.Entry mixer = getMixer(request);
+            RecordingEncoding encoding = getRecordingEncoding(request);
+            float sampleRate = getRecordingSampleRate(request);
+            response = onDevice(mixer, request, request.getRecordingDuration(), timings,
+                    () -> AudioRecorder.startTimedRecording(request.getRecordingDuration(), mixer, encoding, sampleRate, timings)
+                            .thenApply(session -> getRecordedResponse(session, request, mediaType, timings, timed)));
+        } catch (NumberFormatException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unable to convert audio port to integer"));
+        } catch (IllegalArgumentException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unsupported recording encoding " + request.getRecordingEncoding()));
+        } catch (AudioException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+        }
+        return response;
+    }
+
+    /**
+     * Starts playing a voice file to the device while recording its reply
+     *
+     * @param request   - the request from the client
+     * @param mediaType - the representation of the response
+     * @param timings   - the timing breakdown of the request
+     * @param timed     - whether the response carries the timing breakdown
+     * @return the stage completed with the response once the recording has stopped
+     */
+    private static CompletableFuture<Response> startPlayAndRecord(final VoiceAutomationMessage request, final MediaType mediaType,
+                                                                  final PhaseTimings timings, final boolean timed) {
+        CompletableFuture<Response> response;
+        try {
+            MixerIndex.Entry playMixer = getMixer(request);
+            MixerIndex.Entry recordMixer = getRecordMixer(request, playMixer);
+            File voiceFile = VoiceAutomationServerUtils.getVoiceFile(request.getVoiceFilePath());
+            response = onDevices(playMixer, recordMixer, request, request.getRecordingDuration(), timings,
+                    () -> AudioPlayRecorder.startPlayAndRecord(voiceFile, playMixer, recordMixer,
+                            request.getRecordingDuration(), timings)
+                            .thenApply(result -> getPlayRecordResponse(result, request, mediaType, timings, timed)));
+        } catch (NumberFormatException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unable to convert audio port to integer"));
+        } catch (AudioException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+        }
+        return response;
+    }
+
+    /**
+     * Builds the response to a play and record call
+     *
+     * @param result    - the played and recorded audio
+     * @param request   - the request from the client
+     * @param mediaType - the representation of the response
+     * @param timings   - the timing breakdown of the request
+     * @param timed     - whether the response carries the timing breakdown
+     * @return the response
+     */
+    private static Response getPlayRecordResponse(final PlayRecordResult result, final VoiceAutomationMessage request,
+                                                  final MediaType mediaType, final PhaseTimings timings, final boolean timed) {
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Played and recorded");
+        vam.setSignalStatistics(getSignalStatistics(result.getStatistics()));
+        vam.setPlaybackStartFrame(result.getPlaybackStartFrame());
+        vam.setPlaybackEndFrame(result.getPlaybackEndFrame());
+        vam.setLatencyFrames(result.getLatencyFrames());
+        if (timed) {
+            vam.setTimings(timings.toMap());
+        }
+        return request.isStatisticsOnly()
+                ? AsyncCalls.ok(vam)
+                : AudioTransport.buildResponse(vam, result.getAudio(), result.getAudioFormat(), mediaType);
+    }
+
+    /**
+     * Starts playing a voice file to the device
+     *
+     * @param voiceFile  - the voice file
+     * @param request    - the request from the client, for the mixer to play to
+     * @param deleteFile - whether the voice file is deleted once played
+     * @param timings    - the timing breakdown of the request
+     * @return the stage completed with the response once the playback has ended
+     */
+    private static CompletableFuture<Response> startPlayback(final File voiceFile, final VoiceAutomationMessage request,
+                                                             final boolean deleteFile, final PhaseTimings timings) {
+        CompletableFuture<Response> response;
+        try {
+            MixerIndex.Entry mixer = getMixer(request);
+            response = onDevice(mixer, request, 0, timings, () -> AudioPlayer.startAudio(voiceFile, mixer, null, timings)
+                    .thenApply(ignored -> AsyncCalls.ok(new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Played"))));
+        } catch (NumberFormatException e) {
+            response = AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unable to convert audio port to integer"));
+        } catch (AudioException e) {
+            response = AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+        }
+        if (deleteFile) {
+            response.whenComplete((ignored, error) -> {
+                if (!voiceFile.delete()) {
+                    LOG.warn("Unable to delete voice file {}", voiceFile);
+                }
+            });
+        }
+        return response;
+    }
+
+    /**
+     * Saves the voice sent in a request and starts playing it to the device, it is deleted once played
+     *
+     * @param audio   - the voice file content
+     * @param request - the request from the client, for the mixer to play to
+     * @param timings - the timing breakdown of the request
+     * @return the stage completed with the response once the playback has ended
+     */
+    private static CompletableFuture<Response> playUploadedVoice(final InputStream audio, final VoiceAutomationMessage request,
+                                                                 final PhaseTimings timings) {
+        try {
+            File voiceFile = VoiceAutomationServerUtils.getVoiceFile(VoiceAutomationServerUtils.storeVoiceFile(audio));
+            timings.mark("received");
+            return startPlayback(voiceFile, request, true, timings);
+        } catch (DownloadVoiceFileException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+        }
+    }
+
+    /**
+     * Starts a call on a device, through the DeviceScheduler when it schedules the mixer: the call then waits for a
+     * free slot in the order of its priority and client id, and fails when it waits past its deadline or is taken
+     * off the device
+     *
+     * @param mixer      - the entry of the mixer the call holds
+     * @param request    - the request from the client, for its client id, priority and deadline
+     * @param costMillis - how long the call holds the mixer, 0 when unknown
+     * @param timings    - the timing breakdown of the request
+     * @param call       - starts the call
+     * @return the stage completed with the response of the call
+     * @throws AudioException - when the call fails to start at once
+     */
+    private static CompletableFuture<Response> onDevice(final MixerIndex.Entry mixer,
+                                                        final VoiceAutomationMessage request,
+                                                        final long costMillis, final PhaseTimings timings,
+                                                        final DeviceCall call) throws AudioException {
+        if (!DeviceScheduler.isScheduled(mixer)) {
+            return call.start();
+        }
+        DevicePriority priority;
+        try {
+            priority = DevicePriority.parse(request.getPriority());
+        } catch (IllegalArgumentException e) {
+            return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unsupported priority " + request.getPriority()));
+        }
+        long deadline = request.getDeadlineMillis() == null ? 0 : request.getDeadlineMillis();
+        return DeviceScheduler.schedule(mixer, request.getClientId(), priority, costMillis, deadline, () -> {
+            timings.mark("deviceGranted");
             try {
-                int portNumber = Integer.parseInt(portNumberStr);
-                ByteArrayOutputStream byteArrayOutputStream = AudioRecorder.record(recodingDuration, portNumber);
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Recorded");
-                vam.setAudioData(byteArrayOutputStream.toByteArray());
-                LOG.info(vam.getVoiceFilePath());
-            } catch (NumberFormatException e) {
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, "Unable to convert audio port to integer");
+                return call.start();
             } catch (AudioException e) {
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
+                return AsyncCalls.completed(new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Starts a call on two devices, a playback mixer and a record mixer, through the DeviceScheduler when it schedules
+     * them. Two different mixers are taken one after the other, in the order of their names, so two calls wanting the
+     * same two mixers never hold one each while waiting for the other.
+     *
+     * @param playMixer   - the mixer the call plays to
+     * @param recordMixer - the mixer the call records from
+     * @param request     - the request from the client, for its client id, priority and deadline
+     * @param costMillis  - how long the call holds the mixers, 0 when unknown
+     * @param timings     - the timing breakdown of the request
+     * @param call        - starts the call
+     * @return the stage completed with the response of the call
+     * @throws AudioException - when the call fails to start at once
+     */
+    private static CompletableFuture<Response> onDevices(final MixerIndex.Entry playMixer,
+                                                         final MixerIndex.Entry recordMixer,
+                                                         final VoiceAutomationMessage request, final long costMillis,
+                                                         final PhaseTimings timings, final DeviceCall call) throws AudioException {
+        int order = playMixer.getName().compareTo(recordMixer.getName());
+        if (order == 0) {
+            return onDevice(playMixer, request, costMillis, timings, call);
+        }
+        MixerIndex.Entry first = order < 0 ? playMixer : recordMixer;
+        MixerIndex.Entry second = order < 0 ? recordMixer : playMixer;
+        return onDevice(first, request, costMillis, timings, () -> onDevice(second, request, costMillis, timings, call));
+    }
+
+    /**
+     * Checks whether a request asked for its timing breakdown, in its message or with an X-Timing header.
+     * It must be called on the container thread.
+     *
+     * @param request - the request from the client, null for requests without a message
+     * @return true if the response carries the timing breakdown
+     */
+    private boolean isTimed(final VoiceAutomationMessage request) {
+        return request != null && request.isTimed() || headers != null && headers.getHeaderString(PhaseTimings.HEADER) != null;
+    }
+
+    /**
+     * Adds the timing breakdown to a response, in its message when it is Json and in the X-Timing header
+     *
+     * @param response - the response
+     * @param timings  - the timing breakdown of the request
+     * @param timed    - whether the request asked for the timing breakdown
+     * @return the response with the timing breakdown
+     */
+    private static Response withTimings(final Response response, final PhaseTimings timings, final boolean timed) {
+        if (!timed) {
+            return response;
+        }
+        timings.mark("responded");
+        if (response.getEntity() instanceof VoiceAutomationMessage) {
+            ((VoiceAutomationMessage) response.getEntity()).setTimings(timings.toMap());
+        }
+        return Response.fromResponse(response).header(PhaseTimings.HEADER, timings.toHeader()).build();
+    }
+
+    /**
+     * Creates the response carrying the audio of a stopped recording session, in the representation the client accepts
+     *
+     * @param session   - the stopped recording session
+     * @param request   - the request from the client
+     * @param mediaType - the representation of the response
+     * @param timings   - the timing breakdown of the request
+     * @param timed     - whether the response carries the timing breakdown
+     * @return the response to the client
+     */
+    private static Response getRecordedResponse(final RecordingSession session, final VoiceAutomationMessage request,
+                                                final MediaType mediaType, final PhaseTimings timings,
+                                                final boolean timed) {
+        VoiceAutomationMessage vam;
+        ByteArrayOutputStream audio = null;
+        AudioFormat audioFormat = null;
+        try {
+            vam = getRecordedMessage(session);
+            vam.setSessionId(request.getSessionId());
+            if (!request.isStatisticsOnly()) {
+                audio = session.stop();
+                audioFormat = session.getAudioFormat();
             }
-        } else {
-            LOG.info("No audio port set, using default 0");
+        } catch (AudioException e) {
+            vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
+        }
+        if (request.getVoiceFilePath() != null && vam.getStatus() == VoiceAutomationMessageStatus.SUCCESS) {
+            // the session is already gone, a failed write must not lose the recording as well
             try {
-                ByteArrayOutputStream byteArrayOutputStream = AudioRecorder.record(recodingDuration);
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Recorded");
-                vam.setAudioData(byteArrayOutputStream.toByteArray());
-                LOG.info(vam.getVoiceFilePath());
+                LOG.info("Generating audio wav file from recording ");
+                AudioRecorder.generateFile(session.stop(), session.getAudioFormat(),
+                        new File(request.getVoiceFilePath()));
             } catch (AudioException e) {
-                vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.FAIL, e.getMessage());
+                vam.setStatus(VoiceAutomationMessageStatus.FAIL);
+                vam.setMessage("Recorded, but unable to write " + request.getVoiceFilePath() + ": " + e.getMessage());
             }
         }
-        LOG.info("Generating audio wav file from recording ");
-        AudioRecorder.generateFile(vam.getAudioData(),new File(request.getVoiceFilePath()));
-        return Response.status(Response.Status.OK).entity(vam).build();
+        if (timed) {
+            vam.setTimings(timings.toMap());
+        }
+        return AudioTransport.buildResponse(vam, audio, audioFormat, mediaType);
+    }
+
+    /**
+     * Creates the response for a stopped recording session, the recorded audio is added by AudioTransport
+     *
+     * @param session - the stopped recording session
+     * @return the response describing the recorded audio and how it was encoded
+     * @throws AudioException - exception in stopping the recording
+     */
+    private static VoiceAutomationMessage getRecordedMessage(final RecordingSession session) throws AudioException {
+        VoiceAutomationMessage vam = new VoiceAutomationMessage(VoiceAutomationMessageStatus.SUCCESS, "Recorded");
+        int audioLength = session.stop().size();
+        double seconds = session.getCapturedFrames() / (double) session.getCaptureFormat().getFrameRate();
+        vam.setRecordingDuration(session.getElapsedMillis());
+        vam.setRecordingEncoding(session.getEncoding().name());
+        vam.setRecordingSampleRate(session.getAudioFormat().getSampleRate());
+        vam.setPayloadBytes((long) audioLength);
+        vam.setEncodeMicrosPerSecond(seconds > 0 ? (long) (session.getEncodeNanos() / 1000 / seconds) : 0);
+        vam.setSignalStatistics(getSignalStatistics(session.getStatistics()));
+        return vam;
+    }
+
+    /**
+     * Copies the statistics of a recorded signal into their message form
+     *
+     * @param statistics - the statistics computed during the capture, may be null
+     * @return the statistics for the response, null if there are none
+     */
+    private static VoiceAutomationSignalStatistics getSignalStatistics(final SignalStatistics statistics) {
+        if (statistics == null) {
+            return null;
+        }
+        VoiceAutomationSignalStatistics signalStatistics = new VoiceAutomationSignalStatistics();
+        signalStatistics.setSamples(statistics.getSamples());
+        signalStatistics.setRmsDbfs(statistics.getRmsDbfs());
+        signalStatistics.setPeakDbfs(statistics.getPeakDbfs());
+        signalStatistics.setClippedSamples(statistics.getClippedSamples());
+        signalStatistics.setDcOffset(statistics.getDcOffset());
+        signalStatistics.setSilenceRatio(statistics.getSilenceRatio());
+        return signalStatistics;
+    }
+
+    /**
+     * Copies the outcome of a comparison into its message form
+     *
+     * @param result - the outcome of the comparison
+     * @return the comparison for the response
+     */
+    private static VoiceAutomationComparison getComparison(final ComparisonResult result) {
+        VoiceAutomationComparison comparison = new VoiceAutomationComparison();
+        comparison.setLagFrames(result.getLagFrames());
+        comparison.setLagMillis(result.getLagMillis());
+        comparison.setSimilarity(result.getSimilarity());
+        comparison.setSnrDb(result.getSnrDb());
+        comparison.setChannel(result.getChannel());
+        return comparison;
+    }
+
+    /**
+     * Returns the encoding requested by the client, PCM when not set
+     *
+     * @param request - the request from the client
+     * @return the recording encoding
+     * @throws IllegalArgumentException - when the encoding is not one of RecordingEncoding
+     */
+    private static RecordingEncoding getRecordingEncoding(final VoiceAutomationMessage request) {
+        String encoding = request.getRecordingEncoding();
+        return encoding == null || encoding.isEmpty() ? RecordingEncoding.PCM : RecordingEncoding.valueOf(encoding.toUpperCase());
+    }
+
+    /**
+     * Returns the sample rate requested by the client for downsampled recordings, the capture rate when not set
+     *
+     * @param request - the request from the client
+     * @return the sample rate
+     */
+    private static float getRecordingSampleRate(final VoiceAutomationMessage request) {
+        Float sampleRate = request.getRecordingSampleRate();
+        return sampleRate != null ? sampleRate : AudioRecorder.getDefaultAudioFormat().getSampleRate();
+    }
+
+
+    /**
+     * Describes the lines of a mixer
+     *
+     * @param lines - the lines of the mixer
+     * @return their descriptions
+     */
+    private static List<VoiceAutomationLineCapabilities> getLineCapabilities(final List<Line.Info> lines) {
+        List<VoiceAutomationLineCapabilities> capabilities = new ArrayList<>();
+        for (Line.Info line : lines) {
+            VoiceAutomationLineCapabilities capability = new VoiceAutomationLineCapabilities();
+            capability.setType(line.getLineClass().getSimpleName());
+            List<String> formats = new ArrayList<>();
+            if (line instanceof DataLine.Info) {
+                for (AudioFormat format : ((DataLine.Info) line).getFormats()) {
+                    formats.add(format.toString());
+                }
+            }
+            capability.setFormats(formats);
+            capabilities.add(capability);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Returns the mixer to record from requested by the client, by name or number, the mixer played to when not set
+     *
+     * @param request   - the request from the client
+     * @param playMixer - the mixer played to, as returned by getMixer
+     * @return the entry of the mixer, MixerIndex.DRY_RUN for dry runs
+     * @throws AudioException - when there is no mixer of the requested name or number
+     */
+    private static MixerIndex.Entry getRecordMixer(final VoiceAutomationMessage request,
+                                                   final MixerIndex.Entry playMixer) throws AudioException {
+        if (playMixer.isDryRun()) {
+            return playMixer;
+        }
+        if (request.getRecordMixerName() != null) {
+            return MixerIndex.getEntry(request.getRecordMixerName());
+        }
+        return request.getRecordMixerNumber() == null ? playMixer : MixerIndex.getEntry(request.getRecordMixerNumber());
+    }
+
+    /**
+     * Returns the mixer requested by the client by name or number, falling back to -DaudioPort and then to any
+     * suitable mixer. Dry runs, asked for in the request or with -DdryRun=true, use the dry run mixer whatever the
+     * mixer requested. The mixer is resolved here once: the call keeps addressing the same device when the mixer
+     * numbers change before it runs.
+     *
+     * @param request - the request from the client
+     * @return the entry of the mixer, MixerIndex.DEFAULT for any mixer or MixerIndex.DRY_RUN
+     * @throws NumberFormatException - when -DaudioPort is not an integer
+     * @throws AudioException        - when there is no mixer of the requested name or number
+     */
+    private static MixerIndex.Entry getMixer(final VoiceAutomationMessage request) throws AudioException {
+        Boolean dryRun = request.getDryRun();
+        if (dryRun != null ? dryRun : Boolean.getBoolean("dryRun")) {
+            return MixerIndex.DRY_RUN;
+        }
+        if (request.getMixerName() != null) {
+            return MixerIndex.getEntry(request.getMixerName());
+        }
+        if (request.getMixerNumber() != null) {
+            return MixerIndex.getEntry(request.getMixerNumber());
+        }
+        String portNumberStr = System.getProperty("audioPort");
+        if (portNumberStr != null && !portNumberStr.isEmpty()) {
+            return MixerIndex.getEntry(Integer.parseInt(portNumberStr));
+        }
+        return MixerIndex.DEFAULT;
+    }
+
+    /**
+     * Starts a call on a device
+     */
+    private interface DeviceCall {
+        /**
+         * Starts the call
+         *
+         * @return the stage completed with its response
+         * @throws AudioException - when the call fails to start
+         */
+        CompletableFuture<Response> start() throws AudioException;
     }
 }
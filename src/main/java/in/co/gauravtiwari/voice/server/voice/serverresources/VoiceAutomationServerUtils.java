@@ -16,6 +16,10 @@
 
 package in.co.gauravtiwari.voice.server.voice.serverresources;
 
+import in.co.gauravtiwari.voice.server.audio.implementation.AudioUtility;
+import in.co.gauravtiwari.voice.server.metrics.Counter;
+import in.co.gauravtiwari.voice.server.metrics.LatencyHistogram;
+import in.co.gauravtiwari.voice.server.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,10 +31,15 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * created by Gaurav Tiwari
@@ -51,6 +60,26 @@ public final class VoiceAutomationServerUtils {
     private static final Set<String> WAV_CONTENT_TYPES = new HashSet<>(
             Arrays.asList("audio/wav", "audio/x-wav", "audio/x-ms-wax")
     );
+    // bytes needed to recognize a voice file: RIFF, chunk size, WAVE
+    private static final int MAGIC_LENGTH = 12;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final LatencyHistogram DOWNLOAD = Metrics.histogram("voice_download_seconds",
+            "Time to download a voice file from its url");
+    private static final Counter DOWNLOADED_BYTES = Metrics.counter("voice_downloaded_bytes_total",
+            "Bytes of voice files downloaded from urls");
+    private static final Counter RECEIVED_BYTES = Metrics.counter("voice_received_bytes_total",
+            "Bytes of voice files received in request bodies");
+    private static final Counter DOWNLOAD_CACHE_HITS = Metrics.counter("voice_cache_requests_total",
+            "Lookups in the caches of the server", "cache", "download", "result", "hit");
+    private static final Counter DOWNLOAD_CACHE_MISSES = Metrics.counter("voice_cache_requests_total",
+            "Lookups in the caches of the server", "cache", "download", "result", "miss");
+    private static final Counter DOWNLOAD_INDEX_HITS = Metrics.counter("voice_cache_requests_total",
+            "Lookups in the caches of the server", "cache", "download_index", "result", "hit");
+    private static final Counter DOWNLOAD_INDEX_MISSES = Metrics.counter("voice_cache_requests_total",
+            "Lookups in the caches of the server", "cache", "download_index", "result", "miss");
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+    // file names of the voice files preloaded at startup, by url
+    private static final Map<String, String> PRELOADED = new ConcurrentHashMap<>();
 
     /**
      * Private constructor for VoiceAutomationServerUtils.
@@ -59,6 +88,121 @@ public final class VoiceAutomationServerUtils {
 
     }
 
+    /**
+     * Returns the voice file a client refers to, either a local file path or a file name returned by /load
+     *
+     * @param fileName - local file path or name of a downloaded voice file
+     * @return the voice file
+     */
+    public static File getVoiceFile(final String fileName) {
+        return fileName.contains(File.separator) ? new File(fileName) : new File(DOWNLOAD_BASE_DIR + fileName);
+    }
+
+    /**
+     * Saves a voice file sent in the body of a request. The body is streamed to the filesystem through a small
+     * buffer, and its format is recognized from its first bytes since there is no content type to rely on.
+     *
+     * @param body - the voice file content
+     * @return - filename of the saved voice file
+     * @throws DownloadVoiceFileException - exception in saving the voice file, or when it is neither mp3 nor wav
+     */
+    public static String storeVoiceFile(final InputStream body) throws DownloadVoiceFileException {
+        return storeVoiceFile(body, null);
+    }
+
+    /**
+     * Saves a voice file sent in the body of a request and digests its content on the way to the filesystem.
+     * The file is then linked to its content in the ContentStore.
+     *
+     * @param body   - the voice file content
+     * @param digest - digest updated with every byte of the voice file, may be null
+     * @return - filename of the saved voice file
+     * @throws DownloadVoiceFileException - exception in saving the voice file, or when it is neither mp3 nor wav
+     */
+    public static String storeVoiceFile(final InputStream body, final MessageDigest digest) throws DownloadVoiceFileException {
+        try {
+            byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+            int len = readFully(body, bytes, MAGIC_LENGTH);
+            String extension = getExtension(bytes, len);
+            if (extension == null) {
+                throw new DownloadVoiceFileException("Unsupported format of voice file, only wav and mp3 are accepted");
+            }
+
+            String fileName = UUID.randomUUID().toString() + extension;
+            File file = new File(DOWNLOAD_BASE_DIR + fileName);
+            // the digest of the caller is reused when it is already the content hash
+            MessageDigest contentDigest = digest != null && CONTENT_HASH_ALGORITHM.equals(digest.getAlgorithm())
+                    ? digest : newContentDigest();
+            try (OutputStream outputStream = new FileOutputStream(file)) {
+                do {
+                    outputStream.write(bytes, 0, len);
+                    RECEIVED_BYTES.add(len);
+                    contentDigest.update(bytes, 0, len);
+                    if (digest != null && digest != contentDigest) {
+                        digest.update(bytes, 0, len);
+                    }
+                } while ((len = body.read(bytes)) != -1);
+            } catch (IOException e) {
+                if (!file.delete()) {
+                    LOG.warn("Unable to delete partial voice file {}", file);
+                }
+                throw e;
+            }
+            ContentStore.deduplicate(file, AudioUtility.toHex(contentDigest == digest
+                    ? copyOf(digest).digest() : contentDigest.digest()));
+            return fileName;
+        } catch (DownloadVoiceFileException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new DownloadVoiceFileException("Unable to read voice file from request: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Recognizes a voice file from its first bytes
+     *
+     * @param magic  - the first bytes of the file
+     * @param length - the number of bytes available
+     * @return the file extension, null if the file is neither wav nor mp3
+     */
+    static String getExtension(final byte[] magic, final int length) {
+        if (length >= MAGIC_LENGTH && startsWith(magic, 0, "RIFF") && startsWith(magic, 8, "WAVE")) {
+            return ".wav";
+        }
+        // an ID3 tag or an MPEG audio frame sync
+        if (length >= 3 && startsWith(magic, 0, "ID3")
+                || length >= 2 && (magic[0] & 0xFF) == 0xFF && (magic[1] & 0xE0) == 0xE0) {
+            return ".mp3";
+        }
+        return null;
+    }
+
+    /**
+     * Compares bytes to an ASCII string
+     */
+    private static boolean startsWith(final byte[] bytes, final int offset, final String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[offset + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads until the given number of bytes or the end of the stream is reached
+     *
+     * @return the number of bytes read
+     */
+    private static int readFully(final InputStream in, final byte[] bytes, final int count) throws IOException {
+        int total = 0;
+        int len;
+        while (total < count && (len = in.read(bytes, total, count - total)) != -1) {
+            total += len;
+        }
+        return total;
+    }
+
     /**
      * Trust the certificate if the SSL certificate isn't trusted by Java.
      */
@@ -88,9 +232,41 @@ public final class VoiceAutomationServerUtils {
         }
     }
 
+    /**
+     * Returns the voice file of a url for /load: the file preloaded at startup if the url is in the preload manifest
+     * and its file is still there, or else a new download.
+     *
+     * @param url - url of the voice file
+     * @return - filename of the voice file
+     * @throws DownloadVoiceFileException - exception in downloading voice file
+     */
+    public static String loadVoiceFile(final String url) throws DownloadVoiceFileException {
+        String fileName = url == null ? null : PRELOADED.get(url);
+        if (fileName != null && new File(DOWNLOAD_BASE_DIR + fileName).isFile()) {
+            DOWNLOAD_CACHE_HITS.inc();
+            return fileName;
+        }
+        DOWNLOAD_CACHE_MISSES.inc();
+        return downloadVoiceFile(url);
+    }
+
+    /**
+     * Downloads the voice file of a url listed in the preload manifest, later loads of the url return it
+     *
+     * @param url - url of the voice file
+     * @return - filename of the voice file
+     * @throws DownloadVoiceFileException - exception in downloading voice file
+     */
+    public static String preloadVoiceFile(final String url) throws DownloadVoiceFileException {
+        String fileName = downloadVoiceFile(url);
+        PRELOADED.put(url, fileName);
+        return fileName;
+    }
+
     /**
      * Downloads the voice file from given url, and throws an exception if the download fails.
      * Only mp3 and wav format voices are accepted, and the voice will be saved on local filesystem.
+     * A url in the DownloadIndex is revalidated instead, its file is reused when the server answers 304.
      *
      * @param url - url of the voice file
      * @return - filename of the voice file if download succeeds else null
@@ -99,13 +275,16 @@ public final class VoiceAutomationServerUtils {
     public static String downloadVoiceFile(final String url) throws DownloadVoiceFileException {
         InputStream inputStream = null;
         OutputStream outputStream = null;
+        long downloadStart = System.nanoTime();
 
         trustCertificate();
+        DownloadIndex.Entry cached = DownloadIndex.get(url);
 
         try {
             URL u = new URL(url);
             HttpURLConnection connection = (HttpURLConnection) u.openConnection();
             connection.setRequestProperty("User-Agent", USER_AGENT);
+            setValidators(connection, cached);
 
             boolean redirect = false;
             int status = connection.getResponseCode();
@@ -124,7 +303,18 @@ public final class VoiceAutomationServerUtils {
                 connection = (HttpURLConnection) new URL(location).openConnection();
                 connection.setRequestProperty("Cookie", cookies);
                 connection.setRequestProperty("User-Agent", USER_AGENT);
+                setValidators(connection, cached);
                 LOG.info("Redirect to URL: " + location);
+                status = connection.getResponseCode();
+            }
+
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                DOWNLOAD_INDEX_HITS.inc();
+                DownloadIndex.touch(cached);
+                return cached.getFileName();
+            }
+            if (cached != null) {
+                DOWNLOAD_INDEX_MISSES.inc();
             }
 
             String contentType = connection.getHeaderField("Content-Type").toLowerCase();
@@ -139,17 +329,27 @@ public final class VoiceAutomationServerUtils {
             }
 
             String fileName = UUID.randomUUID().toString() + extension;
-            inputStream = new BufferedInputStream(connection.getInputStream());
+            MessageDigest digest = newContentDigest();
+            inputStream = new DigestInputStream(new BufferedInputStream(connection.getInputStream()), digest);
             outputStream = new FileOutputStream(DOWNLOAD_BASE_DIR + fileName);
 
             final int buffSize = 2048;  // buffer size set multiple of 1024 to make file system access efficient
             byte[] bytes = new byte[buffSize];
 
             int len;
+            long size = 0;
             while ((len = inputStream.read(bytes)) != -1) {
                 outputStream.write(bytes, 0, len);
+                DOWNLOADED_BYTES.add(len);
+                size += len;
             }
+            outputStream.close();
 
+            DOWNLOAD.recordSince(downloadStart);
+            String contentHash = AudioUtility.toHex(digest.digest());
+            ContentStore.deduplicate(new File(DOWNLOAD_BASE_DIR + fileName), contentHash);
+            DownloadIndex.put(new DownloadIndex.Entry(url, fileName, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), contentHash, size, contentType));
             return fileName;
 
         } catch (MalformedURLException | IndexOutOfBoundsException e) {
@@ -171,4 +371,49 @@ public final class VoiceAutomationServerUtils {
             }
         }
     }
+
+    /**
+     * Makes a download conditional on the content having changed since it was last downloaded
+     *
+     * @param connection - the connection, not yet connected
+     * @param cached     - the previous download of the url, may be null
+     */
+    private static void setValidators(final HttpURLConnection connection, final DownloadIndex.Entry cached) {
+        if (cached == null) {
+            return;
+        }
+        if (cached.getEtag() != null) {
+            connection.setRequestProperty("If-None-Match", cached.getEtag());
+        }
+        if (cached.getLastModified() != null) {
+            connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+        }
+    }
+
+    /**
+     * Creates the digest of the content hash
+     *
+     * @return a new SHA-256 digest
+     */
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(CONTENT_HASH_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Copies a digest, so its hash can be taken while its owner keeps it
+     *
+     * @param digest - the digest
+     * @return the copy
+     */
+    private static MessageDigest copyOf(final MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Unable to copy the " + digest.getAlgorithm() + " digest", e);
+        }
+    }
 }